@@ -0,0 +1,69 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib.bench;
+
+import brut.androlib.res.decoder.AXmlResourceParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iterates the events of every binary xml file under res/ of the app,
+ * reading names and raw attribute values without resolving references.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class AXmlResourceParserBenchmark {
+
+    @Setup
+    public void setUp() throws IOException {
+        mFiles = BenchmarkInputs.readEntries(BenchmarkInputs.APP_APK, "res/", ".xml")
+                .values().toArray(new byte[0][]);
+    }
+
+    @Benchmark
+    public void iterate(Blackhole blackhole) throws XmlPullParserException, IOException {
+        AXmlResourceParser parser = new AXmlResourceParser();
+        for (byte[] file : mFiles) {
+            parser.open(new ByteArrayInputStream(file));
+            int type;
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (type == XmlPullParser.START_TAG) {
+                    blackhole.consume(parser.getName());
+                    for (int i = 0, count = parser.getAttributeCount(); i < count; i++) {
+                        blackhole.consume(parser.getAttributeNamespace(i));
+                        blackhole.consume(parser.getAttributeNameResource(i));
+                        blackhole.consume(parser.getAttributeValue(i));
+                    }
+                } else if (type == XmlPullParser.TEXT) {
+                    blackhole.consume(parser.getText());
+                }
+            }
+            parser.close();
+        }
+    }
+
+    private byte[][] mFiles;
+}
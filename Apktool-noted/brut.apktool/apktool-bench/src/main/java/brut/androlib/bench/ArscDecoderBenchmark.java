@@ -0,0 +1,56 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib.bench;
+
+import brut.androlib.AndrolibException;
+import brut.androlib.res.decoder.ARSCDecoder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses a whole resources.arsc into a ResTable, as loading the main and
+ * the framework packages does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ArscDecoderBenchmark {
+    @Param({"app", "framework"})
+    public String table;
+
+    @Setup
+    public void setUp() throws IOException {
+        mArsc = BenchmarkInputs.readArsc(table);
+    }
+
+    @Benchmark
+    public ARSCDecoder.ARSCData decode() throws AndrolibException {
+        return ARSCDecoder.decode(new ByteArrayInputStream(mArsc), false, true);
+    }
+
+    @Benchmark
+    public ARSCDecoder.ARSCData decodeWithFlagsOffsets() throws AndrolibException {
+        return ARSCDecoder.decode(new ByteArrayInputStream(mArsc), true, true);
+    }
+
+    private byte[] mArsc;
+}
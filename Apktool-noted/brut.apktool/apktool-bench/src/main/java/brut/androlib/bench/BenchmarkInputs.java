@@ -0,0 +1,103 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib.bench;
+
+import brut.androlib.res.decoder.StringBlock;
+import brut.util.ExtDataInput;
+import com.google.common.io.LittleEndianDataInputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Inputs of the benchmarks, read from the apks of the functional tests and
+ * the framework apktool ships with.
+ */
+final class BenchmarkInputs {
+    final static String APP_APK = "/brut/apktool/issue767/issue767.apk";
+    final static String FRAMEWORK_JAR = "/brut/androlib/android-framework.jar";
+
+    /**
+     * @param table "app" or "framework"
+     */
+    static byte[] readArsc(String table) throws IOException {
+        return readEntry("framework".equals(table) ? FRAMEWORK_JAR : APP_APK, "resources.arsc");
+    }
+
+    static byte[] readEntry(String resource, String name) throws IOException {
+        Map<String, byte[]> entries = readEntries(resource, name, "");
+        if (! entries.containsKey(name)) {
+            throw new FileNotFoundException(name + " in " + resource);
+        }
+        return entries.get(name);
+    }
+
+    /**
+     * @return the entries of resource whose names start with prefix and end
+     *         with suffix, in the order they are stored
+     */
+    static Map<String, byte[]> readEntries(String resource, String prefix, String suffix) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        try (ZipInputStream in = new ZipInputStream(open(resource))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                String name = entry.getName();
+                if (! entry.isDirectory() && name.startsWith(prefix) && name.endsWith(suffix)) {
+                    entries.put(name, IOUtils.toByteArray(in));
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Reads the global string pool of a resources.arsc, which follows the
+     * 12 byte table header.
+     */
+    static StringBlock readTableStrings(byte[] arsc) throws IOException {
+        ExtDataInput in = new ExtDataInput((DataInput) new LittleEndianDataInputStream(new ByteArrayInputStream(arsc)));
+        in.skipBytes(12);
+        return StringBlock.read(in);
+    }
+
+    /**
+     * Copies resource to a temporary file, for the APIs that need one.
+     */
+    static File copyToTempFile(String resource) throws IOException {
+        File file = File.createTempFile("apktool-bench", resource.substring(resource.lastIndexOf('.')));
+        file.deleteOnExit();
+        try (InputStream in = open(resource)) {
+            FileUtils.copyInputStreamToFile(in, file);
+        }
+        return file;
+    }
+
+    private static InputStream open(String resource) throws IOException {
+        InputStream in = BenchmarkInputs.class.getResourceAsStream(resource);
+        if (in == null) {
+            throw new FileNotFoundException(resource);
+        }
+        return new BufferedInputStream(in);
+    }
+
+    private BenchmarkInputs() {
+    }
+}
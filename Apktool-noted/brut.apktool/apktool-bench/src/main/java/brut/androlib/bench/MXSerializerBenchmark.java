@@ -0,0 +1,63 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib.bench;
+
+import brut.androlib.Androlib;
+import brut.androlib.AndrolibException;
+import brut.androlib.res.AndrolibResources;
+import brut.androlib.res.data.ResPackage;
+import brut.androlib.res.data.ResValuesFile;
+import brut.androlib.res.util.ExtFile;
+import brut.androlib.res.util.ExtMXSerializer;
+import brut.directory.MemoryDirectory;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes all values/ xml files of the app through ExtMXSerializer, as
+ * decoding does after the table is loaded.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MXSerializerBenchmark {
+
+    @Setup
+    public void setUp() throws IOException, AndrolibException {
+        mPackage = new Androlib().getResTable(
+                new ExtFile(BenchmarkInputs.copyToTempFile(BenchmarkInputs.APP_APK)))
+                .listMainPackages().iterator().next();
+        mSerializer = mResources.getResXmlSerializer();
+    }
+
+    @Benchmark
+    public MemoryDirectory generateValuesFiles() throws AndrolibException {
+        MemoryDirectory out = new MemoryDirectory();
+        for (ResValuesFile valuesFile : mPackage.listValuesFiles()) {
+            mResources.generateValuesFile(valuesFile, out, mSerializer);
+        }
+        return out;
+    }
+
+    private final AndrolibResources mResources = new AndrolibResources();
+    private ResPackage mPackage;
+    private ExtMXSerializer mSerializer;
+}
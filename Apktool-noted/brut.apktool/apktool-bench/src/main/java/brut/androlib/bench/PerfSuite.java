@@ -0,0 +1,362 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib.bench;
+
+import brut.androlib.Androlib;
+import brut.androlib.ApkDecoder;
+import brut.androlib.ApkOptions;
+import brut.util.OS;
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * End-to-end performance regression check: builds a synthetic apk of the
+ * given scale, decodes it and builds the decoded project again, a few times
+ * each, and compares the medians of wall time, GC time and peak RSS with a
+ * baseline properties file.
+ *
+ * Exits with 1 when any metric got worse than the baseline by more than the
+ * threshold (and by more than a small absolute amount, so that noise on
+ * fast steps doesn't count), 2 on bad arguments. A missing baseline is
+ * written from the current run, as is an existing one with
+ * --update-baseline. Baselines are only comparable on the same machine and
+ * for the same scale; a baseline of another scale is refused.
+ *
+ * Peak RSS is VmHWM of /proc/self/status, reset before each step through
+ * /proc/self/clear_refs. Where that reset isn't allowed the value is the
+ * peak since the JVM started; elsewhere than Linux it is -1 and not
+ * compared.
+ */
+public class PerfSuite {
+    public static void main(String[] args) throws Exception {
+        PerfSuite suite = new PerfSuite();
+        try {
+            suite.parseArgs(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        System.exit(suite.run());
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--update-baseline")) {
+                mUpdateBaseline = true;
+                continue;
+            }
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value of " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--classes":
+                    mClasses = parseInt(arg, value);
+                    break;
+                case "--layouts":
+                    mLayouts = parseInt(arg, value);
+                    break;
+                case "--locales":
+                    mLocales = parseInt(arg, value);
+                    break;
+                case "--nine-patches":
+                    mNinePatches = parseInt(arg, value);
+                    break;
+                case "--assets":
+                    mAssets = parseInt(arg, value);
+                    break;
+                case "--warmup":
+                    mWarmup = parseInt(arg, value);
+                    break;
+                case "--iterations":
+                    mIterations = Math.max(1, parseInt(arg, value));
+                    break;
+                case "--threshold":
+                    mThreshold = parseInt(arg, value);
+                    break;
+                case "--baseline":
+                    mBaseline = new File(value);
+                    break;
+                case "--work-dir":
+                    mWorkDir = new File(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+    }
+
+    private static int parseInt(String option, String value) {
+        try {
+            int result = Integer.parseInt(value);
+            if (result >= 0) {
+                return result;
+            }
+        } catch (NumberFormatException ex) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid value of " + option + ": " + value);
+    }
+
+    private int run() throws Exception {
+        // apktool logs every file it decodes
+        Logger.getLogger("").setLevel(Level.WARNING);
+
+        final SyntheticApk synthetic = new SyntheticApk(mClasses, mLayouts, mLocales, mNinePatches, mAssets);
+        boolean tmpWorkDir = mWorkDir == null;
+        File workDir = tmpWorkDir ? OS.createTempDirectory() : mWorkDir;
+        try {
+            final File projectDir = new File(workDir, "project");
+            final File apk = new File(workDir, "synthetic.apk");
+            final File decodedDir = new File(workDir, "decoded");
+            final File rebuiltApk = new File(workDir, "rebuilt.apk");
+            synthetic.writeProject(projectDir);
+            System.out.println("scale: " + synthetic.getScale());
+
+            Step build = new Step("build") {
+                @Override
+                void run() throws Exception {
+                    FileUtils.deleteDirectory(new File(projectDir, "build"));
+                    synthetic.build(projectDir, apk);
+                }
+            };
+            Step decode = new Step("decode") {
+                @Override
+                void run() throws Exception {
+                    ApkDecoder decoder = new ApkDecoder(apk);
+                    decoder.setForceDelete(true);
+                    decoder.setOutDir(decodedDir);
+                    decoder.decode();
+                }
+            };
+            Step rebuild = new Step("rebuild") {
+                @Override
+                void run() throws Exception {
+                    new Androlib(new ApkOptions()).build(decodedDir, rebuiltApk);
+                }
+            };
+            List<Step> steps = Arrays.asList(build, decode, rebuild);
+
+            for (int i = 0; i < mWarmup + mIterations; i++) {
+                for (Step step : steps) {
+                    step.measure(i >= mWarmup);
+                }
+            }
+            // throughput is of the apk each step reads or writes
+            build.mBytes = apk.length();
+            decode.mBytes = apk.length();
+            rebuild.mBytes = rebuiltApk.length();
+
+            Properties current = new Properties();
+            current.setProperty(SCALE, synthetic.getScale());
+            for (Step step : steps) {
+                step.report(current);
+            }
+            return compare(current);
+        } finally {
+            if (tmpWorkDir) {
+                OS.rmdir(workDir);
+            }
+        }
+    }
+
+    private int compare(Properties current) throws IOException {
+        if (mBaseline == null) {
+            printTable(null, current);
+            return 0;
+        }
+        if (! mBaseline.isFile() || mUpdateBaseline) {
+            printTable(null, current);
+            try (OutputStream out = new FileOutputStream(mBaseline)) {
+                current.store(out, "apktool perf baseline");
+            }
+            System.out.println("Baseline written to: " + mBaseline);
+            return 0;
+        }
+
+        Properties baseline = new Properties();
+        try (InputStream in = new FileInputStream(mBaseline)) {
+            baseline.load(in);
+        }
+        if (! current.getProperty(SCALE).equals(baseline.getProperty(SCALE))) {
+            System.err.println("Baseline " + mBaseline + " was recorded for scale: " + baseline.getProperty(SCALE));
+            return 2;
+        }
+        boolean regressed = printTable(baseline, current);
+        System.out.println(regressed
+                ? "FAILED: regression over " + mThreshold + "% against " + mBaseline
+                : "OK: within " + mThreshold + "% of " + mBaseline);
+        return regressed ? 1 : 0;
+    }
+
+    /**
+     * @return whether any metric regressed against baseline
+     */
+    private boolean printTable(Properties baseline, Properties current) {
+        String format = "%-28s %12s %12s %9s%n";
+        System.out.printf(format, "metric", "baseline", "current", "change");
+        boolean regressed = false;
+        for (String key : new TreeSet<String>(current.stringPropertyNames())) {
+            if (key.equals(SCALE)) {
+                continue;
+            }
+            long value = Long.parseLong(current.getProperty(key));
+            String base = baseline == null ? null : baseline.getProperty(key);
+            if (base == null) {
+                System.out.printf(format, key, "-", value, "");
+                continue;
+            }
+            long baseValue = Long.parseLong(base);
+            String change = "";
+            if (baseValue > 0 && value >= 0) {
+                change = String.format("%+.1f%%", (value - baseValue) * 100.0 / baseValue);
+                if (isRegression(key, baseValue, value)) {
+                    change += " !";
+                    regressed = true;
+                }
+            }
+            System.out.printf(format, key, baseValue, value, change);
+        }
+        return regressed;
+    }
+
+    private boolean isRegression(String key, long baseline, long current) {
+        // throughput regresses downwards, everything else upwards
+        boolean higherIsBetter = key.endsWith(".kb_per_s");
+        long worse = higherIsBetter ? baseline - current : current - baseline;
+        long floor = key.endsWith(".peak_rss_mb") ? RSS_FLOOR_MB
+                : key.endsWith(".kb_per_s") ? 0 : TIME_FLOOR_MS;
+        return worse > floor && worse * 100 > baseline * mThreshold;
+    }
+
+    private static long getGcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private static void resetPeakRss() {
+        File clearRefs = new File("/proc/self/clear_refs");
+        if (! clearRefs.exists()) {
+            return;
+        }
+        try (Writer out = new FileWriter(clearRefs)) {
+            out.write("5");
+        } catch (IOException ex) {
+            // not allowed here, the peak is then the one since start
+        }
+    }
+
+    /**
+     * @return VmHWM of /proc/self/status in MB, or -1
+     */
+    private static long readPeakRssMb() {
+        File status = new File("/proc/self/status");
+        if (! status.canRead()) {
+            return -1;
+        }
+        try (BufferedReader in = new BufferedReader(new FileReader(status))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.substring(6).replace("kB", "").trim()) / 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException ex) {
+            return -1;
+        }
+        return -1;
+    }
+
+    private static long median(List<Long> values) {
+        List<Long> sorted = new ArrayList<Long>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+
+    private abstract static class Step {
+        Step(String name) {
+            mName = name;
+        }
+
+        abstract void run() throws Exception;
+
+        void measure(boolean record) throws Exception {
+            System.gc();
+            resetPeakRss();
+            long gcMillis = getGcMillis();
+            long start = System.nanoTime();
+            run();
+            long wallMillis = (System.nanoTime() - start) / 1000000;
+            gcMillis = getGcMillis() - gcMillis;
+            long peakRss = readPeakRssMb();
+            if (record) {
+                mWallMillis.add(wallMillis);
+                mGcMillis.add(gcMillis);
+                mPeakRssMb = Math.max(mPeakRssMb, peakRss);
+            }
+            System.out.printf("%-8s %s %6d ms, gc %5d ms, peak RSS %5d MB%n", mName,
+                    record ? "      " : "warmup", wallMillis, gcMillis, peakRss);
+        }
+
+        void report(Properties out) {
+            long wallMillis = median(mWallMillis);
+            out.setProperty(mName + ".wall_ms", String.valueOf(wallMillis));
+            out.setProperty(mName + ".gc_ms", String.valueOf(median(mGcMillis)));
+            out.setProperty(mName + ".kb_per_s", String.valueOf(mBytes * 1000 / 1024 / Math.max(1, wallMillis)));
+            if (mPeakRssMb >= 0) {
+                out.setProperty(mName + ".peak_rss_mb", String.valueOf(mPeakRssMb));
+            }
+        }
+
+        final String mName;
+        final List<Long> mWallMillis = new ArrayList<Long>();
+        final List<Long> mGcMillis = new ArrayList<Long>();
+        long mPeakRssMb = -1;
+        long mBytes;
+    }
+
+    private int mClasses = 2000;
+    private int mLayouts = 200;
+    private int mLocales = 20;
+    private int mNinePatches = 50;
+    private int mAssets = 100;
+    private int mWarmup = 1;
+    private int mIterations = 3;
+    private int mThreshold = 15;
+    private File mBaseline;
+    private File mWorkDir;
+    private boolean mUpdateBaseline;
+
+    private final static String SCALE = "scale";
+    private final static long TIME_FLOOR_MS = 50;
+    private final static long RSS_FLOOR_MB = 16;
+
+    private final static String USAGE = "Usage: PerfSuite [--classes N] [--layouts N] [--locales N]"
+            + " [--nine-patches N] [--assets N]\n"
+            + "                 [--warmup N] [--iterations N] [--threshold PERCENT]"
+            + " [--baseline FILE [--update-baseline]] [--work-dir DIR]";
+}
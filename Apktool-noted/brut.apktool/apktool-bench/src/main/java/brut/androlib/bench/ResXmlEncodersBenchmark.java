@@ -0,0 +1,76 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib.bench;
+
+import brut.androlib.res.decoder.StringBlock;
+import brut.androlib.res.xml.ResXmlEncoders;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes every string of the app's resource table the way values xml
+ * files and attributes are written.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ResXmlEncodersBenchmark {
+
+    @Setup
+    public void setUp() throws IOException {
+        StringBlock strings = BenchmarkInputs.readTableStrings(BenchmarkInputs.readArsc("app"));
+        mStrings = new String[strings.getCount()];
+        for (int i = 0; i < mStrings.length; i++) {
+            mStrings[i] = strings.getString(i);
+        }
+    }
+
+    @Benchmark
+    public void encodeAsXmlValue(Blackhole blackhole) {
+        for (String string : mStrings) {
+            blackhole.consume(ResXmlEncoders.encodeAsXmlValue(string));
+        }
+    }
+
+    @Benchmark
+    public void encodeAsResXmlAttr(Blackhole blackhole) {
+        for (String string : mStrings) {
+            blackhole.consume(ResXmlEncoders.encodeAsResXmlAttr(string));
+        }
+    }
+
+    @Benchmark
+    public void escapeXmlChars(Blackhole blackhole) {
+        for (String string : mStrings) {
+            blackhole.consume(ResXmlEncoders.escapeXmlChars(string));
+        }
+    }
+
+    @Benchmark
+    public void enumerateNonPositionalSubstitutions(Blackhole blackhole) {
+        for (String string : mStrings) {
+            blackhole.consume(ResXmlEncoders.enumerateNonPositionalSubstitutionsIfRequired(string));
+        }
+    }
+
+    private String[] mStrings;
+}
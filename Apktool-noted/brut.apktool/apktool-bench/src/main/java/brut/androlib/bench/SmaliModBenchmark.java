@@ -0,0 +1,84 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib.bench;
+
+import brut.androlib.AndrolibException;
+import brut.androlib.mod.SmaliMod;
+import brut.androlib.src.SmaliDecoder;
+import org.antlr.runtime.RecognitionException;
+import org.apache.commons.io.FileUtils;
+import org.jf.dexlib2.DexFileFactory;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.writer.builder.DexBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Assembles smali files into a dex builder, as SmaliBuilder does on build.
+ * The files are disassembled from the first classes of the app's dex.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SmaliModBenchmark {
+    @Param({"200"})
+    public int classes;
+
+    @Setup
+    public void setUp() throws IOException, AndrolibException {
+        File apk = BenchmarkInputs.copyToTempFile(BenchmarkInputs.APP_APK);
+        mSmaliDir = new File(apk.getPath() + ".smali");
+        mFiles = new ArrayList<File>();
+        for (ClassDef classDef : DexFileFactory.loadDexFile(apk, "classes.dex", 15, false).getClasses()) {
+            if (mFiles.size() == classes) {
+                break;
+            }
+            StringWriter smali = new StringWriter();
+            SmaliDecoder.decodeClass(classDef, true, smali);
+            File file = new File(mSmaliDir, mFiles.size() + ".smali");
+            FileUtils.writeStringToFile(file, smali.toString(), "UTF-8");
+            mFiles.add(file);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(mSmaliDir);
+    }
+
+    @Benchmark
+    public DexBuilder assemble() throws IOException, RecognitionException {
+        DexBuilder dexBuilder = DexBuilder.makeDexBuilder();
+        for (File file : mFiles) {
+            if (! SmaliMod.assembleSmaliFile(file, dexBuilder, false, false)) {
+                throw new IllegalStateException("Could not assemble " + file);
+            }
+        }
+        return dexBuilder;
+    }
+
+    private File mSmaliDir;
+    private List<File> mFiles;
+}
@@ -0,0 +1,58 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib.bench;
+
+import brut.androlib.res.decoder.StringBlock;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes every string of the global string pool of a resources.arsc.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class StringBlockBenchmark {
+    @Param({"app", "framework"})
+    public String table;
+
+    @Setup
+    public void setUp() throws IOException {
+        mStrings = BenchmarkInputs.readTableStrings(BenchmarkInputs.readArsc(table));
+    }
+
+    @Benchmark
+    public void getString(Blackhole blackhole) {
+        for (int i = 0, count = mStrings.getCount(); i < count; i++) {
+            blackhole.consume(mStrings.getString(i));
+        }
+    }
+
+    @Benchmark
+    public void getHTML(Blackhole blackhole) {
+        for (int i = 0, count = mStrings.getCount(); i < count; i++) {
+            blackhole.consume(mStrings.getHTML(i));
+        }
+    }
+
+    private StringBlock mStrings;
+}
@@ -0,0 +1,248 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib.bench;
+
+import brut.androlib.Androlib;
+import brut.androlib.ApkOptions;
+import brut.androlib.meta.MetaInfo;
+import brut.androlib.meta.UsesFramework;
+import brut.androlib.meta.VersionInfo;
+import brut.common.BrutException;
+import org.apache.commons.io.FileUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates the project of an apk of a given scale, as a decode would have
+ * left it, and builds it with Androlib. The content only depends on the
+ * scale, so apks of the same scale are comparable between runs.
+ */
+public class SyntheticApk {
+    public final static String PACKAGE = "brut.apktool.synthetic";
+
+    public SyntheticApk(int classes, int layouts, int locales, int ninePatches, int assets) {
+        mClasses = classes;
+        mLayouts = layouts;
+        mLocales = Math.min(locales, LOCALES.length);
+        mNinePatches = ninePatches;
+        mAssets = assets;
+    }
+
+    /**
+     * @return the scale as "classes=..,layouts=..,locales=..,nine-patches=..,assets=.."
+     */
+    public String getScale() {
+        return "classes=" + mClasses + ",layouts=" + mLayouts + ",locales=" + mLocales
+                + ",nine-patches=" + mNinePatches + ",assets=" + mAssets;
+    }
+
+    public void writeProject(File dir) throws IOException {
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+        Random random = new Random(0);
+
+        write(new File(dir, "AndroidManifest.xml"), "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+                + "<manifest xmlns:android=\"http://schemas.android.com/apk/res/android\" package=\"" + PACKAGE + "\">\n"
+                + "    <application android:label=\"@string/app_name\" android:icon=\"@drawable/patch_0\" />\n"
+                + "</manifest>\n");
+
+        writeMetaFile(dir);
+        writeValues(dir);
+        for (int i = 0; i < mLayouts; i++) {
+            writeLayout(dir, i);
+        }
+        // the manifest refers to the first one
+        for (int i = 0; i < Math.max(mNinePatches, 1); i++) {
+            writeNinePatch(dir, i, random);
+        }
+        for (int i = 0; i < mAssets; i++) {
+            writeAsset(dir, i, random);
+        }
+        for (int i = 0; i < mClasses; i++) {
+            writeClass(dir, i);
+        }
+    }
+
+    public void build(File projectDir, File apkFile) throws BrutException {
+        new Androlib(new ApkOptions()).build(projectDir, apkFile);
+    }
+
+    private void writeMetaFile(File dir) throws IOException {
+        MetaInfo meta = new MetaInfo();
+        meta.version = "2.0.0";
+        meta.apkFileName = "synthetic.apk";
+        meta.usesFramework = new UsesFramework();
+        meta.usesFramework.ids = Arrays.asList(1);
+        meta.versionInfo = new VersionInfo();
+        meta.versionInfo.versionCode = "1";
+        meta.versionInfo.versionName = "1.0";
+        meta.save(new File(dir, "apktool.yml"));
+    }
+
+    private void writeValues(File dir) throws IOException {
+        int strings = getStringCount();
+        StringBuilder values = new StringBuilder(RESOURCES_START);
+        values.append("    <string name=\"app_name\">Synthetic</string>\n");
+        for (int i = 0; i < strings; i++) {
+            values.append("    <string name=\"string_").append(i).append("\">String ").append(i)
+                    .append(" with a %1$s placeholder &amp; some \\\"quotes\\\"</string>\n");
+        }
+        for (int i = 0; i < COLORS; i++) {
+            values.append("    <color name=\"color_").append(i).append("\">#ff")
+                    .append(String.format("%06x", i * 0x010203 & 0xffffff)).append("</color>\n");
+            values.append("    <dimen name=\"dimen_").append(i).append("\">").append(i + 1).append("dp</dimen>\n");
+        }
+        values.append("    <style name=\"Style_0\">\n")
+                .append("        <item name=\"android:textColor\">@color/color_0</item>\n")
+                .append("        <item name=\"android:textSize\">@dimen/dimen_1</item>\n")
+                .append("    </style>\n");
+        values.append(RESOURCES_END);
+        write(new File(dir, "res/values/values.xml"), values.toString());
+
+        for (int l = 0; l < mLocales; l++) {
+            StringBuilder localized = new StringBuilder(RESOURCES_START);
+            for (int i = 0; i < strings; i++) {
+                localized.append("    <string name=\"string_").append(i).append("\">[").append(LOCALES[l])
+                        .append("] Chaîne ").append(i).append(" %1$s</string>\n");
+            }
+            localized.append(RESOURCES_END);
+            write(new File(dir, "res/values-" + LOCALES[l] + "/strings.xml"), localized.toString());
+        }
+    }
+
+    private int getStringCount() {
+        return 50 + mLayouts * VIEWS_PER_LAYOUT;
+    }
+
+    private void writeLayout(File dir, int index) throws IOException {
+        StringBuilder layout = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+                + "<LinearLayout android:orientation=\"vertical\" android:layout_width=\"match_parent\""
+                + " android:layout_height=\"match_parent\""
+                + " xmlns:android=\"http://schemas.android.com/apk/res/android\">\n");
+        for (int i = 0; i < VIEWS_PER_LAYOUT; i++) {
+            int item = index * VIEWS_PER_LAYOUT + i;
+            layout.append("    <TextView android:id=\"@+id/text_").append(item).append("\"")
+                    .append(" android:layout_width=\"wrap_content\" android:layout_height=\"wrap_content\"")
+                    .append(" android:padding=\"@dimen/dimen_").append(item % COLORS).append("\"")
+                    .append(" android:text=\"@string/string_").append(item).append("\"")
+                    .append(" android:textColor=\"@color/color_").append(item % COLORS).append("\"")
+                    .append(" style=\"@style/Style_0\" />\n");
+        }
+        layout.append("</LinearLayout>\n");
+        write(new File(dir, "res/layout/layout_" + index + ".xml"), layout.toString());
+    }
+
+    /**
+     * Writes a 9-patch in source form: a 1 pixel border with black marks
+     * for the stretchable area on top and left, and the padding on the
+     * right and bottom.
+     */
+    private void writeNinePatch(File dir, int index, Random random) throws IOException {
+        int width = 16 + index % 16;
+        int height = 16 + index % 8;
+        BufferedImage image = new BufferedImage(width + 2, height + 2, BufferedImage.TYPE_INT_ARGB);
+        int color = 0xff000000 | random.nextInt(0x1000000);
+        for (int y = 1; y <= height; y++) {
+            for (int x = 1; x <= width; x++) {
+                image.setRGB(x, y, color);
+            }
+        }
+        for (int x = width / 4; x < width * 3 / 4; x++) {
+            image.setRGB(x + 1, 0, 0xff000000);
+            image.setRGB(x + 1, height + 1, 0xff000000);
+        }
+        for (int y = height / 4; y < height * 3 / 4; y++) {
+            image.setRGB(0, y + 1, 0xff000000);
+            image.setRGB(width + 1, y + 1, 0xff000000);
+        }
+        File file = new File(dir, "res/drawable/patch_" + index + ".9.png");
+        file.getParentFile().mkdirs();
+        ImageIO.write(image, "png", file);
+    }
+
+    private void writeAsset(File dir, int index, Random random) throws IOException {
+        // half text that compresses well, half random bytes that don't
+        byte[] data = new byte[ASSET_SIZE];
+        for (int i = 0; i < data.length / 2; i++) {
+            data[i] = (byte) ('a' + i % 26);
+        }
+        byte[] noise = new byte[data.length - data.length / 2];
+        random.nextBytes(noise);
+        System.arraycopy(noise, 0, data, data.length / 2, noise.length);
+        FileUtils.writeByteArrayToFile(new File(dir, "assets/data/asset_" + index + ".bin"), data);
+    }
+
+    private void writeClass(File dir, int index) throws IOException {
+        String type = "L" + PACKAGE.replace('.', '/') + "/Class" + index + ";";
+        StringBuilder smali = new StringBuilder();
+        smali.append(".class public ").append(type).append("\n")
+                .append(".super Ljava/lang/Object;\n\n")
+                .append(".field private mValue:I\n\n")
+                .append(".field private static final NAME:Ljava/lang/String; = \"Class").append(index).append("\"\n\n")
+                .append(".method public constructor <init>()V\n")
+                .append("    .registers 1\n\n")
+                .append("    invoke-direct {p0}, Ljava/lang/Object;-><init>()V\n\n")
+                .append("    return-void\n")
+                .append(".end method\n");
+        for (int m = 0; m < METHODS_PER_CLASS; m++) {
+            smali.append("\n.method public compute").append(m).append("(I)I\n")
+                    .append("    .registers 4\n\n")
+                    .append("    iget v0, p0, ").append(type).append("->mValue:I\n\n")
+                    .append("    add-int/lit8 v1, p1, ").append(m + 1).append("\n\n")
+                    .append("    mul-int v0, v0, v1\n\n")
+                    .append("    if-lez v0, :cond_0\n\n")
+                    .append("    const-string v2, \"compute").append(m).append(" of class ").append(index).append("\"\n\n")
+                    .append("    invoke-virtual {v2}, Ljava/lang/String;->length()I\n\n")
+                    .append("    move-result v2\n\n")
+                    .append("    add-int/2addr v0, v2\n\n")
+                    .append("    :cond_0\n")
+                    .append("    iput v0, p0, ").append(type).append("->mValue:I\n\n")
+                    .append("    return v0\n")
+                    .append(".end method\n");
+        }
+        write(new File(dir, "smali/" + PACKAGE.replace('.', '/') + "/Class" + index + ".smali"), smali.toString());
+    }
+
+    private static void write(File file, String content) throws IOException {
+        FileUtils.writeStringToFile(file, content, "UTF-8");
+    }
+
+    private final int mClasses;
+    private final int mLayouts;
+    private final int mLocales;
+    private final int mNinePatches;
+    private final int mAssets;
+
+    private final static int VIEWS_PER_LAYOUT = 8;
+    private final static int METHODS_PER_CLASS = 6;
+    private final static int COLORS = 32;
+    private final static int ASSET_SIZE = 16 * 1024;
+
+    private final static String RESOURCES_START = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<resources>\n";
+    private final static String RESOURCES_END = "</resources>\n";
+
+    private final static String[] LOCALES = new String[] {
+            "af", "ar", "bg", "ca", "cs", "da", "de", "el", "en-rGB", "es", "es-rUS", "et", "fa", "fi",
+            "fr", "fr-rCA", "hi", "hr", "hu", "in", "it", "iw", "ja", "ko", "lt", "lv", "ms", "nb",
+            "nl", "pl", "pt", "pt-rBR", "ro", "ru", "sk", "sl", "sr", "sv", "sw", "th", "tl", "tr",
+            "uk", "vi", "zh-rCN", "zh-rHK", "zh-rTW", "zu"
+    };
+}
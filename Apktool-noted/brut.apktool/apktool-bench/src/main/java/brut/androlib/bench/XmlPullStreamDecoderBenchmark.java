@@ -0,0 +1,74 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib.bench;
+
+import brut.androlib.Androlib;
+import brut.androlib.AndrolibException;
+import brut.androlib.res.AndrolibResources;
+import brut.androlib.res.data.ResTable;
+import brut.androlib.res.decoder.AXmlResourceParser;
+import brut.androlib.res.decoder.ResAttrDecoder;
+import brut.androlib.res.decoder.XmlPullStreamDecoder;
+import brut.androlib.res.util.ExtFile;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes every binary xml file under res/ of the app to text xml, with
+ * references resolved against its resource table and the framework, the
+ * way file-resources are decoded.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class XmlPullStreamDecoderBenchmark {
+
+    @Setup
+    public void setUp() throws IOException, AndrolibException {
+        mFiles = BenchmarkInputs.readEntries(BenchmarkInputs.APP_APK, "res/", ".xml")
+                .values().toArray(new byte[0][]);
+
+        ResTable resTable = new Androlib().getResTable(
+                new ExtFile(BenchmarkInputs.copyToTempFile(BenchmarkInputs.APP_APK)));
+        AndrolibResources resources = new AndrolibResources();
+        AXmlResourceParser parser = new AXmlResourceParser();
+        parser.setAttrDecoder(new ResAttrDecoder());
+        parser.getAttrDecoder().setCurrentPackage(resTable.listMainPackages().iterator().next());
+        mDecoder = new XmlPullStreamDecoder(parser, resources.getResXmlSerializer());
+    }
+
+    @Benchmark
+    public int decode() throws AndrolibException {
+        int size = 0;
+        for (byte[] file : mFiles) {
+            mOut.reset();
+            mDecoder.decode(new ByteArrayInputStream(file), mOut);
+            size += mOut.size();
+        }
+        return size;
+    }
+
+    private byte[][] mFiles;
+    private XmlPullStreamDecoder mDecoder;
+    private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+}
@@ -20,13 +20,20 @@ import brut.androlib.*;
 import brut.androlib.err.CantFindFrameworkResException;
 import brut.androlib.err.InFileNotFoundException;
 import brut.androlib.err.OutDirExistsException;
+import brut.androlib.res.ResFilter;
+import brut.androlib.res.ResTableExporter;
+import brut.androlib.res.util.ExtFile;
+import brut.androlib.src.ClassFilter;
 import brut.common.BrutException;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.*;
 
 import brut.directory.DirectoryException;
+import brut.directory.MemoryDirectory;
+import brut.directory.ZipOutputDirectory;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.HelpFormatter;
@@ -35,6 +42,8 @@ import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PosixParser;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 
 /**
  * @author Ryszard Wiśniewski <brut.alll@gmail.com>
@@ -89,6 +98,12 @@ public class Main {
             } else if (opt.equalsIgnoreCase("publicize-resources")) {
                 cmdPublicizeResources(commandLine);//处理arsc文件
                 cmdFound = true;
+            } else if (opt.equalsIgnoreCase("manifest")) {
+                cmdManifest(commandLine);
+                cmdFound = true;
+            } else if (opt.equalsIgnoreCase("dump-resources")) {
+                cmdDumpResources(commandLine);
+                cmdFound = true;
             }
         }
 
@@ -108,6 +123,7 @@ public class Main {
         int paraCount = cli.getArgList().size();
         String apkName = (String) cli.getArgList().get(paraCount - 1);
         File outDir = null;
+        boolean zipOutput = cli.hasOption("zip");
 
         // check for options
         if (cli.hasOption("s") || cli.hasOption("no-src")) { //没有src资源，所以设置为NONE
@@ -141,6 +157,46 @@ public class Main {
         if (cli.hasOption("api")) {
             decoder.setApi(Integer.parseInt(cli.getOptionValue("api"))); //改变编译版本api
         }
+        if (cli.hasOption("j") || cli.hasOption("jobs")) {
+            decoder.setJobs(Integer.parseInt(cli.getOptionValue("j")));
+        }
+        if (cli.hasOption("res-type") || cli.hasOption("res-config") || cli.hasOption("res-path")) {
+            ResFilter filter = new ResFilter();
+            for (String type : splitList(cli.getOptionValue("res-type"))) {
+                filter.addType(type);
+            }
+            for (String config : splitList(cli.getOptionValue("res-config"))) {
+                filter.addConfig(config);
+            }
+            for (String path : splitList(cli.getOptionValue("res-path"))) {
+                filter.addPath(path);
+            }
+            decoder.setResourceFilter(filter);
+        }
+        if (cli.hasOption("include-classes") || cli.hasOption("exclude-classes")) {
+            ClassFilter filter = new ClassFilter();
+            for (String pattern : splitList(cli.getOptionValue("include-classes"))) {
+                filter.addInclude(pattern);
+            }
+            for (String pattern : splitList(cli.getOptionValue("exclude-classes"))) {
+                filter.addExclude(pattern);
+            }
+            decoder.setClassFilter(filter);
+        }
+        if (cli.hasOption("smali-cache")) {
+            decoder.setSmaliCacheDir(cli.getOptionValue("smali-cache"));
+        }
+        if (cli.hasOption("previous")) {
+            decoder.setPreviousDecode(new File(cli.getOptionValue("previous")));
+        }
+        if (cli.hasOption("memory-budget")) {
+            decoder.setMemoryBudget(parseSize(cli.getOptionValue("memory-budget")));
+        }
+        Profiler profiler = null;
+        if (cli.hasOption("profile")) {
+            profiler = new Profiler();
+            decoder.setProfiler(profiler);
+        }
         if (cli.hasOption("o") || cli.hasOption("output")) {  //自定义输出文件
             outDir = new File(cli.getOptionValue("o"));
             decoder.setOutDir(outDir);
@@ -148,8 +204,15 @@ public class Main {
             //系统定义输出文件
             // make out folder manually using name of apk
             String outName = apkName;
-            outName = outName.endsWith(".apk") ? outName.substring(0,
-                    outName.length() - 4).trim() : outName + ".out";
+            if (outName.endsWith(".apks")) {
+                outName = outName.substring(0, outName.length() - 5).trim();
+            } else {
+                outName = outName.endsWith(".apk") ? outName.substring(0,
+                        outName.length() - 4).trim() : outName + ".out";
+            }
+            if (zipOutput) {
+                outName += ".zip";
+            }
 
             // make file from path
             outName = new File(outName).getName();
@@ -157,10 +220,47 @@ public class Main {
             decoder.setOutDir(outDir);
         }
 
-        decoder.setApkFile(new File(apkName)); //decoder初始化，包括上面的选项
+        if (apkName.endsWith(".apks")) {
+            decoder.setApkSet(new File(apkName));
+        } else {
+            decoder.setApkFile(new File(apkName)); //decoder初始化，包括上面的选项
+        }
+        if (cli.hasOption("splits")) {
+            List<File> splits = new ArrayList<File>();
+            for (String split : splitList(cli.getOptionValue("splits"))) {
+                splits.add(new File(split));
+            }
+            decoder.setSplitApks(splits);
+        }
 
+        ZipOutputDirectory zipOut = null;
         try {
-            decoder.decode(); //正式解包，反编译关键的地方，需跟进去
+            if (zipOutput) {
+                if (outDir.exists() && ! (cli.hasOption("f") || cli.hasOption("force"))) {
+                    throw new OutDirExistsException();
+                }
+                zipOut = new ZipOutputDirectory(outDir);
+                decoder.setOutput(zipOut);
+            }
+            boolean decoded = false;
+            try {
+                decoder.decode(); //正式解包，反编译关键的地方，需跟进去
+                decoded = true;
+            } finally {
+                // runs before the handlers below, which exit without unwinding
+                if (zipOut != null) {
+                    if (decoded) {
+                        zipOut.close();
+                    } else {
+                        // a truncated archive would make the next run demand -f
+                        IOUtils.closeQuietly(zipOut);
+                        outDir.delete();
+                    }
+                }
+            }
+            if (profiler != null) {
+                writeProfile(profiler, cli.getOptionValue("profile"));
+            }
         } catch (OutDirExistsException ex) {//以下是经常出现异常或错误的地方
             System.err
                     .println("Destination directory ("
@@ -188,6 +288,41 @@ public class Main {
 
     }
 
+    private static List<String> splitList(String value) {
+        List<String> items = new ArrayList<String>();
+        if (value != null) {
+            for (String item : value.split(",")) {
+                if (! item.trim().isEmpty()) {
+                    items.add(item.trim());
+                }
+            }
+        }
+        return items;
+    }
+
+    /**
+     * @param value bytes, or a number followed by k, m or g
+     */
+    private static long parseSize(String value) throws AndrolibException {
+        String number = value.trim().toLowerCase();
+        long unit = 1;
+        if (number.endsWith("k")) {
+            unit = 1024;
+        } else if (number.endsWith("m")) {
+            unit = 1024 * 1024;
+        } else if (number.endsWith("g")) {
+            unit = 1024 * 1024 * 1024;
+        }
+        if (unit != 1) {
+            number = number.substring(0, number.length() - 1);
+        }
+        try {
+            return Long.parseLong(number) * unit;
+        } catch (NumberFormatException ex) {
+            throw new AndrolibException("Invalid size: " + value);
+        }
+    }
+
     private static void cmdBuild(CommandLine cli) throws BrutException {//回编译
         String[] args = cli.getArgs();
         String appDirName = args.length < 2 ? "." : args[1];
@@ -220,9 +355,23 @@ public class Main {
         } else {
             outFile = null;
         }
+        if (cli.hasOption("j") || cli.hasOption("jobs")) {
+            apkOptions.jobs = Integer.parseInt(cli.getOptionValue("j"));
+        }
+        if (cli.hasOption("profile")) {
+            apkOptions.profiler = new Profiler();
+        }
 
         // try and build apk
         new Androlib(apkOptions).build(new File(appDirName), outFile);//回编译关键的地方，可跟进去学习
+        if (apkOptions.profiler != null) {
+            writeProfile(apkOptions.profiler, cli.getOptionValue("profile"));
+        }
+    }
+
+    private static void writeProfile(Profiler profiler, String fileName) throws AndrolibException {
+        profiler.printTable(System.out);
+        profiler.writeJson(new File(fileName));
     }
 
     private static void cmdInstallFramework(CommandLine cli)
@@ -248,6 +397,105 @@ public class Main {
         new Androlib().publicizeResources(new File(apkName)); //处理arsc的,一直跟进去就好
     }
 
+    private static void cmdManifest(CommandLine cli) throws AndrolibException {
+        List<String> apkNames = new ArrayList<String>();
+        for (String arg : cli.getArgs()) {
+            apkNames.add(arg);
+        }
+        // drop the command itself
+        apkNames.remove(0);
+        if (apkNames.isEmpty()) {
+            throw new InFileNotFoundException();
+        }
+
+        ApkOptions apkOptions = new ApkOptions();
+        if (cli.hasOption("p") || cli.hasOption("frame-path")) {
+            apkOptions.frameworkFolderLocation = cli.getOptionValue("p");
+        }
+        if (cli.hasOption("t") || cli.hasOption("frame-tag")) {
+            apkOptions.frameworkTag = cli.getOptionValue("t");
+        }
+        File output = null;
+        if (cli.hasOption("o") || cli.hasOption("output")) {
+            output = new File(cli.getOptionValue("o"));
+            if (apkNames.size() > 1) {
+                output.mkdirs();
+            }
+        }
+
+        // one Androlib for all apks, so the framework is only indexed once
+        Androlib androlib = new Androlib(apkOptions);
+        for (String apkName : apkNames) {
+            File target = output == null || apkNames.size() == 1 ? output
+                    : new File(output, new File(apkName).getName() + ".xml");
+            try (ExtFile apk = new ExtFile(apkName)) {
+                MemoryDirectory out = new MemoryDirectory();
+                androlib.decodeManifestOnly(apk, out);
+                try (InputStream in = out.getFileInput("AndroidManifest.xml")) {
+                    if (target == null) {
+                        IOUtils.copy(in, System.out);
+                        System.out.println();
+                    } else {
+                        FileUtils.copyInputStreamToFile(in, target);
+                    }
+                }
+            } catch (AndrolibException | DirectoryException | IOException ex) {
+                if (apkNames.size() == 1) {
+                    throw new AndrolibException("Could not decode manifest of " + apkName, ex);
+                }
+                System.err.println("Could not decode manifest of " + apkName + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    private static void cmdDumpResources(CommandLine cli) throws AndrolibException {
+        List<String> apkNames = new ArrayList<String>();
+        for (String arg : cli.getArgs()) {
+            apkNames.add(arg);
+        }
+        // drop the command itself
+        apkNames.remove(0);
+        if (apkNames.isEmpty()) {
+            throw new InFileNotFoundException();
+        }
+
+        ResTableExporter.Format format = ResTableExporter.Format.JSONL;
+        if (cli.hasOption("format")) {
+            try {
+                format = ResTableExporter.Format.valueOf(cli.getOptionValue("format").toUpperCase());
+            } catch (IllegalArgumentException ex) {
+                System.err.println("Unknown format: " + cli.getOptionValue("format"));
+                System.exit(1);
+            }
+        }
+
+        try {
+            OutputStream os = cli.hasOption("o") || cli.hasOption("output")
+                    ? new FileOutputStream(cli.getOptionValue("o")) : System.out;
+            Writer out = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
+            try {
+                ResTableExporter exporter = new ResTableExporter(out, format);
+                for (String apkName : apkNames) {
+                    try (ExtFile apk = new ExtFile(apkName)) {
+                        exporter.export(apk);
+                    } catch (AndrolibException ex) {
+                        if (apkNames.size() == 1) {
+                            throw ex;
+                        }
+                        System.err.println("Could not dump resources of " + apkName + ": " + ex.getMessage());
+                    }
+                }
+            } finally {
+                out.flush();
+                if (os != System.out) {
+                    out.close();
+                }
+            }
+        } catch (IOException ex) {
+            throw new AndrolibException(ex);
+        }
+    }
+
     private static void _version() {
         System.out.println(Androlib.getVersion());//版本信息
     }
@@ -287,6 +535,76 @@ public class Main {
                 .withArgName("API")
                 .create();
 
+        Option jobsOption = OptionBuilder.withLongOpt("jobs")
+                .withDescription("The number of threads to use when copying files and (dis)assembling smali. Default is the number of cores, up to 6.")
+                .hasArg(true)
+                .withArgName("N")
+                .create("j");
+
+        Option zipOption = OptionBuilder.withLongOpt("zip")
+                .withDescription("Writes the decoded project into a single zip file instead of a folder.")
+                .create();
+
+        Option resTypeOption = OptionBuilder.withLongOpt("res-type")
+                .withDescription("Only decodes resources of these types, e.g. string,layout.")
+                .hasArg(true)
+                .withArgName("types")
+                .create();
+
+        Option resConfigOption = OptionBuilder.withLongOpt("res-config")
+                .withDescription("Only decodes resources of these configs, e.g. default,de,en-rUS.")
+                .hasArg(true)
+                .withArgName("qualifiers")
+                .create();
+
+        Option resPathOption = OptionBuilder.withLongOpt("res-path")
+                .withDescription("Only decodes resources whose apk path matches one of these globs, e.g. res/layout*/**.")
+                .hasArg(true)
+                .withArgName("globs")
+                .create();
+
+        Option includeClassesOption = OptionBuilder.withLongOpt("include-classes")
+                .withDescription("Only disassembles classes matching these patterns, e.g. com.example.**.")
+                .hasArg(true)
+                .withArgName("patterns")
+                .create();
+
+        Option excludeClassesOption = OptionBuilder.withLongOpt("exclude-classes")
+                .withDescription("Skips classes matching these patterns, e.g. androidx.**,kotlin.**.")
+                .hasArg(true)
+                .withArgName("patterns")
+                .create();
+
+        Option smaliCacheOption = OptionBuilder.withLongOpt("smali-cache")
+                .withDescription("Caches disassembled dex files in <dir> and reuses them for identical dex files.")
+                .hasArg(true)
+                .withArgName("dir")
+                .create();
+
+        Option previousOption = OptionBuilder.withLongOpt("previous")
+                .withDescription("Only decodes what changed since the decode in <dir> of an older version of the apk. <dir> may be the output dir.")
+                .hasArg(true)
+                .withArgName("dir")
+                .create();
+
+        Option splitsOption = OptionBuilder.withLongOpt("splits")
+                .withDescription("Decodes these split apks of the apk along with it, into <dir>/splits. An .apks file is decoded with all of its splits.")
+                .hasArg(true)
+                .withArgName("apks")
+                .create();
+
+        Option profileOption = OptionBuilder.withLongOpt("profile")
+                .withDescription("Prints the time, CPU, allocations and I/O of each phase and writes them to <file> as JSON.")
+                .hasArg(true)
+                .withArgName("file")
+                .create();
+
+        Option memoryBudgetOption = OptionBuilder.withLongOpt("memory-budget")
+                .withDescription("Keeps less in memory while decoding, for apks that need far more heap than <size> (e.g. 512m) otherwise.")
+                .hasArg(true)
+                .withArgName("size")
+                .create();
+
         Option debugBuiOption = OptionBuilder.withLongOpt("debug")
                 .withDescription("Sets android:debuggable to \"true\" in the APK's compiled manifest")
                 .create("d");
@@ -350,6 +668,24 @@ public class Main {
                 .withArgName("dir")
                 .create("o");
 
+        Option outputManOption = OptionBuilder.withLongOpt("output")
+                .withDescription("The file the manifest gets written to, or the folder for several apks. Default is stdout")
+                .hasArg(true)
+                .withArgName("file")
+                .create("o");
+
+        Option outputDumpOption = OptionBuilder.withLongOpt("output")
+                .withDescription("The file the rows get written to. Default is stdout")
+                .hasArg(true)
+                .withArgName("file")
+                .create("o");
+
+        Option formatOption = OptionBuilder.withLongOpt("format")
+                .withDescription("Row format, jsonl or csv. Default is jsonl")
+                .hasArg(true)
+                .withArgName("format")
+                .create();
+
         Option outputDecOption = OptionBuilder.withLongOpt("output")
                 .withDescription("The name of folder that gets written. Default is apk.out")
                 .hasArg(true)
@@ -369,10 +705,24 @@ public class Main {
             DecodeOptions.addOption(keepResOption);
             DecodeOptions.addOption(analysisOption);
             DecodeOptions.addOption(apiLevelOption);
+            DecodeOptions.addOption(jobsOption);
+            DecodeOptions.addOption(zipOption);
+            DecodeOptions.addOption(resTypeOption);
+            DecodeOptions.addOption(resConfigOption);
+            DecodeOptions.addOption(resPathOption);
+            DecodeOptions.addOption(includeClassesOption);
+            DecodeOptions.addOption(excludeClassesOption);
+            DecodeOptions.addOption(smaliCacheOption);
+            DecodeOptions.addOption(previousOption);
+            DecodeOptions.addOption(splitsOption);
+            DecodeOptions.addOption(profileOption);
+            DecodeOptions.addOption(memoryBudgetOption);
 
             BuildOptions.addOption(debugBuiOption);
             BuildOptions.addOption(aaptOption);
             BuildOptions.addOption(originalOption);
+            BuildOptions.addOption(profileOption);
+            BuildOptions.addOption(jobsOption);
         }
 
         // add global options
@@ -392,6 +742,15 @@ public class Main {
         BuildOptions.addOption(frameDirOption);
         BuildOptions.addOption(forceBuiOption);
 
+        // add manifest options
+        manifestOptions.addOption(outputManOption);
+        manifestOptions.addOption(frameTagOption);
+        manifestOptions.addOption(frameDirOption);
+
+        // add resource dump options
+        dumpOptions.addOption(outputDumpOption);
+        dumpOptions.addOption(formatOption);
+
         // add basic framework options
         frameOptions.addOption(tagOption);
         frameOptions.addOption(frameIfDirOption);
@@ -410,6 +769,19 @@ public class Main {
             allOptions.addOption((Option)op);
         }
         allOptions.addOption(analysisOption);
+        allOptions.addOption(jobsOption);
+        allOptions.addOption(zipOption);
+        allOptions.addOption(resTypeOption);
+        allOptions.addOption(resConfigOption);
+        allOptions.addOption(resPathOption);
+        allOptions.addOption(includeClassesOption);
+        allOptions.addOption(excludeClassesOption);
+        allOptions.addOption(smaliCacheOption);
+        allOptions.addOption(previousOption);
+        allOptions.addOption(splitsOption);
+        allOptions.addOption(profileOption);
+        allOptions.addOption(memoryBudgetOption);
+        allOptions.addOption(formatOption);
         allOptions.addOption(debugDecOption);
         allOptions.addOption(noDbgOption);
         allOptions.addOption(keepResOption);
@@ -448,11 +820,13 @@ public class Main {
             System.out.println("");
         }
 
-        // 4 usage outputs (general, frameworks, decode, build)
+        // 6 usage outputs (general, frameworks, decode, build, manifest, resource dump)
         formatter.printHelp("apktool " + verbosityHelp(), normalOptions);
         formatter.printHelp("apktool " + verbosityHelp() + "if|install-framework [options] <framework.apk>", frameOptions);
         formatter.printHelp("apktool " + verbosityHelp() + "d[ecode] [options] <file_apk>", DecodeOptions);
         formatter.printHelp("apktool " + verbosityHelp() + "b[uild] [options] <app_path>", BuildOptions);
+        formatter.printHelp("apktool " + verbosityHelp() + "manifest [options] <file_apk>...", manifestOptions);
+        formatter.printHelp("apktool " + verbosityHelp() + "dump-resources [options] <file_apk>...", dumpOptions);
         if (isAdvanceMode()) {
             formatter.printHelp("apktool " + verbosityHelp() + "publicize-resources <file_path>",
                     "Make all framework resources public.", emptyOptions, null);
@@ -536,6 +910,8 @@ public class Main {
     private final static Options DecodeOptions;
     private final static Options BuildOptions;
     private final static Options frameOptions;
+    private final static Options manifestOptions;
+    private final static Options dumpOptions;
     private final static Options allOptions;
     private final static Options emptyOptions;
 
@@ -545,6 +921,8 @@ public class Main {
         BuildOptions = new Options();
         DecodeOptions = new Options();
         frameOptions = new Options();
+        manifestOptions = new Options();
+        dumpOptions = new Options();
         allOptions = new Options();
         emptyOptions = new Options();
     }
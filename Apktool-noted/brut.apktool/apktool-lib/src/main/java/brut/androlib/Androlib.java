@@ -16,6 +16,7 @@
 
 package brut.androlib;
 
+import brut.androlib.meta.ClassFilterInfo;
 import brut.androlib.meta.MetaInfo;
 import brut.androlib.meta.UsesFramework;
 import brut.androlib.res.AndrolibResources;
@@ -24,15 +25,20 @@ import brut.androlib.res.data.ResTable;
 import brut.androlib.res.data.ResUnknownFiles;
 import brut.androlib.res.util.ExtFile;
 import brut.androlib.res.xml.ResXmlPatcher;
+import brut.androlib.src.ClassFilter;
 import brut.androlib.src.SmaliBuilder;
+import brut.androlib.src.SmaliCache;
 import brut.androlib.src.SmaliDecoder;
 import brut.common.BrutException;
 import brut.directory.*;
 import brut.util.BrutIO;
+import brut.util.FileTreeCache;
 import brut.util.OS;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import java.util.zip.CRC32;
@@ -42,6 +48,7 @@ import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.apache.commons.lang3.StringUtils;
 
 /**
@@ -52,6 +59,16 @@ public class Androlib {
     protected final ResUnknownFiles mResUnknownFiles = new ResUnknownFiles();
     public ApkOptions apkOptions;
 
+    // trees walked during the current build(), shared by the modification
+    // checks, smali listing and lib copies; null outside of build()
+    private FileTreeCache mFileTrees;
+
+    // the built base apk while building one of its splits, see buildSplits
+    private File mBaseApk;
+
+    // api level from the sdkInfo of the project being built
+    private int mApi = DEFAULT_API;
+
     public Androlib(ApkOptions apkOptions) {
         this.apkOptions = apkOptions;
         mAndRes.apkOptions = apkOptions;
@@ -72,6 +89,20 @@ public class Androlib {
         return mAndRes.getResTable(apkFile, loadMainPkg);
     }
 
+    public ResTable getResTable(ExtFile apkFile, boolean loadMainPkg, ResTable baseTable)
+            throws AndrolibException {
+        return mAndRes.getResTable(apkFile, loadMainPkg, baseTable);
+    }
+
+    /**
+     * @param prefetcher loads the frameworks the manifest refers to in the
+     * background, see AndrolibResources.getResTable
+     */
+    public ResTable getResTable(ExtFile apkFile, boolean loadMainPkg, ResTable baseTable,
+                                ExecutorService prefetcher) throws AndrolibException {
+        return mAndRes.getResTable(apkFile, loadMainPkg, baseTable, prefetcher);
+    }
+
     public void decodeSourcesRaw(ExtFile apkFile, File outDir, String filename)
             throws AndrolibException {
         try {
@@ -82,24 +113,134 @@ public class Androlib {
         }
     }
 
-    public void decodeSourcesSmali(File apkFile, File outDir, String filename, boolean bakdeb, int api)
+    public void decodeSourcesRaw(ExtFile apkFile, Directory out, String filename)
             throws AndrolibException {
+        File outDir = getFileDir(out);
+        if (outDir != null) {
+            decodeSourcesRaw(apkFile, outDir, filename);
+            return;
+        }
         try {
-            File smaliDir;
-            if (filename.equalsIgnoreCase("classes.dex")) {
-                smaliDir = new File(outDir, SMALI_DIRNAME);//初始化一个smali文件
-            } else {
-                smaliDir = new File(outDir, SMALI_DIRNAME + "_" + filename.substring(0, filename.indexOf(".")));//如果不是dex文件
-            }
+            LOGGER.info("Copying raw " + filename + " file...");
+            apkFile.getDirectory().copyToDir(out, filename);
+        } catch (DirectoryException ex) {
+            throw new AndrolibException(ex);
+        }
+    }
+
+    public void decodeSourcesSmali(ExtFile apkFile, File outDir, String filename, boolean bakdeb, int api)
+            throws AndrolibException {
+        try {
+            File smaliDir = new File(outDir, getSmaliDirName(filename));
             OS.rmdir(smaliDir);//为什么要rm？强制，这里要注意，没有选项可以控制，所以要注意避免操作失误覆盖其他smali文件
             smaliDir.mkdirs(); //生成新的
-            LOGGER.info("Baksmaling " + filename + "...");
-            SmaliDecoder.decode(apkFile, smaliDir, filename, bakdeb, api);//smali decode关键入口点
+            disassemble(apkFile, smaliDir, filename, bakdeb, api);//smali decode关键入口点
+            writeOriginalDex(apkFile, new FileDirectory(outDir), filename);
+        } catch (BrutException ex) {
+            throw new AndrolibException(ex);
+        }
+    }
+
+    public void decodeSourcesSmali(ExtFile apkFile, Directory out, String filename, boolean bakdeb, int api)
+            throws AndrolibException {
+        File outDir = getFileDir(out);
+        if (outDir != null) {
+            decodeSourcesSmali(apkFile, outDir, filename, bakdeb, api);
+            return;
+        }
+
+        // baksmali only writes to the file system, so disassemble into a
+        // scratch dir and move the result into the output directory
+        File tmpDir = null;
+        try {
+            tmpDir = OS.createTempDirectory();
+            disassemble(apkFile, tmpDir, filename, bakdeb, api);
+            new FileDirectory(tmpDir).copyToDir(out.createDir(getSmaliDirName(filename)));
+            writeOriginalDex(apkFile, out, filename);
         } catch (BrutException ex) {
             throw new AndrolibException(ex);
+        } finally {
+            if (tmpDir != null) {
+                try {
+                    OS.rmdir(tmpDir);
+                } catch (BrutException ignored) {
+                }
+            }
         }
     }
 
+    private void disassemble(File apkFile, File smaliDir, String filename, boolean bakdeb, int api)
+            throws AndrolibException {
+        SmaliCache cache = null;
+        String key = null;
+        if (apkOptions.smaliCacheDir != null) {
+            cache = new SmaliCache(new File(apkOptions.smaliCacheDir), apkOptions.smaliCacheSize);
+            key = cache.getKey(apkFile, filename, getSmaliOptions(bakdeb, api));
+            if (key != null && cache.materialize(key, smaliDir)) {
+                LOGGER.info("Using cached smali for " + filename + "...");
+                return;
+            }
+        }
+
+        LOGGER.info("Baksmaling " + filename + "...");
+        // baksmali's own loop can't be stopped or counted, the bounded one can
+        SmaliDecoder.decode(apkFile, smaliDir, filename, bakdeb, api, apkOptions.classFilter,
+                apkOptions.memoryBudget > 0 || JobContext.current() != null || Progress.current() != null);
+        if (key != null) {
+            cache.store(key, smaliDir);
+        }
+    }
+
+    /**
+     * Everything besides the dex itself that changes baksmali's output.
+     */
+    private String getSmaliOptions(boolean bakdeb, int api) {
+        StringBuilder options = new StringBuilder();
+        options.append("version=").append(getVersion());
+        options.append(",bakdeb=").append(bakdeb);
+        options.append(",api=").append(api);
+        if (apkOptions.classFilter != null) {
+            options.append(",include=").append(apkOptions.classFilter.getIncludes());
+            options.append(",exclude=").append(apkOptions.classFilter.getExcludes());
+        }
+        return options.toString();
+    }
+
+    /**
+     * With a class filter the smali dir only holds part of the dex, so the
+     * original is kept for build to merge the rest back from.
+     */
+    private void writeOriginalDex(ExtFile apkFile, Directory out, String filename)
+            throws AndrolibException {
+        if (apkOptions.classFilter == null || apkOptions.classFilter.isEmpty()) {
+            return;
+        }
+        try {
+            Directory originalDir = out.containsDir("original") ? out.getDir("original")
+                    : out.createDir("original");
+            apkFile.getDirectory().copyToDir(originalDir, filename);
+        } catch (DirectoryException ex) {
+            throw new AndrolibException(ex);
+        }
+    }
+
+    /**
+     * @return the dir of the project of a split apk, in the project of the
+     * base apk of its set
+     */
+    public static String getSplitDirName(String splitApkName) {
+        String name = splitApkName.toLowerCase(Locale.ENGLISH).endsWith(".apk")
+                ? splitApkName.substring(0, splitApkName.length() - 4) : splitApkName;
+        return SPLITS_DIRNAME + "/" + name;
+    }
+
+    static String getSmaliDirName(String filename) {
+        if (filename.equalsIgnoreCase("classes.dex")) {
+            return SMALI_DIRNAME;//初始化一个smali文件
+        }
+        return SMALI_DIRNAME + "_" + filename.substring(0, filename.indexOf("."));//如果不是dex文件
+    }
+
     public void decodeManifestRaw(ExtFile apkFile, File outDir)
             throws AndrolibException {
         try {
@@ -111,11 +252,36 @@ public class Androlib {
         }
     }
 
+    public void decodeManifestRaw(ExtFile apkFile, Directory out)
+            throws AndrolibException {
+        File outDir = getFileDir(out);
+        if (outDir != null) {
+            decodeManifestRaw(apkFile, outDir);
+            return;
+        }
+        try {
+            LOGGER.info("Copying raw manifest...");
+            apkFile.getDirectory().copyToDir(out, APK_MANIFEST_FILENAMES);
+        } catch (DirectoryException ex) {
+            throw new AndrolibException(ex);
+        }
+    }
+
     public void decodeManifestFull(ExtFile apkFile, File outDir, ResTable resTable)
             throws AndrolibException {
         mAndRes.decodeManifest(resTable, apkFile, outDir);//xml解码关键点
     }
 
+    public void decodeManifestFull(ExtFile apkFile, Directory out, ResTable resTable)
+            throws AndrolibException {
+        File outDir = getFileDir(out);
+        if (outDir != null) {
+            mAndRes.decodeManifest(resTable, apkFile, outDir);
+            return;
+        }
+        mAndRes.decodeManifest(resTable, apkFile, out);
+    }
+
     public void decodeResourcesRaw(ExtFile apkFile, File outDir)
             throws AndrolibException {
         try {
@@ -127,35 +293,143 @@ public class Androlib {
         }
     }
 
+    public void decodeResourcesRaw(ExtFile apkFile, Directory out)
+            throws AndrolibException {
+        File outDir = getFileDir(out);
+        if (outDir != null) {
+            decodeResourcesRaw(apkFile, outDir);
+            return;
+        }
+        try {
+            LOGGER.info("Copying raw resources...");
+            apkFile.getDirectory().copyToDir(out, APK_RESOURCES_FILENAMES);
+        } catch (DirectoryException ex) {
+            throw new AndrolibException(ex);
+        }
+    }
+
     public void decodeResourcesFull(ExtFile apkFile, File outDir, ResTable resTable)
             throws AndrolibException {
         mAndRes.decode(resTable, apkFile, outDir);//AndrolibResources().decode,关键点
     }
 
+    public void decodeResourcesFull(ExtFile apkFile, Directory out, ResTable resTable)
+            throws AndrolibException {
+        File outDir = getFileDir(out);
+        if (outDir != null) {
+            mAndRes.decode(resTable, apkFile, outDir);
+            return;
+        }
+        mAndRes.decode(resTable, apkFile, out);
+    }
+
+    public void decodeResourcesFull(ExtFile apkFile, Directory out, ResTable resTable,
+                                    EntryManifest entries, EntryManifest previous)
+            throws AndrolibException {
+        mAndRes.decode(resTable, apkFile, out, entries, previous);
+    }
+
     public void decodeManifestWithResources(ExtFile apkFile, File outDir, ResTable resTable)
             throws AndrolibException {
         mAndRes.decodeManifestWithResources(resTable, apkFile, outDir);//AndrolibResources().decodeManifestWithResources,关键点
     }
 
+    public void decodeManifestWithResources(ExtFile apkFile, Directory out, ResTable resTable)
+            throws AndrolibException {
+        File outDir = getFileDir(out);
+        if (outDir != null) {
+            mAndRes.decodeManifestWithResources(resTable, apkFile, outDir);
+            return;
+        }
+        mAndRes.decodeManifestWithResources(resTable, apkFile, out);
+    }
+
+    /**
+     * Decodes AndroidManifest.xml without loading the resource table, see
+     * AndrolibResources.decodeManifestOnly(). Reusing one Androlib over many
+     * apks keeps the framework tables indexed between them.
+     *
+     * @return a table with the referenced resources and the package, version and sdk info
+     */
+    public ResTable decodeManifestOnly(ExtFile apkFile, Directory out)
+            throws AndrolibException {
+        return mAndRes.decodeManifestOnly(apkFile, out);
+    }
+
     public void decodeRawFiles(ExtFile apkFile, File outDir)
             throws AndrolibException {
         LOGGER.info("Copying assets and libs...");
         try {
             Directory in = apkFile.getDirectory();
-            if (in.containsDir("assets")) {
-                in.copyToDir(outDir, "assets");
+            List<String> dirs = new ArrayList<String>();
+            for (String dir : APK_RAW_DIRNAMES) {
+                if (in.containsDir(dir)) {
+                    dirs.add(dir);
+                }
             }
-            if (in.containsDir("lib")) {
-                in.copyToDir(outDir, "lib");
+            DirUtil.copyToDir(in, outDir, dirs.toArray(new String[dirs.size()]), apkOptions.jobs);
+        } catch (DirectoryException ex) {
+            throw new AndrolibException(ex);
+        }
+    }
+
+    public void decodeRawFiles(ExtFile apkFile, Directory out)
+            throws AndrolibException {
+        File outDir = getFileDir(out);
+        if (outDir != null) {
+            decodeRawFiles(apkFile, outDir);
+            return;
+        }
+        LOGGER.info("Copying assets and libs...");
+        try {
+            Directory in = apkFile.getDirectory();
+            for (String dir : APK_RAW_DIRNAMES) {
+                if (in.containsDir(dir)) {
+                    in.copyToDir(out, dir);
+                }
             }
-            if (in.containsDir("libs")) {
-                in.copyToDir(outDir, "libs");
+        } catch (DirectoryException ex) {
+            throw new AndrolibException(ex);
+        }
+    }
+
+    /**
+     * Copies assets and libs, recording them in entries. With the manifest
+     * of a previous decode that out already holds, only the files that
+     * changed are copied.
+     */
+    public void decodeRawFiles(ExtFile apkFile, Directory out, EntryManifest entries, EntryManifest previous)
+            throws AndrolibException {
+        if (previous == null) {
+            decodeRawFiles(apkFile, out);
+        } else {
+            LOGGER.info("Copying changed assets and libs...");
+        }
+        try {
+            Directory in = apkFile.getDirectory();
+            for (String file : entries.getNames()) {
+                if (! isRawFile(file)) {
+                    continue;
+                }
+                if (previous != null && ! (entries.isUnchanged(file, previous) && out.containsFile(file))) {
+                    in.copyToDir(out, file);
+                }
+                entries.setOutput(file, file);
             }
         } catch (DirectoryException ex) {
             throw new AndrolibException(ex);
         }
     }
 
+    private static boolean isRawFile(String file) {
+        for (String dir : APK_RAW_DIRNAMES) {
+            if (file.startsWith(dir + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void recordUncompressedFiles(ExtFile apkFile, Collection<String> uncompressedFilesOrExts) throws AndrolibException {
         try {
             Directory unk = apkFile.getDirectory();
@@ -165,19 +439,7 @@ public class Androlib {
             for (String file : files) {
                 if (isAPKFileNames(file) && !NO_COMPRESS_PATTERN.matcher(file).find()) {//匹配后缀和文件名
                     if (unk.getCompressionLevel(file) == 0) {
-
-                        if (StringUtils.countMatches(file, ".") > 1) {
-                            ext = file;
-                        } else {
-                            ext = FilenameUtils.getExtension(file);
-                            if (ext.isEmpty()) {
-                                ext = file;
-                            }
-                        }
-
-                        if (! uncompressedFilesOrExts.contains(ext)) {
-                            uncompressedFilesOrExts.add(ext);
-                        }
+                        recordUncompressedFile(file, uncompressedFilesOrExts);
                     }
                 }
             }
@@ -186,7 +448,38 @@ public class Androlib {
         }
     }
 
-    private boolean isAPKFileNames(String file) {
+    /**
+     * Like recordUncompressedFiles, for the entries of a streamed apk.
+     *
+     * @param compressionLevels the compression method of every entry
+     */
+    public void recordUncompressedFiles(Map<String, Integer> compressionLevels,
+                                        Collection<String> uncompressedFilesOrExts) {
+        for (Map.Entry<String, Integer> entry : compressionLevels.entrySet()) {
+            String file = entry.getKey();
+            if (isAPKFileNames(file) && !NO_COMPRESS_PATTERN.matcher(file).find() && entry.getValue() == 0) {
+                recordUncompressedFile(file, uncompressedFilesOrExts);
+            }
+        }
+    }
+
+    private static void recordUncompressedFile(String file, Collection<String> uncompressedFilesOrExts) {
+        String ext;
+        if (StringUtils.countMatches(file, ".") > 1) {
+            ext = file;
+        } else {
+            ext = FilenameUtils.getExtension(file);
+            if (ext.isEmpty()) {
+                ext = file;
+            }
+        }
+
+        if (! uncompressedFilesOrExts.contains(ext)) {
+            uncompressedFilesOrExts.add(ext);
+        }
+    }
+
+    static boolean isAPKFileNames(String file) {
         for (String apkFile : APK_STANDARD_ALL_FILENAMES) {
             if (apkFile.equals(file) || file.startsWith(apkFile + "/")) {
                 return true;
@@ -201,24 +494,132 @@ public class Androlib {
         File unknownOut = new File(outDir, UNK_DIRNAME);//输出unknow文件
         try {
             Directory unk = apkFile.getDirectory();
+            String[] unknownFiles = listUnknownFiles(unk);
 
-            // loop all items in container recursively, ignoring any that are pre-defined by aapt
-            Set<String> files = unk.getFiles(true);
-            for (String file : files) {
-                if (!isAPKFileNames(file) && !file.endsWith(".dex")) {
+            // copy files out of archive into special "unknown" folder
+            DirUtil.copyToDir(unk, unknownOut, unknownFiles, apkOptions.jobs);
+        } catch (DirectoryException ex) {
+            throw new AndrolibException(ex);
+        }
+    }
 
-                    // copy file out of archive into special "unknown" folder
-                    unk.copyToDir(unknownOut, file);
-                    // lets record the name of the file, and its compression type
-                    // so that we may re-include it the same way
-                    mResUnknownFiles.addUnknownFileInfo(file, String.valueOf(unk.getCompressionLevel(file)));
-                }
+    public void decodeUnknownFiles(ExtFile apkFile, Directory out, ResTable resTable)
+            throws AndrolibException {
+        File outDir = getFileDir(out);
+        if (outDir != null) {
+            decodeUnknownFiles(apkFile, outDir, resTable);
+            return;
+        }
+        LOGGER.info("Copying unknown files...");
+        try {
+            Directory unk = apkFile.getDirectory();
+            String[] unknownFiles = listUnknownFiles(unk);
+            if (unknownFiles.length > 0) {
+                Directory unknownOut = out.containsDir(UNK_DIRNAME) ? out.getDir(UNK_DIRNAME)
+                        : out.createDir(UNK_DIRNAME);
+                unk.copyToDir(unknownOut, unknownFiles);
             }
         } catch (DirectoryException ex) {
             throw new AndrolibException(ex);
         }
     }
 
+    private String[] listUnknownFiles(Directory unk) throws DirectoryException {
+        // loop all items in container recursively, ignoring any that are pre-defined by aapt
+        Set<String> files = unk.getFiles(true);
+        List<String> unknownFiles = new ArrayList<String>();
+        for (String file : files) {
+            if (!isAPKFileNames(file) && !file.endsWith(".dex")) {
+                unknownFiles.add(file);
+
+                // lets record the name of the file, and its compression type
+                // so that we may re-include it the same way
+                mResUnknownFiles.addUnknownFileInfo(file, String.valueOf(unk.getCompressionLevel(file)));
+            }
+        }
+        return unknownFiles.toArray(new String[unknownFiles.size()]);
+    }
+
+    /**
+     * Writes an entry of a streamed apk as it streams past, if it is one that
+     * decodeRawFiles, decodeUnknownFiles or writeOriginalFiles would copy
+     * as is.
+     *
+     * @return false if the entry was not written, to be kept for the decode
+     */
+    public boolean decodeStreamedFile(String name, int compressionLevel, InputStream in, Directory out)
+            throws AndrolibException {
+        String outName;
+        if (isRawFile(name)) {
+            outName = name;
+        } else if (name.startsWith("META-INF/")) {
+            outName = "original/" + name;
+        } else if (! isAPKFileNames(name) && ! name.endsWith(".dex")) {
+            outName = UNK_DIRNAME + "/" + name;
+            mResUnknownFiles.addUnknownFileInfo(name, String.valueOf(compressionLevel));
+        } else {
+            return false;
+        }
+        try {
+            File outDir = getFileDir(out);
+            OutputStream output;
+            if (outDir != null) {
+                File outFile = new File(outDir, outName);
+                outFile.getParentFile().mkdirs();
+                output = new FileOutputStream(outFile);
+            } else {
+                output = out.getFileOutput(outName);
+            }
+            // the stream goes on with the next entry
+            BrutIO.copyAndClose(new CloseShieldInputStream(in), output);
+        } catch (DirectoryException | IOException ex) {
+            throw new AndrolibException("Could not copy: " + name, ex);
+        }
+        return true;
+    }
+
+    /**
+     * Like decodeSourcesSmali, for a dex read out of a streamed apk into
+     * dexFile. The smali cache is not used, as it is keyed by zip entries.
+     */
+    public void decodeStreamedSources(File dexFile, Directory out, String filename, boolean bakdeb, int api)
+            throws AndrolibException {
+        File outDir = getFileDir(out);
+        File tmpDir = null;
+        try {
+            File smaliDir;
+            if (outDir != null) {
+                smaliDir = new File(outDir, getSmaliDirName(filename));
+                OS.rmdir(smaliDir);
+                smaliDir.mkdirs();
+            } else {
+                // baksmali only writes to the file system
+                tmpDir = OS.createTempDirectory();
+                smaliDir = tmpDir;
+            }
+            LOGGER.info("Baksmaling " + filename + "...");
+            SmaliDecoder.decodeDex(dexFile, smaliDir, filename, bakdeb, api, apkOptions.classFilter,
+                    apkOptions.memoryBudget > 0 || JobContext.current() != null || Progress.current() != null);
+            if (tmpDir != null) {
+                new FileDirectory(tmpDir).copyToDir(out.createDir(getSmaliDirName(filename)));
+            }
+            if (apkOptions.classFilter != null && ! apkOptions.classFilter.isEmpty()) {
+                Directory originalDir = out.containsDir("original") ? out.getDir("original")
+                        : out.createDir("original");
+                BrutIO.copyAndClose(new FileInputStream(dexFile), originalDir.getFileOutput(filename));
+            }
+        } catch (BrutException | IOException ex) {
+            throw new AndrolibException(ex);
+        } finally {
+            if (tmpDir != null) {
+                try {
+                    OS.rmdir(tmpDir);
+                } catch (BrutException ignored) {
+                }
+            }
+        }
+    }
+
     public void writeOriginalFiles(ExtFile apkFile, File outDir)
             throws AndrolibException {
         LOGGER.info("Copying original files...");
@@ -240,6 +641,29 @@ public class Androlib {
         }
     }
 
+    public void writeOriginalFiles(ExtFile apkFile, Directory out)
+            throws AndrolibException {
+        File outDir = getFileDir(out);
+        if (outDir != null) {
+            writeOriginalFiles(apkFile, outDir);
+            return;
+        }
+        LOGGER.info("Copying original files...");
+        try {
+            Directory originalDir = out.containsDir("original") ? out.getDir("original")
+                    : out.createDir("original");
+            Directory in = apkFile.getDirectory();
+            if(in.containsFile("AndroidManifest.xml")) {
+                in.copyToDir(originalDir, "AndroidManifest.xml");
+            }
+            if (in.containsDir("META-INF")) {
+                in.copyToDir(originalDir, "META-INF");
+            }
+        } catch (DirectoryException ex) {
+            throw new AndrolibException(ex);
+        }
+    }
+
     public void writeMetaFile(File mOutDir, MetaInfo meta)
             throws AndrolibException {
         try{
@@ -249,6 +673,23 @@ public class Androlib {
         }
     }
 
+    public void writeMetaFile(Directory out, MetaInfo meta)
+            throws AndrolibException {
+        File outDir = getFileDir(out);
+        if (outDir != null) {
+            writeMetaFile(outDir, meta);
+            return;
+        }
+        try(
+                Writer writer = new BufferedWriter(new OutputStreamWriter(
+                        out.getFileOutput("apktool.yml"), StandardCharsets.UTF_8))
+        ) {
+            meta.save(writer);
+        } catch (DirectoryException | IOException ex) {
+            throw new AndrolibException(ex);
+        }
+    }
+
     public MetaInfo readMetaFile(ExtFile appDir)
             throws AndrolibException {
         try(
@@ -264,8 +705,60 @@ public class Androlib {
         build(new ExtFile(appDir), outFile);//回编译关键点
     }
 
+    /**
+     * Builds a project held in any Directory, e.g. a MemoryDirectory. aapt
+     * needs the project on disk, so it is written to a temp dir for the
+     * duration of the build; outFile is therefore required.
+     */
+    public void build(Directory appDir, File outFile) throws BrutException {
+        File dir = getFileDir(appDir);
+        if (dir != null) {
+            build(new ExtFile(dir), outFile);
+            return;
+        }
+        if (outFile == null) {
+            throw new AndrolibException("Out file must be set when building from a directory");
+        }
+
+        File tmpDir = OS.createTempDirectory();
+        try {
+            appDir.copyToDir(tmpDir);
+            build(new ExtFile(tmpDir), outFile);
+        } finally {
+            OS.rmdir(tmpDir);
+        }
+    }
+
     public void build(ExtFile appDir, File outFile)//回编译主要流程代码
             throws BrutException {
+        Profiler previousProfiler = Profiler.install(apkOptions.profiler);
+        JobContext previousJob = JobContext.install(apkOptions.jobContext);
+        Progress previousProgress = Progress.install(apkOptions.progressListener == null
+                ? null : new Progress(apkOptions.progressListener));
+        String previousApk = JfrEvent.setApk(appDir.getName());
+        try (Profiler.Phase phase = Profiler.phase("build")) {
+            buildApp(appDir, outFile);
+        } finally {
+            JfrEvent.setApk(previousApk);
+            Progress.install(previousProgress);
+            JobContext.install(previousJob);
+            Profiler.install(previousProfiler);
+        }
+    }
+
+    private void buildApp(ExtFile appDir, File outFile)
+            throws BrutException {
+        if (appDir.isFile()) {
+            // a project packed into a single archive, e.g. decoded into a ZipOutputDirectory
+            if (outFile == null) {
+                String outFileName = readMetaFile(appDir).apkFileName;
+                outFile = new File(appDir.getAbsoluteFile().getParentFile(),
+                        "dist" + File.separator + (outFileName == null ? "out.apk" : outFileName));
+            }
+            build(appDir.getDirectory(), outFile);
+            return;
+        }
+
         LOGGER.info("Using Apktool " + Androlib.getVersion());
         //下面初始化一些配置
         MetaInfo meta = readMetaFile(appDir);
@@ -274,57 +767,134 @@ public class Androlib {
         apkOptions.doNotCompress = meta.doNotCompress;
 
         mAndRes.setSdkInfo(meta.sdkInfo);
+        mApi = readApi(meta.sdkInfo);
         mAndRes.setPackageId(meta.packageInfo);
         mAndRes.setPackageRenamed(meta.packageInfo);
         mAndRes.setVersionInfo(meta.versionInfo);
         mAndRes.setSharedLibrary(meta.sharedLibrary);
 
+        apkOptions.classFilter = readClassFilter(meta.classFilter);
+        if (meta.resourceFilter != null) {
+            LOGGER.warning("Project was decoded with a resource filter, only the decoded subset of resources will be built");
+        }
+
         if (outFile == null) {
             String outFileName = meta.apkFileName;
             outFile = new File(appDir, "dist" + File.separator + (outFileName == null ? "out.apk" : outFileName));
         }
 
-        new File(appDir, APK_DIRNAME).mkdirs();
-        buildSources(appDir);   //回编译classes.dex文件，包括回编译smali文件夹
-        buildNonDefaultSources(appDir);//处理有多个dex的情况下
-        //下面处理AndroidManifest.xml
-        File manifest = new File(appDir, "AndroidManifest.xml");
-        File manifestOriginal = new File(appDir, "AndroidManifest.xml.orig");
+        mFileTrees = new FileTreeCache();
+        try {
+            new File(appDir, APK_DIRNAME).mkdirs();
+            buildSources(appDir);   //回编译classes.dex文件，包括回编译smali文件夹
+            buildNonDefaultSources(appDir);//处理有多个dex的情况下
+            //下面处理AndroidManifest.xml
+            File manifest = new File(appDir, "AndroidManifest.xml");
+            File manifestOriginal = new File(appDir, "AndroidManifest.xml.orig");
+
+            if (manifest.isFile() && manifest.exists()) {
+                try {
 
-        if (manifest.isFile() && manifest.exists()) {
-            try {
+                    if (manifestOriginal.exists()) {
+                        manifestOriginal.delete(); //删除AndroidManifest.xml.orig
+                    }
+                    FileUtils.copyFile(manifest, manifestOriginal); //复制到AndroidManifest.xml.orig
+                    ResXmlPatcher.fixingPublicAttrsInProviderAttributes(manifest); //暂时不详
+                    invalidateFileTree(manifest);
+                } catch (IOException ex) {
+                    throw new AndrolibException(ex.getMessage());
+                }
+            }
+            //主要都是复制反编译后的文件
+            try (Profiler.Phase phase = Profiler.phase("resources")) {
+                buildResources(appDir, meta.usesFramework); //处理resources.arsc
+            }
+            try (Profiler.Phase phase = Profiler.phase("copy files")) {
+                buildLib(appDir);//处理lib
+                buildLibs(appDir);//处理libs
+                buildCopyOriginalFiles(appDir);//处理manifest和签名文件
+            }
+            try (Profiler.Phase phase = Profiler.phase("apk")) {
+                buildApk(appDir, outFile);//outFile可以由选项控制，默认为NULL
+            }
 
-                if (manifestOriginal.exists()) {
-                    manifestOriginal.delete(); //删除AndroidManifest.xml.orig
+            // we must go after the Apk is built, and copy the files in via Zip
+            // this is because Aapt won't add files it doesn't know (ex unknown files)
+            try (Profiler.Phase phase = Profiler.phase("zip rewrite")) {
+                buildUnknownFiles(appDir, outFile, meta);//注释说明的很清楚
+            }
+
+            // we copied the AndroidManifest.xml to AndroidManifest.xml.orig so we can edit it
+            // lets restore the unedited one, to not change the original
+            if (manifest.isFile() && manifest.exists()) {
+                try {
+                    if (new File(appDir, "AndroidManifest.xml").delete()) {
+                        FileUtils.moveFile(manifestOriginal, manifest);
+                    }
+                } catch (IOException ex) {
+                    throw new AndrolibException(ex.getMessage());
                 }
-                FileUtils.copyFile(manifest, manifestOriginal); //复制到AndroidManifest.xml.orig
-                ResXmlPatcher.fixingPublicAttrsInProviderAttributes(manifest); //暂时不详
-            } catch (IOException ex) {
-                throw new AndrolibException(ex.getMessage());
             }
+        } finally {
+            mFileTrees = null;
         }
-        //主要都是复制反编译后的文件
-        buildResources(appDir, meta.usesFramework); //处理resources.arsc
-        buildLib(appDir);//处理lib
-        buildLibs(appDir);//处理libs
-        buildCopyOriginalFiles(appDir);//处理manifest和签名文件
-        buildApk(appDir, outFile);//outFile可以由选项控制，默认为NULL
 
-        // we must go after the Apk is built, and copy the files in via Zip
-        // this is because Aapt won't add files it doesn't know (ex unknown files)
-        buildUnknownFiles(appDir, outFile, meta);//注释说明的很清楚
+        if (meta.splits != null && ! meta.splits.isEmpty()) {
+            buildSplits(appDir, outFile, meta.splits);
+        }
+    }
+
+    /**
+     * Builds the projects of the splits that were decoded along with the
+     * base apk, into the dir of the base apk. Their resources are built
+     * against the base apk, as they may refer to its resources.
+     */
+    private void buildSplits(ExtFile appDir, File baseApk, Collection<String> splits)
+            throws BrutException {
+        File outDir = baseApk.getAbsoluteFile().getParentFile();
+        for (String split : splits) {
+            File splitDir = new File(appDir, getSplitDirName(split));
+            if (! new File(splitDir, "apktool.yml").isFile()) {
+                throw new AndrolibException("Split " + split + " is missing in: " + splitDir);
+            }
+            LOGGER.info("Building split " + split + "...");
+            // a builder of its own, so that nothing of the base carries over
+            Androlib androlib = new Androlib(apkOptions);
+            androlib.mBaseApk = baseApk;
+            try (Profiler.Phase phase = Profiler.phase("split " + split)) {
+                androlib.buildApp(new ExtFile(splitDir), new File(outDir, split));
+            }
+        }
+    }
 
-        // we copied the AndroidManifest.xml to AndroidManifest.xml.orig so we can edit it
-        // lets restore the unedited one, to not change the original
-        if (manifest.isFile() && manifest.exists()) {
+    private int readApi(Map<String, String> sdkInfo) {
+        String targetSdk = sdkInfo == null ? null : sdkInfo.get("targetSdkVersion");
+        if (targetSdk != null) {
             try {
-                if (new File(appDir, "AndroidManifest.xml").delete()) {
-                    FileUtils.moveFile(manifestOriginal, manifest);
-                }
-            } catch (IOException ex) {
-                throw new AndrolibException(ex.getMessage());
+                return Integer.parseInt(targetSdk);
+            } catch (NumberFormatException ex) {
+                // a preview codename
+            }
+        }
+        return DEFAULT_API;
+    }
+
+    private ClassFilter readClassFilter(ClassFilterInfo info) {
+        if (info == null) {
+            return null;
+        }
+        ClassFilter filter = new ClassFilter();
+        if (info.includes != null) {
+            for (String pattern : info.includes) {
+                filter.addInclude(pattern);
+            }
+        }
+        if (info.excludes != null) {
+            for (String pattern : info.excludes) {
+                filter.addExclude(pattern);
             }
         }
+        return filter;
     }
 
     public void buildSources(File appDir)
@@ -378,6 +948,7 @@ public class Androlib {
             LOGGER.info("Copying " + appDir.toString() + " " + filename + " file...");
             try {
                 BrutIO.copyAndClose(new FileInputStream(working), new FileOutputStream(stored));//直接复制
+                invalidateFileTree(stored);
                 return true;
             } catch (IOException ex) {
                 throw new AndrolibException(ex);
@@ -399,7 +970,23 @@ public class Androlib {
         if (apkOptions.forceBuildAll || isModified(smaliDir, dex)) {
             LOGGER.info("Smaling " + folder + " folder into " + filename +"...");
             dex.delete();
-            SmaliBuilder.build(smaliDir, dex); //samli回编译成dex关键点
+            if (mFileTrees != null) {
+                // list the smali files from the tree the modification check already walked
+                try {
+                    smaliDir = new ExtFile(smaliDir, new FileDirectory(mFileTrees.get(smaliDir)));
+                } catch (IOException | DirectoryException ex) {
+                    throw new AndrolibException(ex);
+                }
+            }
+            try (Profiler.Phase phase = Profiler.phase("smali " + folder)) {
+                SmaliBuilder.build(smaliDir, dex, apkOptions.jobs); //samli回编译成dex关键点
+            }
+
+            File originalDex = new File(appDir, "original" + File.separator + filename);
+            if (apkOptions.classFilter != null && originalDex.isFile()) {
+                SmaliBuilder.mergeFiltered(dex, originalDex, apkOptions.classFilter, mApi);
+            }
+            invalidateFileTree(dex);
         }
         return true;
     }
@@ -426,6 +1013,7 @@ public class Androlib {
                     newFiles(APK_RESOURCES_FILENAMES, apkDir))) {
                 LOGGER.info("Copying raw resources...");
                 appDir.getDirectory().copyToDir(apkDir, APK_RESOURCES_FILENAMES);
+                invalidateFileTree(apkDir);
             }
             return true;
         } catch (DirectoryException ex) {
@@ -466,6 +1054,7 @@ public class Androlib {
                 tmpDir.copyToDir(apkDir,
                         tmpDir.containsDir("res") ? APK_RESOURCES_FILENAMES
                                 : APK_RESOURCES_WITHOUT_RES_FILENAMES);
+                invalidateFileTree(apkDir);
 
                 // delete tmpDir
                 apkFile.delete();
@@ -482,6 +1071,7 @@ public class Androlib {
             File apkDir = new File(appDir, APK_DIRNAME);
             LOGGER.info("Copying raw AndroidManifest.xml...");
             appDir.getDirectory().copyToDir(apkDir, APK_MANIFEST_FILENAMES);
+            invalidateFileTree(apkDir);
             return true;
         } catch (DirectoryException ex) {
             throw new AndrolibException(ex);
@@ -518,6 +1108,7 @@ public class Androlib {
 
                 Directory tmpDir = new ExtFile(apkFile).getDirectory();
                 tmpDir.copyToDir(apkDir, APK_MANIFEST_FILENAMES);
+                invalidateFileTree(apkDir);
             }
             return true;
         } catch (IOException | DirectoryException ex) {
@@ -548,8 +1139,13 @@ public class Androlib {
             LOGGER.info("Copying libs... (/" + folder + ")");
             try {
                 OS.rmdir(stored);
-                OS.cpdir(working, stored);//复制
-            } catch (BrutException ex) {
+                if (mFileTrees != null) {
+                    OS.cpdir(mFileTrees.get(working), stored);//复制
+                } else {
+                    OS.cpdir(working, stored);//复制
+                }
+                invalidateFileTree(stored);
+            } catch (IOException | BrutException ex) {
                 throw new AndrolibException(ex);
             }
         }
@@ -696,35 +1292,57 @@ public class Androlib {
 
     private File[] parseUsesFramework(UsesFramework usesFramework)
             throws AndrolibException {
-        if (usesFramework == null) {
-            return null;
-        }
-
-        List<Integer> ids = usesFramework.ids;
+        List<Integer> ids = usesFramework == null ? null : usesFramework.ids;
         if (ids == null || ids.isEmpty()) {
-            return null;
+            return mBaseApk == null ? null : new File[] { mBaseApk };
         }
 
         String tag = usesFramework.tag;
-        File[] files = new File[ids.size()];
+        File[] files = new File[ids.size() + (mBaseApk == null ? 0 : 1)];
         int i = 0;
         for (int id : ids) {
             files[i++] = mAndRes.getFrameworkApk(id, tag);
         }
+        if (mBaseApk != null) {
+            files[i] = mBaseApk;
+        }
         return files;
     }
 
-    private boolean isModified(File working, File stored) {
-        return ! stored.exists() || BrutIO.recursiveModifiedTime(working) > BrutIO .recursiveModifiedTime(stored);
+    private boolean isModified(File working, File stored) throws AndrolibException {
+        return ! stored.exists() || recursiveModifiedTime(working) > recursiveModifiedTime(stored);
     }
 
-    private boolean isModified(File[] working, File[] stored) {
+    private boolean isModified(File[] working, File[] stored) throws AndrolibException {
         for (int i = 0; i < stored.length; i++) {
             if (!stored[i].exists()) {
                 return true;
             }
         }
-        return BrutIO.recursiveModifiedTime(working) > BrutIO.recursiveModifiedTime(stored);
+        return recursiveModifiedTime(working) > recursiveModifiedTime(stored);
+    }
+
+    private long recursiveModifiedTime(File... files) throws AndrolibException {
+        if (mFileTrees == null) {
+            return BrutIO.recursiveModifiedTime(files);
+        }
+        try {
+            return mFileTrees.recursiveModifiedTime(files);
+        } catch (IOException ex) {
+            throw new AndrolibException(ex);
+        }
+    }
+
+    private void invalidateFileTree(File path) {
+        if (mFileTrees != null) {
+            mFileTrees.invalidate(path);
+        }
+    }
+
+    // a FileDirectory is handed to the File based variants so that
+    // decoding to disk behaves exactly as before
+    private static File getFileDir(Directory dir) {
+        return dir instanceof FileDirectory ? ((FileDirectory) dir).getDir() : null;
     }
 
     private File[] newFiles(String[] names, File dir) {
@@ -738,8 +1356,11 @@ public class Androlib {
     private final static Logger LOGGER = Logger.getLogger(Androlib.class.getName());
 
     private final static String SMALI_DIRNAME = "smali";
+
+    private final static int DEFAULT_API = 15;
+    final static String SPLITS_DIRNAME = "splits";
     private final static String APK_DIRNAME = "build/apk";
-    private final static String UNK_DIRNAME = "unknown";
+    final static String UNK_DIRNAME = "unknown";
     private final static String[] APK_RESOURCES_FILENAMES = new String[] {
             "resources.arsc", "AndroidManifest.xml", "res" };
     private final static String[] APK_RESOURCES_WITHOUT_RES_FILENAMES = new String[] {
@@ -748,6 +1369,8 @@ public class Androlib {
             "AndroidManifest.xml", "res" };
     private final static String[] APK_MANIFEST_FILENAMES = new String[] {
             "AndroidManifest.xml" };
+    private final static String[] APK_RAW_DIRNAMES = new String[] {
+            "assets", "lib", "libs" };
     private final static String[] APK_STANDARD_ALL_FILENAMES = new String[] {
             "classes.dex", "AndroidManifest.xml", "resources.arsc", "res", "r", "R",
             "lib", "libs", "assets", "META-INF" };
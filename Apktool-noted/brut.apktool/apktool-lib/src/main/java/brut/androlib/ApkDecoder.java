@@ -19,24 +19,46 @@ package brut.androlib;
 import brut.androlib.err.InFileNotFoundException;
 import brut.androlib.err.OutDirExistsException;
 import brut.androlib.err.UndefinedResObject;
+import brut.androlib.meta.ClassFilterInfo;
 import brut.androlib.meta.MetaInfo;
 import brut.androlib.meta.PackageInfo;
+import brut.androlib.meta.ResourceFilterInfo;
 import brut.androlib.meta.UsesFramework;
 import brut.androlib.meta.VersionInfo;
 import brut.androlib.res.AndrolibResources;
+import brut.androlib.res.ResFilter;
 import brut.androlib.res.data.ResPackage;
 import brut.androlib.res.data.ResTable;
+import brut.androlib.res.decoder.ResXmlCache;
 import brut.androlib.res.util.ExtFile;
 import brut.androlib.res.xml.ResXmlPatcher;
+import brut.androlib.src.ClassFilter;
 import brut.common.BrutException;
+import brut.directory.Directory;
 import brut.directory.DirectoryException;
+import brut.directory.FileDirectory;
+import brut.directory.MemoryDirectory;
+import brut.util.BrutIO;
 import brut.util.OS;
 import com.google.common.base.Strings;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
 /**
  * @author Ryszard Wiśniewski <brut.alll@gmail.com>
@@ -59,13 +81,89 @@ public class ApkDecoder {
         setApkFile(apkFile);
     }
 
+    /**
+     * Decodes an apk read from apkStream, which does not need to be a file or
+     * seekable, see setApkStream.
+     */
+    public ApkDecoder(InputStream apkStream, String apkName) {
+        this(apkStream, apkName, new Androlib());
+    }
+
+    public ApkDecoder(InputStream apkStream, String apkName, Androlib androlib) {
+        mAndrolib = androlib;
+        setApkStream(apkStream, apkName);
+    }
+
     public void setApkFile(File apkFile) {
         mApkFile = new ExtFile(apkFile);
+        mApkStream = null;
+        mApkSet = null;
+        mResTable = null;
+    }
+
+    /**
+     * Decodes the apk as the base apk of a set of split apks, config and
+     * feature splits. The resource tables of the splits are loaded on top
+     * of the one of the base apk, so their references into the base and
+     * into the frameworks resolve, and frameworks are only loaded once.
+     * Each split is decoded into splits/&lt;its name without .apk&gt; of the
+     * out dir, as a project of its own, concurrently with the base apk and
+     * the other splits. The splits are listed in apktool.yml, and building
+     * the project of the base apk builds them next to it.
+     *
+     * Splits need the base apk as a file and an out dir on disk.
+     */
+    public void setSplitApks(Collection<File> splitApks) {
+        mSplitApks = splitApks == null || splitApks.isEmpty() ? null : new ArrayList<File>(splitApks);
+    }
+
+    /**
+     * Decodes an app bundle set, an archive of split apks as bundletool
+     * build-apks writes it, see setSplitApks. The apks in the archive, or
+     * in its splits/ dir, are extracted to a temp dir; the base apk is
+     * base-master.apk or base.apk, the others are its splits.
+     */
+    public void setApkSet(File apkSet) {
+        setApkFile(apkSet);
+        mApkSet = apkSet;
+    }
+
+    /**
+     * Makes decode() read the apk from apkStream, in a single pass, instead of
+     * from a file. Assets, libs, META-INF and unknown files are written out as
+     * they stream past, and dex files are disassembled in the background
+     * once read, while the rest of the apk streams in. Only what the decode
+     * looks at again, the manifest, resources.arsc and res/, is kept: in
+     * memory up to a quarter of the memory budget, or 64 MB without one, and
+     * in temp files beyond that.
+     *
+     * The stream is read to its end, central directory included, but not
+     * closed. Incremental decoding
+     * needs the apk as a file, so setPreviousDecode is ignored.
+     *
+     * @param apkName the name recorded as apkFileName in apktool.yml
+     */
+    public void setApkStream(InputStream apkStream, String apkName) {
+        mApkFile = new ExtFile(apkName);
+        mApkStream = apkStream;
+        mApkSet = null;
         mResTable = null;
     }
 
     public void setOutDir(File outDir) throws AndrolibException {
         mOutDir = outDir;
+        mOutput = null;
+    }
+
+    /**
+     * Decodes into the given directory instead of an out dir on disk, e.g.
+     * a MemoryDirectory, or a ZipOutputDirectory to get the whole project as
+     * a single archive that Androlib.build accepts in place of a folder. The
+     * directory is expected to be empty, and each file is written only once.
+     */
+    public void setOutput(Directory output) {
+        mOutput = output;
+        mOutDir = null;
     }
 
     public void setApi(int api) {
@@ -73,40 +171,126 @@ public class ApkDecoder {
     }
 
     public void decode() throws AndrolibException, IOException, DirectoryException { //主要的apk解包函数
-        File outDir = getOutDir();  //初始化输出文件
-        AndrolibResources.sKeepBroken = mKeepBrokenResources; // -k选项
+        Profiler previousProfiler = Profiler.install(mAndrolib.apkOptions.profiler);
+        JobContext previousJob = JobContext.install(mAndrolib.apkOptions.jobContext);
+        Progress previousProgress = Progress.install(mAndrolib.apkOptions.progressListener == null
+                ? null : new Progress(mAndrolib.apkOptions.progressListener));
+        String previousApk = JfrEvent.setApk(mApkFile.getName());
+        // threads are only started for frameworks the manifest refers to
+        mPrefetchExecutor = Executors.newFixedThreadPool(Math.max(1, mAndrolib.apkOptions.jobs));
+        try (Profiler.Phase phase = Profiler.phase("decode")) {
+            if (mApkSet != null) {
+                extractApkSet();
+            }
+            decodeApk();
+        } finally {
+            closeSplits();
+            closeStream();
+            closePrefetch();
+            JfrEvent.setApk(previousApk);
+            Progress.install(previousProgress);
+            JobContext.install(previousJob);
+            Profiler.install(previousProfiler);
+        }
+    }
 
-        if (!mForceDelete && outDir.exists()) { // -f选项
-            throw new OutDirExistsException();
+    private void decodeApk() throws AndrolibException, IOException, DirectoryException {
+        boolean streamed = mApkStream != null;
+        if (mSplitApks != null && (streamed || mOutput != null)) {
+            throw new AndrolibException("Split apks need the base apk as a file and an out dir on disk");
         }
+        Directory outDir;
+        File outFile = null;
+        EntryManifest previous = null;
+        if (mOutput != null) {
+            if (!streamed && (!mApkFile.isFile() || !mApkFile.canRead())) {
+                throw new InFileNotFoundException();
+            }
+            outDir = mOutput;
+            if (mPreviousDir != null) {
+                LOGGER.warning("Incremental decoding needs an output directory on disk, decoding everything");
+            }
+        } else {
+            outFile = getOutDir();  //初始化输出文件
+            if (streamed && mPreviousDir != null) {
+                LOGGER.warning("Incremental decoding needs the apk as a file, decoding everything");
+            } else {
+                previous = loadPreviousDecode();
+            }
+            boolean inPlace = previous != null
+                    && outFile.getCanonicalFile().equals(mPreviousDir.getCanonicalFile());
+
+            if (!inPlace && !mForceDelete && outFile.exists()) { // -f选项
+                throw new OutDirExistsException();
+            }
+
+            if (!streamed && (!mApkFile.isFile() || !mApkFile.canRead())) {//判断文件是否存在及可读
+                throw new InFileNotFoundException();
+            }
 
-        if (!mApkFile.isFile() || !mApkFile.canRead()) {//判断文件是否存在及可读
-            throw new InFileNotFoundException();
+            try {
+                if (!inPlace) {
+                    OS.rmdir(outFile);
+                    outFile.mkdirs();
+                    if (previous != null) {
+                        LOGGER.info("Copying previous decode " + mPreviousDir.getName() + "...");
+                        OS.cpdir(mPreviousDir, outFile);
+                    }
+                }
+            } catch (BrutException ex) {
+                throw new AndrolibException(ex);
+            }
+            // written again once the decode is complete
+            new File(outFile, EntryManifest.FILENAME).delete();
+            outDir = new FileDirectory(outFile);
         }
 
-        try {
-            OS.rmdir(outDir);
-        } catch (BrutException ex) {
-            throw new AndrolibException(ex);
+        if (streamed) {
+            try (Profiler.Phase phase = Profiler.phase("stream")) {
+                streamApk(outDir);
+            }
+        } else {
+            try (Profiler.Phase phase = Profiler.phase("zip index")) {
+                mApkFile.getDirectory();
+            }
+        }
+        if (mSplitApks != null) {
+            startSplits(outFile);
+        }
+
+        EntryManifest entries = null;
+        if (!streamed && isEntryManifestRecorded()) {
+            entries = EntryManifest.read(mApkFile);
+            entries.setOptions(getDecodeOptions());
         }
-        outDir.mkdirs();
 
         LOGGER.info("Using Apktool " + Androlib.getVersion() + " on " + mApkFile.getName());
 
         if (hasResources()) {//判断是否有resource.arsc
             switch (mDecodeResources) {
                 case DECODE_RESOURCES_NONE:   //-r选项,即没有res
-                    mAndrolib.decodeResourcesRaw(mApkFile, outDir);//直接复制raw,即复制原始文件
+                    try (Profiler.Phase phase = Profiler.phase("raw resources")) {
+                        mAndrolib.decodeResourcesRaw(mApkFile, outDir);//直接复制raw,即复制原始文件
+                    }
                     break;
                 case DECODE_RESOURCES_FULL://需要解码的 //默认选项
                     setTargetSdkVersion(); //设置目标sdk版本
                     setAnalysisMode(mAnalysisMode, true);//开始分析模式
 
+                    ResTable resTable = getResTable();
                     if (hasManifest()) { //是否有manifest文件的
-                        //解码文件with resource
-                        mAndrolib.decodeManifestWithResources(mApkFile, outDir, getResTable());
+                        try (Profiler.Phase phase = Profiler.phase("manifest")) {
+                            //解码文件with resource
+                            mAndrolib.decodeManifestWithResources(mApkFile, outDir, resTable);
+                        }
+                    }
+                    try (Profiler.Phase phase = Profiler.phase("resources")) {
+                        if (entries != null) {
+                            mAndrolib.decodeResourcesFull(mApkFile, outDir, resTable, entries, previous);
+                        } else {
+                            mAndrolib.decodeResourcesFull(mApkFile, outDir, resTable); //解码,可跟进去学习
+                        }
                     }
-                    mAndrolib.decodeResourcesFull(mApkFile, outDir, getResTable()); //解码,可跟进去学习
                     break;
             }
         } else {
@@ -115,25 +299,26 @@ public class ApkDecoder {
             if (hasManifest()) {
                 switch (mDecodeResources) {
                     case DECODE_RESOURCES_NONE:
-                        mAndrolib.decodeManifestRaw(mApkFile, outDir); //直接复制
+                        try (Profiler.Phase phase = Profiler.phase("manifest")) {
+                            mAndrolib.decodeManifestRaw(mApkFile, outDir); //直接复制
+                        }
                         break;
                     case DECODE_RESOURCES_FULL:
-                        mAndrolib.decodeManifestFull(mApkFile, outDir,
-                                getResTable());//xml解码关键点
+                        ResTable resTable = getResTable();
+                        try (Profiler.Phase phase = Profiler.phase("manifest")) {
+                            mAndrolib.decodeManifestFull(mApkFile, outDir,
+                                    resTable);//xml解码关键点
+                        }
                         break;
                 }
             }
         }
 
+        if (streamed) {
+            finishStreamedSources(outDir);
+        }
         if (hasSources()) { //dex 文件处理
-            switch (mDecodeSources) {
-                case DECODE_SOURCES_NONE://直接复制，不生成smali
-                    mAndrolib.decodeSourcesRaw(mApkFile, outDir, "classes.dex");
-                    break;
-                case DECODE_SOURCES_SMALI://反编译成smali入口点
-                    mAndrolib.decodeSourcesSmali(mApkFile, outDir, "classes.dex", mBakDeb, mApi);
-                    break;
-            }
+            decodeSources(outDir, "classes.dex", entries, previous);
         }
         //下面同上
         if (hasMultipleSources()) {//多个dex文件处理
@@ -142,25 +327,476 @@ public class ApkDecoder {
             for (String file : files) {
                 if (file.endsWith(".dex")) {
                     if (! file.equalsIgnoreCase("classes.dex")) {
-                        switch(mDecodeSources) {
-                            case DECODE_SOURCES_NONE:
-                                mAndrolib.decodeSourcesRaw(mApkFile, outDir, file);
-                                break;
-                            case DECODE_SOURCES_SMALI:
-                                mAndrolib.decodeSourcesSmali(mApkFile, outDir, file, mBakDeb, mApi);
-                                break;
-                        }
+                        decodeSources(outDir, file, entries, previous);
                     }
                 }
             }
         }
 
-        mAndrolib.decodeRawFiles(mApkFile, outDir);  //处理原始文件 assets、libs
-        mAndrolib.decodeUnknownFiles(mApkFile, outDir, mResTable);//处理未知格式文件，即不是 "classes.dex", "AndroidManifest.xml", "resources.arsc", "res", "r", "R","lib", "libs", "assets", "META-INF"
+        JobContext.check();
+        try (Profiler.Phase phase = Profiler.phase("raw files")) {
+            if (entries != null) {
+                mAndrolib.decodeRawFiles(mApkFile, outDir, entries, previous);
+            } else {
+                mAndrolib.decodeRawFiles(mApkFile, outDir);  //处理原始文件 assets、libs
+            }
+        }
+        try (Profiler.Phase phase = Profiler.phase("unknown files")) {
+            mAndrolib.decodeUnknownFiles(mApkFile, outDir, mResTable);//处理未知格式文件，即不是 "classes.dex", "AndroidManifest.xml", "resources.arsc", "res", "r", "R","lib", "libs", "assets", "META-INF"
+        }
         mUncompressedFiles = new ArrayList<String>();
-        mAndrolib.recordUncompressedFiles(mApkFile, mUncompressedFiles); //记录没有解压缩的文件
-        mAndrolib.writeOriginalFiles(mApkFile, outDir); //复制原始文件
-        writeMetaFile();//写meta文件
+        if (streamed) {
+            mAndrolib.recordUncompressedFiles(mStreamedLevels, mUncompressedFiles);
+        } else {
+            mAndrolib.recordUncompressedFiles(mApkFile, mUncompressedFiles); //记录没有解压缩的文件
+        }
+        try (Profiler.Phase phase = Profiler.phase("original files")) {
+            mAndrolib.writeOriginalFiles(mApkFile, outDir); //复制原始文件
+        }
+        if (mSplits != null) {
+            try (Profiler.Phase phase = Profiler.phase("splits")) {
+                finishSplits();
+            }
+        }
+        try (Profiler.Phase phase = Profiler.phase("meta")) {
+            writeMetaFile(outDir);//写meta文件
+        }
+
+        if (entries != null) {
+            recordCopiedFiles(entries);
+            if (previous != null) {
+                removeStaleOutputs(outFile, entries, previous);
+            }
+            entries.setApi(mApi);
+            entries.store(outDir);
+        }
+    }
+
+    private void decodeSources(Directory outDir, String file, EntryManifest entries, EntryManifest previous)
+            throws AndrolibException {
+        JobContext.check();
+        String output = mDecodeSources == DECODE_SOURCES_SMALI ? Androlib.getSmaliDirName(file) : file;
+        if (previous != null && entries.isUnchanged(file, previous) && output.equals(previous.getOutput(file))
+                && previous.getApi() == mApi && (outDir.containsDir(output) || outDir.containsFile(output))) {
+            LOGGER.info("Keeping " + output + " of unchanged " + file);
+        } else {
+            switch (mDecodeSources) {
+                case DECODE_SOURCES_NONE://直接复制，不生成smali
+                    try (Profiler.Phase phase = Profiler.phase("copy " + file)) {
+                        mAndrolib.decodeSourcesRaw(mApkFile, outDir, file);
+                    }
+                    break;
+                case DECODE_SOURCES_SMALI://反编译成smali入口点
+                    try (Profiler.Phase phase = Profiler.phase("baksmali " + file)) {
+                        mAndrolib.decodeSourcesSmali(mApkFile, outDir, file, mBakDeb, mApi);
+                    }
+                    break;
+            }
+        }
+        if (entries != null) {
+            entries.setOutput(file, output);
+        }
+    }
+
+    /**
+     * Reads the apk stream to its end. What is copied as is goes straight to
+     * outDir, and dex files are spooled to temp files and disassembled in
+     * the background. Everything else is spooled to mApkFile, where the
+     * steps that follow find it, while they find neither the copied files
+     * nor the dex files.
+     */
+    private void streamApk(final Directory outDir) throws AndrolibException {
+        File tmpDir;
+        try {
+            tmpDir = OS.createTempDirectory();
+        } catch (BrutException ex) {
+            throw new AndrolibException(ex);
+        }
+        mStreamTmpDir = tmpDir;
+        long budget = mAndrolib.apkOptions.memoryBudget;
+        mSpool = new MemoryDirectory(budget > 0 ? budget / 4 : STREAM_SPOOL_MEMORY, tmpDir);
+        mApkFile = new ExtFile(mApkFile, mSpool);
+        mStreamedLevels = new LinkedHashMap<String, Integer>();
+        mStreamedSources = new ArrayList<Future<Void>>();
+        mDeferredSources = new LinkedHashMap<String, File>();
+
+        boolean arscRead = false;
+        try (ZipInputStream zip = new ZipInputStream(new CloseShieldInputStream(mApkStream))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                JobContext.check();
+                String name = entry.getName();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                if (! isSafeEntryName(name)) {
+                    LOGGER.warning("Skipping entry with an unsafe name: " + name);
+                    continue;
+                }
+                mStreamedLevels.put(name, entry.getMethod());
+                arscRead |= name.equals("resources.arsc");
+
+                if (mAndrolib.decodeStreamedFile(name, entry.getMethod(), zip, outDir)) {
+                    continue;
+                }
+                if (name.endsWith(".dex") && mDecodeSources == DECODE_SOURCES_SMALI) {
+                    File dexFile = new File(tmpDir, mStreamedLevels.size() + ".dex");
+                    BrutIO.copyAndClose(new CloseShieldInputStream(zip), new FileOutputStream(dexFile));
+                    submitStreamedSources(outDir, name, dexFile, arscRead);
+                } else {
+                    BrutIO.copyAndClose(new CloseShieldInputStream(zip), mSpool.getFileOutput(name));
+                }
+            }
+            // ZipInputStream stops at the central directory, drain the rest so
+            // that whatever writes into the stream is not left blocked
+            IOUtils.skip(mApkStream, Long.MAX_VALUE);
+        } catch (DirectoryException | IOException ex) {
+            throw new AndrolibException("Could not read apk stream: " + mApkFile.getName(), ex);
+        } finally {
+            mApkStream = null;
+        }
+    }
+
+    /**
+     * Disassembles a streamed dex in the background, once the api it is
+     * disassembled for is known. Until resources.arsc has been read, that
+     * is only known after the resources are decoded, so dex files read
+     * before it wait for finishStreamedSources.
+     */
+    private void submitStreamedSources(final Directory outDir, final String name, final File dexFile,
+                                       boolean arscRead) throws AndrolibException, IOException {
+        boolean apiKnown = mDecodeResources != DECODE_RESOURCES_FULL || arscRead;
+        // baksmali writes to the file system, other outputs can't be written from two threads
+        if (! apiKnown || mOutput != null) {
+            mDeferredSources.put(name, dexFile);
+            return;
+        }
+        if (mDecodeResources == DECODE_RESOURCES_FULL) {
+            setTargetSdkVersion();
+        }
+        final int api = mApi;
+        if (mSourcesExecutor == null) {
+            mSourcesExecutor = Executors.newSingleThreadExecutor();
+        }
+        mStreamedSources.add(mSourcesExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws AndrolibException {
+                decodeStreamedSources(outDir, name, dexFile, api);
+                return null;
+            }
+        }));
+    }
+
+    private void decodeStreamedSources(Directory outDir, String name, File dexFile, int api)
+            throws AndrolibException {
+        try (Profiler.Phase phase = Profiler.phase("baksmali " + name)) {
+            mAndrolib.decodeStreamedSources(dexFile, outDir, name, mBakDeb, api);
+        }
+        dexFile.delete();
+    }
+
+    /**
+     * Waits for the dex files disassembled in the background, then
+     * disassembles the ones that were waiting for the api.
+     */
+    private void finishStreamedSources(Directory outDir) throws AndrolibException {
+        try {
+            for (Future<Void> result : mStreamedSources) {
+                result.get();
+            }
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof AndrolibException) {
+                throw (AndrolibException) ex.getCause();
+            }
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new AndrolibException(ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new AndrolibException(ex);
+        }
+        for (Map.Entry<String, File> dex : mDeferredSources.entrySet()) {
+            JobContext.check();
+            decodeStreamedSources(outDir, dex.getKey(), dex.getValue(), mApi);
+        }
+    }
+
+    private void closeStream() {
+        if (mSourcesExecutor != null) {
+            mSourcesExecutor.shutdownNow();
+            mSourcesExecutor = null;
+        }
+        if (mSpool != null) {
+            try {
+                mSpool.close();
+            } catch (IOException ex) {
+                LOGGER.warning("Could not delete spooled files: " + ex.getMessage());
+            }
+            mSpool = null;
+        }
+        if (mStreamTmpDir != null) {
+            try {
+                OS.rmdir(mStreamTmpDir);
+            } catch (BrutException ex) {
+                LOGGER.warning("Could not delete " + mStreamTmpDir + ": " + ex.getMessage());
+            }
+            mStreamTmpDir = null;
+        }
+    }
+
+    /**
+     * @return false for names that would be written outside of the output
+     *         directory, like "../x" or "/x"
+     */
+    private static boolean isSafeEntryName(String name) {
+        if (name.isEmpty() || name.startsWith("/") || name.startsWith("\\")) {
+            return false;
+        }
+        for (String part : name.split("[/\\\\]")) {
+            if (part.equals("..")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Starts decoding the splits in the background, once the table of the
+     * base apk is loaded. They are disassembled for the api of the base
+     * apk, unless their manifest has a targetSdkVersion of its own.
+     */
+    private void startSplits(File outFile) throws AndrolibException, IOException {
+        Set<String> names = new HashSet<String>();
+        names.add(mApkFile.getName());
+        for (File splitApk : mSplitApks) {
+            if (! names.add(splitApk.getName())) {
+                throw new AndrolibException("Multiple apks named: " + splitApk.getName());
+            }
+            if (! splitApk.isFile() || ! splitApk.canRead()) {
+                throw new InFileNotFoundException();
+            }
+        }
+
+        ResTable baseTable = null;
+        if (mDecodeResources == DECODE_RESOURCES_FULL && (hasResources() || hasManifest())) {
+            if (hasResources()) {
+                setTargetSdkVersion();
+            }
+            baseTable = getResTable();
+        }
+
+        mSplits = new LinkedHashMap<String, Future<Void>>();
+        mSplitExecutor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(mAndrolib.apkOptions.jobs, mSplitApks.size())));
+        for (File splitApk : mSplitApks) {
+            final ApkDecoder split = new ApkDecoder(splitApk, new Androlib(mAndrolib.apkOptions));
+            split.mBaseResTable = baseTable;
+            split.mOutDir = new File(outFile, Androlib.getSplitDirName(splitApk.getName()));
+            // its dir is part of the out dir of the base apk, which is checked already
+            split.mForceDelete = true;
+            split.mDecodeSources = mDecodeSources;
+            split.mDecodeResources = mDecodeResources;
+            split.mBakDeb = mBakDeb;
+            split.mAnalysisMode = mAnalysisMode;
+            split.mApi = mApi;
+            mSplits.put(splitApk.getName(), mSplitExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws AndrolibException, IOException, DirectoryException {
+                    split.decodeSplit();
+                    return null;
+                }
+            }));
+        }
+    }
+
+    private void decodeSplit() throws AndrolibException, IOException, DirectoryException {
+        String previousApk = JfrEvent.setApk(mApkFile.getName());
+        try (Profiler.Phase phase = Profiler.phase("split " + mApkFile.getName())) {
+            LOGGER.info("Decoding split " + mApkFile.getName() + "...");
+            decodeApk();
+        } finally {
+            JfrEvent.setApk(previousApk);
+        }
+    }
+
+    private void finishSplits() throws AndrolibException {
+        try {
+            for (Future<Void> result : mSplits.values()) {
+                result.get();
+            }
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof AndrolibException) {
+                throw (AndrolibException) ex.getCause();
+            }
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new AndrolibException(ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new AndrolibException(ex);
+        }
+    }
+
+    private ResTable loadResTable(boolean loadMainPkg) throws AndrolibException {
+        // only decoding the resources looks up framework resources, and only
+        // decode() owns a pool to load them on
+        ExecutorService prefetcher = mDecodeResources == DECODE_RESOURCES_FULL ? mPrefetchExecutor : null;
+        return mAndrolib.getResTable(mApkFile, loadMainPkg, mBaseResTable, prefetcher);
+    }
+
+    private void closePrefetch() {
+        if (mPrefetchExecutor != null) {
+            for (Runnable task : mPrefetchExecutor.shutdownNow()) {
+                // lets a later lookup load the package lazily instead of waiting for it
+                ((Future<?>) task).cancel(false);
+            }
+            mPrefetchExecutor = null;
+        }
+    }
+
+    private void closeSplits() {
+        if (mSplitExecutor != null) {
+            mSplitExecutor.shutdownNow();
+            try {
+                // a failed decode must not leave splits writing to the out dir
+                mSplitExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            mSplitExecutor = null;
+        }
+        mSplits = null;
+        if (mApkSetTmpDir != null) {
+            try {
+                OS.rmdir(mApkSetTmpDir);
+            } catch (BrutException ex) {
+                LOGGER.warning("Could not delete " + mApkSetTmpDir + ": " + ex.getMessage());
+            }
+            mApkSetTmpDir = null;
+            mApkFile = new ExtFile(mApkSet);
+            mSplitApks = null;
+        }
+    }
+
+    /**
+     * Extracts the apks of the app bundle set to a temp dir, then decodes
+     * them as base apk and splits.
+     */
+    private void extractApkSet() throws AndrolibException {
+        try {
+            mApkSetTmpDir = OS.createTempDirectory();
+        } catch (BrutException ex) {
+            throw new AndrolibException(ex);
+        }
+        File base = null;
+        List<File> splits = new ArrayList<File>();
+        try (ZipFile zip = new ZipFile(mApkSet)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (name.startsWith("splits/")) {
+                    name = name.substring(7);
+                }
+                // standalone apks and the like are left out
+                if (entry.isDirectory() || name.contains("/") || ! name.endsWith(".apk")
+                        || ! isSafeEntryName(name)) {
+                    continue;
+                }
+                File apk = new File(mApkSetTmpDir, name);
+                BrutIO.copyAndClose(zip.getInputStream(entry), new FileOutputStream(apk));
+                if (name.equals("base-master.apk") || name.equals("base.apk")) {
+                    base = apk;
+                } else {
+                    splits.add(apk);
+                }
+            }
+        } catch (IOException ex) {
+            throw new AndrolibException("Could not read apk set: " + mApkSet, ex);
+        }
+        if (base == null) {
+            throw new AndrolibException("No base-master.apk or base.apk in apk set: " + mApkSet);
+        }
+        Collections.sort(splits);
+        mApkFile = new ExtFile(base);
+        setSplitApks(splits);
+    }
+
+    private EntryManifest loadPreviousDecode() throws AndrolibException {
+        if (mPreviousDir == null) {
+            return null;
+        }
+        if (! isEntryManifestRecorded()) {
+            LOGGER.warning("Incremental decoding does not support filters, decoding everything");
+            return null;
+        }
+        EntryManifest previous = EntryManifest.load(mPreviousDir);
+        if (previous == null) {
+            LOGGER.warning("No " + EntryManifest.FILENAME + " in " + mPreviousDir + ", decoding everything");
+            return null;
+        }
+        if (! getDecodeOptions().equals(previous.getOptions())) {
+            LOGGER.warning(mPreviousDir + " was decoded with other options, decoding everything");
+            return null;
+        }
+        return previous;
+    }
+
+    private boolean isEntryManifestRecorded() {
+        ResFilter resFilter = mAndrolib.apkOptions.resourceFilter;
+        ClassFilter classFilter = mAndrolib.apkOptions.classFilter;
+        return (resFilter == null || resFilter.isEmpty()) && (classFilter == null || classFilter.isEmpty());
+    }
+
+    private String getDecodeOptions() {
+        return "version=" + Androlib.getVersion()
+                + ",resources=" + mDecodeResources
+                + ",sources=" + mDecodeSources
+                + ",bakdeb=" + mBakDeb
+                + ",keepBroken=" + mAndrolib.apkOptions.keepBrokenResources
+                + ",analysis=" + mAnalysisMode
+                + ",frameworkTag=" + mAndrolib.apkOptions.frameworkTag;
+    }
+
+    private void recordCopiedFiles(EntryManifest entries) {
+        for (String file : entries.getNames()) {
+            if (file.equals("AndroidManifest.xml") || file.startsWith("META-INF/")) {
+                entries.setOutput(file, "original/" + file);
+            } else if (mDecodeResources == DECODE_RESOURCES_NONE
+                    && (file.equals("resources.arsc") || file.startsWith("res/"))) {
+                entries.setOutput(file, file);
+            } else if (!Androlib.isAPKFileNames(file) && !file.endsWith(".dex")) {
+                entries.setOutput(file, Androlib.UNK_DIRNAME + "/" + file);
+            }
+        }
+    }
+
+    private void removeStaleOutputs(File outFile, EntryManifest entries, EntryManifest previous)
+            throws AndrolibException {
+        Set<String> outputs = entries.getOutputs();
+        try {
+            String outPath = outFile.getCanonicalPath() + File.separator;
+            for (String output : previous.getOutputs()) {
+                if (outputs.contains(output)) {
+                    continue;
+                }
+                File stale = new File(outFile, output);
+                if (! stale.getCanonicalPath().startsWith(outPath)) {
+                    throw new AndrolibException("Invalid output in " + EntryManifest.FILENAME + ": " + output);
+                }
+                if (stale.isDirectory()) {
+                    OS.rmdir(stale);
+                } else {
+                    stale.delete();
+                }
+            }
+        } catch (AndrolibException ex) {
+            throw ex;
+        } catch (BrutException | IOException ex) {
+            throw new AndrolibException(ex);
+        }
     }
 
     public void setDecodeSources(short mode) throws AndrolibException {
@@ -191,7 +827,7 @@ public class ApkDecoder {
 
     public void setTargetSdkVersion() throws AndrolibException, IOException {
         if (mResTable == null) {
-            mResTable = mAndrolib.getResTable(mApkFile);
+            mResTable = loadResTable(true);
         }
 
         Map<String, String> sdkInfo = mResTable.getSdkInfo();
@@ -204,6 +840,10 @@ public class ApkDecoder {
         mBakDeb = bakdeb;
     }
 
+    public void setJobs(int jobs) {
+        mAndrolib.apkOptions.jobs = jobs;
+    }
+
     public void setForceDelete(boolean forceDelete) {
         mForceDelete = forceDelete;
     }
@@ -212,14 +852,102 @@ public class ApkDecoder {
         mAndrolib.apkOptions.frameworkTag = tag;
     }
 
+    /**
+     * Only decodes the resources selected by the filter. The project stays
+     * buildable for that subset; files of the other resources are copied
+     * raw to original/res, next to a copy of the original resources.arsc.
+     */
+    public void setResourceFilter(ResFilter filter) {
+        mAndrolib.apkOptions.resourceFilter = filter;
+    }
+
+    /**
+     * Shares decoded resource xml between decodes. Pass the same cache to
+     * the decoders of many apks to skip files they have in common.
+     */
+    public void setResXmlCache(ResXmlCache cache) {
+        mAndrolib.apkOptions.resXmlCache = cache;
+    }
+
+    /**
+     * Decodes incrementally against dir, an earlier decode of another
+     * version of the same apk. Entries whose CRC and size are unchanged
+     * according to the apktool.crc recorded there are reused from it, and
+     * only changed res/ files, dex files and assets are decoded again;
+     * values/ and public.xml are regenerated when resources.arsc changed.
+     * dir may also be the output dir itself, which is then updated in place.
+     * Without a usable apktool.crc, or with different decode options, the
+     * apk is decoded in full.
+     */
+    public void setPreviousDecode(File dir) {
+        mPreviousDir = dir;
+    }
+
+    /**
+     * Only disassembles the classes selected by the filter. The original
+     * dex files are kept in original/ so build can merge the other classes
+     * back in.
+     */
+    public void setClassFilter(ClassFilter filter) {
+        mAndrolib.apkOptions.classFilter = filter;
+    }
+
+    /**
+     * Reuses the smali of dex files disassembled before with the same
+     * options from a cache in dir.
+     */
+    public void setSmaliCacheDir(String dir) {
+        mAndrolib.apkOptions.smaliCacheDir = dir;
+    }
+
+    public void setSmaliCacheSize(long maxSize) {
+        mAndrolib.apkOptions.smaliCacheSize = maxSize;
+    }
+
     public void setKeepBrokenResources(boolean keepBrokenResources) {
-        mKeepBrokenResources = keepBrokenResources;
+        mAndrolib.apkOptions.keepBrokenResources = keepBrokenResources; // -k选项
     }
 
     public void setFrameworkDir(String dir) {
         mAndrolib.apkOptions.frameworkFolderLocation = dir;
     }
 
+    /**
+     * Decodes in a way that keeps less in memory, for apks that otherwise
+     * need a much bigger heap than maxBytes: the resources are dropped from
+     * the table once res/ is written, big string pools are mapped from temp
+     * files and baksmali only queues a few classes at a time. After the
+     * decode, getResTable() only lists the packages, not their resources.
+     *
+     * @param maxBytes 0 to decode without these limits
+     */
+    public void setMemoryBudget(long maxBytes) {
+        mAndrolib.apkOptions.memoryBudget = maxBytes;
+    }
+
+    /**
+     * Makes the decode stop with a JobCancelledException once job is
+     * cancelled or past its deadline.
+     */
+    public void setJobContext(JobContext job) {
+        mAndrolib.apkOptions.jobContext = job;
+    }
+
+    /**
+     * Reports the phases of the decode, the files and classes decoded and
+     * the bytes copied to listener, see Progress.
+     */
+    public void setProgressListener(ProgressListener listener) {
+        mAndrolib.apkOptions.progressListener = listener;
+    }
+
+    /**
+     * Records the phases of the decode in profiler, see Profiler.
+     */
+    public void setProfiler(Profiler profiler) {
+        mAndrolib.apkOptions.profiler = profiler;
+    }
+
     public ResTable getResTable() throws AndrolibException {
         if (mResTable == null) {
             boolean hasResources = hasResources();
@@ -228,7 +956,7 @@ public class ApkDecoder {
                 throw new AndrolibException(
                         "Apk doesn't contain either AndroidManifest.xml file or resources.arsc file");
             }
-            mResTable = mAndrolib.getResTable(mApkFile, hasResources);
+            mResTable = loadResTable(hasResources);
         }
         return mResTable;
     }
@@ -287,7 +1015,7 @@ public class ApkDecoder {
         return mOutDir;
     }
 
-    private void writeMetaFile() throws AndrolibException {
+    private void writeMetaFile(Directory outDir) throws AndrolibException {
         MetaInfo meta = new MetaInfo();
         meta.version = Androlib.getVersion();
         meta.apkFileName = mApkFile.getName();
@@ -297,13 +1025,16 @@ public class ApkDecoder {
             putUsesFramework(meta);
             putSdkInfo(meta);
             putPackageInfo(meta);
-            putVersionInfo(meta);
+            putVersionInfo(outDir, meta);
             putSharedLibraryInfo(meta);
+            putResourceFilterInfo(meta);
         }
         putUnknownInfo(meta);
         putFileCompressionInfo(meta);
+        putClassFilterInfo(meta);
+        putSplitInfo(meta);
 
-        mAndrolib.writeMetaFile(mOutDir, meta);
+        mAndrolib.writeMetaFile(outDir, meta);
     }
 
     private void putUsesFramework(MetaInfo meta) throws AndrolibException {
@@ -356,9 +1087,10 @@ public class ApkDecoder {
         meta.packageInfo.forcedPackageId = String.valueOf(id);
     }
 
-    private void putVersionInfo(MetaInfo meta) throws AndrolibException {
+    private void putVersionInfo(Directory outDir, MetaInfo meta) throws AndrolibException {
         VersionInfo info = getResTable().getVersionInfo();
-        String refValue = ResXmlPatcher.pullValueFromStrings(mOutDir, info.versionName);
+        String refValue = mOutDir != null ? ResXmlPatcher.pullValueFromStrings(mOutDir, info.versionName)
+                : ResXmlPatcher.pullValueFromStrings(outDir, info.versionName);
         if (refValue != null) {
             info.versionName = refValue;
         }
@@ -375,6 +1107,33 @@ public class ApkDecoder {
         }
     }
 
+    private void putResourceFilterInfo(MetaInfo meta) {
+        ResFilter filter = mAndrolib.apkOptions.resourceFilter;
+        if (filter == null || filter.isEmpty()) {
+            return;
+        }
+        meta.resourceFilter = new ResourceFilterInfo();
+        meta.resourceFilter.types = new ArrayList<String>(filter.getTypes());
+        meta.resourceFilter.configs = new ArrayList<String>(filter.getConfigs());
+        meta.resourceFilter.paths = new ArrayList<String>(filter.getPaths());
+    }
+
+    private void putClassFilterInfo(MetaInfo meta) {
+        ClassFilter filter = mAndrolib.apkOptions.classFilter;
+        if (mDecodeSources != DECODE_SOURCES_SMALI || filter == null || filter.isEmpty()) {
+            return;
+        }
+        meta.classFilter = new ClassFilterInfo();
+        meta.classFilter.includes = new ArrayList<String>(filter.getIncludes());
+        meta.classFilter.excludes = new ArrayList<String>(filter.getExcludes());
+    }
+
+    private void putSplitInfo(MetaInfo meta) {
+        if (mSplits != null) {
+            meta.splits = new ArrayList<String>(mSplits.keySet());
+        }
+    }
+
     private void putSharedLibraryInfo(MetaInfo meta) throws AndrolibException {
         meta.sharedLibrary = mResTable.getSharedLibrary();
     }
@@ -384,14 +1143,37 @@ public class ApkDecoder {
     private final static Logger LOGGER = Logger.getLogger(Androlib.class.getName());
 
     private ExtFile mApkFile;
+    private InputStream mApkStream;
     private File mOutDir;
+    private Directory mOutput;
+    private File mPreviousDir;
     private ResTable mResTable;
     private short mDecodeSources = DECODE_SOURCES_SMALI;
     private short mDecodeResources = DECODE_RESOURCES_FULL;
     private boolean mForceDelete = false;
-    private boolean mKeepBrokenResources = false;
     private boolean mBakDeb = true;
     private Collection<String> mUncompressedFiles;
     private boolean mAnalysisMode = false;
     private int mApi = 15;
+
+    // state of a streamed decode, see streamApk
+    private MemoryDirectory mSpool;
+    private File mStreamTmpDir;
+    private Map<String, Integer> mStreamedLevels;
+    private ExecutorService mSourcesExecutor;
+    private List<Future<Void>> mStreamedSources;
+    private Map<String, File> mDeferredSources;
+
+    // splits decoded along with the apk, see setSplitApks and setApkSet
+    private List<File> mSplitApks;
+    private File mApkSet;
+    private File mApkSetTmpDir;
+    private ExecutorService mSplitExecutor;
+    private Map<String, Future<Void>> mSplits;
+    // on the decoder of a split, the table of its base apk
+    private ResTable mBaseResTable;
+    // loads frameworks in the background during decode(), see loadResTable
+    private ExecutorService mPrefetchExecutor;
+
+    private final static long STREAM_SPOOL_MEMORY = 64 * 1024 * 1024;
 }
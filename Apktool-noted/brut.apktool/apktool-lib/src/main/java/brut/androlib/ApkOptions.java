@@ -15,6 +15,10 @@
  */
 package brut.androlib;
 
+import brut.androlib.res.ResFilter;
+import brut.androlib.res.decoder.ResXmlCache;
+import brut.androlib.src.ClassFilter;
+
 import java.util.Collection;
 
 public class ApkOptions {
@@ -24,10 +28,21 @@ public class ApkOptions {
     public boolean copyOriginalFiles = false;
     public boolean updateFiles = false;
     public boolean isFramework = false;
+    public boolean keepBrokenResources = false;
     public boolean resourcesAreCompressed = false;
     public Collection<String> doNotCompress;
+    public int jobs = Math.min(Runtime.getRuntime().availableProcessors(), 6);
 
     public String frameworkFolderLocation = null;
     public String frameworkTag = null;
+    public String smaliCacheDir = null;
+    public long smaliCacheSize = 512L * 1024 * 1024;
     public String aaptPath = "";
+    public ResFilter resourceFilter = null;
+    public ResXmlCache resXmlCache = null;
+    public ClassFilter classFilter = null;
+    public Profiler profiler = null;
+    public long memoryBudget = 0;
+    public JobContext jobContext = null;
+    public ProgressListener progressListener = null;
 }
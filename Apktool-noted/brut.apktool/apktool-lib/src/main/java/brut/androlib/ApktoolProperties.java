@@ -32,7 +32,7 @@ public class ApktoolProperties {
         return get().getProperty(key);
     }
 
-    public static Properties get() {
+    public static synchronized Properties get() {
         if (sProps == null) {
             loadProps();
         }
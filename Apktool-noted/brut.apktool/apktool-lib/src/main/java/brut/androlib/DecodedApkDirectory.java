@@ -0,0 +1,454 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import brut.androlib.res.AndrolibResources;
+import brut.androlib.res.data.ResPackage;
+import brut.androlib.res.data.ResResource;
+import brut.androlib.res.data.ResTable;
+import brut.androlib.res.data.ResValuesFile;
+import brut.androlib.res.data.value.ResFileValue;
+import brut.androlib.res.decoder.AXmlResourceParser;
+import brut.androlib.res.decoder.ResFileDecoder;
+import brut.androlib.res.util.ExtFile;
+import brut.androlib.src.SmaliDecoder;
+import brut.directory.*;
+import brut.util.Duo;
+import org.apache.commons.io.IOUtils;
+import org.jf.dexlib2.DexFileFactory;
+import org.jf.dexlib2.iface.ClassDef;
+
+import java.io.*;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+
+/**
+ * Read-only view of an apk as the directory a full decode would produce.
+ * Listing the files is cheap; a file is only decoded once it is read: one
+ * binary xml through the pull parser, one values file from the table, one
+ * class through baksmali, or one raw entry. The most recently read files
+ * are kept in a small cache.
+ *
+ * resources.arsc is only loaded once something under res/ or the manifest
+ * is needed, and a dex file once its smali dir is listed; listing classes
+ * decodes the manifest first, for the api level baksmali reads the dex
+ * with, the same targetSdkVersion a full decode uses. apktool.yml is not
+ * part of the view, and smali file names are not shortened the way baksmali
+ * does for names the file system can't hold.
+ */
+public class DecodedApkDirectory extends AbstractDirectory {
+
+    public DecodedApkDirectory(File apkFile) {
+        this(apkFile, new ApkOptions(), DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheSize number of decoded files kept in memory
+     */
+    public DecodedApkDirectory(File apkFile, ApkOptions apkOptions, int cacheSize) {
+        this(apkFile, apkOptions, true, cacheSize);
+    }
+
+    /**
+     * @param bakdeb    whether smali files keep debug info, like
+     *                  ApkDecoder.setBaksmaliDebugMode
+     * @param cacheSize number of decoded files kept in memory
+     */
+    public DecodedApkDirectory(File apkFile, ApkOptions apkOptions, boolean bakdeb, int cacheSize) {
+        this(new View(new ExtFile(apkFile), apkOptions, bakdeb, cacheSize), "");
+    }
+
+    private DecodedApkDirectory(View view, String path) {
+        super();
+        mView = view;
+        mPath = path;
+    }
+
+    @Override
+    public int getCompressionLevel(String fileName) throws DirectoryException {
+        return mView.getCompressionLevel(mPath + fileName);
+    }
+
+    @Override
+    protected AbstractDirectory createDirLocal(String name) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected InputStream getFileInputLocal(String name) throws DirectoryException {
+        return new ByteArrayInputStream(mView.getContent(mPath + name));
+    }
+
+    @Override
+    protected OutputStream getFileOutputLocal(String name) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected void removeFileLocal(String name) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected void loadDirs() {
+        loadAll();
+    }
+
+    @Override
+    protected void loadFiles() {
+        loadAll();
+    }
+
+    private void loadAll() {
+        mFiles = new LinkedHashSet<String>();
+        mDirs = new LinkedHashMap<String, AbstractDirectory>();
+
+        if (mPath.isEmpty()) {
+            if (mView.hasEntry(MANIFEST)) {
+                mFiles.add(MANIFEST);
+            }
+            for (String dir : mView.getTopDirs()) {
+                mDirs.put(dir, new DecodedApkDirectory(mView, dir + separator));
+            }
+            return;
+        }
+
+        String topDir = mPath.substring(0, mPath.indexOf(separator));
+        for (String path : mView.list(topDir)) {
+            if (! path.startsWith(mPath)) {
+                continue;
+            }
+            String subname = path.substring(mPath.length());
+            int pos = subname.indexOf(separator);
+            if (pos == -1) {
+                mFiles.add(subname);
+                continue;
+            }
+            subname = subname.substring(0, pos);
+            if (! mDirs.containsKey(subname)) {
+                mDirs.put(subname, new DecodedApkDirectory(mView, mPath + subname + separator));
+            }
+        }
+    }
+
+    private static class View {
+        public View(ExtFile apkFile, ApkOptions apkOptions, boolean bakdeb, final int cacheSize) {
+            mApkFile = apkFile;
+            mBakDeb = bakdeb;
+            mAndRes.apkOptions = apkOptions;
+            mCache = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                    return size() > cacheSize;
+                }
+            };
+        }
+
+        public synchronized boolean hasEntry(String name) {
+            return getEntries().contains(name);
+        }
+
+        public synchronized Set<String> getTopDirs() {
+            Set<String> dirs = new LinkedHashSet<String>();
+            if (hasEntry("resources.arsc")) {
+                dirs.add("res");
+            }
+            dirs.addAll(getDexNames().keySet());
+            for (String name : getEntries()) {
+                String raw = getRawPath(name);
+                if (raw != null) {
+                    dirs.add(raw.substring(0, raw.indexOf(separator)));
+                }
+            }
+            return dirs;
+        }
+
+        /**
+         * @return the paths of all files under topDir
+         */
+        public synchronized Set<String> list(String topDir) {
+            Set<String> paths = mListings.get(topDir);
+            if (paths != null) {
+                return paths;
+            }
+
+            paths = new LinkedHashSet<String>();
+            try {
+                if (topDir.equals("res")) {
+                    listResources(paths);
+                } else if (getDexNames().containsKey(topDir)) {
+                    listClasses(topDir, getDexNames().get(topDir), paths);
+                } else {
+                    for (String name : getEntries()) {
+                        String raw = getRawPath(name);
+                        if (raw != null && raw.startsWith(topDir + separator)) {
+                            paths.add(raw);
+                            mSources.put(raw, name);
+                        }
+                    }
+                }
+            } catch (AndrolibException ex) {
+                LOGGER.log(Level.SEVERE, "Could not list " + topDir + " of " + mApkFile.getName(), ex);
+            }
+            mListings.put(topDir, paths);
+            return paths;
+        }
+
+        public synchronized byte[] getContent(String path) throws DirectoryException {
+            byte[] content = mCache.get(path);
+            if (content != null) {
+                return content;
+            }
+
+            try {
+                if (path.equals(MANIFEST) && hasEntry(MANIFEST)) {
+                    content = decodeManifest();
+                } else {
+                    content = decode(path, getSource(path));
+                }
+            } catch (AndrolibException | IOException ex) {
+                throw new DirectoryException("Could not decode " + path, ex);
+            }
+            mCache.put(path, content);
+            return content;
+        }
+
+        public synchronized int getCompressionLevel(String path) throws DirectoryException {
+            if (path.equals(MANIFEST) && hasEntry(MANIFEST)) {
+                return ZipEntry.DEFLATED;
+            }
+            Object source = getSource(path);
+            if (source instanceof String) {
+                return mApkFile.getDirectory().getCompressionLevel((String) source);
+            }
+            return ZipEntry.DEFLATED;
+        }
+
+        private Object getSource(String path) throws PathNotExist {
+            int pos = path.indexOf(separator);
+            if (pos != -1) {
+                list(path.substring(0, pos));
+            }
+            Object source = mSources.get(path);
+            if (source == null) {
+                throw new PathNotExist(path);
+            }
+            return source;
+        }
+
+        private byte[] decode(String path, Object source) throws AndrolibException, DirectoryException, IOException {
+            if (source instanceof String) {
+                try (InputStream in = mApkFile.getDirectory().getFileInput((String) source)) {
+                    return IOUtils.toByteArray(in);
+                }
+            }
+            if (source instanceof ClassDef) {
+                StringWriter writer = new StringWriter();
+                SmaliDecoder.decodeClass((ClassDef) source, mBakDeb, writer);
+                return writer.toString().getBytes("UTF-8");
+            }
+
+            try (MemoryDirectory out = new MemoryDirectory()) {
+                String name;
+                if (source instanceof ResResource) {
+                    name = decodeResource((ResResource) source, out);
+                } else if (source instanceof ResValuesFile) {
+                    ResValuesFile valuesFile = (ResValuesFile) source;
+                    mAndRes.generateValuesFile(valuesFile, out, mAndRes.getResXmlSerializer());
+                    name = valuesFile.getPath();
+                } else {
+                    mAndRes.generatePublicXml(((ResTable) source).listMainPackages(), out,
+                            mAndRes.getResXmlSerializer(), null);
+                    name = "values/public.xml";
+                }
+                if (name == null) {
+                    throw new AndrolibException("Could not decode " + path);
+                }
+                try (InputStream in = out.getFileInput(name)) {
+                    return IOUtils.toByteArray(in);
+                }
+            }
+        }
+
+        private String decodeResource(ResResource res, Directory out) throws AndrolibException, DirectoryException {
+            if (mResDecoder == null) {
+                mResDecoder = mAndRes.getResFileDecoder();
+            }
+            if (! (res.getValue() instanceof ResFileValue)) {
+                // replaced by a bool value when it failed to decode before
+                return null;
+            }
+            mResDecoder.m2.getAttrDecoder().setCurrentPackage(res.getResSpec().getPackage());
+
+            String path = ((ResFileValue) res.getValue()).getPath();
+            Directory in = mApkFile.getDirectory().getDir(path.substring(0, path.indexOf(separator)));
+            return mResDecoder.m1.decode(res, in, out);
+        }
+
+        private byte[] decodeManifest() throws AndrolibException, IOException {
+            try (MemoryDirectory out = new MemoryDirectory()) {
+                if (hasEntry("resources.arsc")) {
+                    mAndRes.decodeManifestWithResources(getResTable(), mApkFile, out);
+                } else {
+                    mAndRes.decodeManifest(getResTable(), mApkFile, out);
+                }
+                try (InputStream in = out.getFileInput(MANIFEST)) {
+                    return IOUtils.toByteArray(in);
+                }
+            } catch (DirectoryException ex) {
+                throw new AndrolibException(ex);
+            }
+        }
+
+        private void listResources(Set<String> paths) throws AndrolibException {
+            for (ResPackage pkg : getResTable().listMainPackages()) {
+                for (ResResource res : pkg.listFiles()) {
+                    String path = "res/" + ResFileDecoder.getOutFileName(res);
+                    paths.add(path);
+                    mSources.put(path, res);
+                }
+                for (ResValuesFile valuesFile : pkg.listValuesFiles()) {
+                    String path = "res/" + valuesFile.getPath();
+                    paths.add(path);
+                    mSources.put(path, valuesFile);
+                }
+            }
+            // one public.xml declaring the specs of every main package
+            paths.add(PUBLIC_XML);
+            mSources.put(PUBLIC_XML, getResTable());
+        }
+
+        private void listClasses(String smaliDir, String dexName, Set<String> paths) throws AndrolibException {
+            try {
+                for (ClassDef classDef : DexFileFactory.loadDexFile(mApkFile, dexName, getApi(), false)
+                        .getClasses()) {
+                    String type = classDef.getType();
+                    String path = smaliDir + separator + type.substring(1, type.length() - 1) + ".smali";
+                    paths.add(path);
+                    mSources.put(path, classDef);
+                }
+            } catch (IOException ex) {
+                throw new AndrolibException(ex);
+            }
+        }
+
+        /**
+         * @return the targetSdkVersion of the manifest, which a full decode
+         *         reads the dex files for too
+         */
+        private int getApi() throws AndrolibException {
+            if (mApi == 0) {
+                mApi = DEFAULT_API;
+                if (hasEntry(MANIFEST)) {
+                    try {
+                        // decoding the manifest fills in the sdkInfo of the table
+                        getContent(MANIFEST);
+                    } catch (DirectoryException ex) {
+                        throw new AndrolibException(ex);
+                    }
+                    String targetSdk = getResTable().getSdkInfo().get("targetSdkVersion");
+                    if (targetSdk != null) {
+                        try {
+                            mApi = Integer.parseInt(targetSdk);
+                        } catch (NumberFormatException ex) {
+                            // a preview codename
+                        }
+                    }
+                }
+            }
+            return mApi;
+        }
+
+        private ResTable getResTable() throws AndrolibException {
+            if (mResTable == null) {
+                mResTable = mAndRes.getResTable(mApkFile, hasEntry("resources.arsc"));
+            }
+            return mResTable;
+        }
+
+        /**
+         * @return the smali dir of every dex file, like a full decode names them
+         */
+        private Map<String, String> getDexNames() {
+            if (mDexNames == null) {
+                mDexNames = new TreeMap<String, String>();
+                for (String name : getEntries()) {
+                    if (name.indexOf(separator) == -1 && name.endsWith(".dex")) {
+                        mDexNames.put(Androlib.getSmaliDirName(name), name);
+                    }
+                }
+            }
+            return mDexNames;
+        }
+
+        /**
+         * @return where a full decode copies an apk entry to, or null if it is
+         *         decoded instead
+         */
+        private String getRawPath(String name) {
+            for (String dir : RAW_DIRNAMES) {
+                if (name.startsWith(dir + separator)) {
+                    return name;
+                }
+            }
+            if (name.equals(MANIFEST) || name.startsWith("META-INF" + separator)) {
+                return "original" + separator + name;
+            }
+            if (! Androlib.isAPKFileNames(name) && ! name.endsWith(".dex")) {
+                return Androlib.UNK_DIRNAME + separator + name;
+            }
+            return null;
+        }
+
+        private Set<String> getEntries() {
+            if (mEntries == null) {
+                try {
+                    mEntries = mApkFile.getDirectory().getFiles(true);
+                } catch (DirectoryException ex) {
+                    LOGGER.log(Level.SEVERE, "Could not read " + mApkFile.getName(), ex);
+                    mEntries = Collections.emptySet();
+                }
+            }
+            return mEntries;
+        }
+
+        private final ExtFile mApkFile;
+        private final boolean mBakDeb;
+        private final AndrolibResources mAndRes = new AndrolibResources();
+        private final Map<String, byte[]> mCache;
+        private final Map<String, Set<String>> mListings = new HashMap<String, Set<String>>();
+        private final Map<String, Object> mSources = new HashMap<String, Object>();
+        private Set<String> mEntries;
+        private Map<String, String> mDexNames;
+        private ResTable mResTable;
+        private int mApi;
+        private Duo<ResFileDecoder, AXmlResourceParser> mResDecoder;
+    }
+
+    private final View mView;
+    private final String mPath;
+
+    public final static int DEFAULT_CACHE_SIZE = 64;
+
+    private final static String MANIFEST = "AndroidManifest.xml";
+    private final static String PUBLIC_XML = "res/values/public.xml";
+    private final static String[] RAW_DIRNAMES = new String[] { "assets", "lib", "libs" };
+    private final static int DEFAULT_API = 15;
+
+    private final static Logger LOGGER = Logger.getLogger(DecodedApkDirectory.class.getName());
+}
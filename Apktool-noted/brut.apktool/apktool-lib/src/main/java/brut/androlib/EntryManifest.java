@@ -0,0 +1,190 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import brut.androlib.res.util.ExtFile;
+import brut.directory.Directory;
+import brut.directory.DirectoryException;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Per-entry record of a decoded apk: the CRC and size of every entry from
+ * the zip index, and the file or directory of the decoded project it ended
+ * up in. It is written next to apktool.yml so a later decode of a new
+ * version of the same apk can tell which entries changed and reuse the
+ * output of the others.
+ */
+public class EntryManifest {
+
+    /**
+     * Reads the entries from the central directory of apkFile.
+     */
+    public static EntryManifest read(ExtFile apkFile) throws AndrolibException {
+        EntryManifest manifest = new EntryManifest();
+        try (ZipFile zip = new ZipFile(apkFile)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (! entry.isDirectory()) {
+                    manifest.mEntries.put(entry.getName(), new Entry(entry.getCrc(), entry.getSize()));
+                }
+            }
+        } catch (IOException ex) {
+            throw new AndrolibException(ex);
+        }
+        return manifest;
+    }
+
+    /**
+     * @return the manifest recorded in a decoded project, or null if there
+     *         is none
+     */
+    public static EntryManifest load(File dir) throws AndrolibException {
+        File file = new File(dir, FILENAME);
+        if (! file.isFile()) {
+            return null;
+        }
+
+        EntryManifest manifest = new EntryManifest();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(OPTIONS_PREFIX)) {
+                    manifest.mOptions = line.substring(OPTIONS_PREFIX.length());
+                    continue;
+                }
+                if (line.startsWith(API_PREFIX)) {
+                    manifest.mApi = Integer.parseInt(line.substring(API_PREFIX.length()));
+                    continue;
+                }
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] parts = line.split("\t", -1);
+                if (parts.length != 4) {
+                    throw new AndrolibException("Invalid line in " + file + ": " + line);
+                }
+                Entry entry = new Entry(Long.parseLong(parts[0], 16), Long.parseLong(parts[1]));
+                entry.output = parts[3].isEmpty() ? null : parts[3];
+                manifest.mEntries.put(parts[2], entry);
+            }
+        } catch (IOException | NumberFormatException ex) {
+            throw new AndrolibException("Could not read " + file, ex);
+        }
+        return manifest;
+    }
+
+    public void store(Directory out) throws AndrolibException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(out.getFileOutput(FILENAME), "UTF-8"))) {
+            writer.write("# crc\tsize\tentry\toutput\n");
+            writer.write(OPTIONS_PREFIX + (mOptions == null ? "" : mOptions) + "\n");
+            writer.write(API_PREFIX + mApi + "\n");
+            for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+                Entry value = entry.getValue();
+                writer.write(Long.toHexString(value.crc) + "\t" + value.size + "\t" + entry.getKey() + "\t"
+                        + (value.output == null ? "" : value.output) + "\n");
+            }
+        } catch (DirectoryException | IOException ex) {
+            throw new AndrolibException(ex);
+        }
+    }
+
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(mEntries.keySet());
+    }
+
+    /**
+     * @return true if name is in both manifests with the same CRC and size
+     */
+    public boolean isUnchanged(String name, EntryManifest previous) {
+        Entry entry = mEntries.get(name);
+        Entry old = previous.mEntries.get(name);
+        return entry != null && old != null && entry.crc == old.crc && entry.size == old.size;
+    }
+
+    /**
+     * @return the path, relative to the decoded project, that name was
+     *         decoded to, or null if it has none
+     */
+    public String getOutput(String name) {
+        Entry entry = mEntries.get(name);
+        return entry == null ? null : entry.output;
+    }
+
+    public void setOutput(String name, String output) {
+        Entry entry = mEntries.get(name);
+        if (entry != null) {
+            entry.output = output;
+        }
+    }
+
+    public Set<String> getOutputs() {
+        Set<String> outputs = new HashSet<String>();
+        for (Entry entry : mEntries.values()) {
+            if (entry.output != null) {
+                outputs.add(entry.output);
+            }
+        }
+        return outputs;
+    }
+
+    /**
+     * Decode options the outputs were made with; outputs are only reused by
+     * a decode with the same options.
+     */
+    public String getOptions() {
+        return mOptions;
+    }
+
+    public void setOptions(String options) {
+        mOptions = options;
+    }
+
+    /**
+     * Api level the dex files were disassembled for.
+     */
+    public int getApi() {
+        return mApi;
+    }
+
+    public void setApi(int api) {
+        mApi = api;
+    }
+
+    private static class Entry {
+        public Entry(long crc, long size) {
+            this.crc = crc;
+            this.size = size;
+        }
+
+        public final long crc;
+        public final long size;
+        public String output;
+    }
+
+    private final Map<String, Entry> mEntries = new TreeMap<String, Entry>();
+    private String mOptions;
+    private int mApi;
+
+    public final static String FILENAME = "apktool.crc";
+    private final static String OPTIONS_PREFIX = "#options ";
+    private final static String API_PREFIX = "#api ";
+}
@@ -0,0 +1,224 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A JDK Flight Recorder event, in the "Apktool" category. Every type has
+ * the fields apk, name, entry, bytes and count; apk is the name of the apk
+ * or project that the current thread, or the thread that started it,
+ * decodes or builds.
+ *
+ * Apktool runs on Java 7, so the types are created through
+ * jdk.jfr.EventFactory by reflection. On JVMs without JFR, and for types
+ * that are not being recorded, {@link #begin} returns {@link #NONE}, which
+ * does nothing:
+ *
+ * <pre>
+ * try (JfrEvent event = JfrEvent.begin(JfrEvent.DEX_DECODE, "classes.dex")) {
+ *     ...
+ *     event.setCount(classes);
+ * }
+ * </pre>
+ */
+public class JfrEvent implements AutoCloseable {
+    public final static String PHASE = "brut.apktool.Phase";
+    public final static String RESOURCE_FILE = "brut.apktool.ResourceFile";
+    public final static String DEX_DECODE = "brut.apktool.DexDecode";
+    public final static String DEX_BUILD = "brut.apktool.DexBuild";
+
+    public final static JfrEvent NONE = new JfrEvent(null, null);
+
+    private JfrEvent(EventType type, Object event) {
+        mType = type;
+        mEvent = event;
+    }
+
+    /**
+     * Starts an event of type, if that type is being recorded.
+     */
+    public static JfrEvent begin(String type, String name) {
+        EventType eventType = sTypes.get(type);
+        if (eventType == null) {
+            return NONE;
+        }
+        try {
+            if (! (Boolean) sIsEnabled.invoke(eventType.mProbe)) {
+                return NONE;
+            }
+            Object event = eventType.mNewEvent.invoke(eventType.mFactory);
+            sSet.invoke(event, FIELD_APK, sApk.get());
+            sSet.invoke(event, FIELD_NAME, name);
+            sBegin.invoke(event);
+            return new JfrEvent(eventType, event);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            return NONE;
+        }
+    }
+
+    /**
+     * Sets the apk of the events that the current thread, and the threads it
+     * starts, record.
+     *
+     * @return the apk set before, to be set again after
+     */
+    public static String setApk(String apk) {
+        String previous = sApk.get();
+        sApk.set(apk);
+        return previous;
+    }
+
+    public JfrEvent setEntry(String entry) {
+        set(FIELD_ENTRY, entry);
+        return this;
+    }
+
+    public JfrEvent setBytes(long bytes) {
+        set(FIELD_BYTES, bytes);
+        return this;
+    }
+
+    public JfrEvent setCount(long count) {
+        set(FIELD_COUNT, count);
+        return this;
+    }
+
+    public boolean isRecording() {
+        return mEvent != null;
+    }
+
+    /**
+     * Ends and commits the event.
+     */
+    @Override
+    public void close() {
+        if (mEvent == null || mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            sEnd.invoke(mEvent);
+            sCommit.invoke(mEvent);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            LOGGER.log(Level.FINE, "Could not commit " + mType.mName, ex);
+        }
+    }
+
+    private void set(int field, Object value) {
+        if (mEvent == null) {
+            return;
+        }
+        try {
+            sSet.invoke(mEvent, field, value);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            LOGGER.log(Level.FINE, "Could not set field of " + mType.mName, ex);
+        }
+    }
+
+    private static class EventType {
+        EventType(String name, String label, String description) throws ReflectiveOperationException {
+            mName = name;
+            Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+            Constructor<?> newAnnotation = annotationElement.getConstructor(Class.class, Object.class);
+            List<Object> annotations = new ArrayList<Object>();
+            annotations.add(newAnnotation.newInstance(Class.forName("jdk.jfr.Name"), name));
+            annotations.add(newAnnotation.newInstance(Class.forName("jdk.jfr.Label"), label));
+            annotations.add(newAnnotation.newInstance(Class.forName("jdk.jfr.Description"), description));
+            annotations.add(newAnnotation.newInstance(Class.forName("jdk.jfr.Category"), new String[] { "Apktool" }));
+            // stack traces would only show the reflective commit
+            annotations.add(newAnnotation.newInstance(Class.forName("jdk.jfr.StackTrace"), false));
+
+            Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+            Constructor<?> newField = valueDescriptor.getConstructor(Class.class, String.class);
+            List<Object> fields = new ArrayList<Object>();
+            fields.add(newField.newInstance(String.class, "apk"));
+            fields.add(newField.newInstance(String.class, "name"));
+            fields.add(newField.newInstance(String.class, "entry"));
+            fields.add(newField.newInstance(long.class, "bytes"));
+            fields.add(newField.newInstance(long.class, "count"));
+
+            Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+            mFactory = eventFactory.getMethod("create", List.class, List.class)
+                    .invoke(null, annotations, fields);
+            mNewEvent = eventFactory.getMethod("newEvent");
+            mProbe = mNewEvent.invoke(mFactory);
+        }
+
+        final String mName;
+        final Object mFactory;
+        final Method mNewEvent;
+        // isEnabled() of an event reflects the current recording settings
+        final Object mProbe;
+    }
+
+    private final EventType mType;
+    private final Object mEvent;
+    private boolean mClosed;
+
+    private final static int FIELD_APK = 0;
+    private final static int FIELD_NAME = 1;
+    private final static int FIELD_ENTRY = 2;
+    private final static int FIELD_BYTES = 3;
+    private final static int FIELD_COUNT = 4;
+
+    private final static InheritableThreadLocal<String> sApk = new InheritableThreadLocal<String>();
+    private final static Map<String, EventType> sTypes = new HashMap<String, EventType>();
+    private static Method sIsEnabled;
+    private static Method sBegin;
+    private static Method sEnd;
+    private static Method sCommit;
+    private static Method sSet;
+
+    private final static Logger LOGGER = Logger.getLogger(JfrEvent.class.getName());
+
+    static {
+        try {
+            Class<?> event = Class.forName("jdk.jfr.Event");
+            sIsEnabled = event.getMethod("isEnabled");
+            sBegin = event.getMethod("begin");
+            sEnd = event.getMethod("end");
+            sCommit = event.getMethod("commit");
+            sSet = event.getMethod("set", int.class, Object.class);
+
+            for (EventType type : Arrays.asList(
+                    new EventType(PHASE, "Apktool Phase",
+                            "A phase of decoding or building an apk"),
+                    new EventType(RESOURCE_FILE, "Apktool Resource File",
+                            "Decoding of a file under res/, entry is its path in the apk"),
+                    new EventType(DEX_DECODE, "Apktool Dex Decode",
+                            "Disassembling of a dex file, count is its number of classes"),
+                    new EventType(DEX_BUILD, "Apktool Dex Build",
+                            "Assembling of a dex file, count is its number of smali files"))) {
+                sTypes.put(type.mName, type);
+            }
+        } catch (ClassNotFoundException ex) {
+            // no JFR on this JVM
+            sTypes.clear();
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            LOGGER.log(Level.FINE, "Could not register JFR events", ex);
+            sTypes.clear();
+        }
+    }
+}
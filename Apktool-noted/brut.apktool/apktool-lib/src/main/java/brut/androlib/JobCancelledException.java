@@ -0,0 +1,29 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Thrown out of a decode or build whose JobContext was cancelled or ran
+ * past its deadline. It is unchecked, so that it passes through the code
+ * that catches AndrolibException to carry on with the next file.
+ */
+public class JobCancelledException extends CancellationException {
+    public JobCancelledException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets a decode or build be stopped from another thread, or once a deadline
+ * has passed. The job is installed on the thread that decodes or builds and
+ * is inherited by the threads it starts; the loops over chunks, entries,
+ * files and classes call {@link #check()}, which throws a
+ * JobCancelledException once the job is cancelled or past its deadline:
+ *
+ * <pre>
+ * JobContext job = new JobContext().setTimeout(2, TimeUnit.MINUTES);
+ * decoder.setJobContext(job);
+ * // from another thread
+ * job.cancel();
+ * </pre>
+ *
+ * Stopping is cooperative: a running aapt process is waited for, and a
+ * thread blocked in I/O only notices once the I/O returns.
+ */
+public class JobContext {
+
+    /**
+     * Makes job the one that the current thread, and the threads started
+     * from it, check.
+     *
+     * @param job may be null, to stop checking
+     * @return the job installed before, to be installed again after
+     */
+    public static JobContext install(JobContext job) {
+        JobContext previous = sCurrent.get();
+        sCurrent.set(job);
+        return previous;
+    }
+
+    /**
+     * @return the job installed on the current thread, or null
+     */
+    public static JobContext current() {
+        return sCurrent.get();
+    }
+
+    /**
+     * Throws if the job installed on the current thread is cancelled or past
+     * its deadline; does nothing without a job.
+     */
+    public static void check() throws JobCancelledException {
+        JobContext job = sCurrent.get();
+        if (job != null) {
+            job.checkStopped();
+        }
+    }
+
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * @param deadline in milliseconds since the epoch, 0 for none
+     */
+    public JobContext setDeadline(long deadline) {
+        mDeadline = deadline;
+        return this;
+    }
+
+    public JobContext setTimeout(long timeout, TimeUnit unit) {
+        return setDeadline(System.currentTimeMillis() + unit.toMillis(timeout));
+    }
+
+    public long getDeadline() {
+        return mDeadline;
+    }
+
+    public void checkStopped() throws JobCancelledException {
+        if (mCancelled) {
+            throw new JobCancelledException("Job cancelled");
+        }
+        if (mDeadline != 0 && System.currentTimeMillis() > mDeadline) {
+            throw new JobCancelledException("Job deadline exceeded");
+        }
+    }
+
+    private volatile boolean mCancelled;
+    private volatile long mDeadline;
+
+    private final static InheritableThreadLocal<JobContext> sCurrent = new InheritableThreadLocal<JobContext>();
+}
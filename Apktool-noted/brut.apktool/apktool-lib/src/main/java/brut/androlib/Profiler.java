@@ -0,0 +1,354 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the phases of a decode or build: wall time, and the CPU time and
+ * allocated bytes of the thread running each phase, plus the bytes the
+ * whole process read and wrote meanwhile.
+ *
+ * A profiler is installed on the thread that decodes or builds, and is
+ * inherited by the threads it starts; code marks its phases with
+ * {@link #phase(String)}, which does next to nothing when no profiler is
+ * installed and no recording is running:
+ *
+ * <pre>
+ * try (Profiler.Phase phase = Profiler.phase("arsc parse")) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * Each phase is also recorded as a JfrEvent.PHASE event when JDK Flight
+ * Recorder records that type, and reported to the installed Progress, with
+ * or without a profiler installed.
+ *
+ * CPU time and allocations of worker threads (baksmali jobs) and of aapt
+ * are not part of the phase that starts them, only its wall time is.
+ * Values that the JVM or OS can't measure are -1: allocations need a
+ * HotSpot-like JVM, bytes read and written need /proc/self/io.
+ */
+public class Profiler {
+    public Profiler() {
+        mStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Makes profiler the one that phases of the current thread, and of the
+     * threads started from it, are recorded in.
+     *
+     * @param profiler may be null, to stop recording
+     * @return the profiler installed before, to be installed again after
+     */
+    public static Profiler install(Profiler profiler) {
+        Profiler previous = sCurrent.get();
+        sCurrent.set(profiler);
+        return previous;
+    }
+
+    /**
+     * Starts a phase in the profiler installed on the current thread, nested
+     * in the phase the thread is in.
+     */
+    public static Phase phase(String name) {
+        Profiler profiler = sCurrent.get();
+        if (profiler != null) {
+            return profiler.begin(name);
+        }
+        JfrEvent event = JfrEvent.begin(JfrEvent.PHASE, name);
+        Progress progress = Progress.current();
+        return event.isRecording() || progress != null
+                ? new Phase(null, name, 0, null, event, progress) : NO_PHASE;
+    }
+
+    public Phase begin(String name) {
+        Phase parent = mOpen.get();
+        Phase phase = new Phase(this, name, parent == null ? 0 : parent.mDepth + 1, parent,
+                JfrEvent.begin(JfrEvent.PHASE, name), Progress.current());
+        synchronized (mPhases) {
+            mPhases.add(phase);
+        }
+        mOpen.set(phase);
+        phase.start();
+        return phase;
+    }
+
+    /**
+     * @return the phases in the order they started
+     */
+    public List<Phase> getPhases() {
+        synchronized (mPhases) {
+            return new ArrayList<Phase>(mPhases);
+        }
+    }
+
+    public void printTable(PrintStream out) {
+        String format = "%-44s %10s %10s %12s %12s %12s%n";
+        out.printf(format, "phase", "wall ms", "cpu ms", "alloc KB", "read KB", "written KB");
+        String thread = Thread.currentThread().getName();
+        for (Phase phase : getPhases()) {
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < phase.mDepth; i++) {
+                name.append("  ");
+            }
+            name.append(phase.mName);
+            if (! phase.mThread.equals(thread)) {
+                name.append(" [").append(phase.mThread).append(']');
+            }
+            out.printf(format, name, millis(phase.getWallNanos()), millis(phase.getCpuNanos()),
+                    kilobytes(phase.getAllocatedBytes()), kilobytes(phase.getReadBytes()),
+                    kilobytes(phase.getWrittenBytes()));
+        }
+    }
+
+    public void writeJson(File file) throws AndrolibException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"))) {
+            writeJson(out);
+        } catch (IOException ex) {
+            throw new AndrolibException("Could not write profile to: " + file, ex);
+        }
+    }
+
+    public void writeJson(Writer out) throws IOException {
+        out.write("{\n  \"phases\": [");
+        boolean first = true;
+        for (Phase phase : getPhases()) {
+            out.write(first ? "\n" : ",\n");
+            first = false;
+            out.write("    {\"name\": ");
+            writeJsonString(out, phase.mName);
+            out.write(", \"path\": ");
+            writeJsonString(out, phase.getPath());
+            out.write(", \"thread\": ");
+            writeJsonString(out, phase.mThread);
+            out.write(", \"depth\": " + phase.mDepth);
+            out.write(", \"start_ns\": " + (phase.mStartNanos - mStartNanos));
+            out.write(", \"wall_ns\": " + phase.getWallNanos());
+            out.write(", \"cpu_ns\": " + phase.getCpuNanos());
+            out.write(", \"allocated_bytes\": " + phase.getAllocatedBytes());
+            out.write(", \"read_bytes\": " + phase.getReadBytes());
+            out.write(", \"written_bytes\": " + phase.getWrittenBytes());
+            out.write("}");
+        }
+        out.write("\n  ]\n}\n");
+    }
+
+    private static void writeJsonString(Writer out, String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == '"' || ch == '\\') {
+                out.write('\\');
+                out.write(ch);
+            } else if (ch < 0x20) {
+                out.write(String.format("\\u%04x", (int) ch));
+            } else {
+                out.write(ch);
+            }
+        }
+        out.write('"');
+    }
+
+    private static String millis(long nanos) {
+        return nanos < 0 ? "-" : String.valueOf(nanos / 1000000);
+    }
+
+    private static String kilobytes(long bytes) {
+        return bytes < 0 ? "-" : String.valueOf(bytes / 1024);
+    }
+
+    private static long readCpuNanos() {
+        return sThreads.isCurrentThreadCpuTimeSupported() ? sThreads.getCurrentThreadCpuTime() : -1;
+    }
+
+    private static long readAllocatedBytes() {
+        if (sAllocatedBytes == null) {
+            return -1;
+        }
+        try {
+            return (Long) sAllocatedBytes.invoke(sThreads, Thread.currentThread().getId());
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return rchar and wchar of /proc/self/io, or null
+     */
+    private static long[] readProcessIo() {
+        if (! sProcIo.canRead()) {
+            return null;
+        }
+        long[] io = new long[] { -1, -1 };
+        try (BufferedReader in = new BufferedReader(new FileReader(sProcIo))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("rchar:")) {
+                    io[0] = Long.parseLong(line.substring(6).trim());
+                } else if (line.startsWith("wchar:")) {
+                    io[1] = Long.parseLong(line.substring(6).trim());
+                }
+            }
+        } catch (IOException | NumberFormatException ex) {
+            return null;
+        }
+        return io;
+    }
+
+    private static long delta(long start, long end) {
+        return start < 0 || end < 0 ? -1 : end - start;
+    }
+
+    public static class Phase implements AutoCloseable {
+        private Phase(Profiler profiler, String name, int depth, Phase parent, JfrEvent event,
+                      Progress progress) {
+            mProfiler = profiler;
+            mEvent = event;
+            mProgress = progress;
+            mName = name;
+            mDepth = depth;
+            mParent = parent;
+            mThread = Thread.currentThread().getName();
+            if (progress != null) {
+                progress.phaseStarted(name);
+            }
+            mStartNanos = System.nanoTime();
+        }
+
+        private void start() {
+            long[] io = readProcessIo();
+            mReadBytes = io == null ? -1 : io[0];
+            mWrittenBytes = io == null ? -1 : io[1];
+            mAllocatedBytes = readAllocatedBytes();
+            mCpuNanos = readCpuNanos();
+            mStartNanos = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            mEvent.close();
+            if ((mProfiler == null && mProgress == null) || mClosed) {
+                return;
+            }
+            mClosed = true;
+            mWallNanos = System.nanoTime() - mStartNanos;
+            if (mProfiler == null) {
+                mProgress.phaseFinished(mName, mWallNanos);
+                return;
+            }
+            mCpuNanos = delta(mCpuNanos, readCpuNanos());
+            mAllocatedBytes = delta(mAllocatedBytes, readAllocatedBytes());
+            long[] io = readProcessIo();
+            mReadBytes = io == null ? -1 : delta(mReadBytes, io[0]);
+            mWrittenBytes = io == null ? -1 : delta(mWrittenBytes, io[1]);
+            // also drops nested phases that were never closed
+            for (Phase open = mProfiler.mOpen.get(); open != null; open = open.mParent) {
+                if (open == this) {
+                    mProfiler.mOpen.set(mParent);
+                    break;
+                }
+            }
+            if (mProgress != null) {
+                mProgress.phaseFinished(mName, mWallNanos);
+            }
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return the names of the enclosing phases and this one, joined by "/"
+         */
+        public String getPath() {
+            return mParent == null ? mName : mParent.getPath() + "/" + mName;
+        }
+
+        public String getThread() {
+            return mThread;
+        }
+
+        public int getDepth() {
+            return mDepth;
+        }
+
+        public long getWallNanos() {
+            return mClosed ? mWallNanos : -1;
+        }
+
+        public long getCpuNanos() {
+            return mClosed ? mCpuNanos : -1;
+        }
+
+        public long getAllocatedBytes() {
+            return mClosed ? mAllocatedBytes : -1;
+        }
+
+        public long getReadBytes() {
+            return mClosed ? mReadBytes : -1;
+        }
+
+        public long getWrittenBytes() {
+            return mClosed ? mWrittenBytes : -1;
+        }
+
+        private final Profiler mProfiler;
+        private final JfrEvent mEvent;
+        private final Progress mProgress;
+        private final String mName;
+        private final int mDepth;
+        private final Phase mParent;
+        private final String mThread;
+        private volatile boolean mClosed;
+        private long mStartNanos;
+        private long mWallNanos = -1;
+        private long mCpuNanos;
+        private long mAllocatedBytes;
+        private long mReadBytes;
+        private long mWrittenBytes;
+    }
+
+    private final long mStartNanos;
+    private final List<Phase> mPhases = new ArrayList<Phase>();
+    private final ThreadLocal<Phase> mOpen = new ThreadLocal<Phase>();
+
+    private final static Phase NO_PHASE = new Phase(null, "", 0, null, JfrEvent.NONE, null);
+
+    private final static InheritableThreadLocal<Profiler> sCurrent = new InheritableThreadLocal<Profiler>();
+    private final static ThreadMXBean sThreads = ManagementFactory.getThreadMXBean();
+    private final static File sProcIo = new File("/proc/self/io");
+    private final static Method sAllocatedBytes;
+
+    static {
+        // com.sun.management is not there on every JVM, so it is only used through reflection
+        Method method = null;
+        try {
+            Class<?> hotspotThreads = Class.forName("com.sun.management.ThreadMXBean");
+            if (hotspotThreads.isInstance(sThreads)) {
+                method = hotspotThreads.getMethod("getThreadAllocatedBytes", long.class);
+            }
+        } catch (ClassNotFoundException | NoSuchMethodException ex) {
+            method = null;
+        }
+        sAllocatedBytes = method;
+    }
+}
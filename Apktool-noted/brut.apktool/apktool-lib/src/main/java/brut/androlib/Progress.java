@@ -0,0 +1,183 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import brut.util.BrutIO;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands the progress of a decode or build to a ProgressListener. Progress is
+ * installed on the thread that decodes or builds and is inherited by the
+ * threads it starts, like Profiler; phases are reported by
+ * {@link Profiler#phase(String)}, and loops over files and classes count
+ * their items:
+ *
+ * <pre>
+ * Progress.Counter counter = Progress.count("values files", files.size());
+ * for (...) {
+ *     ...
+ *     counter.step();
+ * }
+ * </pre>
+ *
+ * Steps only cost an atomic increment until the reporting interval has
+ * passed, and nothing without a listener. Bytes are counted as BrutIO copies
+ * them.
+ */
+public class Progress {
+    public final static long DEFAULT_INTERVAL_MILLIS = 100;
+
+    public Progress(ProgressListener listener) {
+        this(listener, DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param interval the least time, in milliseconds, between two progress
+     *        reports of a phase
+     */
+    public Progress(ProgressListener listener, long interval) {
+        mListener = listener;
+        mIntervalNanos = TimeUnit.MILLISECONDS.toNanos(interval);
+    }
+
+    /**
+     * Makes progress the one that the current thread, and the threads started
+     * from it, report to.
+     *
+     * @param progress may be null, to stop reporting
+     * @return the progress installed before, to be installed again after
+     */
+    public static Progress install(Progress progress) {
+        Progress previous = sCurrent.get();
+        sCurrent.set(progress);
+        BrutIO.setCopyCounter(progress == null ? null : progress.mCopied);
+        return previous;
+    }
+
+    /**
+     * @return the progress installed on the current thread, or null
+     */
+    public static Progress current() {
+        return sCurrent.get();
+    }
+
+    /**
+     * Starts counting total items of phase, in the progress installed on the
+     * current thread. The counter may be stepped from any thread.
+     */
+    public static Counter count(String phase, int total) {
+        Progress progress = sCurrent.get();
+        if (progress == null) {
+            return NO_COUNTER;
+        }
+        Counter counter = new Counter(progress, phase, total);
+        progress.report(counter, 0);
+        return counter;
+    }
+
+    void phaseStarted(String phase) {
+        synchronized (mLock) {
+            try {
+                mListener.phaseStarted(phase);
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Progress listener failed", ex);
+            }
+        }
+    }
+
+    void phaseFinished(String phase, long wallNanos) {
+        synchronized (mLock) {
+            try {
+                long copied = mCopied.get();
+                if (copied != mReportedCopied) {
+                    mReportedCopied = copied;
+                    mListener.bytesCopied(copied);
+                }
+                mListener.phaseFinished(phase, wallNanos);
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Progress listener failed", ex);
+            }
+        }
+    }
+
+    private void report(Counter counter, int done) {
+        synchronized (mLock) {
+            // steps racing each other may get here out of order
+            if (done < counter.mReported) {
+                return;
+            }
+            counter.mReported = done;
+            try {
+                mListener.progress(counter.mPhase, done, counter.mTotal);
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Progress listener failed", ex);
+            }
+        }
+    }
+
+    public static class Counter {
+        private Counter(Progress progress, String phase, int total) {
+            mProgress = progress;
+            mPhase = phase;
+            mTotal = total;
+            mNextReport = new AtomicLong(System.nanoTime() + (progress == null ? 0 : progress.mIntervalNanos));
+        }
+
+        /**
+         * Counts one more item as finished.
+         */
+        public void step() {
+            if (mProgress == null) {
+                return;
+            }
+            int done = mDone.incrementAndGet();
+            if (done >= mTotal) {
+                mProgress.report(this, done);
+                return;
+            }
+            long now = System.nanoTime();
+            long next = mNextReport.get();
+            if (now - next >= 0 && mNextReport.compareAndSet(next, now + mProgress.mIntervalNanos)) {
+                mProgress.report(this, done);
+            }
+        }
+
+        private final Progress mProgress;
+        private final String mPhase;
+        private final int mTotal;
+        private final AtomicInteger mDone = new AtomicInteger();
+        private final AtomicLong mNextReport;
+        // guarded by the lock of mProgress
+        private int mReported = -1;
+    }
+
+    private final ProgressListener mListener;
+    private final long mIntervalNanos;
+    private final Object mLock = new Object();
+    private final AtomicLong mCopied = new AtomicLong();
+    private long mReportedCopied;
+
+    private final static Counter NO_COUNTER = new Counter(null, "", 0);
+
+    private final static InheritableThreadLocal<Progress> sCurrent = new InheritableThreadLocal<Progress>();
+
+    private final static Logger LOGGER = Logger.getLogger(Progress.class.getName());
+}
@@ -0,0 +1,47 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+/**
+ * Receives the progress of a decode or build, see Progress. Calls for one
+ * job never overlap, but may come from any of the threads the job runs on,
+ * so a listener should hand the work off rather than block.
+ */
+public interface ProgressListener {
+
+    /**
+     * @param phase the name of a phase, as in Profiler; dex files are decoded
+     *        in phases named "baksmali &lt;dex&gt;" and built in phases named
+     *        "smali &lt;folder&gt;"
+     */
+    void phaseStarted(String phase);
+
+    void phaseFinished(String phase, long wallNanos);
+
+    /**
+     * done of total items of phase are finished: files in "file resources"
+     * and "values files", classes in "baksmali &lt;dex&gt;" and smali files in
+     * "smali &lt;folder&gt;". Reported at most once per reporting interval, and
+     * always for the last item.
+     */
+    void progress(String phase, int done, int total);
+
+    /**
+     * @param total bytes copied by the job so far, reported when a phase that
+     *        copied something finishes
+     */
+    void bytesCopied(long total);
+}
@@ -36,6 +36,9 @@ public class MetaInfo {
     public boolean sharedLibrary;
     public Map<String, String> unknownFiles;
     public Collection<String> doNotCompress;
+    public ResourceFilterInfo resourceFilter;
+    public ClassFilterInfo classFilter;
+    public Collection<String> splits;
 
     private static Yaml getYaml() {
         DumperOptions options = new DumperOptions();
@@ -53,43 +53,60 @@ public class SmaliMod {
     public static boolean assembleSmaliFile(File smaliFile,DexBuilder dexBuilder, boolean verboseErrors,
                                             boolean printTokens) throws IOException, RecognitionException {
         //主要的smali2dex代码所在
+        ParsedSmali parsed = parseSmaliFile(smaliFile, verboseErrors, printTokens);
+        return parsed != null && assembleParsedSmali(parsed, dexBuilder, verboseErrors);
+    }
 
+    /**
+     * Lexes and parses a smali file, with a lexer and parser of its own, so
+     * files can be parsed on several threads at once.
+     *
+     * @return null if the file has syntax errors
+     */
+    public static ParsedSmali parseSmaliFile(File smaliFile, boolean verboseErrors, boolean printTokens)
+            throws IOException, RecognitionException {
         CommonTokenStream tokens;
         LexerErrorInterface lexer;
 
-        InputStream is = new FileInputStream(smaliFile);
-        InputStreamReader reader = new InputStreamReader(is, "UTF-8");
+        try (InputStreamReader reader = new InputStreamReader(new FileInputStream(smaliFile), "UTF-8")) {
+            lexer = new smaliFlexLexer(reader);
+            ((smaliFlexLexer)lexer).setSourceFile(smaliFile);//初始化 原始smali文件夹
+            tokens = new CommonTokenStream((TokenSource) lexer);
 
-        lexer = new smaliFlexLexer(reader);
-        ((smaliFlexLexer)lexer).setSourceFile(smaliFile);//初始化 原始smali文件夹
-        tokens = new CommonTokenStream((TokenSource) lexer);
+            if (printTokens) {
+                tokens.getTokens();
 
-        if (printTokens) {
-            tokens.getTokens();
+                for (int i=0; i<tokens.size(); i++) {
+                    Token token = tokens.get(i);
+                    if (token.getChannel() == smaliParser.HIDDEN) { //调用第三方smaliPaarser
+                        continue;
+                    }
 
-            for (int i=0; i<tokens.size(); i++) {
-                Token token = tokens.get(i);
-                if (token.getChannel() == smaliParser.HIDDEN) { //调用第三方smaliPaarser
-                    continue;
+                    System.out.println(smaliParser.tokenNames[token.getType()] + ": " + token.getText());
                 }
-
-                System.out.println(smaliParser.tokenNames[token.getType()] + ": " + token.getText());
             }
-        }
 
-        smaliParser parser = new smaliParser(tokens);
-        parser.setVerboseErrors(verboseErrors);
+            smaliParser parser = new smaliParser(tokens);
+            parser.setVerboseErrors(verboseErrors);
 
-        smaliParser.smali_file_return result = parser.smali_file();
+            smaliParser.smali_file_return result = parser.smali_file();
 
-        if (parser.getNumberOfSyntaxErrors() > 0 || lexer.getNumberOfSyntaxErrors() > 0) {
-            return false;
+            if (parser.getNumberOfSyntaxErrors() > 0 || lexer.getNumberOfSyntaxErrors() > 0) {
+                return null;
+            }
+            return new ParsedSmali((CommonTree) result.getTree(), tokens);
         }
+    }
 
-        CommonTree t = (CommonTree) result.getTree();
-
-        CommonTreeNodeStream treeStream = new CommonTreeNodeStream(t);
-        treeStream.setTokenStream(tokens);
+    /**
+     * Walks a parsed smali file into dexBuilder. A DexBuilder is not meant to
+     * be fed from several threads, so files parsed in parallel are walked
+     * into it one after the other.
+     */
+    public static boolean assembleParsedSmali(ParsedSmali parsed, DexBuilder dexBuilder, boolean verboseErrors)
+            throws RecognitionException {
+        CommonTreeNodeStream treeStream = new CommonTreeNodeStream(parsed.mTree);
+        treeStream.setTokenStream(parsed.mTokens);
 
         smaliTreeWalker dexGen = new smaliTreeWalker(treeStream);
 
@@ -97,9 +114,16 @@ public class SmaliMod {
         dexGen.setDexBuilder(dexBuilder);
         dexGen.smali_file();
 
-        is.close();
-        reader.close();
-
         return dexGen.getNumberOfSyntaxErrors() == 0;
     }
+
+    public static class ParsedSmali {
+        private ParsedSmali(CommonTree tree, CommonTokenStream tokens) {
+            mTree = tree;
+            mTokens = tokens;
+        }
+
+        private final CommonTree mTree;
+        private final CommonTokenStream mTokens;
+    }
 }
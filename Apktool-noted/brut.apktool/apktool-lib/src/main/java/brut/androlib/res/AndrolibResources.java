@@ -18,10 +18,17 @@ package brut.androlib.res;
 
 import brut.androlib.AndrolibException;
 import brut.androlib.ApkOptions;
+import brut.androlib.EntryManifest;
+import brut.androlib.JobContext;
+import brut.androlib.Progress;
+import brut.androlib.Profiler;
 import brut.androlib.err.CantFindFrameworkResException;
 import brut.androlib.meta.PackageInfo;
 import brut.androlib.meta.VersionInfo;
 import brut.androlib.res.data.*;
+import brut.androlib.res.data.value.ResFileValue;
+import brut.androlib.res.data.value.ResReferenceValue;
+import brut.androlib.res.data.value.ResValue;
 import brut.androlib.res.decoder.*;
 import brut.androlib.res.decoder.ARSCDecoder.ARSCData;
 import brut.androlib.res.decoder.ARSCDecoder.FlagsOffset;
@@ -34,6 +41,7 @@ import brut.common.BrutException;
 import brut.directory.Directory;
 import brut.directory.DirectoryException;
 import brut.directory.FileDirectory;
+import brut.util.BrutIO;
 import brut.util.Duo;
 import brut.util.Jar;
 import brut.util.OS;
@@ -42,7 +50,14 @@ import org.apache.commons.io.IOUtils;
 import org.xmlpull.v1.XmlSerializer;
 
 import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Logger;
 import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
@@ -59,17 +74,93 @@ final public class AndrolibResources {
 
     public ResTable getResTable(ExtFile apkFile, boolean loadMainPkg)
             throws AndrolibException {
-        ResTable resTable = new ResTable(this);
+        return getResTable(apkFile, loadMainPkg, null);
+    }
+
+    /**
+     * @param baseTable the table of the base apk when apkFile is one of its
+     * splits, see ResTable(AndrolibResources, ResTable), or null
+     */
+    public ResTable getResTable(ExtFile apkFile, boolean loadMainPkg, ResTable baseTable)
+            throws AndrolibException {
+        return getResTable(apkFile, loadMainPkg, baseTable, null);
+    }
+
+    /**
+     * @param prefetcher runs the background loads of prefetchFrameworkPkgs,
+     * or null to load frameworks lazily on their first lookup. It belongs
+     * to the decode, which shuts it down once it is done.
+     */
+    public ResTable getResTable(ExtFile apkFile, boolean loadMainPkg, ResTable baseTable,
+                                ExecutorService prefetcher) throws AndrolibException {
+        ResTable resTable = new ResTable(this, baseTable);
         if (loadMainPkg) {
+            if (baseTable == null && prefetcher != null) {
+                prefetchFrameworkPkgs(resTable, apkFile, prefetcher);
+            }
             loadMainPkg(resTable, apkFile);
         }
         return resTable;
     }
 
+    /**
+     * Starts loading the framework packages the manifest refers to on
+     * prefetcher, so they are usually ready by the time the main package is
+     * parsed and the first reference into them is decoded. ResTable.release()
+     * cancels the loads that have not started yet, as does shutting down
+     * prefetcher; a package whose load was cancelled is loaded lazily again
+     * if it is looked up after all.
+     */
+    private void prefetchFrameworkPkgs(final ResTable resTable, ExtFile apkFile, ExecutorService prefetcher) {
+        int[] ids;
+        try {
+            Directory apk = apkFile.getDirectory();
+            if (! apk.containsFile("AndroidManifest.xml")) {
+                return;
+            }
+            try (InputStream in = apk.getFileInput("AndroidManifest.xml")) {
+                ids = ResXmlCache.collectReferences(IOUtils.toByteArray(in));
+            }
+        } catch (DirectoryException | IOException ex) {
+            return;
+        }
+        if (ids == null) {
+            return;
+        }
+
+        Set<Integer> pkgIds = new TreeSet<Integer>();
+        for (int id : ids) {
+            int pkgId = id >>> 24;
+            if (pkgId != 0 && pkgId != 0x7f) {
+                pkgIds.add(pkgId);
+            }
+        }
+        final String frameTag = apkOptions.frameworkTag;
+        for (final int pkgId : pkgIds) {
+            FutureTask<ResPackage> task = new FutureTask<ResPackage>(new Callable<ResPackage>() {
+                @Override
+                public ResPackage call() throws AndrolibException {
+                    JobContext.check();
+                    return readFrameworkPkg(resTable, pkgId, frameTag);
+                }
+            });
+            resTable.addPendingPackage(pkgId, task);
+            try {
+                prefetcher.execute(task);
+            } catch (RejectedExecutionException ex) {
+                // the decode is shutting down, the package is loaded lazily if needed
+                task.cancel(false);
+            }
+        }
+    }
+
     public ResPackage loadMainPkg(ResTable resTable, ExtFile apkFile)
             throws AndrolibException {
         LOGGER.info("Loading resource table...");
-        ResPackage[] pkgs = getResPackagesFromApk(apkFile, resTable, sKeepBroken);
+        ResPackage[] pkgs;
+        try (Profiler.Phase phase = Profiler.phase("arsc parse")) {
+            pkgs = getResPackagesFromApk(apkFile, resTable, apkOptions.keepBrokenResources);
+        }
         ResPackage pkg = null;
 
         switch (pkgs.length) {
@@ -118,10 +209,20 @@ final public class AndrolibResources {
 
     public ResPackage loadFrameworkPkg(ResTable resTable, int id, String frameTag)
             throws AndrolibException {
+        ResPackage pkg = readFrameworkPkg(resTable, id, frameTag);
+        resTable.addPackage(pkg, false);
+        return pkg;
+    }
+
+    private ResPackage readFrameworkPkg(ResTable resTable, int id, String frameTag)
+            throws AndrolibException {
         File apk = getFrameworkApk(id, frameTag);
 
         LOGGER.info("Loading resource table from file: " + apk);
-        ResPackage[] pkgs = getResPackagesFromApk(new ExtFile(apk), resTable, true);
+        ResPackage[] pkgs;
+        try (Profiler.Phase phase = Profiler.phase("framework " + id)) {
+            pkgs = getResPackagesFromApk(new ExtFile(apk), resTable, true);
+        }
 
         ResPackage pkg;
         if (pkgs.length > 1) {
@@ -135,13 +236,20 @@ final public class AndrolibResources {
         if (pkg.getId() != id) {
             throw new AndrolibException("Expected pkg of id: " + String.valueOf(id) + ", got: " + pkg.getId());
         }
-
-        resTable.addPackage(pkg, false);
         return pkg;
     }
 
     public void decodeManifest(ResTable resTable, ExtFile apkFile, File outDir)
             throws AndrolibException {
+        try {
+            decodeManifest(resTable, apkFile, new FileDirectory(outDir));
+        } catch (DirectoryException ex) {
+            throw new AndrolibException(ex);
+        }
+    }
+
+    public void decodeManifest(ResTable resTable, ExtFile apkFile, Directory out)
+            throws AndrolibException {
 
         Duo<ResFileDecoder, AXmlResourceParser> duo = getManifestFileDecoder();
         ResFileDecoder fileDecoder = duo.m1;
@@ -153,10 +261,9 @@ final public class AndrolibResources {
         // Fake ResPackage
         attrDecoder.setCurrentPackage(new ResPackage(resTable, 0, null));
 
-        Directory inApk, out;
+        Directory inApk;
         try {
             inApk = apkFile.getDirectory();
-            out = new FileDirectory(outDir);
 
             LOGGER.info("Decoding AndroidManifest.xml with only framework resources...");
             fileDecoder.decodeManifest(inApk, "AndroidManifest.xml", out, "AndroidManifest.xml");//xml解码关键点
@@ -192,6 +299,15 @@ final public class AndrolibResources {
 
     public void decodeManifestWithResources(ResTable resTable, ExtFile apkFile, File outDir)
             throws AndrolibException {
+        try {
+            decodeManifestWithResources(resTable, apkFile, new FileDirectory(outDir));
+        } catch (DirectoryException ex) {
+            throw new AndrolibException(ex);
+        }
+    }
+
+    public void decodeManifestWithResources(ResTable resTable, ExtFile apkFile, Directory out)
+            throws AndrolibException {
 
         Duo<ResFileDecoder, AXmlResourceParser> duo = getResFileDecoder();
         ResFileDecoder fileDecoder = duo.m1;
@@ -199,46 +315,199 @@ final public class AndrolibResources {
 
         attrDecoder.setCurrentPackage(resTable.listMainPackages().iterator().next());
 
-        Directory inApk, in = null, out;
+        Directory inApk;
+        File tmpDir = null;
         try {
             inApk = apkFile.getDirectory();
-            out = new FileDirectory(outDir);
             LOGGER.info("Decoding AndroidManifest.xml with resources...");
 
-            fileDecoder.decodeManifest(inApk, "AndroidManifest.xml", out, "AndroidManifest.xml");
+            // the patcher works on files, so a manifest headed anywhere but a
+            // FileDirectory is decoded and patched in a temp dir, then written out once
+            Directory target = out;
+            File manifestDir = out instanceof FileDirectory ? ((FileDirectory) out).getDir() : null;
+            if (manifestDir == null && !resTable.getAnalysisMode()) {
+                tmpDir = OS.createTempDirectory();
+                manifestDir = tmpDir;
+                target = new FileDirectory(tmpDir);
+            }
+
+            fileDecoder.decodeManifest(inApk, "AndroidManifest.xml", target, "AndroidManifest.xml");
 
             // Remove versionName / versionCode (aapt API 16)
             if (!resTable.getAnalysisMode()) {
+                File manifest = new File(manifestDir, "AndroidManifest.xml");
 
                 // check for a mismatch between resources.arsc package and the package listed in AndroidManifest
                 // also remove the android::versionCode / versionName from manifest for rebuild
                 // this is a required change to prevent aapt warning about conflicting versions
                 // it will be passed as a parameter to aapt like "--min-sdk-version" via apktool.yml
-                adjustPackageManifest(resTable, outDir.getAbsolutePath() + File.separator + "AndroidManifest.xml");
+                adjustPackageManifest(resTable, manifest.getAbsolutePath());
 
-                ResXmlPatcher.removeManifestVersions(new File(
-                        outDir.getAbsolutePath() + File.separator + "AndroidManifest.xml"));
+                ResXmlPatcher.removeManifestVersions(manifest);
+
+                if (tmpDir != null) {
+                    BrutIO.copyAndClose(new FileInputStream(manifest), out.getFileOutput("AndroidManifest.xml"));
+                }
 
                 mPackageId = String.valueOf(resTable.getPackageId());
             }
-        } catch (DirectoryException ex) {
+        } catch (AndrolibException ex) {
+            throw ex;
+        } catch (BrutException | IOException ex) {
             throw new AndrolibException(ex);
+        } finally {
+            if (tmpDir != null) {
+                try {
+                    OS.rmdir(tmpDir);
+                } catch (BrutException ignored) {
+                }
+            }
         }
     }
 
+    /**
+     * Decodes AndroidManifest.xml alone. Only the resources the manifest
+     * refers to are read, by seeking to their entries in resources.arsc and
+     * in the framework apks, so the full resource table is never built.
+     * Nothing is stripped from the manifest for rebuilding.
+     *
+     * @return a table holding just the referenced resources, with the package,
+     *         version and sdk info of the manifest
+     */
+    public ResTable decodeManifestOnly(ExtFile apkFile, Directory out)
+            throws AndrolibException {
+        ResTable resTable = new ResTable();
+        resTable.setAnalysisMode(true);
+
+        try {
+            Directory inApk = apkFile.getDirectory();
+            byte[] manifest;
+            try (InputStream in = inApk.getFileInput("AndroidManifest.xml")) {
+                manifest = IOUtils.toByteArray(in);
+            }
+
+            ARSCIndex index = null;
+            ResPackage mainPkg;
+            if (inApk.containsFile("resources.arsc")) {
+                try (InputStream in = inApk.getFileInput("resources.arsc")) {
+                    index = ARSCIndex.read(in);
+                }
+                mainPkg = null;
+                for (int id : index.getPackageIds()) {
+                    ResPackage pkg = index.createPackage(resTable, id);
+                    resTable.addPackage(pkg, true);
+                    if (mainPkg == null) {
+                        mainPkg = pkg;
+                    }
+                }
+            } else {
+                mainPkg = new ResPackage(resTable, 0, null);
+            }
+
+            int[] ids = ResXmlCache.collectReferences(manifest);
+            if (ids != null) {
+                for (int resId : ids) {
+                    int pkgId = resId >>> 24 == 0 ? 2 : resId >>> 24;
+                    if (index != null && index.hasPackage(pkgId)) {
+                        index.addResource(resTable.getPackage(pkgId), resId);
+                    } else if (pkgId != 0x7f) {
+                        addFrameworkResource(resTable, pkgId, resId);
+                    }
+                }
+            }
+
+            AXmlResourceParser axmlParser = new AXmlResourceParser();
+            axmlParser.setAttrDecoder(new ResAttrDecoder());
+            axmlParser.getAttrDecoder().setCurrentPackage(mainPkg);
+
+            LOGGER.fine("Decoding AndroidManifest.xml with referenced resources only...");
+            try (OutputStream os = out.getFileOutput("AndroidManifest.xml")) {
+                new XmlPullStreamDecoder(axmlParser, getResXmlSerializer())
+                        .decodeManifest(new ByteArrayInputStream(manifest), os);
+            }
+            return resTable;
+        } catch (DirectoryException | IOException ex) {
+            throw new AndrolibException(ex);
+        }
+    }
+
+    private void addFrameworkResource(ResTable resTable, int pkgId, int resId)
+            throws AndrolibException {
+        ARSCIndex index = mFrameworkIndexes.get(pkgId);
+        if (index == null) {
+            File apk;
+            try {
+                apk = getFrameworkApk(pkgId, apkOptions.frameworkTag);
+            } catch (CantFindFrameworkResException ex) {
+                LOGGER.fine("No framework to resolve " + String.format("0x%08x", resId));
+                return;
+            }
+            LOGGER.fine("Indexing resource table from file: " + apk);
+            try (ExtFile apkFile = new ExtFile(apk);
+                 InputStream in = apkFile.getDirectory().getFileInput("resources.arsc")) {
+                index = ARSCIndex.read(in);
+            } catch (DirectoryException | IOException ex) {
+                throw new AndrolibException("Could not load resources.arsc from file: " + apk, ex);
+            }
+            if (! index.hasPackage(pkgId)) {
+                throw new AndrolibException("Expected pkg of id: " + String.valueOf(pkgId) + " in " + apk);
+            }
+            mFrameworkIndexes.put(pkgId, index);
+        }
+        if (! resTable.hasPackage(pkgId)) {
+            resTable.addPackage(index.createPackage(resTable, pkgId), false);
+        }
+        index.addResource(resTable.getPackage(pkgId), resId);
+    }
+
     public void decode(ResTable resTable, ExtFile apkFile, File outDir)
             throws AndrolibException {
+        try {
+            decode(resTable, apkFile, new FileDirectory(outDir));
+        } catch (DirectoryException ex) {
+            throw new AndrolibException(ex);
+        }
+    }
+
+    public void decode(ResTable resTable, ExtFile apkFile, Directory out)
+            throws AndrolibException {
+        decode(resTable, apkFile, out, null, null);
+    }
+
+    /**
+     * Decodes the resources, recording the file each res/ entry was decoded
+     * to in entries. With the manifest of a previous decode that out already
+     * holds, unchanged files are kept instead of decoded again; xml files
+     * and values/ are only kept as long as resources.arsc is unchanged too,
+     * since their content depends on the names in the table.
+     */
+    public void decode(ResTable resTable, ExtFile apkFile, Directory out,
+                       EntryManifest entries, EntryManifest previous)
+            throws AndrolibException {
+        File outDir = out instanceof FileDirectory ? ((FileDirectory) out).getDir() : null;
+        if (entries == null || outDir == null) {
+            previous = null;
+        }
+        boolean tableChanged = previous != null && ! entries.isUnchanged("resources.arsc", previous);
+        if (tableChanged) {
+            removeValuesDirs(new File(outDir, "res"));
+        }
+
         Duo<ResFileDecoder, AXmlResourceParser> duo = getResFileDecoder();//一个数据结构 DUO
         //返回 new Duo<ResFileDecoder, AXmlResourceParser>(new ResFileDecoder(decoders), axmlParser);
         ResFileDecoder fileDecoder = duo.m1; //初始化为new ResFileDecoder(decoders)
         ResAttrDecoder attrDecoder = duo.m2.getAttrDecoder(); //初始化为axmlParser
 
         attrDecoder.setCurrentPackage(resTable.listMainPackages().iterator().next());//属性解码
-        Directory inApk, in = null, out;// ?
+        fileDecoder.setXmlCache(apkOptions.resXmlCache);
+        Directory inApk, in = null, root = out;
 
-        try {
-            out = new FileDirectory(outDir);
+        ResFilter filter = apkOptions.resourceFilter;
+        if (filter != null && filter.isEmpty()) {
+            filter = null;
+        }
 
+        try {
             inApk = apkFile.getDirectory();
             out = out.createDir("res"); //创建res文件夹
             if (inApk.containsDir("res")) {
@@ -259,17 +528,84 @@ final public class AndrolibResources {
         for (ResPackage pkg : resTable.listMainPackages()) {
             attrDecoder.setCurrentPackage(pkg);//初始化配置
 
+            // with a filter only the selected resources are decoded and declared
+            // public; other files are kept as raw copies under original/res
+            Set<ResResource> emitted = null;
+            Set<ResResSpec> selected = null;
+            if (filter != null) {
+                emitted = selectResources(pkg, filter, inApk);
+                selected = new HashSet<ResResSpec>();
+                for (ResResource res : emitted) {
+                    selected.add(res.getResSpec());
+                }
+            }
+
             LOGGER.info("Decoding file-resources...");
-            for (ResResource res : pkg.listFiles()) {
-                fileDecoder.decode(res, in, out); //主要的解码，res/xml文件解码，关键点，需要跟进去
+            int reused = 0;
+            Profiler.Phase phase = Profiler.phase("file resources");
+            Collection<ResResource> files = pkg.listFiles();
+            Progress.Counter counter = Progress.count("file resources", files.size());
+            for (ResResource res : files) {
+                JobContext.check();
+                counter.step();
+                if (emitted != null && ! emitted.contains(res)) {
+                    copyFilteredFile(res, inApk, root);
+                    continue;
+                }
+                String entry = ((ResFileValue) res.getValue()).getPath();
+                if (previous != null && isReusable(res, entry, tableChanged, outDir, entries, previous)) {
+                    entries.setOutput(entry, previous.getOutput(entry));
+                    reused++;
+                    continue;
+                }
+                String decoded = fileDecoder.decode(res, in, out); //主要的解码，res/xml文件解码，关键点，需要跟进去
+                if (entries != null && decoded != null) {
+                    entries.setOutput(entry, "res/" + decoded);
+                }
+            }
+            phase.close();
+            if (reused > 0) {
+                LOGGER.info("Kept " + reused + " unchanged file-resources from the previous decode");
+            }
+            if (previous != null && ! tableChanged) {
+                LOGGER.info("resources.arsc unchanged, keeping values */* XMLs");
+                continue;
             }
 
             LOGGER.info("Decoding values */* XMLs...");
-            for (ResValuesFile valuesFile : pkg.listValuesFiles()) {
-                generateValuesFile(valuesFile, out, xmlSerializer);//生成value文件
+            phase = Profiler.phase("values files");
+            Collection<ResValuesFile> valuesFiles = pkg.listValuesFiles();
+            counter = Progress.count("values files", valuesFiles.size());
+            for (ResValuesFile valuesFile : valuesFiles) {
+                JobContext.check();
+                counter.step();
+                if (emitted != null && Collections.disjoint(valuesFile.listResources(), emitted)) {
+                    continue;
+                }
+                generateValuesFile(valuesFile, out, xmlSerializer, emitted);//生成value文件
             }
-            generatePublicXml(pkg, out, xmlSerializer);// 生成public.xml
+            generatePublicXml(pkg, out, xmlSerializer, selected);// 生成public.xml
+            phase.close();
         }
+
+        if (filter != null) {
+            // values of everything that was left out only live in the table
+            try {
+                if (inApk.containsFile("resources.arsc")) {
+                    inApk.copyToDir(getOriginalDir(root), "resources.arsc");
+                }
+            } catch (DirectoryException ex) {
+                throw new AndrolibException(ex);
+            }
+        }
+        if (apkOptions.resXmlCache != null) {
+            LOGGER.info("Xml cache: " + apkOptions.resXmlCache);
+        }
+        if (apkOptions.memoryBudget > 0) {
+            // main packages may refer to each other, so they only go once all are written
+            resTable.release();
+        }
+
         //抛出错误
         AndrolibException decodeError = duo.m2.getFirstError();
         if (decodeError != null) {
@@ -431,7 +767,8 @@ final public class AndrolibResources {
         if (rawDir != null) {
             cmd.add(rawDir.getAbsolutePath());
         }
-        try {
+        JobContext.check();
+        try (Profiler.Phase phase = Profiler.phase("aapt")) {
             OS.exec(cmd.toArray(new String[0]));
             if (apkOptions.verbose) {
                 LOGGER.info("command ran: ");
@@ -503,8 +840,16 @@ final public class AndrolibResources {
         return serial;
     }
 
-    private void generateValuesFile(ResValuesFile valuesFile, Directory out,
-                                    ExtXmlSerializer serial) throws AndrolibException {
+    public void generateValuesFile(ResValuesFile valuesFile, Directory out,
+                                   ExtXmlSerializer serial) throws AndrolibException {
+        generateValuesFile(valuesFile, out, serial, null);
+    }
+
+    /**
+     * @param emitted the resources to write, or null for all of them
+     */
+    public void generateValuesFile(ResValuesFile valuesFile, Directory out,
+                                   ExtXmlSerializer serial, Set<ResResource> emitted) throws AndrolibException {
         try {
             OutputStream outStream = out.getFileOutput(valuesFile.getPath());
             serial.setOutput((outStream), null);
@@ -512,7 +857,7 @@ final public class AndrolibResources {
             serial.startTag(null, "resources");
 
             for (ResResource res : valuesFile.listResources()) {
-                if (valuesFile.isSynthesized(res)) {
+                if (valuesFile.isSynthesized(res) || (emitted != null && ! emitted.contains(res))) {
                     continue;
                 }
                 ((ResValuesXmlSerializable) res.getValue()).serializeToResValuesXml(serial, res);
@@ -528,20 +873,192 @@ final public class AndrolibResources {
         }
     }
 
-    private void generatePublicXml(ResPackage pkg, Directory out,
-                                   XmlSerializer serial) throws AndrolibException {
+    private boolean isReusable(ResResource res, String entry, boolean tableChanged, File outDir,
+                               EntryManifest entries, EntryManifest previous) {
+        String output = previous.getOutput(entry);
+        if (output == null || ! entries.isUnchanged(entry, previous)) {
+            return false;
+        }
+        // binary xml refers to other resources by id, which may be named differently now
+        if (tableChanged && entry.endsWith(".xml")) {
+            return false;
+        }
+        // the resource may have been renamed
+        String stem = "res/" + res.getFilePath();
+        if (! output.equals(stem) && ! output.startsWith(stem + ".")) {
+            return false;
+        }
+        return new File(outDir, output).isFile();
+    }
+
+    private void removeValuesDirs(File resDir) throws AndrolibException {
+        File[] dirs = resDir.listFiles();
+        if (dirs == null) {
+            return;
+        }
+        for (File dir : dirs) {
+            if (dir.isDirectory() && (dir.getName().equals("values") || dir.getName().startsWith("values-"))) {
+                try {
+                    OS.rmdir(dir);
+                } catch (BrutException ex) {
+                    throw new AndrolibException(ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Picks the resources of pkg that a filtered decode emits: the ones the
+     * filter matches, plus every config of each resource that the manifest
+     * or an emitted resource refers to. Without the latter, aapt could not
+     * build the subset, since only emitted resources are declared.
+     */
+    private Set<ResResource> selectResources(ResPackage pkg, ResFilter filter, Directory inApk)
+            throws AndrolibException {
+        Set<ResResource> emitted = new HashSet<ResResource>();
+        Deque<ResResource> pending = new ArrayDeque<ResResource>();
+        for (ResResource res : pkg.listFiles()) {
+            if (filter.matches(res) && emitted.add(res)) {
+                pending.add(res);
+            }
+        }
+        for (ResValuesFile valuesFile : pkg.listValuesFiles()) {
+            if (filter.matches(valuesFile)) {
+                for (ResResource res : valuesFile.listResources()) {
+                    if (emitted.add(res)) {
+                        pending.add(res);
+                    }
+                }
+            }
+        }
+
+        int matched = emitted.size();
+        Set<ResResSpec> referenced = new HashSet<ResResSpec>();
+        List<ResResSpec> refs = new ArrayList<ResResSpec>();
+        collectXmlReferences(pkg, inApk, "AndroidManifest.xml", refs);
+        while (true) {
+            for (ResResSpec spec : refs) {
+                if (! referenced.add(spec)) {
+                    continue;
+                }
+                for (ResResource res : spec.listResources()) {
+                    if (emitted.add(res)) {
+                        pending.add(res);
+                    }
+                }
+            }
+            refs.clear();
+
+            ResResource res = pending.poll();
+            if (res == null) {
+                break;
+            }
+            collectReferences(pkg, res, inApk, refs);
+        }
+        if (emitted.size() > matched) {
+            LOGGER.info("Keeping " + (emitted.size() - matched) + " resources the selected ones refer to");
+        }
+        return emitted;
+    }
+
+    private void collectReferences(ResPackage pkg, ResResource res, Directory inApk, List<ResResSpec> refs)
+            throws AndrolibException {
+        ResValue value = res.getValue();
+        if (value instanceof ResFileValue) {
+            String path = ((ResFileValue) value).getPath();
+            if (path.endsWith(".xml")) {
+                collectXmlReferences(pkg, inApk, path, refs);
+            }
+            return;
+        }
+        List<ResReferenceValue> values = new ArrayList<ResReferenceValue>();
+        value.collectReferences(values);
+        for (ResReferenceValue ref : values) {
+            addReferent(pkg, ref.getValue(), refs);
+        }
+    }
+
+    private void collectXmlReferences(ResPackage pkg, Directory inApk, String path, List<ResResSpec> refs)
+            throws AndrolibException {
+        byte[] xml;
+        try {
+            if (! inApk.containsFile(path)) {
+                return;
+            }
+            try (InputStream in = inApk.getFileInput(path)) {
+                xml = IOUtils.toByteArray(in);
+            }
+        } catch (IOException | DirectoryException ex) {
+            throw new AndrolibException("Could not read: " + path, ex);
+        }
+        int[] ids = ResXmlCache.collectReferences(xml);
+        if (ids == null) {
+            return;
+        }
+        for (int id : ids) {
+            addReferent(pkg, id, refs);
+        }
+    }
+
+    private void addReferent(ResPackage pkg, int id, List<ResResSpec> refs) {
+        int pkgId = id >>> 24;
+        if (pkgId != 0 && pkgId != pkg.getId()) {
+            // framework and library resources are not part of the subset
+            return;
+        }
+        try {
+            ResResSpec spec = pkg.getResTable().getResSpec(id);
+            if (spec.getPackage() == pkg) {
+                refs.add(spec);
+            }
+        } catch (AndrolibException ex) {
+            // unresolved, decoded as a raw id
+        }
+    }
+
+    private void copyFilteredFile(ResResource res, Directory inApk, Directory root)
+            throws AndrolibException {
+        String path = ((ResFileValue) res.getValue()).getPath();
+        try {
+            if (inApk.containsFile(path)) {
+                inApk.copyToDir(getOriginalDir(root), path);
+            }
+        } catch (DirectoryException ex) {
+            throw new AndrolibException(ex);
+        }
+    }
+
+    private Directory getOriginalDir(Directory root) throws DirectoryException {
+        return root.containsDir("original") ? root.getDir("original") : root.createDir("original");
+    }
+
+    public void generatePublicXml(ResPackage pkg, Directory out,
+                                  XmlSerializer serial, Set<ResResSpec> selected) throws AndrolibException {
+        generatePublicXml(Collections.singleton(pkg), out, serial, selected);
+    }
+
+    /**
+     * Writes a single public.xml declaring the specs of all of pkgs.
+     */
+    public void generatePublicXml(Collection<ResPackage> pkgs, Directory out,
+                                  XmlSerializer serial, Set<ResResSpec> selected) throws AndrolibException {
         try {
             OutputStream outStream = out.getFileOutput("values/public.xml");
             serial.setOutput(outStream, null);
             serial.startDocument(null, null);
             serial.startTag(null, "resources");
 
-            for (ResResSpec spec : pkg.listResSpecs()) {
-                serial.startTag(null, "public");
-                serial.attribute(null, "type", spec.getType().getName());
-                serial.attribute(null, "name", spec.getName());
-                serial.attribute(null, "id", String.format("0x%08x", spec.getId().id));
-                serial.endTag(null, "public");
+            for (ResPackage pkg : pkgs) {
+                for (ResResSpec spec : pkg.listResSpecs()) {
+                    if (selected != null && ! selected.contains(spec)) {
+                        continue;
+                    }
+                    serial.startTag(null, "public");
+                    serial.attribute(null, "type", spec.getType().getName());
+                    serial.attribute(null, "name", spec.getName());
+                    serial.attribute(null, "id", String.format("0x%08x", spec.getId().id));
+                    serial.endTag(null, "public");
+                }
             }
 
             serial.endTag(null, "resources");
@@ -553,11 +1070,22 @@ final public class AndrolibResources {
         }
     }
 
+    /**
+     * With a memory budget, string pools bigger than a 64th of it are
+     * mapped instead of read into the heap.
+     */
+    private int getStringMapThreshold() {
+        if (apkOptions.memoryBudget <= 0) {
+            return Integer.MAX_VALUE;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(MIN_STRING_MAP_THRESHOLD, apkOptions.memoryBudget / 64));
+    }
+
     private ResPackage[] getResPackagesFromApk(ExtFile apkFile,ResTable resTable, boolean keepBroken)
             throws AndrolibException {
         try {
             BufferedInputStream bfi = new BufferedInputStream(apkFile.getDirectory().getFileInput("resources.arsc"));
-            return ARSCDecoder.decode(bfi, false, keepBroken, resTable).getPackages();
+            return ARSCDecoder.decode(bfi, false, keepBroken, resTable, getStringMapThreshold()).getPackages();
         } catch (DirectoryException ex) {
             throw new AndrolibException("Could not load resources.arsc from file: " + apkFile, ex);
         }
@@ -581,13 +1109,16 @@ final public class AndrolibResources {
         }
 
         if (id == 1) {
+            File tmp = createFrameworkTmpFile(dir);
             try (InputStream in = AndrolibResources.class.getResourceAsStream("/brut/androlib/android-framework.jar");
-                 OutputStream out = new FileOutputStream(apk)) {
+                 OutputStream out = new FileOutputStream(tmp)) {
                 IOUtils.copy(in, out);
-                return apk;
             } catch (IOException ex) {
+                tmp.delete();
                 throw new AndrolibException(ex);
             }
+            moveFramework(tmp, apk);
+            return apk;
         }
 
         throw new CantFindFrameworkResException(id);
@@ -601,6 +1132,7 @@ final public class AndrolibResources {
             throws AndrolibException {
         InputStream in = null;
         ZipOutputStream out = null;
+        File tmpFile = null;
         try {
             ZipFile zip = new ZipFile(frameFile);
             ZipEntry entry = zip.getEntry("resources.arsc");
@@ -619,8 +1151,9 @@ final public class AndrolibResources {
                     .getOnePackage().getId())
                     + (tag == null ? "" : '-' + tag)
                     + ".apk");
+            tmpFile = createFrameworkTmpFile(outFile.getParentFile());
 
-            out = new ZipOutputStream(new FileOutputStream(outFile));
+            out = new ZipOutputStream(new FileOutputStream(tmpFile));
             out.setMethod(ZipOutputStream.STORED);
             CRC32 crc = new CRC32();
             crc.update(data);
@@ -647,12 +1180,47 @@ final public class AndrolibResources {
             }
 
             zip.close();
+            out.close();
+            moveFramework(tmpFile, outFile);
+            tmpFile = null;
             LOGGER.info("Framework installed to: " + outFile);
         } catch (IOException ex) {
             throw new AndrolibException(ex);
         } finally {
             IOUtils.closeQuietly(in);
             IOUtils.closeQuietly(out);
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    private static File createFrameworkTmpFile(File dir) throws AndrolibException {
+        try {
+            return File.createTempFile("framework", ".tmp", dir);
+        } catch (IOException ex) {
+            throw new AndrolibException("Could not create a file in: " + dir, ex);
+        }
+    }
+
+    /**
+     * Frameworks are written to a temp file and moved into place, so that
+     * decodes running side by side, in this JVM or another one, never load
+     * a framework that is still being written.
+     */
+    private static void moveFramework(File tmpFile, File frameFile) throws AndrolibException {
+        try {
+            try {
+                Files.move(tmpFile.toPath(), frameFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmpFile.toPath(), frameFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            tmpFile.delete();
+            // another decode may have the same framework open, which is as good
+            if (! frameFile.isFile()) {
+                throw new AndrolibException("Could not write framework: " + frameFile, ex);
+            }
         }
     }
 
@@ -691,15 +1259,18 @@ final public class AndrolibResources {
     }
 
     public File getFrameworkDir() throws AndrolibException {
-        if (mFrameworkDirectory != null) {
+        // the options may change between calls, the resolved directory is only kept for the same location
+        String location = apkOptions.frameworkFolderLocation;
+        if (mFrameworkDirectory != null && (location == null
+                ? mFrameworkLocation == null : location.equals(mFrameworkLocation))) {
             return mFrameworkDirectory;
         }
 
         String path;
 
         // if a framework path was specified on the command line, use it
-        if (apkOptions.frameworkFolderLocation != null) {
-            path = apkOptions.frameworkFolderLocation;
+        if (location != null) {
+            path = location;
         } else {
             File parentPath = new File(System.getProperty("user.home"));
             if (! parentPath.canWrite()) {
@@ -728,8 +1299,9 @@ final public class AndrolibResources {
         }
 
         if (! dir.exists()) {
-            if (! dir.mkdirs()) {
-                if (apkOptions.frameworkFolderLocation != null) {
+            // another decode may create it meanwhile
+            if (! dir.mkdirs() && ! dir.isDirectory()) {
+                if (location != null) {
                     LOGGER.severe("Can't create Framework directory: " + dir);
                 }
                 throw new AndrolibException("Can't create directory: " + dir);
@@ -737,6 +1309,7 @@ final public class AndrolibResources {
         }
 
         mFrameworkDirectory = dir;
+        mFrameworkLocation = location;
         return dir;
     }
 
@@ -784,12 +1357,13 @@ final public class AndrolibResources {
 
     public ApkOptions apkOptions;
 
-    // TODO: dirty static hack. I have to refactor decoding mechanisms.
-    public static boolean sKeepBroken = false;
+    private final static int MIN_STRING_MAP_THRESHOLD = 1024 * 1024;
 
     private final static Logger LOGGER = Logger.getLogger(AndrolibResources.class.getName());
 
     private File mFrameworkDirectory = null;
+    private String mFrameworkLocation = null;
+    private final Map<Integer, ARSCIndex> mFrameworkIndexes = new HashMap<Integer, ARSCIndex>();
 
     private String mMinSdkVersion = null;
     private String mMaxSdkVersion = null;
@@ -0,0 +1,124 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib.res;
+
+import brut.androlib.res.data.ResResource;
+import brut.androlib.res.data.ResType;
+import brut.androlib.res.data.ResValuesFile;
+import brut.androlib.res.data.value.ResFileValue;
+import brut.util.Glob;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Restricts resource decoding to a subset of the resource table. A resource
+ * is selected when it matches every kind of criterion that was given:
+ * <ul>
+ * <li>types, e.g. "string" or "layout"</li>
+ * <li>configurations, as qualifiers like "de" or "en-rUS". A config matches
+ * when it has all of the listed qualifiers, so "en" also selects "en-rUS-v21";
+ * "default" stands for the unqualified config.</li>
+ * <li>path globs, matched against the path inside the apk, e.g.
+ * "res/**.png" or "res/values-fr/strings.xml". "*" stays within one
+ * path segment, "**" crosses segments.</li>
+ * </ul>
+ * An empty filter selects everything.
+ */
+public class ResFilter {
+
+    public ResFilter addType(String type) {
+        mTypes.add(type);
+        return this;
+    }
+
+    public ResFilter addConfig(String qualifiers) {
+        mConfigs.add(qualifiers.startsWith("-") ? qualifiers.substring(1) : qualifiers);
+        return this;
+    }
+
+    public ResFilter addPath(String glob) {
+        mPaths.add(glob);
+        mPathPatterns.add(Glob.toPattern(glob));
+        return this;
+    }
+
+    public Set<String> getTypes() {
+        return Collections.unmodifiableSet(mTypes);
+    }
+
+    public Set<String> getConfigs() {
+        return Collections.unmodifiableSet(mConfigs);
+    }
+
+    public Set<String> getPaths() {
+        return Collections.unmodifiableSet(mPaths);
+    }
+
+    public boolean isEmpty() {
+        return mTypes.isEmpty() && mConfigs.isEmpty() && mPaths.isEmpty();
+    }
+
+    public boolean matches(ResResource res) {
+        String path = res.getValue() instanceof ResFileValue
+                ? ((ResFileValue) res.getValue()).getPath()
+                : "res/" + res.getFilePath();
+        return matches(res.getResSpec().getType().getName(), res.getConfig(), path);
+    }
+
+    public boolean matches(ResValuesFile valuesFile) {
+        return matches(valuesFile.getType().getName(), valuesFile.getConfig(), "res/" + valuesFile.getPath());
+    }
+
+    private boolean matches(String type, ResType config, String path) {
+        if (! mTypes.isEmpty() && ! mTypes.contains(type)) {
+            return false;
+        }
+        if (! mConfigs.isEmpty() && ! matchesConfig(config.getFlags().getQualifiers())) {
+            return false;
+        }
+        if (! mPathPatterns.isEmpty()) {
+            for (Pattern pattern : mPathPatterns) {
+                if (pattern.matcher(path).matches()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private boolean matchesConfig(String qualifiers) {
+        List<String> present = qualifiers.isEmpty()
+                ? Collections.<String>emptyList()
+                : Arrays.asList(qualifiers.substring(1).split("-"));
+        for (String config : mConfigs) {
+            if (config.isEmpty() || config.equals("default")) {
+                if (present.isEmpty()) {
+                    return true;
+                }
+            } else if (present.containsAll(Arrays.asList(config.split("-")))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private final Set<String> mTypes = new LinkedHashSet<String>();
+    private final Set<String> mConfigs = new LinkedHashSet<String>();
+    private final Set<String> mPaths = new LinkedHashSet<String>();
+    private final List<Pattern> mPathPatterns = new ArrayList<Pattern>();
+}
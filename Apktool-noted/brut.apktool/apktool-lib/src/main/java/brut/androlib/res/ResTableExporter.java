@@ -0,0 +1,257 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib.res;
+
+import brut.androlib.AndrolibException;
+import brut.androlib.res.data.ResConfigFlags;
+import brut.androlib.res.data.ResResSpec;
+import brut.androlib.res.data.value.*;
+import brut.androlib.res.decoder.ARSCDecoder;
+import brut.androlib.res.util.ExtFile;
+import brut.directory.DirectoryException;
+import brut.util.Duo;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+
+/**
+ * Streams every entry of a resource table as one row, straight from
+ * ARSCDecoder, without building the table or writing res/. Rows have the
+ * columns apk, package, id, type, name, config, value_type and value, as
+ * JSON Lines or as CSV with a header row.
+ *
+ * References are rendered by id (@0x7f040001, ?0x7f010002) since their
+ * names may only be read later in the table; the id column joins them back.
+ * Bags render their items as "key=value" pairs separated by "; ", led by
+ * their parent when they have one.
+ */
+public class ResTableExporter {
+    public enum Format {
+        JSONL, CSV
+    }
+
+    public ResTableExporter(Writer out, Format format) {
+        mOut = out;
+        mFormat = format;
+    }
+
+    /**
+     * Exports entries with invalid configs instead of dropping them, like
+     * ApkDecoder.setKeepBrokenResources().
+     */
+    public void setKeepBrokenResources(boolean keepBroken) {
+        mKeepBroken = keepBroken;
+    }
+
+    public void export(ExtFile apkFile) throws AndrolibException {
+        try (InputStream in = new BufferedInputStream(apkFile.getDirectory().getFileInput("resources.arsc"))) {
+            export(in, apkFile.getName());
+        } catch (DirectoryException | IOException ex) {
+            throw new AndrolibException("Could not load resources.arsc from file: " + apkFile, ex);
+        }
+    }
+
+    /**
+     * @param source value of the apk column, may be empty
+     */
+    public void export(InputStream arscStream, final String source) throws AndrolibException {
+        try {
+            if (mFormat == Format.CSV && ! mHeaderWritten) {
+                writeCsvRow(COLUMNS);
+                mHeaderWritten = true;
+            }
+            ARSCDecoder.decode(arscStream, mKeepBroken, new ARSCDecoder.EntryListener() {
+                @Override
+                public void entry(ResResSpec spec, ResConfigFlags config, ResValue value,
+                                  int bagParent, Duo<Integer, ResScalarValue>[] bagItems)
+                        throws AndrolibException {
+                    writeRow(source, spec, config, value, bagParent, bagItems);
+                }
+            });
+            mOut.flush();
+        } catch (IOException ex) {
+            throw new AndrolibException(ex);
+        }
+    }
+
+    public long getRowCount() {
+        return mRows;
+    }
+
+    private void writeRow(String source, ResResSpec spec, ResConfigFlags config, ResValue value,
+                          int bagParent, Duo<Integer, ResScalarValue>[] bagItems) throws AndrolibException {
+        String[] row = new String[] {
+                source,
+                spec.getPackage().getName(),
+                String.format("0x%08x", spec.getId().id),
+                spec.getType().getName(),
+                spec.getName(),
+                config.getQualifiers().isEmpty() ? "" : config.getQualifiers().substring(1),
+                getValueType(spec, value),
+                bagItems != null ? renderBag(bagParent, bagItems) : render(value)
+        };
+        try {
+            if (mFormat == Format.CSV) {
+                writeCsvRow(row);
+            } else {
+                writeJsonRow(row);
+            }
+        } catch (IOException ex) {
+            throw new AndrolibException(ex);
+        }
+        mRows++;
+    }
+
+    private static String getValueType(ResResSpec spec, ResValue value) {
+        if (value instanceof ResFileValue) {
+            return "file";
+        }
+        if (value instanceof ResReferenceValue && ((ResReferenceValue) value).isTheme()) {
+            return "attribute";
+        }
+        if (value instanceof ResScalarValue) {
+            return ((ResScalarValue) value).getType();
+        }
+        if (value instanceof ResAttr) {
+            return "attr";
+        }
+        if (value instanceof ResStyleValue) {
+            return "style";
+        }
+        if (value instanceof ResArrayValue) {
+            return "array";
+        }
+        if (value instanceof ResPluralsValue) {
+            return "plurals";
+        }
+        // empty bags are created as plain ResBagValue
+        String type = spec.getType().getName();
+        if (value instanceof ResBagValue
+                && (type.equals("style") || type.equals("array") || type.equals("plurals"))) {
+            return type;
+        }
+        return "bag";
+    }
+
+    private static String render(ResValue value) throws AndrolibException {
+        if (value instanceof ResFileValue) {
+            return ((ResFileValue) value).getPath();
+        }
+        if (value instanceof ResReferenceValue) {
+            ResReferenceValue ref = (ResReferenceValue) value;
+            if (ref.isNull()) {
+                return "@null";
+            }
+            return (ref.isTheme() ? "?" : "@") + String.format("0x%08x", ref.getValue());
+        }
+        if (value instanceof ResStringValue) {
+            String raw = ((ResStringValue) value).getRawValue();
+            return raw == null ? "" : raw;
+        }
+        if (value instanceof ResScalarValue) {
+            return ((ResScalarValue) value).encodeAsResXmlValue();
+        }
+        return "";
+    }
+
+    private static String renderBag(int parent, Duo<Integer, ResScalarValue>[] items) throws AndrolibException {
+        StringBuilder sb = new StringBuilder();
+        if (parent != 0) {
+            sb.append(String.format("parent=@0x%08x", parent));
+        }
+        for (Duo<Integer, ResScalarValue> item : items) {
+            if (sb.length() != 0) {
+                sb.append("; ");
+            }
+            sb.append(String.format("0x%08x", item.m1)).append('=').append(render(item.m2));
+        }
+        return sb.toString();
+    }
+
+    private void writeJsonRow(String[] row) throws IOException {
+        mOut.write('{');
+        for (int i = 0; i < row.length; i++) {
+            if (i != 0) {
+                mOut.write(',');
+            }
+            mOut.write('"');
+            mOut.write(COLUMNS[i]);
+            mOut.write("\":\"");
+            writeJsonString(row[i]);
+            mOut.write('"');
+        }
+        mOut.write("}\n");
+    }
+
+    private void writeJsonString(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            switch (ch) {
+                case '"':
+                    mOut.write("\\\"");
+                    break;
+                case '\\':
+                    mOut.write("\\\\");
+                    break;
+                case '\n':
+                    mOut.write("\\n");
+                    break;
+                case '\r':
+                    mOut.write("\\r");
+                    break;
+                case '\t':
+                    mOut.write("\\t");
+                    break;
+                default:
+                    if (ch < 0x20) {
+                        mOut.write(String.format("\\u%04x", (int) ch));
+                    } else {
+                        mOut.write(ch);
+                    }
+            }
+        }
+    }
+
+    private void writeCsvRow(String[] row) throws IOException {
+        for (int i = 0; i < row.length; i++) {
+            if (i != 0) {
+                mOut.write(',');
+            }
+            String value = row[i];
+            if (value.indexOf(',') != -1 || value.indexOf('"') != -1
+                    || value.indexOf('\n') != -1 || value.indexOf('\r') != -1) {
+                mOut.write('"');
+                mOut.write(value.replace("\"", "\"\""));
+                mOut.write('"');
+            } else {
+                mOut.write(value);
+            }
+        }
+        mOut.write("\r\n");
+    }
+
+    private final Writer mOut;
+    private final Format mFormat;
+    private boolean mKeepBroken;
+    private boolean mHeaderWritten;
+    private long mRows;
+
+    private final static String[] COLUMNS = new String[] {
+            "apk", "package", "id", "type", "name", "config", "value_type", "value"
+    };
+}
@@ -86,6 +86,9 @@ public class ResConfigFlags {
         size = 0;
     }
 
+    /**
+     * @param errIndex the suffix of the "-ERR" qualifier, if the flags are invalid
+     */
     public ResConfigFlags(short mcc, short mnc, char[] language,
                           char[] region, byte orientation,
                           byte touchscreen, int density, byte keyboard, byte navigation,
@@ -93,7 +96,7 @@ public class ResConfigFlags {
                           short sdkVersion, byte screenLayout, byte uiMode,
                           short smallestScreenWidthDp, short screenWidthDp,
                           short screenHeightDp, char[] localeScript, char[] localeVariant,
-                          byte screenLayout2, boolean isInvalid, int size) {
+                          byte screenLayout2, boolean isInvalid, int size, int errIndex) {
         if (orientation < 0 || orientation > 3) {
             LOGGER.warning("Invalid orientation value: " + orientation);
             orientation = 0;
@@ -159,14 +162,14 @@ public class ResConfigFlags {
         this.screenLayout2 = screenLayout2;
         this.isInvalid = isInvalid;
         this.size = size;
-        mQualifiers = generateQualifiers();
+        mQualifiers = generateQualifiers(errIndex);
     }
 
     public String getQualifiers() {
         return mQualifiers;
     }
 
-    private String generateQualifiers() {
+    private String generateQualifiers(int errIndex) {
         StringBuilder ret = new StringBuilder();
         if (mcc != 0) {
             ret.append("-mcc").append(String.format("%03d", mcc));
@@ -390,7 +393,7 @@ public class ResConfigFlags {
             ret.append("-v").append(sdkVersion);
         }
         if (isInvalid) {
-            ret.append("-ERR").append(sErrCounter++);
+            ret.append("-ERR").append(errIndex);
         }
 
         return ret.toString();
@@ -481,10 +484,6 @@ public class ResConfigFlags {
         return hash;
     }
 
-    // TODO: Dirty static hack. This counter should be a part of ResPackage,
-    // but it would be hard right now and this feature is very rarely used.
-    private static int sErrCounter = 0;
-
     public final static byte SDK_BASE = 1;
     public final static byte SDK_BASE_1_1 = 2;
     public final static byte SDK_CUPCAKE = 3;
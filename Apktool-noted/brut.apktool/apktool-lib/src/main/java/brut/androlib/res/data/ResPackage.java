@@ -188,6 +188,18 @@ public class ResPackage {
         mSynthesizedRes.add(new ResID(resId));
     }
 
+    /**
+     * Drops the specs, types and values of the package, keeping only its id
+     * and name. Lookups of its resources fail afterwards.
+     */
+    public void release() {
+        mResSpecs.clear();
+        mConfigs.clear();
+        mTypes.clear();
+        mSynthesizedRes.clear();
+        mValueFactory = null;
+    }
+
     @Override
     public String toString() {
         return mName;
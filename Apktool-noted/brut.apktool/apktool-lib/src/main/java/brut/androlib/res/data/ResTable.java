@@ -22,17 +22,25 @@ import brut.androlib.meta.VersionInfo;
 import brut.androlib.res.AndrolibResources;
 import brut.androlib.res.data.value.ResValue;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * @author Ryszard Wiśniewski <brut.alll@gmail.com>
  */
 public class ResTable {
     private final AndrolibResources mAndRes;
+    private final ResTable mBase;
+    private volatile boolean mShared = false;
 
-    private final Map<Integer, ResPackage> mPackagesById = new HashMap<Integer, ResPackage>();
-    private final Map<String, ResPackage> mPackagesByName = new HashMap<String, ResPackage>();
+    // read without locking, so the splits on top of a table can look it up
+    // while it is being decoded; packages are added under the table's lock
+    private final Map<Integer, ResPackage> mPackagesById = new ConcurrentHashMap<Integer, ResPackage>();
+    private final Map<String, ResPackage> mPackagesByName = new ConcurrentHashMap<String, ResPackage>();
     private final Set<ResPackage> mMainPackages = new LinkedHashSet<ResPackage>();
     private final Set<ResPackage> mFramePackages = new LinkedHashSet<ResPackage>();
+    private final Map<Integer, Future<ResPackage>> mPendingPackages = new HashMap<Integer, Future<ResPackage>>();
 
     private String mPackageRenamed;
     private String mPackageOriginal;
@@ -44,11 +52,27 @@ public class ResTable {
     private VersionInfo mVersionInfo = new VersionInfo();
 
     public ResTable() {
-        mAndRes = null;
+        this(null, null);
     }
 
     public ResTable(AndrolibResources andRes) {
+        this(andRes, null);
+    }
+
+    /**
+     * Creates the table of a split apk on top of base, the table of the
+     * base apk of its set. Packages that the split doesn't define, the base
+     * package of a feature split and the frameworks, are looked up in base,
+     * so frameworks are only loaded once for the whole set, and the entries
+     * a config split leaves out resolve to those of the base package. The
+     * tables of several splits may share a base and be used concurrently.
+     */
+    public ResTable(AndrolibResources andRes, ResTable base) {
         mAndRes = andRes;
+        mBase = base;
+        if (base != null) {
+            base.mShared = true;
+        }
     }
 
     public ResResSpec getResSpec(int resID) throws AndrolibException {
@@ -63,15 +87,30 @@ public class ResTable {
     }
 
     public ResResSpec getResSpec(ResID resID) throws AndrolibException {
-        return getPackage(resID.package_).getResSpec(resID);
+        ResPackage pkg = mPackagesById.get(resID.package_);
+        if (pkg == null) {
+            return getPackage(resID.package_).getResSpec(resID);
+        }
+        if (mBase != null && (! pkg.hasResSpec(resID) || pkg.getResSpec(resID).isDummyResSpec())) {
+            // a config split only has the entries of its own configs
+            ResPackage basePkg = mBase.mPackagesById.get(resID.package_);
+            if (basePkg != null && basePkg.hasResSpec(resID)) {
+                return basePkg.getResSpec(resID);
+            }
+        }
+        return pkg.getResSpec(resID);
     }
 
     public Set<ResPackage> listMainPackages() {
         return mMainPackages;
     }
 
-    public Set<ResPackage> listFramePackages() {
-        return mFramePackages;
+    /**
+     * @return the frameworks loaded so far; for the table of a split, also
+     * those of the base table that the split looked up
+     */
+    public synchronized Set<ResPackage> listFramePackages() {
+        return new LinkedHashSet<ResPackage>(mFramePackages);
     }
 
     public ResPackage getPackage(int id) throws AndrolibException {
@@ -79,6 +118,32 @@ public class ResTable {
         if (pkg != null) {
             return pkg;
         }
+        if (mBase != null) {
+            return getBasePackage(id);
+        }
+        return loadPackage(id);
+    }
+
+    private synchronized ResPackage getBasePackage(int id) throws AndrolibException {
+        ResPackage pkg = mBase.getPackage(id);
+        if (! mBase.listMainPackages().contains(pkg)) {
+            mFramePackages.add(pkg);
+        }
+        return pkg;
+    }
+
+    private synchronized ResPackage loadPackage(int id) throws AndrolibException {
+        // another thread may have loaded it meanwhile
+        ResPackage pkg = mPackagesById.get(id);
+        if (pkg != null) {
+            return pkg;
+        }
+        Future<ResPackage> pending = mPendingPackages.remove(id);
+        if (pending != null && ! pending.isCancelled()) {
+            pkg = waitFor(pending);
+            addPackage(pkg, false);
+            return pkg;
+        }
         if (mAndRes != null) {
             return mAndRes.loadFrameworkPkg(this, id, mAndRes.apkOptions.frameworkTag);
         }
@@ -113,6 +178,9 @@ public class ResTable {
 
     public ResPackage getPackage(String name) throws AndrolibException {
         ResPackage pkg = mPackagesByName.get(name);
+        if (pkg == null && mBase != null && mBase.hasPackage(name)) {
+            return mBase.getPackage(name);
+        }
         if (pkg == null) {
             throw new UndefinedResObject("package: name=" + name);
         }
@@ -131,8 +199,41 @@ public class ResTable {
         return getPackage(package_).getType(type).getResSpec(name).getDefaultResource().getValue();
     }
 
-    public void addPackage(ResPackage pkg, boolean main) throws AndrolibException {
+    /**
+     * Registers a framework package that is being loaded in the background.
+     * It becomes part of the table on its first lookup, as if it had been
+     * loaded lazily then, and the lookup blocks until the load is done.
+     */
+    public synchronized void addPendingPackage(int id, Future<ResPackage> pkg) {
+        mPendingPackages.put(id, pkg);
+    }
+
+    /**
+     * @return whether the framework package id is being loaded in the
+     *         background and has not been looked up yet
+     */
+    public synchronized boolean hasPendingPackage(int id) {
+        return mPendingPackages.containsKey(id);
+    }
+
+    private ResPackage waitFor(Future<ResPackage> pending) throws AndrolibException {
+        try {
+            return pending.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new AndrolibException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof AndrolibException) {
+                throw (AndrolibException) ex.getCause();
+            }
+            throw new AndrolibException(ex.getCause());
+        }
+    }
+
+    public synchronized void addPackage(ResPackage pkg, boolean main) throws AndrolibException {
         Integer id = pkg.getId();
+        // the table itself defines it, a prefetched framework copy is not needed
+        mPendingPackages.remove(id);
         if (mPackagesById.containsKey(id)) {
             throw new AndrolibException("Multiple packages: id=" + id.toString());
         }
@@ -150,6 +251,26 @@ public class ResTable {
         }
     }
 
+    /**
+     * Drops the specs and values of every package once nothing looks them up
+     * anymore. The packages themselves and the manifest info stay, so the
+     * table can still describe the apk in apktool.yml. Frameworks that are
+     * still loading in the background are dropped too. A table that splits
+     * are decoded on top of is kept, as they may still look it up.
+     */
+    public synchronized void release() {
+        if (mShared) {
+            return;
+        }
+        for (ResPackage pkg : mPackagesById.values()) {
+            pkg.release();
+        }
+        for (Future<ResPackage> pending : mPendingPackages.values()) {
+            pending.cancel(false);
+        }
+        mPendingPackages.clear();
+    }
+
     public void setAnalysisMode(boolean mode) {
         mAnalysisMode = mode;
     }
@@ -22,6 +22,7 @@ import brut.androlib.res.xml.ResValuesXmlSerializable;
 import brut.util.Duo;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collection;
 
 import org.xmlpull.v1.XmlSerializer;
 
@@ -95,6 +96,14 @@ public class ResArrayValue extends ResBagValue implements
         return type;
     }
 
+    @Override
+    public void collectReferences(Collection<ResReferenceValue> refs) {
+        super.collectReferences(refs);
+        for (ResScalarValue item : mItems) {
+            item.collectReferences(refs);
+        }
+    }
+
     private final ResScalarValue[] mItems;
     private final String AllowedArrayTypes[] = {"string", "integer"};
 
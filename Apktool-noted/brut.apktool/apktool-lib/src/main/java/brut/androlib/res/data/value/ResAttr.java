@@ -42,6 +42,14 @@ public class ResAttr extends ResBagValue implements ResValuesXmlSerializable {
         return null;
     }
 
+    /**
+     * Describes everything convertToResXmlFormat() depends on. Xml decoded
+     * against an attr with the same format key comes out the same.
+     */
+    public String getFormatKey() throws AndrolibException {
+        return getClass().getSimpleName() + ':' + mType;
+    }
+
     @Override
     public void serializeToResValuesXml(XmlSerializer serializer,
                                         ResResource res) throws IOException, AndrolibException {
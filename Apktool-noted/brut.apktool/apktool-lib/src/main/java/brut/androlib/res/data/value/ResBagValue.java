@@ -21,6 +21,7 @@ import brut.androlib.res.data.ResResource;
 import brut.androlib.res.xml.ResValuesXmlSerializable;
 import brut.util.Duo;
 import java.io.IOException;
+import java.util.Collection;
 import org.xmlpull.v1.XmlSerializer;
 
 /**
@@ -62,4 +63,9 @@ public class ResBagValue extends ResValue implements ResValuesXmlSerializable {
     public ResReferenceValue getParent() {
         return mParent;
     }
+
+    @Override
+    public void collectReferences(Collection<ResReferenceValue> refs) {
+        mParent.collectReferences(refs);
+    }
 }
@@ -20,6 +20,7 @@ import brut.androlib.AndrolibException;
 import brut.androlib.res.data.ResResource;
 import brut.util.Duo;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import org.xmlpull.v1.XmlSerializer;
@@ -46,6 +47,15 @@ public class ResEnumAttr extends ResAttr {
         return super.convertToResXmlFormat(value);
     }
 
+    @Override
+    public String getFormatKey() throws AndrolibException {
+        StringBuilder sb = new StringBuilder(super.getFormatKey());
+        for (Duo<ResReferenceValue, ResIntValue> duo : mItems) {
+            sb.append(',').append(duo.m1.getReferent().getName()).append('=').append(duo.m2.getValue());
+        }
+        return sb.toString();
+    }
+
     @Override
     protected void serializeBody(XmlSerializer serializer, ResResource res)
             throws AndrolibException, IOException {
@@ -77,6 +87,14 @@ public class ResEnumAttr extends ResAttr {
         return value2;
     }
 
+    @Override
+    public void collectReferences(Collection<ResReferenceValue> refs) {
+        super.collectReferences(refs);
+        for (Duo<ResReferenceValue, ResIntValue> item : mItems) {
+            item.m1.collectReferences(refs);
+        }
+    }
+
     private final Duo<ResReferenceValue, ResIntValue>[] mItems;
     private final Map<Integer, String> mItemsCache = new HashMap<Integer, String>();
 }
@@ -21,6 +21,7 @@ import brut.androlib.res.data.ResResource;
 import brut.util.Duo;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
 import org.xmlpull.v1.XmlSerializer;
 
@@ -73,6 +74,15 @@ public class ResFlagsAttr extends ResAttr {
         return renderFlags(Arrays.copyOf(flagItems, flagsCount));
     }
 
+    @Override
+    public String getFormatKey() throws AndrolibException {
+        StringBuilder sb = new StringBuilder(super.getFormatKey());
+        for (FlagItem item : mItems) {
+            sb.append(',').append(item.getValue()).append('=').append(item.flag);
+        }
+        return sb.toString();
+    }
+
     @Override
     protected void serializeBody(XmlSerializer serializer, ResResource res)
             throws AndrolibException, IOException {
@@ -138,6 +148,14 @@ public class ResFlagsAttr extends ResAttr {
         });
     }
 
+    @Override
+    public void collectReferences(Collection<ResReferenceValue> refs) {
+        super.collectReferences(refs);
+        for (FlagItem item : mItems) {
+            item.ref.collectReferences(refs);
+        }
+    }
+
     private final FlagItem[] mItems;
 
     private FlagItem[] mZeroFlags;
@@ -22,6 +22,7 @@ import brut.androlib.res.xml.ResValuesXmlSerializable;
 import brut.androlib.res.xml.ResXmlEncoders;
 import brut.util.Duo;
 import java.io.IOException;
+import java.util.Collection;
 import org.xmlpull.v1.XmlSerializer;
 
 /**
@@ -60,6 +61,16 @@ public class ResPluralsValue extends ResBagValue implements
         serializer.endTag(null, "plurals");
     }
 
+    @Override
+    public void collectReferences(Collection<ResReferenceValue> refs) {
+        super.collectReferences(refs);
+        for (ResScalarValue item : mItems) {
+            if (item != null) {
+                item.collectReferences(refs);
+            }
+        }
+    }
+
     private final ResScalarValue[] mItems;
 
     public static final int BAG_KEY_PLURALS_START = 0x01000004;
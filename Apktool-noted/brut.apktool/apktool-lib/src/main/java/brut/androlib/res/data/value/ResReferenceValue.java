@@ -20,6 +20,7 @@ import brut.androlib.AndrolibException;
 import brut.androlib.err.UndefinedResObject;
 import brut.androlib.res.data.ResPackage;
 import brut.androlib.res.data.ResResSpec;
+import java.util.Collection;
 
 /**
  * @author Ryszard Wiśniewski <brut.alll@gmail.com>
@@ -65,6 +66,17 @@ public class ResReferenceValue extends ResIntValue {
         }
     }
 
+    @Override
+    public void collectReferences(Collection<ResReferenceValue> refs) {
+        if (! isNull()) {
+            refs.add(this);
+        }
+    }
+
+    public boolean isTheme() {
+        return mTheme;
+    }
+
     public boolean isNull() {
         return mValue == 0;
     }
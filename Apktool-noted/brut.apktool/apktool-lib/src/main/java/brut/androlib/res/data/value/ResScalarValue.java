@@ -105,6 +105,10 @@ public abstract class ResScalarValue extends ResIntBasedValue implements
         return mType;
     }
 
+    public String getRawValue() {
+        return mRawValue;
+    }
+
     protected void serializeExtraXmlAttrs(XmlSerializer serializer,
                                           ResResource res) throws IOException {
     }
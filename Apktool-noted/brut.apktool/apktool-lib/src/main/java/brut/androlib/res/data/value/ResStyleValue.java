@@ -22,6 +22,7 @@ import brut.androlib.res.data.ResResource;
 import brut.androlib.res.xml.ResValuesXmlSerializable;
 import brut.util.Duo;
 import java.io.IOException;
+import java.util.Collection;
 import org.xmlpull.v1.XmlSerializer;
 
 /**
@@ -84,5 +85,14 @@ public class ResStyleValue extends ResBagValue implements
         serializer.endTag(null, "style");
     }
 
+    @Override
+    public void collectReferences(Collection<ResReferenceValue> refs) {
+        super.collectReferences(refs);
+        for (Duo<ResReferenceValue, ResScalarValue> item : mItems) {
+            item.m1.collectReferences(refs);
+            item.m2.collectReferences(refs);
+        }
+    }
+
     private final Duo<ResReferenceValue, ResScalarValue>[] mItems;
 }
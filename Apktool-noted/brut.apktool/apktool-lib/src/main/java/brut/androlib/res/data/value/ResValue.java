@@ -16,9 +16,16 @@
 
 package brut.androlib.res.data.value;
 
+import java.util.Collection;
+
 /**
  * @author Ryszard Wiśniewski <brut.alll@gmail.com>
  */
 public class ResValue {
 
+    /**
+     * Adds the references this value makes to other resources to refs.
+     */
+    public void collectReferences(Collection<ResReferenceValue> refs) {
+    }
 }
@@ -18,6 +18,7 @@ package brut.androlib.res.decoder;
 
 import android.util.TypedValue;
 import brut.androlib.AndrolibException;
+import brut.androlib.JobContext;
 import brut.androlib.res.data.*;
 import brut.androlib.res.data.value.*;
 import brut.util.Duo;
@@ -42,8 +43,20 @@ public class ARSCDecoder {
     public static ARSCData decode(InputStream arscStream, boolean findFlagsOffsets, boolean keepBroken,
                                   ResTable resTable)
             throws AndrolibException {
+        return decode(arscStream, findFlagsOffsets, keepBroken, resTable, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param stringMapThreshold size from which the string pools of the
+     *        table and of resource names are kept off the heap, see
+     *        {@link StringBlock#read(ExtDataInput, int)}
+     */
+    public static ARSCData decode(InputStream arscStream, boolean findFlagsOffsets, boolean keepBroken,
+                                  ResTable resTable, int stringMapThreshold)
+            throws AndrolibException {
         try {
             ARSCDecoder decoder = new ARSCDecoder(arscStream, resTable, findFlagsOffsets, keepBroken);
+            decoder.mStringMapThreshold = stringMapThreshold;
             ResPackage[] pkgs = decoder.readTableHeader();  //读取文件头部
             return new ARSCData(pkgs, decoder.mFlagsOffsets == null
                     ? null
@@ -53,6 +66,23 @@ public class ARSCDecoder {
         }
     }
 
+    /**
+     * Reads the table without keeping its resources: every entry is handed to
+     * listener as it is read and then dropped, so memory stays bounded by the
+     * string pools of one package. Placeholders for missing entries are not
+     * generated.
+     */
+    public static void decode(InputStream arscStream, boolean keepBroken, EntryListener listener)
+            throws AndrolibException {
+        try {
+            ARSCDecoder decoder = new ARSCDecoder(arscStream, new ResTable(), false, keepBroken);
+            decoder.mListener = listener;
+            decoder.readTableHeader();
+        } catch (IOException ex) {
+            throw new AndrolibException("Could not decode arsc file", ex);
+        }
+    }
+
     private ARSCDecoder(InputStream arscStream, ResTable resTable, boolean storeFlagsOffsets, boolean keepBroken) {
         arscStream = mCountIn = new CountingInputStream(arscStream);
         if (storeFlagsOffsets) {
@@ -71,8 +101,12 @@ public class ARSCDecoder {
     private ResPackage[] readTableHeader() throws IOException, AndrolibException {
         nextChunkCheckType(Header.TYPE_TABLE);//检查头部每一个chunk
         int packageCount = mIn.readInt();
+        // package ids are a byte
+        if (packageCount < 0 || packageCount > 256) {
+            throw new AndrolibException("Invalid package count: " + packageCount);
+        }
 
-        mTableStrings = StringBlock.read(mIn);
+        mTableStrings = StringBlock.read(mIn, mStringMapThreshold);
         ResPackage[] packages = new ResPackage[packageCount];
 
         nextChunk();
@@ -83,6 +117,7 @@ public class ARSCDecoder {
     }
 
     private ResPackage readTablePackage() throws IOException, AndrolibException {
+        JobContext.check();
         checkChunkType(Header.TYPE_PACKAGE);
         int id = (byte) mIn.readInt();
 
@@ -104,7 +139,7 @@ public class ARSCDecoder {
         /* lastPublicKey */mIn.skipInt();
 
         mTypeNames = StringBlock.read(mIn);
-        mSpecNames = StringBlock.read(mIn);
+        mSpecNames = StringBlock.read(mIn, mStringMapThreshold);
 
         mResId = id << 24;
         mPkg = new ResPackage(mResTable, id, name);
@@ -167,6 +202,7 @@ public class ARSCDecoder {
         int id = mIn.readUnsignedByte();
         mIn.skipBytes(3);
         int entryCount = mIn.readInt();
+        checkEntryCount(entryCount);
 
         if (mFlagsOffsets != null) {
             mFlagsOffsets.add(new FlagsOffset(mCountIn.getCount(), entryCount));
@@ -179,6 +215,7 @@ public class ARSCDecoder {
     }
 
     private ResType readTableType() throws IOException, AndrolibException {
+        JobContext.check();
         checkChunkType(Header.TYPE_TYPE);
         int typeId = mIn.readUnsignedByte();
         if (mResTypeSpecs.containsKey(typeId)) {
@@ -189,6 +226,7 @@ public class ARSCDecoder {
         /* res0, res1 */mIn.skipBytes(3);
         int entryCount = mIn.readInt();
         int entriesStart = mIn.readInt();
+        checkEntryCount(entryCount);
         mMissingResSpecs = new boolean[entryCount];
         Arrays.fill(mMissingResSpecs, true);
 
@@ -240,6 +278,12 @@ public class ARSCDecoder {
         if (mType == null) {
             return;
         }
+        if (mListener != null) {
+            ResResSpec spec = new ResResSpec(new ResID(mResId), mSpecNames.getString(specNamesId), mPkg, mTypeSpec);
+            mListener.entry(spec, mType.getFlags(), value, mBagParent, mBagItems);
+            mBagItems = null;
+            return;
+        }
 
         ResID resId = new ResID(mResId);
         ResResSpec spec;
@@ -278,9 +322,17 @@ public class ARSCDecoder {
     private ResBagValue readComplexEntry() throws IOException, AndrolibException {
         int parent = mIn.readInt();
         int count = mIn.readInt();
+        // every item takes 12 bytes of the chunk
+        if (count < 0 || count > mHeader.chunkSize / 12) {
+            throw new AndrolibException("Invalid bag item count: " + count);
+        }
 
         ResValueFactory factory = mPkg.getValueFactory();
         Duo<Integer, ResScalarValue>[] items = new Duo[count];
+        if (mListener != null) {
+            mBagParent = parent;
+            mBagItems = items;
+        }
         ResIntBasedValue resValue;
         int resId;
 
@@ -310,6 +362,16 @@ public class ARSCDecoder {
                 : mPkg.getValueFactory().factory(type, data, null);
     }
 
+    /**
+     * Entry indexes are 16 bits, and every entry has a 4 byte flag or
+     * offset in the chunk.
+     */
+    private void checkEntryCount(int entryCount) throws AndrolibException {
+        if (entryCount < 0 || entryCount > 0x10000 || entryCount > mHeader.chunkSize / 4) {
+            throw new AndrolibException("Invalid entry count: " + entryCount);
+        }
+    }
+
     private ResConfigFlags readConfigFlags() throws IOException, AndrolibException {
         int size = mIn.readInt();
         int read = 28;
@@ -317,6 +379,9 @@ public class ARSCDecoder {
         if (size < 28) {
             throw new AndrolibException("Config size < 28");
         }
+        if (size > mHeader.chunkSize) {
+            throw new AndrolibException("Config size > chunk size: " + size);
+        }
 
         boolean isInvalid = false;
 
@@ -398,11 +463,16 @@ public class ARSCDecoder {
             mIn.skipBytes(remainingSize);
         }
 
-        return new ResConfigFlags(mcc, mnc, language, country,
+        // invalid configs are numbered per table, so decodes running side by side get the same names
+        ResConfigFlags flags = new ResConfigFlags(mcc, mnc, language, country,
                 orientation, touchscreen, density, keyboard, navigation,
                 inputFlags, screenWidth, screenHeight, sdkVersion,
                 screenLayout, uiMode, smallestScreenWidthDp, screenWidthDp,
-                screenHeightDp, localeScript, localeVariant, screenLayout2, isInvalid, size);
+                screenHeightDp, localeScript, localeVariant, screenLayout2, isInvalid, size, mInvalidConfigs);
+        if (flags.isInvalid) {
+            mInvalidConfigs++;
+        }
+        return flags;
     }
 
     private char[] unpackLanguageOrRegion(byte in0, byte in1, char base) throws AndrolibException {
@@ -439,6 +509,9 @@ public class ARSCDecoder {
     }
 
     private void addMissingResSpecs() throws AndrolibException {
+        if (mListener != null) {
+            return;
+        }
         int resId = mResId & 0xffff0000;
 
         for (int i = 0; i < mMissingResSpecs.length; i++) {
@@ -495,6 +568,7 @@ public class ARSCDecoder {
     private final CountingInputStream mCountIn;
     private final List<FlagsOffset> mFlagsOffsets;
     private final boolean mKeepBroken;
+    private int mStringMapThreshold = Integer.MAX_VALUE;
 
     private Header mHeader;
     private StringBlock mTableStrings;
@@ -504,8 +578,12 @@ public class ARSCDecoder {
     private ResTypeSpec mTypeSpec;
     private ResType mType;
     private int mResId;
+    private int mInvalidConfigs;
     private boolean[] mMissingResSpecs;
     private HashMap<Integer, ResTypeSpec> mResTypeSpecs = new HashMap<>();
+    private EntryListener mListener;
+    private int mBagParent;
+    private Duo<Integer, ResScalarValue>[] mBagItems;
 
     private final static short ENTRY_FLAG_COMPLEX = 0x0001;
 
@@ -539,6 +617,15 @@ public class ARSCDecoder {
                 TYPE_PACKAGE = 0x0200, TYPE_TYPE = 0x0201, TYPE_SPEC_TYPE = 0x0202, TYPE_LIBRARY = 0x0203;
     }
 
+    public interface EntryListener {
+        /**
+         * @param bagParent the parent of a bag entry
+         * @param bagItems the raw items of a bag entry, null for simple entries
+         */
+        void entry(ResResSpec spec, ResConfigFlags config, ResValue value,
+                   int bagParent, Duo<Integer, ResScalarValue>[] bagItems) throws AndrolibException;
+    }
+
     public static class FlagsOffset {
         public final int offset;
         public final int count;
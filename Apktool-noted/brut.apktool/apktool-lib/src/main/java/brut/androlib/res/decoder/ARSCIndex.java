@@ -0,0 +1,297 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib.res.decoder;
+
+import android.util.TypedValue;
+import brut.androlib.AndrolibException;
+import brut.androlib.res.data.*;
+import brut.androlib.res.data.value.*;
+import brut.util.Duo;
+import brut.util.ExtDataInput;
+import com.google.common.io.LittleEndianDataInputStream;
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+
+/**
+ * Random access to single entries of a resources.arsc. Opening the index
+ * only walks the chunk headers; an entry is decoded when it is added to a
+ * package, which makes resolving a handful of ids much cheaper than
+ * ARSCDecoder building the whole table.
+ *
+ * Added resources carry the value of their default config, or of the first
+ * config defining them when there is no default one, and are always filed
+ * under the default config of their package.
+ */
+public class ARSCIndex {
+    public static ARSCIndex read(InputStream arscStream) throws AndrolibException {
+        try {
+            return new ARSCIndex(IOUtils.toByteArray(arscStream));
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException ex) {
+            throw new AndrolibException("Could not index arsc file", ex);
+        }
+    }
+
+    private ARSCIndex(byte[] data) throws IOException, AndrolibException {
+        mData = data;
+        mBuf = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+
+        if (mBuf.getShort(0) != ARSCDecoder.Header.TYPE_TABLE) {
+            throw new AndrolibException("Not a resource table");
+        }
+        int pos = mBuf.getShort(2) & 0xffff;
+        mTableStrings = readStringBlock(pos);
+        pos += mBuf.getInt(pos + 4);
+
+        while (pos + 8 <= data.length) {
+            int size = mBuf.getInt(pos + 4);
+            if (size < 8) {
+                throw new AndrolibException("Invalid chunk size at " + pos);
+            }
+            if (mBuf.getShort(pos) == ARSCDecoder.Header.TYPE_PACKAGE) {
+                Package pkg = readPackage(pos, size);
+                mPackages.put(pkg.id, pkg);
+            }
+            pos += size;
+        }
+    }
+
+    /**
+     * @return ids of the packages in the table, in table order
+     */
+    public Set<Integer> getPackageIds() {
+        return Collections.unmodifiableSet(mPackages.keySet());
+    }
+
+    public boolean hasPackage(int id) {
+        return mPackages.containsKey(id);
+    }
+
+    public ResPackage createPackage(ResTable resTable, int id) throws AndrolibException {
+        return new ResPackage(resTable, id, getPackage(id).name);
+    }
+
+    /**
+     * Adds the resource resId to pkg unless it is already there. Attributes
+     * also bring in the names of their enum and flag items.
+     *
+     * @return the spec of the resource, or null if the table does not define it
+     */
+    public ResResSpec addResource(ResPackage pkg, int resId) throws AndrolibException {
+        ResID id = new ResID(resId);
+        if (pkg.hasResSpec(id)) {
+            return pkg.getResSpec(id);
+        }
+        Package index = getPackage(pkg.getId());
+        List<Integer> chunks = index.types.get(id.type);
+        if (chunks == null || id.type < 1 || id.type > index.typeNames.getCount()) {
+            return null;
+        }
+
+        try {
+            int entry = -1;
+            for (int chunk : chunks) {
+                int offset = findEntry(chunk, id.entry);
+                if (offset != -1 && (entry == -1 || isDefaultConfig(chunk))) {
+                    entry = offset;
+                    if (isDefaultConfig(chunk)) {
+                        break;
+                    }
+                }
+            }
+            if (entry == -1) {
+                return null;
+            }
+
+            ResTypeSpec typeSpec = getTypeSpec(pkg, index, id.type);
+            ResValue value = readEntry(pkg, entry);
+            if (typeSpec.isString() && value instanceof ResFileValue) {
+                value = new ResStringValue(value.toString(), ((ResFileValue) value).getRawIntValue());
+            }
+
+            ResResSpec spec = new ResResSpec(id, index.keyNames.getString(mBuf.getInt(entry + 4)), pkg, typeSpec);
+            pkg.addResSpec(spec);
+            typeSpec.addResSpec(spec);
+
+            ResType config = pkg.getOrCreateConfig(new ResConfigFlags());
+            ResResource res = new ResResource(config, spec, value);
+            config.addResource(res);
+            spec.addResource(res);
+            pkg.addResource(res);
+
+            if (value instanceof ResAttr) {
+                addAttrItems(pkg, entry);
+            }
+            return spec;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException ex) {
+            throw new AndrolibException(String.format("Could not read resource 0x%08x", resId), ex);
+        }
+    }
+
+    private Package readPackage(int start, int size) throws IOException {
+        Package pkg = new Package();
+        int id = mBuf.getInt(start + 8) & 0xff;
+        // library packages are given the next free id, as in ARSCDecoder
+        pkg.id = id == 0 ? 2 : id;
+
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 128; i++) {
+            char ch = mBuf.getChar(start + 12 + i * 2);
+            if (ch == 0) {
+                break;
+            }
+            name.append(ch);
+        }
+        pkg.name = name.toString();
+        pkg.typeNames = readStringBlock(start + mBuf.getInt(start + 268));
+        pkg.keyNames = readStringBlock(start + mBuf.getInt(start + 276));
+
+        int end = start + size;
+        int pos = start + (mBuf.getShort(start + 2) & 0xffff);
+        while (pos + 8 <= end) {
+            short type = mBuf.getShort(pos);
+            int chunkSize = mBuf.getInt(pos + 4);
+            if (chunkSize < 8) {
+                break;
+            }
+            if (type == ARSCDecoder.Header.TYPE_SPEC_TYPE) {
+                pkg.entryCounts.put(mBuf.get(pos + 8) & 0xff, mBuf.getInt(pos + 12));
+            } else if (type == ARSCDecoder.Header.TYPE_TYPE) {
+                int typeId = mBuf.get(pos + 8) & 0xff;
+                List<Integer> chunks = pkg.types.get(typeId);
+                if (chunks == null) {
+                    chunks = new ArrayList<Integer>();
+                    pkg.types.put(typeId, chunks);
+                }
+                chunks.add(pos);
+            }
+            pos += chunkSize;
+        }
+        return pkg;
+    }
+
+    /**
+     * @return the absolute offset of the entry in the given type chunk, or -1
+     */
+    private int findEntry(int chunk, int index) {
+        int entryCount = mBuf.getInt(chunk + 12);
+        if (index >= entryCount) {
+            return -1;
+        }
+        int offset = mBuf.getInt(chunk + (mBuf.getShort(chunk + 2) & 0xffff) + index * 4);
+        if (offset == -1) {
+            return -1;
+        }
+        return chunk + mBuf.getInt(chunk + 16) + offset;
+    }
+
+    private boolean isDefaultConfig(int chunk) {
+        int configSize = mBuf.getInt(chunk + 20);
+        for (int i = 4; i < configSize; i++) {
+            if (mData[chunk + 20 + i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ResTypeSpec getTypeSpec(ResPackage pkg, Package index, int typeId) throws AndrolibException {
+        String name = index.typeNames.getString(typeId - 1);
+        if (pkg.hasType(name)) {
+            return pkg.getType(name);
+        }
+        Integer entryCount = index.entryCounts.get(typeId);
+        ResTypeSpec typeSpec = new ResTypeSpec(name, pkg.getResTable(), pkg, typeId,
+                entryCount == null ? 0 : entryCount);
+        pkg.addType(typeSpec);
+        return typeSpec;
+    }
+
+    private ResValue readEntry(ResPackage pkg, int entry) throws AndrolibException {
+        short flags = mBuf.getShort(entry + 2);
+        if ((flags & ENTRY_FLAG_COMPLEX) == 0) {
+            return readValue(pkg, entry + 8);
+        }
+
+        int parent = mBuf.getInt(entry + 8);
+        int count = mBuf.getInt(entry + 12);
+        int pos = entry + (mBuf.getShort(entry) & 0xffff);
+
+        Duo<Integer, ResScalarValue>[] items = new Duo[count];
+        for (int i = 0; i < count; i++, pos += 12) {
+            ResIntBasedValue resValue = readValue(pkg, pos + 4);
+            if (! (resValue instanceof ResScalarValue)) {
+                resValue = new ResStringValue(resValue.toString(), resValue.getRawIntValue());
+            }
+            items[i] = new Duo<Integer, ResScalarValue>(mBuf.getInt(pos), (ResScalarValue) resValue);
+        }
+        return pkg.getValueFactory().bagFactory(parent, items);
+    }
+
+    private ResIntBasedValue readValue(ResPackage pkg, int pos) throws AndrolibException {
+        byte type = mBuf.get(pos + 3);
+        int data = mBuf.getInt(pos + 4);
+
+        return type == TypedValue.TYPE_STRING
+                ? pkg.getValueFactory().factory(mTableStrings.getHTML(data), data)
+                : pkg.getValueFactory().factory(type, data, null);
+    }
+
+    private void addAttrItems(ResPackage pkg, int entry) throws AndrolibException {
+        int count = mBuf.getInt(entry + 12);
+        int pos = entry + (mBuf.getShort(entry) & 0xffff);
+        for (int i = 0; i < count; i++, pos += 12) {
+            int itemId = mBuf.getInt(pos);
+            // enum and flag names are ids of this package, bag keys like ^type have no type
+            if (itemId >>> 24 == pkg.getId() && (itemId & 0x00ff0000) != 0) {
+                addResource(pkg, itemId);
+            }
+        }
+    }
+
+    private StringBlock readStringBlock(int pos) throws IOException {
+        return StringBlock.read(new ExtDataInput((DataInput) new LittleEndianDataInputStream(
+                new ByteArrayInputStream(mData, pos, mData.length - pos))));
+    }
+
+    private Package getPackage(int id) throws AndrolibException {
+        Package pkg = mPackages.get(id);
+        if (pkg == null) {
+            throw new AndrolibException("Arsc file has no package with id: " + id);
+        }
+        return pkg;
+    }
+
+    private static class Package {
+        int id;
+        String name;
+        StringBlock typeNames;
+        StringBlock keyNames;
+        final Map<Integer, Integer> entryCounts = new HashMap<Integer, Integer>();
+        final Map<Integer, List<Integer>> types = new HashMap<Integer, List<Integer>>();
+    }
+
+    private final byte[] mData;
+    private final ByteBuffer mBuf;
+    private final StringBlock mTableStrings;
+    private final Map<Integer, Package> mPackages = new LinkedHashMap<Integer, Package>();
+
+    private final static short ENTRY_FLAG_COMPLEX = 0x0001;
+}
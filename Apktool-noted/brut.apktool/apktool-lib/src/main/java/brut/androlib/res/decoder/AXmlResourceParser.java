@@ -18,6 +18,7 @@ package brut.androlib.res.decoder;
 import android.content.res.XmlResourceParser;
 import android.util.TypedValue;
 import brut.androlib.AndrolibException;
+import brut.androlib.JobContext;
 import brut.androlib.res.xml.ResXmlEncoders;
 import brut.util.ExtDataInput;
 import com.google.common.io.LittleEndianDataInputStream;
@@ -870,6 +871,7 @@ public class AXmlResourceParser implements XmlResourceParser {
                 break;
             }
 
+            JobContext.check();
             int chunkType;
             if (event == START_DOCUMENT) {
                 // Fake event, see CHUNK_XML_START_TAG handler.
@@ -17,6 +17,7 @@
 package brut.androlib.res.decoder;
 
 import brut.androlib.AndrolibException;
+import brut.androlib.JfrEvent;
 import brut.androlib.err.CantFind9PatchChunk;
 import brut.androlib.res.data.ResResource;
 import brut.androlib.res.data.value.ResBoolValue;
@@ -24,22 +25,40 @@ import brut.androlib.res.data.value.ResFileValue;
 import brut.directory.DirUtil;
 import brut.directory.Directory;
 import brut.directory.DirectoryException;
+import brut.directory.ZipRODirectory;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 
 import java.io.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
 
 /**
  * @author Ryszard Wiśniewski <brut.alll@gmail.com>
  */
 public class ResFileDecoder {
     private final ResStreamDecoderContainer mDecoders;
+    private ResXmlCache mXmlCache;
 
     public ResFileDecoder(ResStreamDecoderContainer decoders) {
         this.mDecoders = decoders;
     }
 
-    public void decode(ResResource res, Directory inDir, Directory outDir)
+    /**
+     * Serves binary xml files decoded before with the same references from
+     * cache instead of decoding them again. Only used for files read
+     * straight from an apk.
+     */
+    public void setXmlCache(ResXmlCache cache) {
+        mXmlCache = cache;
+    }
+
+    /**
+     * @return the name of the decoded file in outDir, or null if it could
+     *         not be decoded
+     */
+    public String decode(ResResource res, Directory inDir, Directory outDir)
             throws AndrolibException {
 
         ResFileValue fileValue = (ResFileValue) res.getValue();
@@ -60,7 +79,7 @@ public class ResFileDecoder {
         try {
             if (typeName.equals("raw")) {
                 decode(inDir, inFileName, outDir, outFileName, "raw");//如果是raw文件，则需调用解码函数
-                return;
+                return outFileName;
             }
             if (typeName.equals("drawable") || typeName.equals("mipmap")) {
                 if (inFileName.toLowerCase().endsWith(".9" + ext)) {
@@ -74,51 +93,140 @@ public class ResFileDecoder {
                     // check for samsung qmg & spi
                     if (inFileName.toLowerCase().endsWith(".qmg") || inFileName.toLowerCase().endsWith(".spi")) {
                         copyRaw(inDir, outDir, outFileName);//原始文件直接复制
-                        return;
+                        return outFileName;
                     }
 
                     // check for xml 9 patches which are just xml files
                     if (inFileName.toLowerCase().endsWith(".xml")) {
                         decode(inDir, inFileName, outDir, outFileName, "xml");//解码xml文件
-                        return;
+                        return outFileName;
                     }
 
                     try {
-                        decode(inDir, inFileName, outDir, outFileName, "9patch");//解码9patch文件
-                        return;
+                        decode9Patch(inDir, inFileName, outDir, outFileName);//解码9patch文件
+                        return outFileName;
                     } catch (CantFind9PatchChunk ex) {
                         LOGGER.log(
                                 Level.WARNING,
                                 String.format(
                                         "Cant find 9patch chunk in file: \"%s\". Renaming it to *.png.",
                                         inFileName), ex);
-                        outDir.removeFile(outFileName);
                         outFileName = outResName + ext;
                     }
                 }
                 if (!".xml".equals(ext)) {
                     decode(inDir, inFileName, outDir, outFileName, "raw");
-                    return;
+                    return outFileName;
                 }
             }
 
             decode(inDir, inFileName, outDir, outFileName, "xml");
+            return outFileName;
         } catch (AndrolibException ex) {
             LOGGER.log(Level.SEVERE, String.format(
                     "Could not decode file, replacing by FALSE value: %s",
                     inFileName), ex);
             res.replace(new ResBoolValue(false, 0, null));
+            return null;
+        }
+    }
+
+    /**
+     * @return the name decode() gives the decoded file of res, unless it
+     *         turns out not to be a valid 9-patch
+     */
+    public static String getOutFileName(ResResource res) throws AndrolibException {
+        String inFileName = ((ResFileValue) res.getValue()).getStrippedPath().toLowerCase();
+        String outResName = res.getFilePath();
+        String typeName = res.getResSpec().getType().getName();
+
+        int extPos = inFileName.lastIndexOf(".");
+        if (extPos == -1) {
+            return outResName;
+        }
+        String ext = inFileName.substring(extPos);
+        if ((typeName.equals("drawable") || typeName.equals("mipmap")) && inFileName.endsWith(".9" + ext)) {
+            return outResName + (inFileName.endsWith(".r.9" + ext) ? ".r.9" : ".9") + ext;
         }
+        return outResName + ext;
     }
 
     public void decode(Directory inDir, String inFileName, Directory outDir,
                        String outFileName, String decoder) throws AndrolibException {
-        try (
-                InputStream in = inDir.getFileInput(inFileName);
-                OutputStream out = outDir.getFileOutput(outFileName)
-        ) {
-            mDecoders.decode(in, out, decoder); //关键的raw/xml文件解码，主要由decoder参数来控制
-            //这里要跳的话，注意不要混乱，xml和raw的解码函数并不一样
+        try (JfrEvent event = JfrEvent.begin(JfrEvent.RESOURCE_FILE, decoder)) {
+            event.setEntry(inFileName);
+            if (mXmlCache != null && "xml".equals(decoder) && inDir instanceof ZipRODirectory) {
+                decodeCached((ZipRODirectory) inDir, inFileName, outDir, outFileName);
+                return;
+            }
+            try (
+                    InputStream in = inDir.getFileInput(inFileName);
+                    OutputStream out = outDir.getFileOutput(outFileName)
+            ) {
+                if (event.isRecording()) {
+                    CountingInputStream counting = new CountingInputStream(in);
+                    mDecoders.decode(counting, out, decoder);
+                    event.setBytes(counting.getByteCount());
+                    return;
+                }
+                mDecoders.decode(in, out, decoder); //关键的raw/xml文件解码，主要由decoder参数来控制
+                //这里要跳的话，注意不要混乱，xml和raw的解码函数并不一样
+            } catch (DirectoryException | IOException ex) {
+                throw new AndrolibException(ex);
+            }
+        }
+    }
+
+    /**
+     * Decodes a 9-patch into memory and only writes it out once that worked,
+     * since some outputs, like a zip being written, can't remove a file again
+     * when the chunk turns out to be missing.
+     */
+    private void decode9Patch(Directory inDir, String inFileName, Directory outDir,
+                              String outFileName) throws AndrolibException {
+        try (JfrEvent event = JfrEvent.begin(JfrEvent.RESOURCE_FILE, "9patch")) {
+            event.setEntry(inFileName);
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try (InputStream in = inDir.getFileInput(inFileName)) {
+                mDecoders.decode(in, buffer, "9patch");
+            }
+            try (OutputStream out = outDir.getFileOutput(outFileName)) {
+                buffer.writeTo(out);
+            }
+        } catch (DirectoryException | IOException ex) {
+            throw new AndrolibException(ex);
+        }
+    }
+
+    private void decodeCached(ZipRODirectory inDir, String inFileName, Directory outDir,
+                              String outFileName) throws AndrolibException {
+        AXmlResourceParser parser = (AXmlResourceParser)
+                ((XmlPullStreamDecoder) mDecoders.getDecoder("xml")).getParser();
+        try {
+            ZipEntry entry = inDir.getEntry(inFileName);
+            byte[] xml;
+            try (InputStream in = inDir.getFileInput(inFileName)) {
+                xml = IOUtils.toByteArray(in);
+            }
+
+            String key = mXmlCache.getKey(entry.getCrc(), entry.getSize(), xml,
+                    parser.getAttrDecoder().getCurrentPackage());
+            byte[] decoded = key == null ? null : mXmlCache.get(key);
+            if (decoded == null) {
+                boolean hadError = parser.getFirstError() != null;
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream(xml.length * 2);
+                mDecoders.decode(new ByteArrayInputStream(xml), buffer, "xml");
+                decoded = buffer.toByteArray();
+
+                // output with undecodable attributes is not reused, the error has to show up again
+                if (key != null && ! hadError && parser.getFirstError() == null) {
+                    mXmlCache.put(key, decoded);
+                }
+            }
+
+            try (OutputStream out = outDir.getFileOutput(outFileName)) {
+                out.write(decoded);
+            }
         } catch (DirectoryException | IOException ex) {
             throw new AndrolibException(ex);
         }
@@ -0,0 +1,251 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib.res.decoder;
+
+import brut.androlib.Androlib;
+import brut.androlib.AndrolibException;
+import brut.androlib.res.data.ResPackage;
+import brut.androlib.res.data.ResResSpec;
+import brut.androlib.res.data.ResTable;
+import brut.androlib.res.data.value.ResAttr;
+import brut.androlib.res.data.value.ResValue;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * In-memory cache of decoded resource xml files, meant to be shared by the
+ * decodes of many apks in one process. An entry is keyed by the CRC and size
+ * of the binary xml from the zip index, a hash of the names (and attr
+ * formats) of every resource id the file refers to, and the apktool version,
+ * so a file is only served from the cache when decoding it again would give
+ * the same output. The least recently used entries are dropped once the
+ * cached output grows past the size limit.
+ */
+public class ResXmlCache {
+
+    public ResXmlCache(long maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * @return the cache key of a binary xml file, or null if it can't be
+     *         scanned for references and should not be cached
+     */
+    public String getKey(long crc, long size, byte[] xml, ResPackage pkg) throws AndrolibException {
+        int[] ids = collectReferences(xml);
+        if (ids == null) {
+            return null;
+        }
+
+        ResTable resTable = pkg.getResTable();
+        StringBuilder sb = new StringBuilder();
+        sb.append(pkg.getId()).append(':').append(pkg.getName())
+                .append(':').append(resTable.getAnalysisMode());
+        for (int id : ids) {
+            sb.append('\n').append(Integer.toHexString(id)).append('=');
+            try {
+                ResResSpec spec = resTable.getResSpec(id);
+                sb.append(spec.getFullName());
+                if (! spec.getPackage().equals(pkg) && spec.getPackage().getName().equals(pkg.getName())) {
+                    // the base package of a split, whose name is written out
+                    sb.append('^');
+                }
+                ResValue value = spec.getDefaultResource().getValue();
+                if (value instanceof ResAttr) {
+                    sb.append(':').append(((ResAttr) value).getFormatKey());
+                }
+            } catch (AndrolibException ex) {
+                // unresolved, decoded as a raw id
+                sb.append('?');
+            }
+        }
+
+        return Androlib.getVersion() + '-' + Long.toHexString(crc) + '-' + Long.toHexString(size)
+                + '-' + sha1(sb.toString());
+    }
+
+    /**
+     * @return the decoded xml stored under key, or null on a miss
+     */
+    public synchronized byte[] get(String key) {
+        byte[] data = mEntries.get(key);
+        if (data == null) {
+            mMisses++;
+        } else {
+            mHits++;
+        }
+        return data;
+    }
+
+    public synchronized void put(String key, byte[] data) {
+        if (data.length > mMaxSize) {
+            return;
+        }
+        byte[] old = mEntries.put(key, data);
+        if (old != null) {
+            mSize -= old.length;
+        }
+        mSize += data.length;
+
+        Iterator<byte[]> it = mEntries.values().iterator();
+        while (mSize > mMaxSize && it.hasNext()) {
+            mSize -= it.next().length;
+            it.remove();
+            mEvictions++;
+        }
+    }
+
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    public synchronized long getEvictions() {
+        return mEvictions;
+    }
+
+    public synchronized double getHitRate() {
+        long lookups = mHits + mMisses;
+        return lookups == 0 ? 0 : (double) mHits / lookups;
+    }
+
+    /**
+     * Total size of the cached xml in bytes.
+     */
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    public synchronized int getEntryCount() {
+        return mEntries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d hits, %d misses (%.1f%% hit rate), %d entries, %d bytes, %d evictions",
+                mHits, mMisses, getHitRate() * 100, mEntries.size(), mSize, mEvictions);
+    }
+
+    /**
+     * Walks the chunks of a binary xml file and collects the resource ids it
+     * depends on: the attribute ids of the resource map and every reference
+     * or attribute typed value.
+     *
+     * @return the sorted ids, or null if xml is not a well formed binary xml
+     */
+    public static int[] collectReferences(byte[] xml) {
+        if (xml.length < 8 || readShort(xml, 0) != CHUNK_XML) {
+            return null;
+        }
+
+        Set<Integer> ids = new TreeSet<Integer>();
+        int pos = readShort(xml, 2);
+        while (pos + 8 <= xml.length) {
+            int type = readShort(xml, pos);
+            int headerSize = readShort(xml, pos + 2);
+            int size = readInt(xml, pos + 4);
+            if (size < 8 || headerSize < 8 || headerSize > size || size > xml.length - pos) {
+                return null;
+            }
+            int end = pos + size;
+            int ext = pos + headerSize;
+
+            if (type == CHUNK_RESOURCEIDS) {
+                for (int i = ext; i + 4 <= end; i += 4) {
+                    ids.add(readInt(xml, i));
+                }
+            } else if (type == CHUNK_XML_START_TAG) {
+                if (ext + 20 > end) {
+                    return null;
+                }
+                int attributeStart = readShort(xml, ext + 8);
+                int attributeSize = readShort(xml, ext + 10);
+                int attributeCount = readShort(xml, ext + 12);
+                for (int i = 0; i < attributeCount; i++) {
+                    int attr = ext + attributeStart + i * attributeSize;
+                    if (attributeSize < 20 || attr + 20 > end) {
+                        return null;
+                    }
+                    addReference(ids, xml[attr + 15] & 0xff, readInt(xml, attr + 16));
+                }
+            } else if (type == CHUNK_XML_TEXT) {
+                if (ext + 12 > end) {
+                    return null;
+                }
+                addReference(ids, xml[ext + 7] & 0xff, readInt(xml, ext + 8));
+            }
+            pos = end;
+        }
+
+        int[] result = new int[ids.size()];
+        int i = 0;
+        for (int id : ids) {
+            result[i++] = id;
+        }
+        return result;
+    }
+
+    private static void addReference(Set<Integer> ids, int dataType, int data) {
+        if (dataType == TYPE_REFERENCE || dataType == TYPE_ATTRIBUTE
+                || dataType == TYPE_DYNAMIC_REFERENCE || dataType == TYPE_DYNAMIC_ATTRIBUTE) {
+            ids.add(data);
+        }
+    }
+
+    private static int readShort(byte[] data, int pos) {
+        return (data[pos] & 0xff) | (data[pos + 1] & 0xff) << 8;
+    }
+
+    private static int readInt(byte[] data, int pos) {
+        return readShort(data, pos) | readShort(data, pos + 2) << 16;
+    }
+
+    private static String sha1(String value) throws AndrolibException {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException ex) {
+            throw new AndrolibException(ex);
+        }
+    }
+
+    private final long mMaxSize;
+    private final Map<String, byte[]> mEntries = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+    private long mSize;
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+
+    private static final int CHUNK_XML = 0x0003;
+    private static final int CHUNK_RESOURCEIDS = 0x0180;
+    private static final int CHUNK_XML_START_TAG = 0x0102;
+    private static final int CHUNK_XML_TEXT = 0x0104;
+
+    private static final int TYPE_REFERENCE = 0x01;
+    private static final int TYPE_ATTRIBUTE = 0x02;
+    private static final int TYPE_DYNAMIC_REFERENCE = 0x07;
+    private static final int TYPE_DYNAMIC_ATTRIBUTE = 0x08;
+}
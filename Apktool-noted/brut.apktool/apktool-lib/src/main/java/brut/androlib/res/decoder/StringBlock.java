@@ -18,8 +18,11 @@ package brut.androlib.res.decoder;
 
 import brut.androlib.res.xml.ResXmlEncoders;
 import brut.util.ExtDataInput;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.*;
 import java.util.Arrays;
 import java.util.logging.Level;
@@ -41,6 +44,15 @@ public class StringBlock {
      * be at the chunk type.
      */
     public static StringBlock read(ExtDataInput reader) throws IOException {
+        return read(reader, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reads the block like {@link #read(ExtDataInput)}, but keeps string data
+     * of mapThreshold bytes or more in a memory mapped temp file instead of
+     * the heap.
+     */
+    public static StringBlock read(ExtDataInput reader, int mapThreshold) throws IOException {
         reader.skipCheckChunkTypeInt(CHUNK_STRINGPOOL_TYPE, CHUNK_NULL_TYPE);
         int chunkSize = reader.readInt();
 
@@ -51,6 +63,14 @@ public class StringBlock {
         int stringsOffset = reader.readInt();
         int stylesOffset = reader.readInt();
 
+        // offsets and data have to fit in the chunk, whatever the counts say
+        if (stringCount < 0 || styleCount < 0 || (stringCount + (long) styleCount) * 4 > chunkSize
+                || stringsOffset < 0 || stringsOffset > chunkSize
+                || stylesOffset < 0 || stylesOffset > chunkSize) {
+            throw new IOException(String.format("Invalid string pool: %d strings, %d styles in %d bytes",
+                    stringCount, styleCount, chunkSize));
+        }
+
         StringBlock block = new StringBlock();
         block.m_isUTF8 = (flags & UTF8_FLAG) != 0;
         block.m_stringOffsets = reader.readIntArray(stringCount);
@@ -62,8 +82,14 @@ public class StringBlock {
         }
 
         int size = ((stylesOffset == 0) ? chunkSize : stylesOffset) - stringsOffset;
-        block.m_strings = new byte[size];
-        reader.readFully(block.m_strings);
+        if (size < 0) {
+            throw new IOException("Invalid string pool: strings end before they start");
+        }
+        if (size >= mapThreshold) {
+            block.m_strings = readMapped(reader, size);
+        } else {
+            block.m_strings = ByteBuffer.wrap(reader.readByteArray(size));
+        }
 
         if (stylesOffset != 0) {
             size = (chunkSize - stylesOffset);
@@ -81,6 +107,25 @@ public class StringBlock {
         return block;
     }
 
+    private static ByteBuffer readMapped(ExtDataInput reader, int size) throws IOException {
+        File file = File.createTempFile("APKTOOL", ".strings");
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            byte[] buffer = new byte[64 * 1024];
+            for (int left = size; left > 0; ) {
+                int count = Math.min(left, buffer.length);
+                reader.readFully(buffer, 0, count);
+                out.write(buffer, 0, count);
+                left -= count;
+            }
+            return out.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            // the mapping outlives the file where the OS allows deleting it
+            if (! file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
     /**
      * Returns number of strings in block.
      */
@@ -279,16 +324,18 @@ public class StringBlock {
 
     private String decodeString(int offset, int length) {
         try {
-            return (m_isUTF8 ? UTF8_DECODER : UTF16LE_DECODER).decode(
-                    ByteBuffer.wrap(m_strings, offset, length)).toString();
+            ByteBuffer bytes = m_strings.duplicate();
+            bytes.position(offset);
+            bytes.limit(offset + length);
+            return (m_isUTF8 ? UTF8_DECODER : UTF16LE_DECODER).decode(bytes).toString();
         } catch (CharacterCodingException ex) {
             LOGGER.log(Level.WARNING, null, ex);
             return null;
         }
     }
 
-    private static final int getShort(byte[] array, int offset) {
-        return (array[offset + 1] & 0xff) << 8 | array[offset] & 0xff;
+    private static final int getShort(ByteBuffer array, int offset) {
+        return (array.get(offset + 1) & 0xff) << 8 | array.get(offset) & 0xff;
     }
 
     private static final int getShort(int[] array, int offset) {
@@ -300,8 +347,8 @@ public class StringBlock {
         }
     }
 
-    private static final int[] getUtf8(byte[] array, int offset) {
-        int val = array[offset];
+    private static final int[] getUtf8(ByteBuffer array, int offset) {
+        int val = array.get(offset);
         int length;
 
         if ((val & 0x80) != 0) {
@@ -309,32 +356,32 @@ public class StringBlock {
         } else {
             offset += 1;
         }
-        val = array[offset];
+        val = array.get(offset);
         if ((val & 0x80) != 0) {
             offset += 2;
         } else {
             offset += 1;
         }
         length = 0;
-        while (array[offset + length] != 0) {
+        while (array.get(offset + length) != 0) {
             length++;
         }
         return new int[] { offset, length};
     }
 
-    private static final int[] getUtf16(byte[] array, int offset) {
-        int val = ((array[offset + 1] & 0xFF) << 8 | array[offset] & 0xFF);
+    private static final int[] getUtf16(ByteBuffer array, int offset) {
+        int val = ((array.get(offset + 1) & 0xFF) << 8 | array.get(offset) & 0xFF);
 
         if (val == 0x8000) {
-            int high = (array[offset + 3] & 0xFF) << 8;
-            int low = (array[offset + 2] & 0xFF);
+            int high = (array.get(offset + 3) & 0xFF) << 8;
+            int low = (array.get(offset + 2) & 0xFF);
             return new int[] {4, (high + low) * 2};
         }
         return new int[] {2, val * 2};
     }
 
     private int[] m_stringOffsets;
-    private byte[] m_strings;
+    private ByteBuffer m_strings;
     private int[] m_styleOffsets;
     private int[] m_styles;
     private boolean m_isUTF8;
@@ -155,6 +155,10 @@ public class XmlPullStreamDecoder implements ResStreamDecoder {
             decode(in, out);//xml解码关键点
     }
 
+    public XmlPullParser getParser() {
+        return mParser;
+    }
+
     private final XmlPullParser mParser;
     private final ExtXmlSerializer mSerial;
 
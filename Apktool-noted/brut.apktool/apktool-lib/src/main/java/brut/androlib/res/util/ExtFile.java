@@ -20,13 +20,15 @@ import brut.directory.Directory;
 import brut.directory.DirectoryException;
 import brut.directory.FileDirectory;
 import brut.directory.ZipRODirectory;
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
 import java.net.URI;
 
 /**
  * @author Ryszard Wiśniewski <brut.alll@gmail.com>
  */
-public class ExtFile extends File {
+public class ExtFile extends File implements Closeable {
     public ExtFile(File file) {
         super(file.getPath());
     }
@@ -47,16 +49,39 @@ public class ExtFile extends File {
         super(pathname);
     }
 
+    /**
+     * Same file, listed through the given directory instead of a fresh one.
+     */
+    public ExtFile(File file, Directory directory) {
+        super(file.getPath());
+        mDirectory = directory;
+    }
+
     public Directory getDirectory() throws DirectoryException {
         if (mDirectory == null) {
             if (isDirectory()) {
                 mDirectory = new FileDirectory(this);
             } else {
                 mDirectory = new ZipRODirectory(this);
+                mOwnsDirectory = true;
             }
         }
         return mDirectory;
     }
 
+    /**
+     * Closes the zip file opened by getDirectory(), if any. A directory
+     * passed in to the constructor belongs to the caller and is left open.
+     */
+    @Override
+    public void close() throws IOException {
+        if (mOwnsDirectory) {
+            ((Closeable) mDirectory).close();
+            mDirectory = null;
+            mOwnsDirectory = false;
+        }
+    }
+
     private Directory mDirectory;
+    private boolean mOwnsDirectory;
 }
@@ -17,6 +17,8 @@
 package brut.androlib.res.xml;
 
 import brut.androlib.AndrolibException;
+import brut.directory.Directory;
+import brut.directory.DirectoryException;
 import org.w3c.dom.Document;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
@@ -35,6 +37,7 @@ import javax.xml.transform.stream.StreamResult;
 import javax.xml.xpath.*;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * @author Connor Tumbleson <connor.tumbleson@gmail.com>
@@ -165,23 +168,49 @@ public final class ResXmlPatcher {
 
         if (file.exists()) {
             try {
-                Document doc = loadDocument(file);
-                XPath xPath = XPathFactory.newInstance().newXPath();
-                XPathExpression expression = xPath.compile("/resources/string[@name=" + '"' + key + "\"]/text()");
+                return pullValueFromStrings(loadDocument(file), key);
+            }  catch (SAXException | ParserConfigurationException | IOException | XPathExpressionException ignored) {
+            }
+        }
 
-                Object result = expression.evaluate(doc, XPathConstants.STRING);
+        return null;
+    }
 
-                if (result != null) {
-                    return (String) result;
-                }
+    /**
+     * Finds key in the strings.xml of a decoded apk held in a Directory
+     *
+     * @param directory Root directory of apk
+     * @param key String reference (ie @string/foo)
+     * @return String|null
+     * @throws AndrolibException
+     */
+    public static String pullValueFromStrings(Directory directory, String key) throws AndrolibException {
+        if (key == null || ! key.contains("@")) {
+            return null;
+        }
 
-            }  catch (SAXException | ParserConfigurationException | IOException | XPathExpressionException ignored) {
+        String path = "res/values/strings.xml";
+        key = key.replace("@string/", "");
+
+        if (directory.containsFile(path)) {
+            try (InputStream in = directory.getFileInput(path)) {
+                return pullValueFromStrings(loadDocument(in), key);
+            }  catch (DirectoryException | SAXException | ParserConfigurationException | IOException
+                    | XPathExpressionException ignored) {
             }
         }
 
         return null;
     }
 
+    private static String pullValueFromStrings(Document doc, String key) throws XPathExpressionException {
+        XPath xPath = XPathFactory.newInstance().newXPath();
+        XPathExpression expression = xPath.compile("/resources/string[@name=" + '"' + key + "\"]/text()");
+
+        Object result = expression.evaluate(doc, XPathConstants.STRING);
+        return result != null ? (String) result : null;
+    }
+
     /**
      * Removes attributes like "versionCode" and "versionName" from file.
      *
@@ -250,6 +279,14 @@ public final class ResXmlPatcher {
         return docBuilder.parse(file);
     }
 
+    private static Document loadDocument(InputStream in)
+            throws IOException, SAXException, ParserConfigurationException {
+
+        DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
+        DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
+        return docBuilder.parse(in);
+    }
+
     /**
      *
      * @param file File to save Document to (ie AndroidManifest.xml)
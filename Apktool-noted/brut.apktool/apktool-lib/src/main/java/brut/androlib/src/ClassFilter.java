@@ -0,0 +1,91 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package brut.androlib.src;
+
+import brut.util.Glob;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Selects the classes of a dex file that get disassembled. Patterns are
+ * globs over class descriptors such as "Lcom/example/**", and may also be
+ * written in dotted form, "com.example.**". A class is selected when it
+ * matches an include pattern, or there are none, and no exclude pattern.
+ */
+public class ClassFilter {
+
+    public ClassFilter addInclude(String pattern) {
+        mIncludes.add(pattern);
+        mIncludePatterns.add(Glob.toPattern(normalize(pattern)));
+        return this;
+    }
+
+    public ClassFilter addExclude(String pattern) {
+        mExcludes.add(pattern);
+        mExcludePatterns.add(Glob.toPattern(normalize(pattern)));
+        return this;
+    }
+
+    public List<String> getIncludes() {
+        return Collections.unmodifiableList(mIncludes);
+    }
+
+    public List<String> getExcludes() {
+        return Collections.unmodifiableList(mExcludes);
+    }
+
+    public boolean isEmpty() {
+        return mIncludes.isEmpty() && mExcludes.isEmpty();
+    }
+
+    public boolean matches(String type) {
+        if (type.endsWith(";")) {
+            type = type.substring(0, type.length() - 1);
+        }
+        if (! mIncludePatterns.isEmpty() && ! matchesAny(mIncludePatterns, type)) {
+            return false;
+        }
+        return ! matchesAny(mExcludePatterns, type);
+    }
+
+    private static boolean matchesAny(List<Pattern> patterns, String type) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(type).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String normalize(String pattern) {
+        // "Lib.foo.*" is a dotted name that merely starts with L
+        boolean descriptor = pattern.startsWith("L") && (pattern.contains("/") || pattern.endsWith(";"));
+        if (pattern.endsWith(";")) {
+            pattern = pattern.substring(0, pattern.length() - 1);
+        }
+        if (descriptor) {
+            return pattern;
+        }
+        return "L" + pattern.replace('.', '/');
+    }
+
+    private final List<String> mIncludes = new ArrayList<String>();
+    private final List<String> mExcludes = new ArrayList<String>();
+    private final List<Pattern> mIncludePatterns = new ArrayList<Pattern>();
+    private final List<Pattern> mExcludePatterns = new ArrayList<Pattern>();
+}
@@ -17,15 +17,35 @@
 package brut.androlib.src;
 
 import brut.androlib.AndrolibException;
+import brut.androlib.JfrEvent;
+import brut.androlib.JobContext;
+import brut.androlib.Progress;
 import brut.androlib.mod.SmaliMod;
 import brut.androlib.res.util.ExtFile;
 import brut.directory.DirectoryException;
+import brut.util.Duo;
 import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import org.antlr.runtime.RecognitionException;
 import org.apache.commons.io.IOUtils;
+import org.jf.dexlib2.DexFileFactory;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
 import org.jf.dexlib2.writer.builder.DexBuilder;
 import org.jf.dexlib2.writer.io.FileDataStore;
 
@@ -35,22 +55,83 @@ import org.jf.dexlib2.writer.io.FileDataStore;
 public class SmaliBuilder {
 
     public static void build(ExtFile smaliDir, File dexFile) throws AndrolibException {
-        new SmaliBuilder(smaliDir, dexFile).build();
+        build(smaliDir, dexFile, 1);
     }
 
-    private SmaliBuilder(ExtFile smaliDir, File dexFile) {
+    /**
+     * Lexes and parses the smali files on jobs threads, each file with a
+     * lexer and parser of its own, while the calling thread walks the
+     * parsed files into the DexBuilder in the order of their names. Only
+     * the walk touches the DexBuilder, so the dex is the same whatever the
+     * number of jobs. At most QUEUED_PER_JOB parsed files per job wait to
+     * be walked.
+     */
+    public static void build(ExtFile smaliDir, File dexFile, int jobs) throws AndrolibException {
+        new SmaliBuilder(smaliDir, dexFile, jobs).build();
+    }
+
+    /**
+     * Adds the classes of originalDex that the filter left out at decode
+     * time, and that have not been written since, to the freshly built dexFile.
+     * Both dex files are read for the api level of the project.
+     */
+    public static void mergeFiltered(File dexFile, File originalDex, ClassFilter filter, int api)
+            throws AndrolibException {
+        try {
+            DexBackedDexFile built = DexFileFactory.loadDexFile(dexFile, api, false);
+            DexBackedDexFile original = DexFileFactory.loadDexFile(originalDex, api, false);
+
+            final Set<ClassDef> classes = new LinkedHashSet<ClassDef>();
+            Set<String> types = new HashSet<String>();
+            for (ClassDef classDef : built.getClasses()) {
+                classes.add(classDef);
+                types.add(classDef.getType());
+            }
+            int merged = 0;
+            for (ClassDef classDef : original.getClasses()) {
+                if (! filter.matches(classDef.getType()) && types.add(classDef.getType())) {
+                    classes.add(classDef);
+                    merged++;
+                }
+            }
+            LOGGER.info("Merging " + merged + " untouched classes from " + originalDex.getName());
+
+            DexFileFactory.writeDexFile(dexFile.getAbsolutePath(), new DexFile() {
+                @Override
+                public Set<? extends ClassDef> getClasses() {
+                    return classes;
+                }
+            });
+        } catch (IOException ex) {
+            throw new AndrolibException(ex);
+        }
+    }
+
+    private SmaliBuilder(ExtFile smaliDir, File dexFile, int jobs) {
         mSmaliDir = smaliDir;
         mDexFile = dexFile;
+        mJobs = Math.max(jobs, 1);
     }
 
     private void build() throws AndrolibException {
-        try {
+        try (JfrEvent event = JfrEvent.begin(JfrEvent.DEX_BUILD, mDexFile.getName())) {
+            event.setEntry(mSmaliDir.getName());
             DexBuilder dexBuilder = DexBuilder.makeDexBuilder();
 
-            for (String fileName : mSmaliDir.getDirectory().getFiles(true)) {
-                buildFile(fileName, dexBuilder);//调用SmaliMod-->smali2dex
+            // sorted, so the classes go into the DexBuilder in the same order on any file system
+            Set<String> fileNames = new TreeSet<String>(mSmaliDir.getDirectory().getFiles(true));
+            Progress.Counter counter = Progress.count("smali " + mSmaliDir.getName(), fileNames.size());
+            if (mJobs == 1) {
+                for (String fileName : fileNames) {
+                    JobContext.check();
+                    buildFile(fileName, dexBuilder);//调用SmaliMod-->smali2dex
+                    counter.step();
+                }
+            } else {
+                buildFiles(fileNames, dexBuilder, counter);
             }
             dexBuilder.writeTo(new FileDataStore( new File(mDexFile.getAbsolutePath())));
+            event.setCount(fileNames.size()).setBytes(mDexFile.length());
         } catch (IOException | DirectoryException ex) {
             throw new AndrolibException(ex);
         }
@@ -59,7 +140,6 @@ public class SmaliBuilder {
     private void buildFile(String fileName, DexBuilder dexBuilder)
             throws AndrolibException, IOException {
         File inFile = new File(mSmaliDir, fileName);
-        InputStream inStream = new FileInputStream(inFile);
 
         if (fileName.endsWith(".smali")) {
             try {
@@ -72,11 +152,68 @@ public class SmaliBuilder {
         } else {
             LOGGER.warning("Unknown file type, ignoring: " + inFile);
         }
-        inStream.close();
+    }
+
+    private void buildFiles(Set<String> fileNames, DexBuilder dexBuilder, Progress.Counter counter)
+            throws AndrolibException {
+        ExecutorService executor = Executors.newFixedThreadPool(mJobs);
+        Deque<Duo<String, Future<SmaliMod.ParsedSmali>>> parsing =
+                new ArrayDeque<Duo<String, Future<SmaliMod.ParsedSmali>>>();
+        try {
+            Iterator<String> next = fileNames.iterator();
+            while (next.hasNext() || ! parsing.isEmpty()) {
+                while (next.hasNext() && parsing.size() < mJobs * QUEUED_PER_JOB) {
+                    String fileName = next.next();
+                    final File inFile = new File(mSmaliDir, fileName);
+                    parsing.add(new Duo<String, Future<SmaliMod.ParsedSmali>>(fileName,
+                            fileName.endsWith(".smali") ? executor.submit(new Callable<SmaliMod.ParsedSmali>() {
+                                @Override
+                                public SmaliMod.ParsedSmali call() throws IOException, RecognitionException {
+                                    return SmaliMod.parseSmaliFile(inFile, false, false);
+                                }
+                            }) : null));
+                }
+
+                JobContext.check();
+                Duo<String, Future<SmaliMod.ParsedSmali>> file = parsing.poll();
+                if (file.m2 == null) {
+                    LOGGER.warning("Unknown file type, ignoring: " + new File(mSmaliDir, file.m1));
+                } else {
+                    SmaliMod.ParsedSmali parsed = waitFor(file.m2);
+                    try {
+                        if (parsed == null || ! SmaliMod.assembleParsedSmali(parsed, dexBuilder, false)) {
+                            throw new AndrolibException("Could not smali file: " + file.m1);
+                        }
+                    } catch (RecognitionException ex) {
+                        throw new AndrolibException(ex);
+                    }
+                }
+                counter.step();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static SmaliMod.ParsedSmali waitFor(Future<SmaliMod.ParsedSmali> parsed) throws AndrolibException {
+        try {
+            return parsed.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new AndrolibException(ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new AndrolibException(ex);
+        }
     }
 
     private final ExtFile mSmaliDir;
     private final File mDexFile;
+    private final int mJobs;
+
+    private final static int QUEUED_PER_JOB = 16;
 
     private final static Logger LOGGER = Logger.getLogger(SmaliBuilder.class.getName());
 }
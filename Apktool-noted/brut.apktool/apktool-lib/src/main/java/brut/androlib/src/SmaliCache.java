@@ -0,0 +1,234 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package brut.androlib.src;
+
+import brut.androlib.AndrolibException;
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * On-disk cache of baksmali output. Entries are keyed by the SHA-1 signature
+ * from the dex header together with the zip entry's CRC and size and a hash
+ * of the disassembly options, and hold the smali tree as a single zip file.
+ * A hit is unpacked into the smali dir instead of running baksmali. Once the
+ * cache grows past its size limit the least recently used entries are
+ * dropped.
+ */
+public class SmaliCache {
+
+    public SmaliCache(File dir, long maxSize) {
+        mDir = dir;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * @return the cache key of dexName inside apkFile, or null if it does not
+     *         look like a dex file and should not be cached
+     */
+    public String getKey(File apkFile, String dexName, String options) throws AndrolibException {
+        try (ZipFile zip = new ZipFile(apkFile)) {
+            ZipEntry entry = zip.getEntry(dexName);
+            if (entry == null) {
+                return null;
+            }
+
+            byte[] header = new byte[HEADER_SIZE];
+            try (InputStream in = zip.getInputStream(entry)) {
+                if (IOUtils.read(in, header) != HEADER_SIZE || header[0] != 'd' || header[1] != 'e'
+                        || header[2] != 'x' || header[3] != '\n') {
+                    return null;
+                }
+            }
+
+            return toHex(header, SIGNATURE_OFFSET, HEADER_SIZE - SIGNATURE_OFFSET)
+                    + '-' + Long.toHexString(entry.getCrc())
+                    + '-' + Long.toHexString(entry.getSize())
+                    + '-' + sha1(options).substring(0, 12);
+        } catch (IOException ex) {
+            throw new AndrolibException(ex);
+        }
+    }
+
+    /**
+     * Unpacks the cached smali tree into outDir.
+     *
+     * @return false on a cache miss
+     */
+    public boolean materialize(String key, File outDir) throws AndrolibException {
+        File entry = getEntryFile(key);
+        if (! entry.isFile()) {
+            return false;
+        }
+
+        try (ZipInputStream in = new ZipInputStream(new BufferedInputStream(new FileInputStream(entry)))) {
+            String outPath = outDir.getCanonicalPath() + File.separator;
+            ZipEntry zipEntry;
+            while ((zipEntry = in.getNextEntry()) != null) {
+                File file = new File(outDir, zipEntry.getName());
+                if (! file.getCanonicalPath().startsWith(outPath)) {
+                    throw new AndrolibException("Invalid smali cache entry: " + zipEntry.getName());
+                }
+                file.getParentFile().mkdirs();
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                    IOUtils.copy(in, out);
+                }
+            }
+        } catch (FileNotFoundException ex) {
+            // evicted in the meantime
+            return false;
+        } catch (IOException ex) {
+            throw new AndrolibException(ex);
+        }
+
+        // the modification time orders the entries for eviction
+        entry.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * Packs the smali tree in smaliDir into the cache under key.
+     */
+    public void store(String key, File smaliDir) throws AndrolibException {
+        if (! mDir.isDirectory() && ! mDir.mkdirs()) {
+            throw new AndrolibException("Could not create smali cache dir: " + mDir);
+        }
+
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("SMALI", ".tmp", mDir);
+            final Path root = smaliDir.toPath();
+            try (final ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        String name = root.relativize(file).toString().replace(File.separatorChar, '/');
+                        out.putNextEntry(new ZipEntry(name));
+                        Files.copy(file, out);
+                        out.closeEntry();
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+            // another decode may have stored the same key meanwhile, both copies are equal
+            Files.move(tmp.toPath(), getEntryFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+        } catch (IOException ex) {
+            throw new AndrolibException(ex);
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Total size of the cached entries in bytes.
+     */
+    public long getSize() {
+        long size = 0;
+        for (File entry : listEntries()) {
+            size += entry.length();
+        }
+        return size;
+    }
+
+    private void evict() {
+        synchronized (SmaliCache.class) {
+            List<File> entries = listEntries();
+            long size = 0;
+            for (File entry : entries) {
+                size += entry.length();
+            }
+            if (size <= mMaxSize) {
+                return;
+            }
+
+            Collections.sort(entries, new Comparator<File>() {
+                @Override
+                public int compare(File a, File b) {
+                    return Long.compare(a.lastModified(), b.lastModified());
+                }
+            });
+            for (File entry : entries) {
+                if (size <= mMaxSize) {
+                    break;
+                }
+                long length = entry.length();
+                if (entry.delete()) {
+                    LOGGER.fine("Evicted smali cache entry " + entry.getName());
+                    size -= length;
+                }
+            }
+        }
+    }
+
+    private List<File> listEntries() {
+        List<File> entries = new ArrayList<File>();
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && file.getName().endsWith(ENTRY_SUFFIX)) {
+                    entries.add(file);
+                }
+            }
+        }
+        return entries;
+    }
+
+    private File getEntryFile(String key) {
+        return new File(mDir, key + ENTRY_SUFFIX);
+    }
+
+    private static String sha1(String value) throws AndrolibException {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes("UTF-8"));
+            return toHex(digest, 0, digest.length);
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException ex) {
+            throw new AndrolibException(ex);
+        }
+    }
+
+    private static String toHex(byte[] bytes, int offset, int length) {
+        StringBuilder sb = new StringBuilder(length * 2);
+        for (int i = offset; i < offset + length; i++) {
+            sb.append(String.format("%02x", bytes[i] & 0xff));
+        }
+        return sb.toString();
+    }
+
+    private final File mDir;
+    private final long mMaxSize;
+
+    private final static int SIGNATURE_OFFSET = 12;
+    private final static int HEADER_SIZE = 32;
+    private final static String ENTRY_SUFFIX = ".smali.zip";
+
+    private final static Logger LOGGER = Logger.getLogger(SmaliCache.class.getName());
+}
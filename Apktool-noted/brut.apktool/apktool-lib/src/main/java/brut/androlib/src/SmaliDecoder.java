@@ -17,15 +17,30 @@
 package brut.androlib.src;
 
 import brut.androlib.AndrolibException;
+import brut.androlib.JfrEvent;
+import brut.androlib.JobCancelledException;
+import brut.androlib.JobContext;
+import brut.androlib.Progress;
+import org.jf.baksmali.Adaptors.ClassDefinition;
+import org.jf.baksmali.Adaptors.SyntheticAccessorResolver;
 import org.jf.baksmali.baksmali;
 import org.jf.baksmali.baksmaliOptions;
 import org.jf.dexlib2.DexFileFactory;
 import org.jf.dexlib2.dexbacked.DexBackedDexFile;
 import org.jf.dexlib2.dexbacked.DexBackedOdexFile;
 import org.jf.dexlib2.analysis.InlineMethodResolver;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
+import org.jf.util.ClassFileNameHandler;
+import org.jf.util.IndentingWriter;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * @author Ryszard Wiśniewski <brut.alll@gmail.com>
@@ -34,35 +49,51 @@ public class SmaliDecoder {
 
     public static void decode(File apkFile, File outDir, String dexName, boolean bakdeb, int api)
             throws AndrolibException {
-        new SmaliDecoder(apkFile, outDir, dexName, bakdeb, api).decode();//调用内部私有decode
+        decode(apkFile, outDir, dexName, bakdeb, api, null);
     }
 
-    private SmaliDecoder(File apkFile, File outDir, String dexName, boolean bakdeb, int api) {
+    public static void decode(File apkFile, File outDir, String dexName, boolean bakdeb, int api,
+                              ClassFilter filter) throws AndrolibException {
+        decode(apkFile, outDir, dexName, bakdeb, api, filter, false);
+    }
+
+    /**
+     * @param boundedQueue whether to only queue a few classes per job,
+     *        instead of a task for every class of the dex up front
+     */
+    public static void decode(File apkFile, File outDir, String dexName, boolean bakdeb, int api,
+                              ClassFilter filter, boolean boundedQueue) throws AndrolibException {
+        new SmaliDecoder(apkFile, false, outDir, dexName, bakdeb, api, filter, boundedQueue).decode();//调用内部私有decode
+    }
+
+    /**
+     * Disassembles a dex that is a file of its own rather than an entry of
+     * an apk, e.g. one read out of a streamed apk.
+     *
+     * @param dexName the name of the dex in its apk, for logs and events
+     */
+    public static void decodeDex(File dexFile, File outDir, String dexName, boolean bakdeb, int api,
+                                 ClassFilter filter, boolean boundedQueue) throws AndrolibException {
+        new SmaliDecoder(dexFile, true, outDir, dexName, bakdeb, api, filter, boundedQueue).decode();
+    }
+
+    private SmaliDecoder(File apkFile, boolean standalone, File outDir, String dexName, boolean bakdeb, int api,
+                         ClassFilter filter, boolean boundedQueue) {
         mApkFile = apkFile;
+        mStandalone = standalone;
         mOutDir  = outDir;
         mDexFile = dexName;
         mBakDeb  = bakdeb;
         mApi     = api;
+        mFilter  = filter == null || filter.isEmpty() ? null : filter;
+        mBoundedQueue = boundedQueue;
     }
 
     private void decode() throws AndrolibException {
-        try {
-            baksmaliOptions options = new baksmaliOptions();
-
-            // options
-            options.deodex = false;
+        try (JfrEvent event = JfrEvent.begin(JfrEvent.DEX_DECODE, mDexFile)) {
+            event.setEntry(mApkFile.getName());
+            baksmaliOptions options = createOptions(mBakDeb);
             options.outputDirectory = mOutDir.toString();
-            options.noParameterRegisters = false;
-            options.useLocalsDirective = true;
-            options.useSequentialLabels = true;
-            options.outputDebugInfo = mBakDeb;
-            options.addCodeOffsets = false;
-            options.jobs = -1;
-            options.noAccessorComments = false;
-            options.registerInfo = 0;
-            options.ignoreErrors = false;
-            options.inlineResolver = null;
-            options.checkPackagePrivateAccess = false;
 
             // set jobs automatically
             options.jobs = Runtime.getRuntime().availableProcessors();
@@ -71,7 +102,8 @@ public class SmaliDecoder {
             }
 
             // create the dex
-            DexBackedDexFile dexFile = DexFileFactory.loadDexFile(mApkFile, mDexFile, mApi, false);
+            DexBackedDexFile dexFile = mStandalone ? DexFileFactory.loadDexFile(mApkFile, mApi, false)
+                    : DexFileFactory.loadDexFile(mApkFile, mDexFile, mApi, false);
 
             if (dexFile.isOdexFile()) {     //判断是不是odex文件
                 throw new AndrolibException("Warning: You are disassembling an odex file without deodexing it.");
@@ -82,15 +114,151 @@ public class SmaliDecoder {
                         InlineMethodResolver.createInlineMethodResolver(((DexBackedOdexFile)dexFile).getOdexVersion());
             }
 
-            baksmali.disassembleDexFile(dexFile, options);//主要还是调用了baksmali，反编译dex关键点所在
+            DexFile classes = mFilter != null ? filter(dexFile) : dexFile;
+            event.setCount(classes.getClasses().size());
+            if (mBoundedQueue) {
+                disassembleBounded(classes, options, "baksmali " + mDexFile);
+            } else {
+                baksmali.disassembleDexFile(classes, options);//主要还是调用了baksmali，反编译dex关键点所在
+            }
         } catch (IOException ex) {
             throw new AndrolibException(ex);
         }
     }
 
+    /**
+     * Does what baksmali.disassembleDexFile does with our options, but with
+     * at most QUEUED_PER_JOB classes per job waiting; once the queue is full
+     * the calling thread disassembles the next class itself. Unlike
+     * baksmali's loop, it stops once the installed JobContext is cancelled,
+     * and counts the disassembled classes in the installed Progress.
+     */
+    private static void disassembleBounded(DexFile dexFile, final baksmaliOptions options, String phase)
+            throws AndrolibException {
+        File outDir = new File(options.outputDirectory);
+        if (! outDir.isDirectory() && ! outDir.mkdirs()) {
+            throw new AndrolibException("Could not create directory: " + outDir);
+        }
+
+        // sorted like baksmali does, so colliding file names get the same suffixes
+        List<ClassDef> classDefs = new ArrayList<ClassDef>(dexFile.getClasses());
+        Collections.sort(classDefs);
+        if (! options.noAccessorComments) {
+            options.syntheticAccessorResolver = new SyntheticAccessorResolver(classDefs);
+        }
+        ClassFileNameHandler fileNameHandler = new ClassFileNameHandler(outDir, ".smali");
+        final Progress.Counter counter = Progress.count(phase, classDefs.size());
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(options.jobs, options.jobs, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(options.jobs * QUEUED_PER_JOB),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            for (final ClassDef classDef : classDefs) {
+                JobContext.check();
+                String type = classDef.getType();
+                if (type.charAt(0) != 'L' || type.charAt(type.length() - 1) != ';') {
+                    LOGGER.warning("Unrecognized class descriptor " + type + ", skipping class");
+                    counter.step();
+                    continue;
+                }
+                // file names are handed out in order, not by the workers
+                final File smaliFile = fileNameHandler.getUniqueFilenameForClass(type);
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        disassembleClass(classDef, smaliFile, options);
+                        counter.step();
+                    }
+                });
+            }
+        } catch (JobCancelledException ex) {
+            executor.shutdownNow();
+            throw ex;
+        } finally {
+            executor.shutdown();
+        }
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new AndrolibException(ex);
+        }
+    }
+
+    private static void disassembleClass(ClassDef classDef, File smaliFile, baksmaliOptions options) {
+        smaliFile.getParentFile().mkdirs();
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(smaliFile), "UTF-8"))) {
+            IndentingWriter writer = new IndentingWriter(out);
+            new ClassDefinition(options, classDef).writeTo(writer);
+            writer.flush();
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "Could not disassemble " + classDef.getType() + ", skipping class", ex);
+            smaliFile.delete();
+        }
+    }
+
+    /**
+     * Disassembles a single class to out, with the options a full decode
+     * uses. out is flushed but not closed.
+     */
+    public static void decodeClass(ClassDef classDef, boolean bakdeb, Writer out) throws AndrolibException {
+        try {
+            IndentingWriter writer = new IndentingWriter(out);
+            new ClassDefinition(createOptions(bakdeb), classDef).writeTo(writer);
+            writer.flush();
+        } catch (IOException ex) {
+            throw new AndrolibException("Could not disassemble " + classDef.getType(), ex);
+        }
+    }
+
+    private static baksmaliOptions createOptions(boolean bakdeb) {
+        baksmaliOptions options = new baksmaliOptions();
+
+        // options
+        options.deodex = false;
+        options.noParameterRegisters = false;
+        options.useLocalsDirective = true;
+        options.useSequentialLabels = true;
+        options.outputDebugInfo = bakdeb;
+        options.addCodeOffsets = false;
+        options.jobs = -1;
+        options.noAccessorComments = false;
+        options.registerInfo = 0;
+        options.ignoreErrors = false;
+        options.inlineResolver = null;
+        options.checkPackagePrivateAccess = false;
+        return options;
+    }
+
+    private DexFile filter(DexBackedDexFile dexFile) {
+        final Set<ClassDef> classes = new LinkedHashSet<ClassDef>();
+        for (ClassDef classDef : dexFile.getClasses()) {
+            if (mFilter.matches(classDef.getType())) {
+                classes.add(classDef);
+            }
+        }
+        LOGGER.info(String.format("Filtered %s down to %d of %d classes", mDexFile, classes.size(),
+                dexFile.getClassCount()));
+
+        return new DexFile() {
+            @Override
+            public Set<? extends ClassDef> getClasses() {
+                return classes;
+            }
+        };
+    }
+
     private final File mApkFile;
+    private final boolean mStandalone;
     private final File mOutDir;
     private final String mDexFile;
     private final boolean mBakDeb;
     private final int mApi;
+    private final ClassFilter mFilter;
+    private final boolean mBoundedQueue;
+
+    private final static int QUEUED_PER_JOB = 4;
+
+    private final static Logger LOGGER = Logger.getLogger(SmaliDecoder.class.getName());
 }
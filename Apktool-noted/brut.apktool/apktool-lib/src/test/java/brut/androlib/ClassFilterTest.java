@@ -0,0 +1,103 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import brut.androlib.meta.MetaInfo;
+import brut.androlib.res.util.ExtFile;
+import brut.androlib.src.ClassFilter;
+import brut.common.BrutException;
+import brut.util.OS;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decodes testapp without its HelloWorld class and checks that building
+ * the project merges the class back from the original dex.
+ */
+public class ClassFilterTest {
+
+    @BeforeClass
+    public static void beforeClass() throws Exception, BrutException {
+        TestUtils.cleanFrameworkFile();
+        sTmpDir = new ExtFile(OS.createTempDirectory());
+        sTestOrigDir = new ExtFile(sTmpDir, "testapp-orig");
+        sTestNewDir = new ExtFile(sTmpDir, "testapp-filtered");
+        LOGGER.info("Unpacking testapp...");
+        TestUtils.copyResourceDir(ClassFilterTest.class, "brut/apktool/testapp/", sTestOrigDir);
+
+        LOGGER.info("Building testapp.apk...");
+        File testApk = new File(sTmpDir, "testapp.apk");
+        new Androlib().build(sTestOrigDir, testApk);
+
+        LOGGER.info("Decoding testapp.apk without HelloWorld...");
+        ApkDecoder apkDecoder = new ApkDecoder(testApk);
+        apkDecoder.setClassFilter(new ClassFilter().addExclude("HelloWorld"));
+        apkDecoder.setOutDir(sTestNewDir);
+        apkDecoder.decode();
+    }
+
+    @AfterClass
+    public static void afterClass() throws BrutException {
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void excludedClassSkippedTest() throws Exception {
+        assertFalse(new File(sTestNewDir, "smali/HelloWorld.smali").exists());
+        assertTrue(new File(sTestNewDir, "smali_classes2/HelloDualDexSupport.smali").isFile());
+        assertTrue(new File(sTestNewDir, "original/classes.dex").isFile());
+
+        MetaInfo meta = MetaInfo.load(new File(sTestNewDir, "apktool.yml"));
+        assertNotNull(meta.classFilter);
+        assertTrue(meta.classFilter.excludes.contains("HelloWorld"));
+    }
+
+    @Test
+    public void excludedClassMergedOnBuildTest() throws BrutException, IOException {
+        File newApk = new File(sTmpDir, "testapp-filtered.apk");
+        new Androlib().build(sTestNewDir, newApk);
+
+        ExtFile redecoded = new ExtFile(sTmpDir, "testapp-redecoded");
+        ApkDecoder apkDecoder = new ApkDecoder(newApk);
+        apkDecoder.setOutDir(redecoded);
+        apkDecoder.decode();
+        assertTrue(new File(redecoded, "smali/HelloWorld.smali").isFile());
+        assertTrue(new File(redecoded, "smali_classes2/HelloDualDexSupport.smali").isFile());
+    }
+
+    @Test
+    public void patternFormsTest() {
+        assertTrue(new ClassFilter().addInclude("Lib.foo.*").matches("LLib/foo/Bar;"));
+        assertTrue(new ClassFilter().addInclude("Lcom/example/**").matches("Lcom/example/a/B;"));
+        assertTrue(new ClassFilter().addInclude("LFoo;").matches("LFoo;"));
+        assertFalse(new ClassFilter().addInclude("LFoo;").matches("LLFoo;"));
+        assertTrue(new ClassFilter().addInclude("Launcher").matches("LLauncher;"));
+        assertFalse(new ClassFilter().addInclude("Launcher").matches("Launcher;"));
+    }
+
+    private static ExtFile sTmpDir;
+    private static ExtFile sTestOrigDir;
+    private static ExtFile sTestNewDir;
+
+    private final static Logger LOGGER = Logger.getLogger(ClassFilterTest.class.getName());
+}
@@ -0,0 +1,113 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import brut.androlib.res.util.ExtFile;
+import brut.common.BrutException;
+import brut.util.OS;
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Many decoders running side by side in one JVM write the same files, byte
+ * for byte, as a decode running alone.
+ */
+public class ConcurrentDecodeTest {
+
+    @BeforeClass
+    public static void beforeClass() throws Exception, BrutException {
+        TestUtils.cleanFrameworkFile();
+        sTmpDir = new ExtFile(OS.createTempDirectory());
+        TestUtils.copyResourceDir(ConcurrentDecodeTest.class, "brut/apktool/issue767/", sTmpDir);
+    }
+
+    @AfterClass
+    public static void afterClass() throws BrutException {
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void parallelDecodesMatchSerialTest() throws Exception {
+        File serial = new File(sTmpDir, "serial");
+        decode(serial);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<File>> results = new ArrayList<Future<File>>();
+        try {
+            for (int i = 0; i < DECODES; i++) {
+                final File outDir = new File(sTmpDir, "parallel" + i);
+                results.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws Exception {
+                        decode(outDir);
+                        return outDir;
+                    }
+                }));
+            }
+            for (Future<File> result : results) {
+                assertSameFiles(serial, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void decode(File outDir) throws BrutException, IOException {
+        ApkDecoder decoder = new ApkDecoder(new File(sTmpDir, "issue767.apk"));
+        decoder.setOutDir(outDir);
+        decoder.decode();
+    }
+
+    private static void assertSameFiles(File expected, File actual) throws IOException {
+        TreeSet<String> expectedFiles = listFiles(expected);
+        assertEquals(expectedFiles, listFiles(actual));
+        for (String file : expectedFiles) {
+            assertTrue(actual + ": " + file,
+                    FileUtils.contentEquals(new File(expected, file), new File(actual, file)));
+        }
+    }
+
+    private static TreeSet<String> listFiles(File dir) {
+        TreeSet<String> files = new TreeSet<String>();
+        int prefix = dir.getPath().length() + 1;
+        for (File file : FileUtils.listFiles(dir, null, true)) {
+            files.add(file.getPath().substring(prefix));
+        }
+        return files;
+    }
+
+    private static ExtFile sTmpDir;
+
+    private final static int DECODES = 24;
+    private final static int THREADS = 8;
+
+    private final static Logger LOGGER = Logger.getLogger(ConcurrentDecodeTest.class.getName());
+}
@@ -0,0 +1,90 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import brut.androlib.res.data.ResTable;
+import brut.androlib.res.util.ExtFile;
+import brut.common.BrutException;
+import brut.directory.FileDirectory;
+import brut.util.OS;
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decodes only the manifest of testapp.apk, without building its resource table.
+ */
+public class DecodeManifestOnlyTest {
+
+    @BeforeClass
+    public static void beforeClass() throws Exception, BrutException {
+        TestUtils.cleanFrameworkFile();
+        sTmpDir = new ExtFile(OS.createTempDirectory());
+        sTestOrigDir = new ExtFile(sTmpDir, "testapp-orig");
+        sTestNewDir = new ExtFile(sTmpDir, "testapp-manifest");
+        sTestNewDir.mkdirs();
+        LOGGER.info("Unpacking testapp...");
+        TestUtils.copyResourceDir(DecodeManifestOnlyTest.class, "brut/apktool/testapp/", sTestOrigDir);
+
+        LOGGER.info("Building testapp.apk...");
+        File testApk = new File(sTmpDir, "testapp.apk");
+        new Androlib().build(sTestOrigDir, testApk);
+
+        LOGGER.info("Decoding manifest of testapp.apk...");
+        sResTable = new Androlib().decodeManifestOnly(new ExtFile(testApk), new FileDirectory(sTestNewDir));
+    }
+
+    @AfterClass
+    public static void afterClass() throws BrutException {
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void manifestDecodedTest() throws Exception {
+        String manifest = FileUtils.readFileToString(new File(sTestNewDir, "AndroidManifest.xml"), "UTF-8");
+        assertTrue(manifest.contains("package=\"brut.apktool.testapp\""));
+        assertTrue(manifest.contains("android:versionCode=\"1\""));
+        assertTrue(manifest.contains("android:versionName=\"1.0\""));
+        assertTrue(manifest.contains("android:glEsVersion=\"0x00030002\""));
+    }
+
+    @Test
+    public void manifestInfoTest() {
+        assertEquals("brut.apktool.testapp", sResTable.getPackageRenamed());
+        assertEquals("1", sResTable.getVersionInfo().versionCode);
+        assertEquals("1.0", sResTable.getVersionInfo().versionName);
+    }
+
+    @Test
+    public void onlyReferencedResourcesLoadedTest() throws BrutException {
+        // the manifest refers to no resources of the app itself
+        assertEquals(0, sResTable.getPackage(127).getResSpecCount());
+        assertFalse(sResTable.getPackage(1).listResSpecs().isEmpty());
+    }
+
+    private static ExtFile sTmpDir;
+    private static ExtFile sTestOrigDir;
+    private static ExtFile sTestNewDir;
+    private static ResTable sResTable;
+
+    private final static Logger LOGGER = Logger.getLogger(DecodeManifestOnlyTest.class.getName());
+}
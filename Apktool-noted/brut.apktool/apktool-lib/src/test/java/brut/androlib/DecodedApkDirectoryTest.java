@@ -0,0 +1,105 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import brut.androlib.res.util.ExtFile;
+import brut.common.BrutException;
+import brut.directory.Directory;
+import brut.util.OS;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reads single files of testapp.apk through a DecodedApkDirectory and
+ * compares them with a full decode.
+ */
+public class DecodedApkDirectoryTest {
+
+    @BeforeClass
+    public static void beforeClass() throws Exception, BrutException {
+        TestUtils.cleanFrameworkFile();
+        sTmpDir = new ExtFile(OS.createTempDirectory());
+        sTestOrigDir = new ExtFile(sTmpDir, "testapp-orig");
+        sTestNewDir = new ExtFile(sTmpDir, "testapp-new");
+        LOGGER.info("Unpacking testapp...");
+        TestUtils.copyResourceDir(DecodedApkDirectoryTest.class, "brut/apktool/testapp/", sTestOrigDir);
+
+        LOGGER.info("Building testapp.apk...");
+        sTestApk = new File(sTmpDir, "testapp.apk");
+        new Androlib().build(sTestOrigDir, sTestApk);
+
+        LOGGER.info("Decoding testapp.apk...");
+        ApkDecoder apkDecoder = new ApkDecoder(sTestApk);
+        apkDecoder.setOutDir(sTestNewDir);
+        apkDecoder.decode();
+    }
+
+    @AfterClass
+    public static void afterClass() throws BrutException {
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void listsDecodedFilesTest() throws BrutException {
+        Set<String> files = new DecodedApkDirectory(sTestApk).getFiles(true);
+        assertTrue(files.contains("AndroidManifest.xml"));
+        assertTrue(files.contains("res/layout/issue1040.xml"));
+        assertTrue(files.contains("res/values/strings.xml"));
+        assertTrue(files.contains("res/values/public.xml"));
+        assertTrue(files.contains("smali/HelloWorld.smali"));
+        assertFalse(files.contains("apktool.yml"));
+    }
+
+    @Test
+    public void decodesSingleFilesTest() throws Exception {
+        Directory dir = new DecodedApkDirectory(sTestApk);
+        for (String name : new String[] {
+                "AndroidManifest.xml", "res/layout/issue1040.xml",
+                "res/values/strings.xml", "smali/HelloWorld.smali" }) {
+            assertEquals(name, read(new File(sTestNewDir, name)), read(dir, name));
+        }
+    }
+
+    private static String read(Directory dir, String name) throws Exception {
+        InputStream in = dir.getFileInput(name);
+        try {
+            return IOUtils.toString(in, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String read(File file) throws Exception {
+        return FileUtils.readFileToString(file, "UTF-8");
+    }
+
+    private static ExtFile sTmpDir;
+    private static ExtFile sTestOrigDir;
+    private static ExtFile sTestNewDir;
+    private static File sTestApk;
+
+    private final static Logger LOGGER = Logger.getLogger(DecodedApkDirectoryTest.class.getName());
+}
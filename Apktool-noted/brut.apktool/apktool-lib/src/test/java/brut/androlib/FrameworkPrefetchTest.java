@@ -0,0 +1,83 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import brut.androlib.res.data.ResPackage;
+import brut.androlib.res.data.ResTable;
+import brut.androlib.res.util.ExtFile;
+import brut.common.BrutException;
+import brut.util.OS;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static org.junit.Assert.*;
+
+/**
+ * With a prefetcher, the framework is loaded in the background, but only
+ * becomes part of the table once something refers to it. Without one it is
+ * loaded on the first lookup.
+ */
+public class FrameworkPrefetchTest {
+
+    @BeforeClass
+    public static void beforeClass() throws Exception, BrutException {
+        TestUtils.cleanFrameworkFile();
+        sTmpDir = new ExtFile(OS.createTempDirectory());
+        TestUtils.copyResourceDir(FrameworkPrefetchTest.class, "brut/apktool/issue767/", sTmpDir);
+    }
+
+    @AfterClass
+    public static void afterClass() throws BrutException {
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void prefetchedOnLookupTest() throws BrutException {
+        ThreadPoolExecutor prefetcher = (ThreadPoolExecutor) Executors.newFixedThreadPool(1);
+        try {
+            ResTable resTable = new Androlib().getResTable(new ExtFile(sTmpDir, "issue767.apk"), true, null,
+                    prefetcher);
+            assertTrue(resTable.hasPendingPackage(1));
+            assertEquals(1, prefetcher.getTaskCount());
+            assertTrue(resTable.listFramePackages().isEmpty());
+
+            ResPackage android = resTable.getPackage(1);
+            assertFalse(resTable.hasPendingPackage(1));
+            assertEquals("android", android.getName());
+            assertEquals(1, resTable.listFramePackages().size());
+            assertSame(android, resTable.getPackage(1));
+            assertEquals("versionCode", resTable.getResSpec(0x0101021b).getName());
+        } finally {
+            prefetcher.shutdownNow();
+        }
+    }
+
+    @Test
+    public void lazyWithoutPrefetcherTest() throws BrutException {
+        ResTable resTable = new Androlib().getResTable(new ExtFile(sTmpDir, "issue767.apk"));
+        assertFalse(resTable.hasPendingPackage(1));
+        assertTrue(resTable.listFramePackages().isEmpty());
+
+        assertEquals("android", resTable.getPackage(1).getName());
+        assertEquals(1, resTable.listFramePackages().size());
+    }
+
+    private static ExtFile sTmpDir;
+}
@@ -0,0 +1,112 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import brut.androlib.res.util.ExtFile;
+import brut.common.BrutException;
+import brut.util.OS;
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decodes testapp, changes one layout, and decodes the new version against
+ * the first decode. Only the layout should be decoded again.
+ */
+public class IncrementalDecodeTest {
+
+    @BeforeClass
+    public static void beforeClass() throws Exception, BrutException {
+        TestUtils.cleanFrameworkFile();
+        sTmpDir = new ExtFile(OS.createTempDirectory());
+        sTestOrigDir = new ExtFile(sTmpDir, "testapp-orig");
+        sTestOldDir = new ExtFile(sTmpDir, "testapp-old");
+        sTestNewDir = new ExtFile(sTmpDir, "testapp-new");
+        LOGGER.info("Unpacking testapp...");
+        TestUtils.copyResourceDir(IncrementalDecodeTest.class, "brut/apktool/testapp/", sTestOrigDir);
+
+        LOGGER.info("Building and decoding testapp.apk...");
+        File oldApk = new File(sTmpDir, "testapp.apk");
+        new Androlib().build(sTestOrigDir, oldApk);
+        decode(oldApk, sTestOldDir, null);
+
+        // only there if smali/ is taken over from the old decode
+        FileUtils.writeStringToFile(new File(sTestOldDir, "smali/marker.txt"), "kept");
+
+        LOGGER.info("Building and decoding changed testapp...");
+        File layout = new File(sTestOrigDir, "res/layout/issue1040.xml");
+        FileUtils.writeStringToFile(layout, FileUtils.readFileToString(layout)
+                .replace("/>", "android:text=\"incremental\"\n    />"));
+        File newApk = new File(sTmpDir, "testapp-new.apk");
+        new Androlib().build(sTestOrigDir, newApk);
+        decode(newApk, sTestNewDir, sTestOldDir);
+    }
+
+    @AfterClass
+    public static void afterClass() throws BrutException {
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void changedFileDecodedTest() throws IOException {
+        String layout = FileUtils.readFileToString(new File(sTestNewDir, "res/layout/issue1040.xml"));
+        assertTrue(layout.contains("incremental"));
+    }
+
+    @Test
+    public void unchangedDexKeptTest() {
+        assertTrue(new File(sTestNewDir, "smali/marker.txt").isFile());
+        assertTrue(new File(sTestNewDir, "smali_classes2/HelloDualDexSupport.smali").isFile());
+    }
+
+    @Test
+    public void entryManifestWrittenTest() throws BrutException {
+        EntryManifest manifest = EntryManifest.load(sTestNewDir);
+        assertNotNull(manifest);
+        assertEquals("smali", manifest.getOutput("classes.dex"));
+        assertEquals("res/layout/issue1040.xml", manifest.getOutput("res/layout/issue1040.xml"));
+    }
+
+    @Test
+    public void incrementalDecodeBuildsTest() throws BrutException {
+        File apk = new File(sTmpDir, "testapp-rebuilt.apk");
+        new Androlib().build(sTestNewDir, apk);
+        assertTrue(apk.isFile());
+    }
+
+    private static void decode(File apk, File outDir, File previousDir) throws BrutException, IOException {
+        ApkDecoder apkDecoder = new ApkDecoder(apk);
+        apkDecoder.setOutDir(outDir);
+        if (previousDir != null) {
+            apkDecoder.setPreviousDecode(previousDir);
+        }
+        apkDecoder.decode();
+    }
+
+    private static ExtFile sTmpDir;
+    private static ExtFile sTestOrigDir;
+    private static ExtFile sTestOldDir;
+    private static ExtFile sTestNewDir;
+
+    private final static Logger LOGGER = Logger.getLogger(IncrementalDecodeTest.class.getName());
+}
@@ -0,0 +1,190 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import brut.androlib.res.decoder.StringBlock;
+import brut.androlib.res.util.ExtFile;
+import brut.common.BrutException;
+import brut.util.ExtDataInput;
+import brut.util.OS;
+import com.google.common.io.LittleEndianDataInputStream;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decodes stop once their job is cancelled or past its deadline, and
+ * corrupt counts fail instead of allocating what they claim.
+ */
+public class JobContextTest {
+
+    @BeforeClass
+    public static void beforeClass() throws Exception, BrutException {
+        TestUtils.cleanFrameworkFile();
+        sTmpDir = new ExtFile(OS.createTempDirectory());
+        TestUtils.copyResourceDir(JobContextTest.class, "brut/apktool/issue767/", sTmpDir);
+    }
+
+    @AfterClass
+    public static void afterClass() throws BrutException {
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void cancelledDecodeTest() throws BrutException, IOException {
+        JobContext job = new JobContext();
+        job.cancel();
+        try {
+            decode(job, "cancelled");
+            fail("decode of a cancelled job completed");
+        } catch (JobCancelledException ex) {
+            assertEquals("Job cancelled", ex.getMessage());
+        }
+        assertNull(JobContext.current());
+    }
+
+    @Test
+    public void cancelMidDecodeTest() throws Exception {
+        final JobContext job = new JobContext();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        Thread canceller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    started.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                job.cancel();
+                cancelled.countDown();
+            }
+        });
+        canceller.start();
+
+        ApkDecoder decoder = new ApkDecoder(new File(sTmpDir, "issue767.apk"));
+        decoder.setOutDir(new File(sTmpDir, "midDecode"));
+        decoder.setJobContext(job);
+        decoder.setProgressListener(new ProgressListener() {
+            @Override
+            public void phaseStarted(String phase) {
+            }
+
+            @Override
+            public void phaseFinished(String phase, long wallNanos) {
+            }
+
+            @Override
+            public void progress(String phase, int done, int total) {
+                if (phase.equals("file resources") && started.getCount() > 0) {
+                    // cancel from the other thread once the first files are
+                    // out, and go on only when it has been seen to happen
+                    started.countDown();
+                    try {
+                        cancelled.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+
+            @Override
+            public void bytesCopied(long total) {
+            }
+        });
+
+        Set<Thread> before = Thread.getAllStackTraces().keySet();
+        try {
+            LOGGER.info("Decoding issue767 and cancelling it midway...");
+            decoder.decode();
+            fail("decode cancelled midway completed");
+        } catch (JobCancelledException ex) {
+            assertEquals("Job cancelled", ex.getMessage());
+        } finally {
+            started.countDown();
+            canceller.join();
+        }
+        assertTrue(job.isCancelled());
+
+        // the pools the decode started are shut down with it, so their
+        // threads are all gone shortly after
+        Set<Thread> workers = new HashSet<Thread>(Thread.getAllStackTraces().keySet());
+        workers.removeAll(before);
+        for (Thread worker : workers) {
+            if (! worker.isDaemon()) {
+                worker.join(10000);
+                assertFalse("worker still running: " + worker.getName(), worker.isAlive());
+            }
+        }
+    }
+
+    @Test
+    public void deadlineTest() throws BrutException, IOException {
+        JobContext job = new JobContext().setDeadline(System.currentTimeMillis() - 1);
+        try {
+            decode(job, "deadline");
+            fail("decode past its deadline completed");
+        } catch (JobCancelledException ex) {
+            assertEquals("Job deadline exceeded", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void corruptArrayLengthTest() throws IOException {
+        ExtDataInput in = new ExtDataInput(new ByteArrayInputStream(new byte[64]));
+        try {
+            in.readIntArray(Integer.MAX_VALUE);
+            fail("read more ints than there are");
+        } catch (EOFException ex) {
+            // expected, without allocating 8 GB first
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptStringPoolTest() throws IOException {
+        ByteBuffer pool = ByteBuffer.allocate(28).order(ByteOrder.LITTLE_ENDIAN);
+        pool.putInt(0x001C0001).putInt(28); // chunk type and size
+        pool.putInt(100000000).putInt(0); // string and style counts
+        pool.putInt(0x100).putInt(28).putInt(0); // flags, strings and styles offsets
+        StringBlock.read(new ExtDataInput((DataInput) new LittleEndianDataInputStream(
+                new ByteArrayInputStream(pool.array()))));
+    }
+
+    private void decode(JobContext job, String outName) throws BrutException, IOException {
+        ApkDecoder decoder = new ApkDecoder(new File(sTmpDir, "issue767.apk"));
+        decoder.setOutDir(new File(sTmpDir, outName));
+        decoder.setJobContext(job);
+        decoder.decode();
+    }
+
+    private static ExtFile sTmpDir;
+
+    private final static Logger LOGGER = Logger.getLogger(JobContextTest.class.getName());
+}
@@ -0,0 +1,104 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import brut.androlib.res.data.ResPackage;
+import brut.androlib.res.decoder.StringBlock;
+import brut.androlib.res.util.ExtFile;
+import brut.common.BrutException;
+import brut.util.ExtDataInput;
+import brut.util.OS;
+import com.google.common.io.LittleEndianDataInputStream;
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.DataInput;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * A decode with a memory budget writes the same files as a regular one.
+ */
+public class MemoryBudgetTest {
+
+    @BeforeClass
+    public static void beforeClass() throws Exception, BrutException {
+        TestUtils.cleanFrameworkFile();
+        sTmpDir = new ExtFile(OS.createTempDirectory());
+        TestUtils.copyResourceDir(MemoryBudgetTest.class, "brut/apktool/issue767/", sTmpDir);
+        sApk = new ExtFile(sTmpDir, "issue767.apk");
+    }
+
+    @AfterClass
+    public static void afterClass() throws BrutException {
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void mappedStringPoolTest() throws BrutException, IOException {
+        StringBlock heap = readTableStrings(Integer.MAX_VALUE);
+        StringBlock mapped = readTableStrings(0);
+
+        assertTrue(heap.getCount() > 0);
+        assertEquals(heap.getCount(), mapped.getCount());
+        for (int i = 0; i < heap.getCount(); i++) {
+            assertEquals(heap.getHTML(i), mapped.getHTML(i));
+        }
+    }
+
+    @Test
+    public void budgetedDecodeTest() throws BrutException, IOException {
+        File regularDir = new File(sTmpDir, "regular");
+        ApkDecoder regular = new ApkDecoder(sApk);
+        regular.setOutDir(regularDir);
+        regular.decode();
+
+        File budgetedDir = new File(sTmpDir, "budgeted");
+        ApkDecoder budgeted = new ApkDecoder(sApk);
+        budgeted.setOutDir(budgetedDir);
+        budgeted.setMemoryBudget(64 * 1024 * 1024);
+        budgeted.decode();
+
+        for (String path : new String[] { "res/values/strings.xml", "res/values/public.xml",
+                "AndroidManifest.xml", "apktool.yml" }) {
+            assertEquals(path, FileUtils.readFileToString(new File(regularDir, path), "UTF-8"),
+                    FileUtils.readFileToString(new File(budgetedDir, path), "UTF-8"));
+        }
+        for (ResPackage pkg : budgeted.getResTable().listMainPackages()) {
+            assertEquals(0, pkg.getResSpecCount());
+        }
+    }
+
+    private StringBlock readTableStrings(int mapThreshold) throws BrutException, IOException {
+        try (InputStream in = sApk.getDirectory().getFileInput("resources.arsc")) {
+            ExtDataInput reader = new ExtDataInput((DataInput) new LittleEndianDataInputStream(in));
+            // the table header: chunk type, chunk size, package count
+            reader.skipBytes(12);
+            return StringBlock.read(reader, mapThreshold);
+        }
+    }
+
+    private static ExtFile sTmpDir;
+    private static ExtFile sApk;
+
+    private final static Logger LOGGER = Logger.getLogger(MemoryBudgetTest.class.getName());
+}
@@ -0,0 +1,92 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import brut.androlib.res.util.ExtFile;
+import brut.common.BrutException;
+import brut.directory.MemoryDirectory;
+import brut.util.OS;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Decodes into a MemoryDirectory, patches the project there and builds it
+ * again without the decoded tree ever being written to an out dir.
+ */
+public class MemoryDirectoryTest {
+
+    @BeforeClass
+    public static void beforeClass() throws Exception, BrutException {
+        TestUtils.cleanFrameworkFile();
+        sTmpDir = new ExtFile(OS.createTempDirectory());
+        sTestOrigDir = new ExtFile(sTmpDir, "testapp-orig");
+        LOGGER.info("Unpacking testapp...");
+        TestUtils.copyResourceDir(MemoryDirectoryTest.class, "brut/apktool/testapp/", sTestOrigDir);
+
+        LOGGER.info("Building testapp.apk...");
+        File testApk = new File(sTmpDir, "testapp.apk");
+        new Androlib().build(sTestOrigDir, testApk);
+
+        LOGGER.info("Decoding testapp.apk into memory...");
+        sMemoryDir = new MemoryDirectory();
+        ApkDecoder apkDecoder = new ApkDecoder(testApk);
+        apkDecoder.setOutput(sMemoryDir);
+        apkDecoder.decode();
+    }
+
+    @AfterClass
+    public static void afterClass() throws Exception, BrutException {
+        sMemoryDir.close();
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void decodedIntoMemoryTest() throws BrutException {
+        assertTrue(sMemoryDir.containsFile("apktool.yml"));
+        assertTrue(sMemoryDir.containsFile("AndroidManifest.xml"));
+        assertTrue(sMemoryDir.containsFile("res/values/strings.xml"));
+        assertTrue(sMemoryDir.containsDir("smali"));
+    }
+
+    @Test
+    public void patchAndBuildFromMemoryTest() throws Exception, BrutException {
+        try (OutputStream out = sMemoryDir.getFileOutput("assets/patched.txt")) {
+            out.write("patched".getBytes("UTF-8"));
+        }
+
+        File newApk = new File(sTmpDir, "testapp-patched.apk");
+        new Androlib().build(sMemoryDir, newApk);
+
+        ExtFile newDir = new ExtFile(sTmpDir, "testapp-patched");
+        ApkDecoder apkDecoder = new ApkDecoder(newApk);
+        apkDecoder.setOutDir(newDir);
+        apkDecoder.decode();
+        assertTrue(new File(newDir, "assets/patched.txt").isFile());
+    }
+
+    private static ExtFile sTmpDir;
+    private static ExtFile sTestOrigDir;
+    private static MemoryDirectory sMemoryDir;
+
+    private final static Logger LOGGER = Logger.getLogger(MemoryDirectoryTest.class.getName());
+}
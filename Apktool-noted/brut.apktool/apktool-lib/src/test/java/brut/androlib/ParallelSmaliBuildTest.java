@@ -0,0 +1,92 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import brut.androlib.res.util.ExtFile;
+import brut.androlib.src.SmaliBuilder;
+import brut.common.BrutException;
+import brut.util.OS;
+import org.apache.commons.io.FileUtils;
+import org.jf.dexlib2.DexFileFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Smali files parsed on several threads assemble into the same dex as a
+ * serial build.
+ */
+public class ParallelSmaliBuildTest {
+
+    @BeforeClass
+    public static void beforeClass() throws Exception, BrutException {
+        sTmpDir = new ExtFile(OS.createTempDirectory());
+        sSmaliDir = new ExtFile(sTmpDir, "smali");
+        for (int i = 0; i < CLASSES; i++) {
+            String type = "Lbrut/apktool/parallel/p" + (i % 7) + "/Class" + i + ";";
+            String smali = ".class public " + type + "\n"
+                    + ".super Ljava/lang/Object;\n\n"
+                    + ".field private mValue:I\n\n"
+                    + ".method public compute(I)I\n"
+                    + "    .registers 3\n\n"
+                    + "    iget v0, p0, " + type + "->mValue:I\n\n"
+                    + "    add-int/lit8 v0, v0, " + (i % 100) + "\n\n"
+                    + "    const-string v1, \"class " + i + "\"\n\n"
+                    + "    return v0\n"
+                    + ".end method\n";
+            FileUtils.writeStringToFile(new File(sSmaliDir, "brut/apktool/parallel/p" + (i % 7)
+                    + "/Class" + i + ".smali"), smali, "UTF-8");
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() throws BrutException {
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void sameDexAsSerialBuildTest() throws BrutException, IOException {
+        File serial = new File(sTmpDir, "serial.dex");
+        File parallel = new File(sTmpDir, "parallel.dex");
+        SmaliBuilder.build(sSmaliDir, serial, 1);
+        SmaliBuilder.build(sSmaliDir, parallel, 4);
+
+        assertEquals(CLASSES, DexFileFactory.loadDexFile(parallel, 15, false).getClasses().size());
+        assertTrue(FileUtils.contentEquals(serial, parallel));
+    }
+
+    @Test(expected = AndrolibException.class)
+    public void syntaxErrorTest() throws BrutException, IOException {
+        ExtFile smaliDir = new ExtFile(sTmpDir, "broken");
+        FileUtils.copyDirectory(sSmaliDir, smaliDir);
+        FileUtils.writeStringToFile(new File(smaliDir, "brut/apktool/parallel/p0/Class0.smali"),
+                ".class public Lbrut/apktool/parallel/p0/Class0;\n.super\n", "UTF-8");
+        SmaliBuilder.build(smaliDir, new File(sTmpDir, "broken.dex"), 4);
+    }
+
+    private static ExtFile sTmpDir;
+    private static ExtFile sSmaliDir;
+
+    private final static int CLASSES = 300;
+
+    private final static Logger LOGGER = Logger.getLogger(ParallelSmaliBuildTest.class.getName());
+}
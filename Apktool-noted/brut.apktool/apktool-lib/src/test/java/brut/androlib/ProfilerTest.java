@@ -0,0 +1,94 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import brut.androlib.res.util.ExtFile;
+import brut.common.BrutException;
+import brut.util.OS;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Records the phases of loading the resource table of issue767.apk.
+ */
+public class ProfilerTest {
+
+    @BeforeClass
+    public static void beforeClass() throws Exception, BrutException {
+        TestUtils.cleanFrameworkFile();
+        sTmpDir = new ExtFile(OS.createTempDirectory());
+        TestUtils.copyResourceDir(ProfilerTest.class, "brut/apktool/issue767/", sTmpDir);
+    }
+
+    @AfterClass
+    public static void afterClass() throws BrutException {
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void phasesRecordedTest() throws Exception {
+        Profiler profiler = new Profiler();
+        Profiler previous = Profiler.install(profiler);
+        try (Profiler.Phase phase = Profiler.phase("load")) {
+            new Androlib().getResTable(new ExtFile(sTmpDir, "issue767.apk")).getPackage(1);
+        } finally {
+            Profiler.install(previous);
+        }
+        // not recorded anymore
+        Profiler.phase("after").close();
+
+        List<Profiler.Phase> phases = profiler.getPhases();
+        assertEquals(3, phases.size());
+        assertEquals("load", phases.get(0).getName());
+        for (Profiler.Phase phase : phases) {
+            assertTrue(phase.getWallNanos() >= 0);
+        }
+
+        Profiler.Phase arsc = findPhase(phases, "arsc parse");
+        assertEquals("load/arsc parse", arsc.getPath());
+        assertEquals(1, arsc.getDepth());
+
+        // the framework is read on a thread of its own
+        Profiler.Phase framework = findPhase(phases, "framework 1");
+        assertEquals(0, framework.getDepth());
+        assertEquals("apktool-framework-1", framework.getThread());
+
+        StringWriter json = new StringWriter();
+        profiler.writeJson(json);
+        assertTrue(json.toString().contains("\"name\": \"arsc parse\", \"path\": \"load/arsc parse\""));
+    }
+
+    private static Profiler.Phase findPhase(List<Profiler.Phase> phases, String name) {
+        for (Profiler.Phase phase : phases) {
+            if (phase.getName().equals(name)) {
+                return phase;
+            }
+        }
+        fail("No phase " + name);
+        return null;
+    }
+
+    private static ExtFile sTmpDir;
+
+    private final static Logger LOGGER = Logger.getLogger(ProfilerTest.class.getName());
+}
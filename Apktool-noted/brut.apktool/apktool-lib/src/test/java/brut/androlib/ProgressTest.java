@@ -0,0 +1,133 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import brut.androlib.res.util.ExtFile;
+import brut.common.BrutException;
+import brut.util.OS;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * A decode reports its phases, files and copied bytes to its listener, and
+ * counters only report once per interval.
+ */
+public class ProgressTest {
+
+    @BeforeClass
+    public static void beforeClass() throws Exception, BrutException {
+        TestUtils.cleanFrameworkFile();
+        sTmpDir = new ExtFile(OS.createTempDirectory());
+        TestUtils.copyResourceDir(ProgressTest.class, "brut/apktool/issue767/", sTmpDir);
+    }
+
+    @AfterClass
+    public static void afterClass() throws BrutException {
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void decodeProgressTest() throws BrutException, IOException {
+        RecordingListener listener = new RecordingListener();
+        ApkDecoder decoder = new ApkDecoder(new File(sTmpDir, "issue767.apk"));
+        decoder.setOutDir(new File(sTmpDir, "decoded"));
+        decoder.setProgressListener(listener);
+        decoder.decode();
+
+        assertEquals("started decode", listener.mEvents.get(0));
+        assertEquals("finished decode", listener.mEvents.get(listener.mEvents.size() - 1));
+        assertTrue(listener.mEvents.contains("started baksmali classes.dex"));
+        String done = null;
+        for (String event : listener.mEvents) {
+            if (event.startsWith("file resources ")) {
+                done = event;
+            }
+        }
+        assertNotNull(done);
+        String[] counts = done.substring("file resources ".length()).split("/");
+        assertEquals(counts[1], counts[0]);
+        assertTrue(listener.mCopied > 0);
+        assertNull(Progress.current());
+    }
+
+    @Test
+    public void batchedCounterTest() throws InterruptedException {
+        final RecordingListener listener = new RecordingListener();
+        Progress previous = Progress.install(new Progress(listener, 60000));
+        try {
+            final Progress.Counter counter = Progress.count("classes", 4000);
+            Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        for (int step = 0; step < 1000; step++) {
+                            counter.step();
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } finally {
+            Progress.install(previous);
+        }
+        assertEquals(2, listener.mEvents.size());
+        assertEquals("classes 0/4000", listener.mEvents.get(0));
+        assertEquals("classes 4000/4000", listener.mEvents.get(1));
+    }
+
+    private static class RecordingListener implements ProgressListener {
+        @Override
+        public void phaseStarted(String phase) {
+            mEvents.add("started " + phase);
+        }
+
+        @Override
+        public void phaseFinished(String phase, long wallNanos) {
+            mEvents.add("finished " + phase);
+        }
+
+        @Override
+        public void progress(String phase, int done, int total) {
+            mEvents.add(phase + " " + done + "/" + total);
+        }
+
+        @Override
+        public void bytesCopied(long total) {
+            assertTrue(total > mCopied);
+            mCopied = total;
+        }
+
+        final List<String> mEvents = new ArrayList<String>();
+        long mCopied;
+    }
+
+    private static ExtFile sTmpDir;
+
+    private final static Logger LOGGER = Logger.getLogger(ProgressTest.class.getName());
+}
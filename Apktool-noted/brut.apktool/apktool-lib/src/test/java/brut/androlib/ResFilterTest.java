@@ -0,0 +1,118 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import brut.androlib.meta.MetaInfo;
+import brut.androlib.res.ResFilter;
+import brut.androlib.res.util.ExtFile;
+import brut.common.BrutException;
+import brut.util.OS;
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decodes only the default and french strings of testapp, whose manifest
+ * also refers to a drawable, and builds the resulting subset again.
+ */
+public class ResFilterTest {
+
+    @BeforeClass
+    public static void beforeClass() throws Exception, BrutException {
+        TestUtils.cleanFrameworkFile();
+        sTmpDir = new ExtFile(OS.createTempDirectory());
+        sTestOrigDir = new ExtFile(sTmpDir, "testapp-orig");
+        sTestNewDir = new ExtFile(sTmpDir, "testapp-filtered");
+        LOGGER.info("Unpacking testapp...");
+        TestUtils.copyResourceDir(ResFilterTest.class, "brut/apktool/testapp/", sTestOrigDir);
+        File manifest = new File(sTestOrigDir, "AndroidManifest.xml");
+        FileUtils.writeStringToFile(manifest, FileUtils.readFileToString(manifest, "UTF-8").replace(
+                "</manifest>", "    <application android:icon=\"@drawable/ic_launcher\" />\n</manifest>"), "UTF-8");
+
+        LOGGER.info("Building testapp.apk...");
+        File testApk = new File(sTmpDir, "testapp.apk");
+        new Androlib().build(sTestOrigDir, testApk);
+
+        LOGGER.info("Decoding strings of testapp.apk...");
+        ApkDecoder apkDecoder = new ApkDecoder(testApk);
+        apkDecoder.setResourceFilter(new ResFilter().addType("string").addConfig("default").addConfig("fr"));
+        apkDecoder.setOutDir(sTestNewDir);
+        apkDecoder.decode();
+    }
+
+    @AfterClass
+    public static void afterClass() throws BrutException {
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void selectedResourcesDecodedTest() {
+        assertTrue(new File(sTestNewDir, "res/values/strings.xml").isFile());
+        assertTrue(new File(sTestNewDir, "res/values-fr/strings.xml").isFile());
+        assertFalse(new File(sTestNewDir, "res/values-en").exists());
+        assertFalse(new File(sTestNewDir, "res/values/integers.xml").exists());
+        assertFalse(new File(sTestNewDir, "res/layout").exists());
+    }
+
+    @Test
+    public void publicXmlOnlyDeclaresSelectedTest() throws Exception {
+        String publicXml = FileUtils.readFileToString(new File(sTestNewDir, "res/values/public.xml"), "UTF-8");
+        assertTrue(publicXml.contains("type=\"string\""));
+        assertFalse(publicXml.contains("type=\"layout\""));
+        assertFalse(publicXml.contains("type=\"integer\""));
+    }
+
+    @Test
+    public void referencedResourcesKeptTest() throws Exception {
+        assertTrue(new File(sTestNewDir, "res/drawable-hdpi/ic_launcher.png").isFile());
+        assertTrue(new File(sTestNewDir, "res/drawable-xxxhdpi/ic_launcher.png").isFile());
+        assertFalse(new File(sTestNewDir, "original/res/drawable-hdpi/ic_launcher.png").exists());
+
+        String publicXml = FileUtils.readFileToString(new File(sTestNewDir, "res/values/public.xml"), "UTF-8");
+        assertTrue(publicXml.contains("type=\"drawable\" name=\"ic_launcher\""));
+        assertFalse(publicXml.contains("name=\"data\""));
+    }
+
+    @Test
+    public void restKeptRawTest() throws Exception {
+        assertTrue(new File(sTestNewDir, "original/resources.arsc").isFile());
+        assertTrue(new File(sTestNewDir, "original/res/layout/issue1040.xml").isFile());
+        assertTrue(new File(sTestNewDir, "original/res/drawable-ldpi/data.jpg").isFile());
+
+        MetaInfo meta = MetaInfo.load(new File(sTestNewDir, "apktool.yml"));
+        assertNotNull(meta.resourceFilter);
+        assertTrue(meta.resourceFilter.types.contains("string"));
+    }
+
+    @Test
+    public void filteredProjectBuildsTest() throws BrutException {
+        File newApk = new File(sTmpDir, "testapp-filtered.apk");
+        new Androlib().build(sTestNewDir, newApk);
+        assertTrue(newApk.isFile());
+    }
+
+    private static ExtFile sTmpDir;
+    private static ExtFile sTestOrigDir;
+    private static ExtFile sTestNewDir;
+
+    private final static Logger LOGGER = Logger.getLogger(ResFilterTest.class.getName());
+}
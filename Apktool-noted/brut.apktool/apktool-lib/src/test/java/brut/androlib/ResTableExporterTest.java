@@ -0,0 +1,90 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import brut.androlib.res.ResTableExporter;
+import brut.androlib.res.data.ResPackage;
+import brut.androlib.res.data.ResResSpec;
+import brut.androlib.res.util.ExtFile;
+import brut.common.BrutException;
+import brut.util.OS;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Streams the resource table of issue767.apk and compares it with the table
+ * built by a regular decode.
+ */
+public class ResTableExporterTest {
+
+    @BeforeClass
+    public static void beforeClass() throws Exception, BrutException {
+        TestUtils.cleanFrameworkFile();
+        sTmpDir = new ExtFile(OS.createTempDirectory());
+        TestUtils.copyResourceDir(ResTableExporterTest.class, "brut/apktool/issue767/", sTmpDir);
+        sApk = new ExtFile(sTmpDir, "issue767.apk");
+    }
+
+    @AfterClass
+    public static void afterClass() throws BrutException {
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void jsonLinesCoverTableTest() throws BrutException {
+        StringWriter out = new StringWriter();
+        ResTableExporter exporter = new ResTableExporter(out, ResTableExporter.Format.JSONL);
+        exporter.export(sApk);
+
+        int resources = 0;
+        for (ResPackage pkg : new Androlib().getResTable(sApk).listMainPackages()) {
+            for (ResResSpec spec : pkg.listResSpecs()) {
+                if (! spec.isDummyResSpec()) {
+                    resources += spec.listResources().size();
+                }
+            }
+        }
+        String[] lines = out.toString().split("\n");
+        assertEquals(resources, exporter.getRowCount());
+        assertEquals(resources, lines.length);
+        assertTrue(out.toString().contains("\"type\":\"dimen\",\"name\":\"abc_text_size_small_material\","
+                + "\"config\":\"\",\"value_type\":\"dimen\",\"value\":\"14.0sp\"}"));
+    }
+
+    @Test
+    public void csvTest() throws BrutException {
+        StringWriter out = new StringWriter();
+        ResTableExporter exporter = new ResTableExporter(out, ResTableExporter.Format.CSV);
+        exporter.export(sApk);
+
+        String[] lines = out.toString().split("\r\n");
+        assertEquals("apk,package,id,type,name,config,value_type,value", lines[0]);
+        assertEquals(exporter.getRowCount() + 1, lines.length);
+        assertTrue(out.toString().contains(",string,abc_action_bar_home_description_format,sr,string,\"%1$s, %2$s\""));
+    }
+
+    private static ExtFile sTmpDir;
+    private static ExtFile sApk;
+
+    private final static Logger LOGGER = Logger.getLogger(ResTableExporterTest.class.getName());
+}
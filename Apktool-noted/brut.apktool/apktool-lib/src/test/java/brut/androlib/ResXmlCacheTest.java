@@ -0,0 +1,105 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import brut.androlib.res.decoder.ResXmlCache;
+import brut.androlib.res.util.ExtFile;
+import brut.common.BrutException;
+import brut.util.OS;
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decodes testapp twice with a shared xml cache; the second decode should be
+ * served entirely from the cache and give the same files.
+ */
+public class ResXmlCacheTest {
+
+    @BeforeClass
+    public static void beforeClass() throws Exception, BrutException {
+        TestUtils.cleanFrameworkFile();
+        sTmpDir = new ExtFile(OS.createTempDirectory());
+        sTestOrigDir = new ExtFile(sTmpDir, "testapp-orig");
+        LOGGER.info("Unpacking testapp...");
+        TestUtils.copyResourceDir(ResXmlCacheTest.class, "brut/apktool/testapp/", sTestOrigDir);
+
+        LOGGER.info("Building testapp.apk...");
+        File testApk = new File(sTmpDir, "testapp.apk");
+        new Androlib().build(sTestOrigDir, testApk);
+
+        sCache = new ResXmlCache(16 * 1024 * 1024);
+        sFirstDir = decode(testApk, "testapp-first");
+        sFirstMisses = sCache.getMisses();
+        sSecondDir = decode(testApk, "testapp-second");
+    }
+
+    @AfterClass
+    public static void afterClass() throws BrutException {
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void secondDecodeHitsTest() {
+        assertTrue(sFirstMisses > 0);
+        assertEquals(sFirstMisses, sCache.getMisses());
+        assertEquals(sFirstMisses, sCache.getHits());
+        assertEquals(0.5, sCache.getHitRate(), 0.0001);
+    }
+
+    @Test
+    public void cachedOutputMatchesTest() throws Exception {
+        File layout = new File(sFirstDir, "res/layout/issue1040.xml");
+        assertEquals(FileUtils.readFileToString(layout, "UTF-8"),
+                FileUtils.readFileToString(new File(sSecondDir, "res/layout/issue1040.xml"), "UTF-8"));
+    }
+
+    @Test
+    public void sizeBoundTest() {
+        ResXmlCache cache = new ResXmlCache(10);
+        cache.put("a", new byte[6]);
+        cache.put("b", new byte[6]);
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+        assertEquals(6, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    private static ExtFile decode(File apk, String name) throws BrutException, IOException {
+        ExtFile outDir = new ExtFile(sTmpDir, name);
+        ApkDecoder apkDecoder = new ApkDecoder(apk);
+        apkDecoder.setResXmlCache(sCache);
+        apkDecoder.setOutDir(outDir);
+        apkDecoder.decode();
+        return outDir;
+    }
+
+    private static ExtFile sTmpDir;
+    private static ExtFile sTestOrigDir;
+    private static ExtFile sFirstDir;
+    private static ExtFile sSecondDir;
+    private static ResXmlCache sCache;
+    private static long sFirstMisses;
+
+    private final static Logger LOGGER = Logger.getLogger(ResXmlCacheTest.class.getName());
+}
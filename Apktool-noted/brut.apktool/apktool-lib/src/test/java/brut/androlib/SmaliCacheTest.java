@@ -0,0 +1,87 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import brut.androlib.res.util.ExtFile;
+import brut.common.BrutException;
+import brut.util.OS;
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decodes testapp twice through a smali cache; the second decode is served
+ * from the cache and must produce the same smali.
+ */
+public class SmaliCacheTest {
+
+    @BeforeClass
+    public static void beforeClass() throws Exception, BrutException {
+        TestUtils.cleanFrameworkFile();
+        sTmpDir = new ExtFile(OS.createTempDirectory());
+        sTestOrigDir = new ExtFile(sTmpDir, "testapp-orig");
+        sCacheDir = new File(sTmpDir, "smali-cache");
+        LOGGER.info("Unpacking testapp...");
+        TestUtils.copyResourceDir(SmaliCacheTest.class, "brut/apktool/testapp/", sTestOrigDir);
+
+        LOGGER.info("Building testapp.apk...");
+        sTestApk = new File(sTmpDir, "testapp.apk");
+        new Androlib().build(sTestOrigDir, sTestApk);
+    }
+
+    @AfterClass
+    public static void afterClass() throws BrutException {
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void cachedSmaliMatchesTest() throws Exception {
+        File first = decode("testapp-first");
+        String[] entries = sCacheDir.list();
+        assertNotNull(entries);
+        assertEquals(2, entries.length);
+
+        File second = decode("testapp-second");
+        assertEquals(2, sCacheDir.list().length);
+        for (String path : new String[] { "smali/HelloWorld.smali", "smali_classes2/HelloDualDexSupport.smali" }) {
+            assertEquals(FileUtils.readFileToString(new File(first, path), "UTF-8"),
+                    FileUtils.readFileToString(new File(second, path), "UTF-8"));
+        }
+    }
+
+    private static File decode(String name) throws BrutException, IOException {
+        File outDir = new File(sTmpDir, name);
+        ApkDecoder apkDecoder = new ApkDecoder(sTestApk);
+        apkDecoder.setSmaliCacheDir(sCacheDir.getAbsolutePath());
+        apkDecoder.setOutDir(outDir);
+        apkDecoder.decode();
+        return outDir;
+    }
+
+    private static File sTestApk;
+    private static File sCacheDir;
+    private static ExtFile sTmpDir;
+    private static ExtFile sTestOrigDir;
+
+    private final static Logger LOGGER = Logger.getLogger(SmaliCacheTest.class.getName());
+}
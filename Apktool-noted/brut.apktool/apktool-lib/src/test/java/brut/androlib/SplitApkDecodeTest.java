@@ -0,0 +1,83 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import brut.androlib.meta.MetaInfo;
+import brut.androlib.res.util.ExtFile;
+import brut.common.BrutException;
+import brut.util.OS;
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decodes issue767.apk with a copy of it as its split, on top of the table
+ * of the base apk.
+ */
+public class SplitApkDecodeTest {
+
+    @BeforeClass
+    public static void beforeClass() throws Exception, BrutException {
+        TestUtils.cleanFrameworkFile();
+        sTmpDir = new ExtFile(OS.createTempDirectory());
+        TestUtils.copyResourceDir(SplitApkDecodeTest.class, "brut/apktool/issue767/", sTmpDir);
+        FileUtils.copyFile(new File(sTmpDir, "issue767.apk"), new File(sTmpDir, "split_config.xxhdpi.apk"));
+
+        sOutDir = new ExtFile(sTmpDir, "issue767.out");
+        ApkDecoder decoder = new ApkDecoder(new File(sTmpDir, "issue767.apk"));
+        decoder.setOutDir(sOutDir);
+        decoder.setSplitApks(Arrays.asList(new File(sTmpDir, "split_config.xxhdpi.apk")));
+        decoder.decode();
+    }
+
+    @AfterClass
+    public static void afterClass() throws BrutException {
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void splitsRecordedTest() throws BrutException {
+        MetaInfo meta = new Androlib().readMetaFile(sOutDir);
+        assertEquals(Collections.singletonList("split_config.xxhdpi.apk"), meta.splits);
+
+        MetaInfo splitMeta = new Androlib().readMetaFile(new ExtFile(sOutDir, "splits/split_config.xxhdpi"));
+        assertEquals("split_config.xxhdpi.apk", splitMeta.apkFileName);
+        assertNull(splitMeta.splits);
+    }
+
+    @Test
+    public void splitDecodedLikeBaseTest() throws IOException {
+        File splitDir = new File(sOutDir, "splits/split_config.xxhdpi");
+        for (String file : new String[] { "AndroidManifest.xml", "res/values/strings.xml",
+                "res/values/public.xml", "res/layout/abc_action_bar_title_item.xml" }) {
+            assertTrue(file, FileUtils.contentEquals(new File(sOutDir, file), new File(splitDir, file)));
+        }
+    }
+
+    private static ExtFile sTmpDir;
+    private static ExtFile sOutDir;
+
+    private final static Logger LOGGER = Logger.getLogger(SplitApkDecodeTest.class.getName());
+}
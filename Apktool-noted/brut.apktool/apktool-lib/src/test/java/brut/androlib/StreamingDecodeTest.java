@@ -0,0 +1,104 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import brut.androlib.res.util.ExtFile;
+import brut.common.BrutException;
+import brut.util.OS;
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decoding an apk from a stream writes the same project as decoding the
+ * file, apart from the entry manifest of incremental decoding.
+ */
+public class StreamingDecodeTest {
+
+    @BeforeClass
+    public static void beforeClass() throws Exception, BrutException {
+        TestUtils.cleanFrameworkFile();
+        sTmpDir = new ExtFile(OS.createTempDirectory());
+        TestUtils.copyResourceDir(StreamingDecodeTest.class, "brut/apktool/issue767/", sTmpDir);
+
+        sFileDir = new File(sTmpDir, "file");
+        ApkDecoder decoder = new ApkDecoder(new File(sTmpDir, "issue767.apk"));
+        decoder.setOutDir(sFileDir);
+        decoder.decode();
+    }
+
+    @AfterClass
+    public static void afterClass() throws BrutException {
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void streamedDecodeTest() throws BrutException, IOException {
+        assertSameFiles(sFileDir, decodeStream("streamed", 0));
+    }
+
+    @Test
+    public void spilledDecodeTest() throws BrutException, IOException {
+        // a quarter of it is kept in memory, resources.arsc alone is bigger
+        assertSameFiles(sFileDir, decodeStream("spilled", 256 * 1024));
+    }
+
+    private static File decodeStream(String outName, long memoryBudget) throws BrutException, IOException {
+        File outDir = new File(sTmpDir, outName);
+        try (InputStream in = new FileInputStream(new File(sTmpDir, "issue767.apk"))) {
+            ApkDecoder decoder = new ApkDecoder(in, "issue767.apk");
+            decoder.setOutDir(outDir);
+            decoder.setMemoryBudget(memoryBudget);
+            decoder.decode();
+            // drained past the central directory, but left open
+            assertEquals(-1, in.read());
+        }
+        return outDir;
+    }
+
+    private static void assertSameFiles(File expected, File actual) throws IOException {
+        TreeSet<String> expectedFiles = listFiles(expected);
+        expectedFiles.remove(EntryManifest.FILENAME);
+        assertEquals(expectedFiles, listFiles(actual));
+        for (String file : expectedFiles) {
+            assertTrue(file, FileUtils.contentEquals(new File(expected, file), new File(actual, file)));
+        }
+    }
+
+    private static TreeSet<String> listFiles(File dir) {
+        TreeSet<String> files = new TreeSet<String>();
+        int prefix = dir.getPath().length() + 1;
+        for (File file : FileUtils.listFiles(dir, null, true)) {
+            files.add(file.getPath().substring(prefix));
+        }
+        return files;
+    }
+
+    private static ExtFile sTmpDir;
+    private static File sFileDir;
+
+    private final static Logger LOGGER = Logger.getLogger(StreamingDecodeTest.class.getName());
+}
@@ -0,0 +1,112 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.androlib;
+
+import brut.androlib.res.util.ExtFile;
+import brut.common.BrutException;
+import brut.directory.ZipOutputDirectory;
+import brut.util.OS;
+import org.apache.commons.io.IOUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decodes testapp into a zip, with one of its 9-patches replaced by a plain
+ * png, which has to end up renamed to *.png rather than abort the decode.
+ */
+public class ZipOutputDecodeTest {
+
+    @BeforeClass
+    public static void beforeClass() throws Exception, BrutException {
+        TestUtils.cleanFrameworkFile();
+        sTmpDir = new ExtFile(OS.createTempDirectory());
+        sTestOrigDir = new ExtFile(sTmpDir, "testapp-orig");
+        LOGGER.info("Unpacking testapp...");
+        TestUtils.copyResourceDir(ZipOutputDecodeTest.class, "brut/apktool/testapp/", sTestOrigDir);
+
+        LOGGER.info("Building testapp.apk...");
+        File testApk = new File(sTmpDir, "testapp.apk");
+        new Androlib().build(sTestOrigDir, testApk);
+
+        LOGGER.info("Breaking the 9-patch of testapp.apk...");
+        File brokenApk = new File(sTmpDir, "testapp-broken.apk");
+        replaceEntry(testApk, brokenApk, NINE_PATCH,
+                new File(sTestOrigDir, "res/drawable-xhdpi/ic_launcher.png"));
+
+        LOGGER.info("Decoding testapp-broken.apk into a zip...");
+        sZip = new File(sTmpDir, "testapp-broken.zip");
+        try (ZipOutputDirectory out = new ZipOutputDirectory(sZip)) {
+            ApkDecoder apkDecoder = new ApkDecoder(brokenApk);
+            apkDecoder.setOutput(out);
+            apkDecoder.decode();
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() throws BrutException {
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void brokenNinePatchRenamedTest() throws IOException {
+        try (ZipFile zip = new ZipFile(sZip)) {
+            assertNotNull(zip.getEntry("apktool.yml"));
+            assertNotNull(zip.getEntry("res/drawable-xhdpi/9patch.png"));
+            assertNull(zip.getEntry("res/drawable-xhdpi/9patch.9.png"));
+            assertNotNull(zip.getEntry("res/drawable-xhdpi/9patch_htc.r.9.png"));
+        }
+    }
+
+    private static void replaceEntry(File apk, File out, String name, File content) throws IOException {
+        try (
+                ZipFile in = new ZipFile(apk);
+                ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(out))
+        ) {
+            Enumeration<? extends ZipEntry> entries = in.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                zip.putNextEntry(new ZipEntry(entry.getName()));
+                try (InputStream data = entry.getName().equals(name)
+                        ? new FileInputStream(content) : in.getInputStream(entry)) {
+                    IOUtils.copy(data, zip);
+                }
+                zip.closeEntry();
+            }
+        }
+    }
+
+    private static ExtFile sTmpDir;
+    private static ExtFile sTestOrigDir;
+    private static File sZip;
+
+    private final static String NINE_PATCH = "res/drawable-xhdpi/9patch.9.png";
+
+    private final static Logger LOGGER = Logger.getLogger(ZipOutputDecodeTest.class.getName());
+}
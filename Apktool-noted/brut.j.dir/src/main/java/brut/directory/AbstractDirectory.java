@@ -19,16 +19,28 @@ package brut.directory;
 import java.io.File;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
+/**
+ * Base for the directory implementations. Listings are loaded lazily into
+ * mFiles and mDirs under the directory's lock and then published as an
+ * immutable snapshot, so any number of threads may read from a loaded
+ * directory (getFiles, containsFile, getFileInput, ...) without locking.
+ * Writes mutate the backing collections under the lock and drop the
+ * snapshot; the next reader builds a new one.
+ */
 public abstract class AbstractDirectory implements Directory {
+    // guarded by this; only touched by loadFiles/loadDirs and the write paths
     protected Set<String> mFiles;
-    protected Set<String> mFilesRecursive;
     protected Map<String, AbstractDirectory> mDirs;
 
+    private volatile Listing mListing;
+    private boolean mListingShared;
+
     @Override
     public Set<String> getFiles() {
         return getFiles(false);
@@ -36,21 +48,23 @@ public abstract class AbstractDirectory implements Directory {
 
     @Override
     public Set<String> getFiles(boolean recursive) {
-        if (mFiles == null) {
-            loadFiles();
-        }
+        Listing listing = getListing();
         if (!recursive) {
-            return mFiles;
+            return listing.files;
         }
-        if (mFilesRecursive == null) {
-            mFilesRecursive = new LinkedHashSet<String>(mFiles);
-            for (Map.Entry<String, ? extends Directory> dir : getAbstractDirs().entrySet()) {
+
+        Set<String> files = listing.filesRecursive;
+        if (files == null) {
+            files = new LinkedHashSet<String>(listing.files);
+            for (Map.Entry<String, AbstractDirectory> dir : listing.dirs.entrySet()) {
                 for (String path : dir.getValue().getFiles(true)) {
-                    mFilesRecursive.add(dir.getKey() + separator + path);
+                    files.add(dir.getKey() + separator + path);
                 }
             }
+            files = Collections.unmodifiableSet(files);
+            listing.filesRecursive = files;
         }
-        return mFilesRecursive;
+        return files;
     }
 
     @Override
@@ -111,18 +125,15 @@ public abstract class AbstractDirectory implements Directory {
     public OutputStream getFileOutput(String path) throws DirectoryException {
         ParsedPath parsed = parsePath(path);
         if (parsed.dir == null) {
-            getFiles().add(parsed.subpath);
-            return getFileOutputLocal(parsed.subpath);
-        }
-        
-        Directory dir;
-        // IMPOSSIBLE_EXCEPTION
-        try {
-            dir = createDir(parsed.dir);
-        } catch (PathAlreadyExists e) {
-            dir = getAbstractDirs().get(parsed.dir);
+            OutputStream out = getFileOutputLocal(parsed.subpath);
+            synchronized (this) {
+                prepareForWrite();
+                mFiles.add(parsed.subpath);
+            }
+            return out;
         }
-        return dir.getFileOutput(parsed.subpath);
+
+        return getOrCreateDir(parsed.dir).getFileOutput(parsed.subpath);
     }
 
     @Override
@@ -140,23 +151,20 @@ public abstract class AbstractDirectory implements Directory {
     @Override
     public Directory createDir(String path) throws DirectoryException {
         ParsedPath parsed = parsePath(path);
-        AbstractDirectory dir;
         if (parsed.dir == null) {
-            if (getAbstractDirs().containsKey(parsed.subpath)) {
-                throw new PathAlreadyExists(path);
+            synchronized (this) {
+                loadLocked();
+                if (mDirs.containsKey(parsed.subpath)) {
+                    throw new PathAlreadyExists(path);
+                }
+                AbstractDirectory dir = createDirLocal(parsed.subpath);
+                prepareForWrite();
+                mDirs.put(parsed.subpath, dir);
+                return dir;
             }
-            dir = createDirLocal(parsed.subpath);
-            getAbstractDirs().put(parsed.subpath, dir);
-            return dir;
-        }
-        
-        if (getAbstractDirs().containsKey(parsed.dir)) {
-            dir = getAbstractDirs().get(parsed.dir);
-        } else {
-            dir = createDirLocal(parsed.dir);
-            getAbstractDirs().put(parsed.dir, dir);
         }
-        return dir.createDir(parsed.subpath);
+
+        return getOrCreateDir(parsed.dir).createDir(parsed.subpath);
     }
 
     @Override
@@ -171,26 +179,30 @@ public abstract class AbstractDirectory implements Directory {
         if (subpath.dir != null) {
             return subpath.dir.removeFile(subpath.path);
         }
-        if (! getFiles().contains(subpath.path)) {
-            return false;
+        synchronized (this) {
+            loadLocked();
+            if (! mFiles.contains(subpath.path)) {
+                return false;
+            }
+            removeFileLocal(subpath.path);
+            prepareForWrite();
+            mFiles.remove(subpath.path);
         }
-        removeFileLocal(subpath.path);
-        getFiles().remove(subpath.path);
         return true;
     }
 
     public void copyToDir(Directory out) throws DirectoryException {
-        DirUtil.copyToDir(out, out);
+        DirUtil.copyToDir(this, out);
     }
 
     public void copyToDir(Directory out, String[] fileNames)
             throws DirectoryException {
-        DirUtil.copyToDir(out, out, fileNames);
+        DirUtil.copyToDir(this, out, fileNames);
     }
 
     public void copyToDir(Directory out, String fileName)
             throws DirectoryException {
-        DirUtil.copyToDir(out, out, fileName);
+        DirUtil.copyToDir(this, out, fileName);
     }
 
     public void copyToDir(File out) throws DirectoryException {
@@ -217,22 +229,86 @@ public abstract class AbstractDirectory implements Directory {
     }
 
     protected Map<String, AbstractDirectory> getAbstractDirs(boolean recursive) {
-        if (mDirs == null) {
-            loadDirs();
-        }
+        Map<String, AbstractDirectory> dirs = getListing().dirs;
         if (!recursive) {
-            return mDirs;
+            return dirs;
         }
 
-        Map<String, AbstractDirectory> dirs = new LinkedHashMap<String, AbstractDirectory>(mDirs);
-        for (Map.Entry<String, AbstractDirectory> dir : getAbstractDirs().entrySet()) {
+        Map<String, AbstractDirectory> recursiveDirs = new LinkedHashMap<String, AbstractDirectory>(dirs);
+        for (Map.Entry<String, AbstractDirectory> dir : dirs.entrySet()) {
             for (Map.Entry<String, AbstractDirectory> subdir : dir.getValue().getAbstractDirs(
                     true).entrySet()) {
-                dirs.put(dir.getKey() + separator + subdir.getKey(),
+                recursiveDirs.put(dir.getKey() + separator + subdir.getKey(),
                         subdir.getValue());
             }
         }
-        return dirs;
+        return recursiveDirs;
+    }
+
+    /**
+     * Forgets the cached listing, so that the next access loads it again
+     * through loadFiles/loadDirs.
+     */
+    protected synchronized void resetListing() {
+        mFiles = null;
+        mDirs = null;
+        mListing = null;
+        mListingShared = false;
+    }
+
+    private Listing getListing() {
+        Listing listing = mListing;
+        if (listing == null) {
+            synchronized (this) {
+                listing = mListing;
+                if (listing == null) {
+                    loadLocked();
+                    listing = new Listing(mFiles, mDirs);
+                    mListingShared = true;
+                    mListing = listing;
+                }
+            }
+        }
+        return listing;
+    }
+
+    // must hold the lock
+    private void loadLocked() {
+        if (mFiles == null) {
+            loadFiles();
+        }
+        if (mDirs == null) {
+            loadDirs();
+        }
+    }
+
+    // must hold the lock; the published snapshot wraps mFiles and mDirs
+    // directly, so copy them before the first write that follows a read
+    private void prepareForWrite() {
+        loadLocked();
+        if (mListingShared) {
+            mFiles = new LinkedHashSet<String>(mFiles);
+            mDirs = new LinkedHashMap<String, AbstractDirectory>(mDirs);
+            mListingShared = false;
+        }
+        mListing = null;
+    }
+
+    private AbstractDirectory getOrCreateDir(String name) throws DirectoryException {
+        AbstractDirectory dir = getListing().dirs.get(name);
+        if (dir != null) {
+            return dir;
+        }
+        synchronized (this) {
+            loadLocked();
+            dir = mDirs.get(name);
+            if (dir == null) {
+                dir = createDirLocal(name);
+                prepareForWrite();
+                mDirs.put(name, dir);
+            }
+            return dir;
+        }
     }
 
     private SubPath getSubPath(String path) throws PathNotExist {
@@ -265,6 +341,17 @@ public abstract class AbstractDirectory implements Directory {
     abstract protected void removeFileLocal(String name);
     
     
+    private static class Listing {
+        public final Set<String> files;
+        public final Map<String, AbstractDirectory> dirs;
+        public volatile Set<String> filesRecursive;
+
+        public Listing(Set<String> files, Map<String, AbstractDirectory> dirs) {
+            this.files = Collections.unmodifiableSet(files);
+            this.dirs = Collections.unmodifiableMap(dirs);
+        }
+    }
+
     private class ParsedPath {
         public String dir;
         public String subpath;
@@ -20,6 +20,11 @@ import brut.common.BrutException;
 import brut.util.BrutIO;
 import brut.util.OS;
 import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 /**
  * @author Ryszard Wiśniewski <brut.alll@gmail.com>
@@ -92,4 +97,145 @@ public class DirUtil {
                 "Error copying file: " + fileName, ex);
         }
     }
+
+    public static void copyToDir(Directory in, File out, int jobs)
+            throws DirectoryException {
+        Set<String> files = in.getFiles(true);
+        copyFilesToDir(in, out, files.toArray(new String[files.size()]), jobs);
+    }
+
+    public static void copyToDir(Directory in, File out, String fileName, int jobs)
+            throws DirectoryException {
+        copyToDir(in, out, new String[] { fileName }, jobs);
+    }
+
+    /**
+     * Copies files and whole directories out of <code>in</code> using up to
+     * <code>jobs</code> worker threads. Directories are expanded to their
+     * files first and every target directory is created once, before any
+     * worker starts, so workers only ever open and write files.
+     */
+    public static void copyToDir(Directory in, File out, String[] fileNames, int jobs)
+            throws DirectoryException {
+        if (jobs <= 1) {
+            copyToDir(in, out, fileNames);
+            return;
+        }
+
+        List<String> files = new ArrayList<String>();
+        try {
+            for (String fileName : fileNames) {
+                if (in.containsDir(fileName)) {
+                    OS.rmdir(new File(out, fileName));
+                    for (String subName : in.getDir(fileName).getFiles(true)) {
+                        files.add(fileName + Directory.separator + subName);
+                    }
+                } else if (! fileName.equals("res") || in.containsFile(fileName)) {
+                    files.add(fileName);
+                }
+            }
+        } catch (BrutException ex) {
+            throw new DirectoryException("Error copying files", ex);
+        }
+        copyFilesToDir(in, out, files.toArray(new String[files.size()]), jobs);
+    }
+
+    private static void copyFilesToDir(Directory in, File out, String[] fileNames, int jobs)
+            throws DirectoryException {
+        if (jobs <= 1 || fileNames.length < 2) {
+            copyToDir(in, out, fileNames);
+            return;
+        }
+
+        Set<File> parents = new HashSet<File>();
+        for (String fileName : fileNames) {
+            File parent = new File(out, fileName).getParentFile();
+            if (parents.add(parent)) {
+                parent.mkdirs();
+            }
+        }
+
+        int workers = Math.min(jobs, fileNames.length);
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>(workers);
+            for (int i = 0; i < workers; i++) {
+                results.add(executor.submit(new CopyWorker(in, out, fileNames, next)));
+            }
+            for (Future<Void> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException ex) {
+                    // stop the remaining workers from picking up new files
+                    next.set(fileNames.length);
+                    if (ex.getCause() instanceof DirectoryException) {
+                        throw (DirectoryException) ex.getCause();
+                    }
+                    throw new DirectoryException("Error copying files", ex.getCause());
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DirectoryException("Interrupted while copying files", ex);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Pulls file names off a shared index until none are left. When reading
+     * from a zip each worker opens its own ZipFile, so entries are located
+     * and inflated without contending on the handle owned by the directory.
+     */
+    private static class CopyWorker implements Callable<Void> {
+        public CopyWorker(Directory in, File out, String[] fileNames, AtomicInteger next) {
+            mIn = in;
+            mOut = out;
+            mFileNames = fileNames;
+            mNext = next;
+        }
+
+        @Override
+        public Void call() throws DirectoryException {
+            ZipFile zipFile = null;
+            String fileName = null;
+            try {
+                if (mIn instanceof ZipRODirectory) {
+                    zipFile = ((ZipRODirectory) mIn).openZipFile();
+                }
+
+                int i;
+                while ((i = mNext.getAndIncrement()) < mFileNames.length) {
+                    fileName = mFileNames[i];
+                    InputStream input;
+                    if (zipFile != null) {
+                        String entryName = ((ZipRODirectory) mIn).getPath() + fileName;
+                        ZipEntry entry = zipFile.getEntry(entryName);
+                        if (entry == null) {
+                            throw new PathNotExist(fileName);
+                        }
+                        input = zipFile.getInputStream(entry);
+                    } else {
+                        input = mIn.getFileInput(fileName);
+                    }
+                    BrutIO.copyAndClose(input, new FileOutputStream(new File(mOut, fileName)));
+                }
+                return null;
+            } catch (IOException ex) {
+                throw new DirectoryException("Error copying file: " + fileName, ex);
+            } finally {
+                if (zipFile != null) {
+                    try {
+                        zipFile.close();
+                    } catch (IOException ignored) {}
+                }
+            }
+        }
+
+        private final Directory mIn;
+        private final File mOut;
+        private final String[] mFileNames;
+        private final AtomicInteger mNext;
+    }
 }
@@ -16,17 +16,24 @@
 
 package brut.directory;
 
+import brut.util.FileTree;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 
 public class FileDirectory extends AbstractDirectory {
     private File mDir;
+    private FileTree mTree;
+    private String mTreePath;
 
     public FileDirectory(String dir) throws DirectoryException {
         this(new File(dir));
@@ -40,6 +47,22 @@ public class FileDirectory extends AbstractDirectory {
         mDir = dir;
     }
 
+    /**
+     * Directory backed by an already walked tree: listings come from the
+     * snapshot and the file system is only touched to read or write files.
+     */
+    public FileDirectory(FileTree tree) throws DirectoryException {
+        this(tree.getRoot());
+        mTree = tree;
+        mTreePath = "";
+    }
+
+    private FileDirectory(File dir, FileTree tree, String treePath) {
+        mDir = dir;
+        mTree = tree;
+        mTreePath = treePath;
+    }
+
     @Override
     protected AbstractDirectory createDirLocal(String name) throws DirectoryException {
         File dir = new File(generatePath(name));
@@ -87,22 +110,42 @@ public class FileDirectory extends AbstractDirectory {
     private void loadAll() {
         mFiles = new LinkedHashSet<String>();
         mDirs = new LinkedHashMap<String, AbstractDirectory>();
-        
-        File[] files = getDir().listFiles();
-        for (int i = 0; i < files.length; i++) {
-            File file = files[i];
-            if (file.isFile()) {
-                mFiles.add(file.getName());
-            } else {
-                // IMPOSSIBLE_EXCEPTION
-                try {
-                    mDirs.put(file.getName(), new FileDirectory(file));
-                } catch (DirectoryException e) {}
+
+        if (mTree != null) {
+            String prefix = mTreePath.isEmpty() ? "" : mTreePath + separator;
+            mFiles.addAll(mTree.getFiles(mTreePath));
+            for (String name : mTree.getDirs(mTreePath)) {
+                mDirs.put(name, new FileDirectory(new File(getDir(), name), mTree, prefix + name));
             }
+            return;
+        }
+
+        // one pass over the entries, with their attributes, instead of a stat per file
+        final Path dir = getDir().toPath();
+        try {
+            Files.walkFileTree(dir, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    String name = file.getFileName().toString();
+                    if (attrs.isDirectory()) {
+                        mDirs.put(name, new FileDirectory(file.toFile(), null, null));
+                    } else {
+                        mFiles.add(name);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ex) {
+            // unreadable directory lists as empty, as File.listFiles() did
         }
     }
 
-    private File getDir() {
+    public File getDir() {
         return mDir;
     }
 }
@@ -0,0 +1,345 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package brut.directory;
+
+import brut.common.BrutException;
+import brut.util.OS;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Directory held on the heap. An optional limit caps the bytes kept in
+ * memory by the whole tree; once it is reached, further file contents are
+ * written to temporary files in a spill directory instead. close() drops
+ * the contents of the whole tree and deletes anything that was spilled;
+ * after that the directory reads as empty and refuses new files.
+ */
+public class MemoryDirectory extends AbstractDirectory implements Closeable {
+    private final Storage mStorage;
+    private final Map<String, Content> mContents = new HashMap<String, Content>();
+
+    public MemoryDirectory() {
+        this(-1);
+    }
+
+    /**
+     * @param maxMemory bytes kept in memory before spilling to the system
+     *                  temp dir, or -1 for no limit
+     */
+    public MemoryDirectory(long maxMemory) {
+        this(maxMemory, null);
+    }
+
+    /**
+     * @param maxMemory bytes kept in memory before spilling, or -1 for no limit
+     * @param spillDir  where spilled files go, or null for the system temp dir
+     */
+    public MemoryDirectory(long maxMemory, File spillDir) {
+        this(new Storage(maxMemory, spillDir));
+    }
+
+    private MemoryDirectory(Storage storage) {
+        super();
+        mStorage = storage;
+    }
+
+    /**
+     * Bytes currently held in memory by this directory tree.
+     */
+    public long getMemoryUsed() {
+        return mStorage.getUsed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        List<AbstractDirectory> dirs = new ArrayList<AbstractDirectory>(getAbstractDirs(true).values());
+        try {
+            mStorage.close();
+        } finally {
+            // the storage is already closed, so nothing can be added back meanwhile
+            clearLocal();
+            for (AbstractDirectory dir : dirs) {
+                ((MemoryDirectory) dir).clearLocal();
+            }
+        }
+    }
+
+    @Override
+    protected AbstractDirectory createDirLocal(String name) throws DirectoryException {
+        return new MemoryDirectory(mStorage);
+    }
+
+    @Override
+    protected InputStream getFileInputLocal(String name) throws DirectoryException {
+        Content content;
+        synchronized (mContents) {
+            content = mContents.get(name);
+        }
+        if (content == null) {
+            throw new PathNotExist(name);
+        }
+        try {
+            return content.open();
+        } catch (IOException ex) {
+            throw new DirectoryException(ex);
+        }
+    }
+
+    @Override
+    protected OutputStream getFileOutputLocal(String name) throws DirectoryException {
+        if (mStorage.isClosed()) {
+            throw new DirectoryException("Directory closed: " + name);
+        }
+        // like truncating a file on disk: readers see it empty until the stream is closed
+        putContent(name, new Content(new byte[0], 0));
+        return new ContentOutputStream(name);
+    }
+
+    @Override
+    protected void loadDirs() {
+        loadAll();
+    }
+
+    @Override
+    protected void loadFiles() {
+        loadAll();
+    }
+
+    @Override
+    protected void removeFileLocal(String name) {
+        Content content;
+        synchronized (mContents) {
+            content = mContents.remove(name);
+        }
+        if (content != null) {
+            content.release();
+        }
+    }
+
+    private void clearLocal() {
+        // the storage dropped its accounting and spill files as a whole,
+        // so the entries are forgotten rather than released one by one
+        synchronized (mContents) {
+            mContents.clear();
+        }
+        resetListing();
+    }
+
+    private void loadAll() {
+        // nothing to load, a memory directory always starts out empty
+        mFiles = new LinkedHashSet<String>();
+        mDirs = new LinkedHashMap<String, AbstractDirectory>();
+    }
+
+    private void putContent(String name, Content content) {
+        Content old;
+        synchronized (mContents) {
+            old = mContents.put(name, content);
+        }
+        if (old != null) {
+            old.release();
+        }
+    }
+
+    private class Content {
+        public Content(byte[] data, long reserved) {
+            mData = data;
+            mReserved = reserved;
+            mFile = null;
+        }
+
+        public Content(File file) {
+            mData = null;
+            mReserved = 0;
+            mFile = file;
+        }
+
+        public InputStream open() throws IOException {
+            if (mFile != null) {
+                return new FileInputStream(mFile);
+            }
+            return new ByteArrayInputStream(mData);
+        }
+
+        public void release() {
+            mStorage.free(mReserved);
+            if (mFile != null) {
+                mFile.delete();
+            }
+        }
+
+        private final byte[] mData;
+        private final long mReserved;
+        private final File mFile;
+    }
+
+    /**
+     * Buffers in memory while the storage has room, then moves what it has
+     * to a spill file and keeps writing there.
+     */
+    private class ContentOutputStream extends OutputStream {
+        public ContentOutputStream(String name) {
+            mName = name;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (mClosed) {
+                throw new IOException("Stream closed: " + mName);
+            }
+            if (mStorage.isClosed()) {
+                throw new IOException("Directory closed: " + mName);
+            }
+            if (mFileOut == null && ! mStorage.reserve(len)) {
+                spill();
+            }
+            if (mFileOut != null) {
+                mFileOut.write(b, off, len);
+            } else {
+                mBuffer.write(b, off, len);
+                mReserved += len;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (mFileOut != null) {
+                mFileOut.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            if (mStorage.isClosed()) {
+                mBuffer = null;
+                if (mFileOut != null) {
+                    mFileOut.close();
+                }
+                throw new IOException("Directory closed: " + mName);
+            }
+            if (mFileOut != null) {
+                mFileOut.close();
+                putContent(mName, new Content(mFile));
+            } else {
+                putContent(mName, new Content(mBuffer.toByteArray(), mReserved));
+            }
+            mBuffer = null;
+        }
+
+        private void spill() throws IOException {
+            mFile = mStorage.createSpillFile();
+            mFileOut = new BufferedOutputStream(new FileOutputStream(mFile));
+            mBuffer.writeTo(mFileOut);
+            mBuffer = new ByteArrayOutputStream(0);
+            mStorage.free(mReserved);
+            mReserved = 0;
+        }
+
+        private final String mName;
+        private ByteArrayOutputStream mBuffer = new ByteArrayOutputStream();
+        private long mReserved;
+        private File mFile;
+        private OutputStream mFileOut;
+        private boolean mClosed;
+    }
+
+    /**
+     * Memory accounting and spill files, shared by a directory and all of
+     * its subdirectories.
+     */
+    private static class Storage {
+        public Storage(long maxMemory, File spillParent) {
+            mMaxMemory = maxMemory;
+            mSpillParent = spillParent;
+        }
+
+        public synchronized boolean reserve(long bytes) throws IOException {
+            checkOpen();
+            if (mMaxMemory >= 0 && mUsed + bytes > mMaxMemory) {
+                return false;
+            }
+            mUsed += bytes;
+            return true;
+        }
+
+        public synchronized void free(long bytes) {
+            if (mClosed) {
+                throw new IllegalStateException("Directory closed");
+            }
+            mUsed -= bytes;
+        }
+
+        public synchronized long getUsed() {
+            return mUsed;
+        }
+
+        public synchronized boolean isClosed() {
+            return mClosed;
+        }
+
+        public synchronized File createSpillFile() throws IOException {
+            checkOpen();
+            if (mSpillDir == null) {
+                File dir = File.createTempFile("BRUT", null, mSpillParent);
+                if (! dir.delete() || ! dir.mkdir()) {
+                    throw new IOException("Could not create spill dir: " + dir.getAbsolutePath());
+                }
+                mSpillDir = dir;
+            }
+            return File.createTempFile("spill", null, mSpillDir);
+        }
+
+        public synchronized void close() throws IOException {
+            mClosed = true;
+            mUsed = 0;
+            if (mSpillDir != null) {
+                try {
+                    OS.rmdir(mSpillDir);
+                } catch (BrutException ex) {
+                    throw new IOException(ex);
+                }
+                mSpillDir = null;
+            }
+        }
+
+        private void checkOpen() throws IOException {
+            if (mClosed) {
+                throw new IOException("Directory closed");
+            }
+        }
+
+        private final long mMaxMemory;
+        private final File mSpillParent;
+        private File mSpillDir;
+        private long mUsed;
+        private boolean mClosed;
+    }
+}
@@ -0,0 +1,317 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package brut.directory;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.input.BoundedInputStream;
+
+/**
+ * Directory that streams everything written to it into a single zip file.
+ * Files become entries as they are written; the archive is complete once
+ * close() is called. Files already written can be read back, but not
+ * rewritten or removed. Directories only exist through the files in them.
+ *
+ * One entry is streamed straight into the archive at a time; files opened
+ * while another one is being written are buffered in memory and appended
+ * after it.
+ */
+public class ZipOutputDirectory extends AbstractDirectory implements Closeable {
+    private final Archive mArchive;
+    private final String mPath;
+
+    public ZipOutputDirectory(File zipFile) throws DirectoryException {
+        this(new Archive(zipFile), "");
+    }
+
+    private ZipOutputDirectory(Archive archive, String path) {
+        super();
+        mArchive = archive;
+        mPath = path;
+    }
+
+    public File getZipFile() {
+        return mArchive.mFile;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mArchive.close();
+    }
+
+    @Override
+    public int getCompressionLevel(String fileName) throws DirectoryException {
+        return mArchive.getMethod(mPath + fileName);
+    }
+
+    @Override
+    protected AbstractDirectory createDirLocal(String name) throws DirectoryException {
+        return new ZipOutputDirectory(mArchive, mPath + name + separator);
+    }
+
+    @Override
+    protected InputStream getFileInputLocal(String name) throws DirectoryException {
+        return mArchive.open(mPath + name);
+    }
+
+    @Override
+    protected OutputStream getFileOutputLocal(String name) throws DirectoryException {
+        return mArchive.create(mPath + name);
+    }
+
+    @Override
+    protected void loadDirs() {
+        loadAll();
+    }
+
+    @Override
+    protected void loadFiles() {
+        loadAll();
+    }
+
+    @Override
+    protected void removeFileLocal(String name) {
+        throw new UnsupportedOperationException("Can't remove entries from a zip being written: " + mPath + name);
+    }
+
+    private void loadAll() {
+        mFiles = new LinkedHashSet<String>();
+        mDirs = new LinkedHashMap<String, AbstractDirectory>();
+    }
+
+    private static class Archive {
+        public Archive(File file) throws DirectoryException {
+            mFile = file;
+            try {
+                mCounter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            } catch (FileNotFoundException ex) {
+                throw new DirectoryException(ex);
+            }
+            mZip = new ZipOutputStream(mCounter);
+        }
+
+        public synchronized OutputStream create(String name) throws DirectoryException {
+            if (mClosed) {
+                throw new DirectoryException("Archive already closed: " + mFile);
+            }
+            if (mEntries.containsKey(name) || mPending.containsKey(name) || mOpen.contains(name)) {
+                throw new PathAlreadyExists(name);
+            }
+
+            if (mStreaming) {
+                mOpen.add(name);
+                return new BufferedEntryStream(name);
+            }
+            try {
+                ZipEntry entry = new ZipEntry(name);
+                mZip.putNextEntry(entry);
+                mStreaming = true;
+                mOpen.add(name);
+                return new DirectEntryStream(name, entry, mCounter.getCount());
+            } catch (IOException ex) {
+                throw new DirectoryException("Error adding entry: " + name, ex);
+            }
+        }
+
+        public synchronized InputStream open(String name) throws DirectoryException {
+            byte[] pending = mPending.get(name);
+            if (pending != null) {
+                return new ByteArrayInputStream(pending);
+            }
+            Entry entry = mEntries.get(name);
+            if (entry == null) {
+                if (mOpen.contains(name)) {
+                    throw new DirectoryException("Entry is still being written: " + name);
+                }
+                throw new PathNotExist(name);
+            }
+
+            try {
+                mCounter.flush();
+                FileInputStream in = new FileInputStream(mFile);
+                in.getChannel().position(entry.dataOffset);
+                InputStream data = new BoundedInputStream(in, entry.compressedSize);
+                // raw inflater streams may need one byte of padding past the data
+                data = new SequenceInputStream(data, new ByteArrayInputStream(new byte[1]));
+                return new InflaterInputStream(data, new Inflater(true)) {
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        inf.end();
+                    }
+                };
+            } catch (IOException ex) {
+                throw new DirectoryException("Error reading entry: " + name, ex);
+            }
+        }
+
+        public synchronized int getMethod(String name) throws DirectoryException {
+            if (! mEntries.containsKey(name) && ! mPending.containsKey(name) && ! mOpen.contains(name)) {
+                throw new PathNotExist("Entry not found: " + name);
+            }
+            return ZipEntry.DEFLATED;
+        }
+
+        public synchronized void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            writePending();
+            mZip.close();
+        }
+
+        private synchronized void closeDirect(String name, ZipEntry entry, long dataOffset) throws IOException {
+            mZip.closeEntry();
+            mEntries.put(name, new Entry(dataOffset, entry.getCompressedSize()));
+            mOpen.remove(name);
+            mStreaming = false;
+            writePending();
+        }
+
+        private synchronized void closeBuffered(String name, byte[] data) throws IOException {
+            mOpen.remove(name);
+            if (mStreaming) {
+                mPending.put(name, data);
+            } else {
+                write(name, data);
+            }
+        }
+
+        private void writePending() throws IOException {
+            Iterator<Map.Entry<String, byte[]>> it = mPending.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, byte[]> pending = it.next();
+                write(pending.getKey(), pending.getValue());
+                it.remove();
+            }
+        }
+
+        private void write(String name, byte[] data) throws IOException {
+            ZipEntry entry = new ZipEntry(name);
+            mZip.putNextEntry(entry);
+            long dataOffset = mCounter.getCount();
+            mZip.write(data);
+            mZip.closeEntry();
+            mEntries.put(name, new Entry(dataOffset, entry.getCompressedSize()));
+        }
+
+        private class DirectEntryStream extends OutputStream {
+            public DirectEntryStream(String name, ZipEntry entry, long dataOffset) {
+                mName = name;
+                mEntry = entry;
+                mDataOffset = dataOffset;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                ensureOpen();
+                mZip.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ensureOpen();
+                mZip.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (! mDone) {
+                    mDone = true;
+                    closeDirect(mName, mEntry, mDataOffset);
+                }
+            }
+
+            private void ensureOpen() throws IOException {
+                if (mDone) {
+                    throw new IOException("Stream closed: " + mName);
+                }
+            }
+
+            private final String mName;
+            private final ZipEntry mEntry;
+            private final long mDataOffset;
+            private boolean mDone;
+        }
+
+        private class BufferedEntryStream extends ByteArrayOutputStream {
+            public BufferedEntryStream(String name) {
+                mName = name;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (! mDone) {
+                    mDone = true;
+                    closeBuffered(mName, toByteArray());
+                }
+            }
+
+            private final String mName;
+            private boolean mDone;
+        }
+
+        private final File mFile;
+        private final CountingOutputStream mCounter;
+        private final ZipOutputStream mZip;
+        private final Map<String, Entry> mEntries = new HashMap<String, Entry>();
+        private final Map<String, byte[]> mPending = new LinkedHashMap<String, byte[]>();
+        private final Set<String> mOpen = new HashSet<String>();
+        private boolean mStreaming;
+        private boolean mClosed;
+    }
+
+    private static class Entry {
+        public Entry(long dataOffset, long compressedSize) {
+            this.dataOffset = dataOffset;
+            this.compressedSize = compressedSize;
+        }
+
+        public final long dataOffset;
+        public final long compressedSize;
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        public CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            mCount += len;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        private long mCount;
+    }
+}
@@ -16,6 +16,7 @@
 
 package brut.directory;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -26,7 +27,12 @@ import java.util.LinkedHashSet;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
-public class ZipRODirectory extends AbstractDirectory {
+/**
+ * Read-only view of a zip file. Subdirectories share the zip file of the
+ * directory they were listed from, so close() on any of them closes it for
+ * the whole tree.
+ */
+public class ZipRODirectory extends AbstractDirectory implements Closeable {
     private ZipFile mZipFile;
     private String mPath;
 
@@ -63,6 +69,11 @@ public class ZipRODirectory extends AbstractDirectory {
         mPath = path;
     }
 
+    @Override
+    public void close() throws IOException {
+        mZipFile.close();
+    }
+
     @Override
     protected AbstractDirectory createDirLocal(String name)
             throws DirectoryException {
@@ -110,6 +121,17 @@ public class ZipRODirectory extends AbstractDirectory {
         return entry.getMethod();
     }
 
+    /**
+     * @return the zip index entry of fileName, relative to this directory
+     */
+    public ZipEntry getEntry(String fileName) throws DirectoryException {
+        ZipEntry entry = mZipFile.getEntry(getPath() + fileName);
+        if (entry == null) {
+            throw new PathNotExist("Entry not found: " + getPath() + fileName);
+        }
+        return entry;
+    }
+
     private void loadAll() {
         mFiles = new LinkedHashSet<String>();
         mDirs = new LinkedHashMap<String, AbstractDirectory>();
@@ -143,7 +165,11 @@ public class ZipRODirectory extends AbstractDirectory {
         }
     }
 
-    private String getPath() {
+    ZipFile openZipFile() throws IOException {
+        return new ZipFile(mZipFile.getName());
+    }
+
+    String getPath() {
         return mPath;
     }
 
@@ -0,0 +1,138 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.directory;
+
+import brut.common.BrutException;
+import brut.util.OS;
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Copies out of a zip with several workers and checks the result matches
+ * the serial copy, file for file.
+ */
+public class ConcurrentCopyTest {
+
+    @BeforeClass
+    public static void beforeClass() throws Exception, BrutException {
+        sTmpDir = OS.createTempDirectory();
+        sZip = new File(sTmpDir, "test.zip");
+
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(sZip));
+        try {
+            for (String name : fileNames()) {
+                zip.putNextEntry(new ZipEntry(name));
+                zip.write(name.getBytes("UTF-8"));
+                zip.closeEntry();
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() throws BrutException {
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void wholeDirMatchesSerialTest() throws Exception {
+        File serial = new File(sTmpDir, "wholeSerial");
+        File parallel = new File(sTmpDir, "wholeParallel");
+        ZipRODirectory dir = new ZipRODirectory(sZip);
+        try {
+            DirUtil.copyToDir(dir, serial, 1);
+            DirUtil.copyToDir(dir, parallel, 4);
+        } finally {
+            dir.close();
+        }
+        assertEquals(fileNames().size(), listFiles(serial).size());
+        assertSameFiles(serial, parallel);
+    }
+
+    @Test
+    public void selectedFilesMatchSerialTest() throws Exception {
+        String[] selected = { "dir0", "dir3/sub1", "dir5/sub2/file6.txt", "root.txt" };
+        File serial = new File(sTmpDir, "selectedSerial");
+        File parallel = new File(sTmpDir, "selectedParallel");
+        ZipRODirectory dir = new ZipRODirectory(sZip);
+        try {
+            DirUtil.copyToDir(dir, serial, selected);
+            DirUtil.copyToDir(dir, parallel, selected, 4);
+        } finally {
+            dir.close();
+        }
+        assertTrue(new File(parallel, "dir0/sub3/file63.txt").isFile());
+        assertFalse(new File(parallel, "dir3/sub0").exists());
+        assertSameFiles(serial, parallel);
+    }
+
+    @Test
+    public void failingEntryTest() throws Exception {
+        File out = new File(sTmpDir, "failing");
+        // a directory where a file should go makes that one copy fail
+        assertTrue(new File(out, "dir2/sub1/file5.txt").mkdirs());
+        ZipRODirectory dir = new ZipRODirectory(sZip);
+        try {
+            DirUtil.copyToDir(dir, out, 4);
+            fail("copy over a directory completed");
+        } catch (DirectoryException ex) {
+            assertEquals("Error copying file: dir2/sub1/file5.txt", ex.getMessage());
+        } finally {
+            dir.close();
+        }
+    }
+
+    private static void assertSameFiles(File expected, File actual) throws IOException {
+        Set<String> names = listFiles(expected);
+        assertEquals(names, listFiles(actual));
+        for (String name : names) {
+            assertTrue(name, FileUtils.contentEquals(new File(expected, name), new File(actual, name)));
+        }
+    }
+
+    private static Set<String> listFiles(File root) {
+        Set<String> names = new TreeSet<String>();
+        String prefix = root.getPath() + File.separator;
+        for (File file : FileUtils.listFiles(root, null, true)) {
+            names.add(file.getPath().substring(prefix.length()).replace(File.separatorChar, '/'));
+        }
+        return names;
+    }
+
+    private static List<String> fileNames() {
+        List<String> names = new ArrayList<String>();
+        names.add("root.txt");
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 64; j++) {
+                names.add("dir" + i + "/sub" + (j % 4) + "/file" + j + ".txt");
+            }
+        }
+        return names;
+    }
+
+    private static File sTmpDir;
+    private static File sZip;
+}
@@ -0,0 +1,159 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.directory;
+
+import brut.common.BrutException;
+import brut.util.OS;
+import org.apache.commons.io.IOUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hammers freshly opened directories from several threads at once, so the
+ * lazy listing load races with lookups, and logs read throughput per thread
+ * count as a rough contention benchmark.
+ */
+public class ConcurrentReadTest {
+
+    @BeforeClass
+    public static void beforeClass() throws Exception, BrutException {
+        sTmpDir = OS.createTempDirectory();
+        sZip = new File(sTmpDir, "test.zip");
+        sDir = new File(sTmpDir, "test");
+
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(sZip));
+        try {
+            for (String name : fileNames()) {
+                byte[] data = name.getBytes("UTF-8");
+                zip.putNextEntry(new ZipEntry(name));
+                zip.write(data);
+                zip.closeEntry();
+
+                File file = new File(sDir, name);
+                file.getParentFile().mkdirs();
+                OutputStream out = new FileOutputStream(file);
+                try {
+                    out.write(data);
+                } finally {
+                    out.close();
+                }
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() throws BrutException {
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void zipDirectoryReadsTest() throws Exception {
+        for (int threads : THREAD_COUNTS) {
+            Directory dir = new ZipRODirectory(sZip);
+            LOGGER.info(String.format("zip, %d thread(s): %d reads/s", threads, readConcurrently(dir, threads)));
+        }
+    }
+
+    @Test
+    public void fileDirectoryReadsTest() throws Exception {
+        for (int threads : THREAD_COUNTS) {
+            Directory dir = new FileDirectory(sDir);
+            LOGGER.info(String.format("dir, %d thread(s): %d reads/s", threads, readConcurrently(dir, threads)));
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void listingIsImmutableTest() throws Exception {
+        new ZipRODirectory(sZip).getFiles(true).add("foo");
+    }
+
+    private static long readConcurrently(final Directory dir, int threads) throws Exception {
+        final List<String> names = fileNames();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicLong reads = new AtomicLong();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < threads; i++) {
+                final int offset = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        for (int round = 0; round < ROUNDS; round++) {
+                            assertEquals(names.size(), dir.getFiles(true).size());
+                            for (int j = 0; j < names.size(); j++) {
+                                String name = names.get((j + offset) % names.size());
+                                assertTrue(dir.containsFile(name));
+                                InputStream in = dir.getFileInput(name);
+                                try {
+                                    assertEquals(name, IOUtils.toString(in, "UTF-8"));
+                                } finally {
+                                    in.close();
+                                }
+                            }
+                            reads.addAndGet(names.size());
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            long elapsed = Math.max(System.nanoTime() - begin, 1);
+            return reads.get() * 1000000000L / elapsed;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<String> fileNames() {
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 64; j++) {
+                names.add("dir" + i + "/sub" + (j % 4) + "/file" + j + ".txt");
+            }
+        }
+        return names;
+    }
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+    private static final int ROUNDS = 10;
+
+    private static File sTmpDir;
+    private static File sZip;
+    private static File sDir;
+
+    private final static Logger LOGGER = Logger.getLogger(ConcurrentReadTest.class.getName());
+}
@@ -0,0 +1,91 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.directory;
+
+import brut.common.BrutException;
+import brut.util.FileTree;
+import brut.util.OS;
+import org.apache.commons.io.IOUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * A directory backed by a walked tree lists the same as one that lists the
+ * file system itself, and still reads the files from disk.
+ */
+public class FileDirectoryTest {
+
+    @BeforeClass
+    public static void beforeClass() throws BrutException, IOException {
+        sTmpDir = OS.createTempDirectory();
+        for (String name : new String[] { "a.txt", "sub/b.txt", "sub/deeper/c.txt" }) {
+            File file = new File(sTmpDir, name);
+            file.getParentFile().mkdirs();
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(name.getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+        }
+        assertTrue(new File(sTmpDir, "empty").mkdirs());
+    }
+
+    @AfterClass
+    public static void afterClass() throws BrutException {
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void treeListingTest() throws Exception {
+        Directory listed = new FileDirectory(sTmpDir);
+        Directory walked = new FileDirectory(FileTree.walk(sTmpDir));
+
+        assertEquals(listed.getFiles(true), walked.getFiles(true));
+        assertEquals(listed.getFiles(false), walked.getFiles(false));
+        assertEquals(listed.getDirs().keySet(), walked.getDirs().keySet());
+        assertTrue(walked.containsDir("empty"));
+        assertTrue(walked.getDir("empty").getFiles(true).isEmpty());
+        assertEquals(listed.getDir("sub").getFiles(true), walked.getDir("sub").getFiles(true));
+
+        InputStream in = walked.getFileInput("sub/deeper/c.txt");
+        try {
+            assertEquals("sub/deeper/c.txt", IOUtils.toString(in, "UTF-8"));
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void treeIsSnapshotTest() throws Exception {
+        Directory walked = new FileDirectory(FileTree.walk(sTmpDir));
+        File late = new File(sTmpDir, "sub/late.txt");
+        assertTrue(late.createNewFile());
+        try {
+            assertFalse(walked.containsFile("sub/late.txt"));
+            assertTrue(new FileDirectory(sTmpDir).containsFile("sub/late.txt"));
+        } finally {
+            late.delete();
+        }
+    }
+
+    private static File sTmpDir;
+}
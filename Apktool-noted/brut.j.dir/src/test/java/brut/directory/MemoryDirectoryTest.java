@@ -0,0 +1,158 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.directory;
+
+import brut.common.BrutException;
+import brut.util.OS;
+import org.apache.commons.io.IOUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+public class MemoryDirectoryTest {
+
+    @BeforeClass
+    public static void beforeClass() throws BrutException {
+        sTmpDir = OS.createTempDirectory();
+    }
+
+    @AfterClass
+    public static void afterClass() throws BrutException {
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void writeAndReadBackTest() throws Exception {
+        MemoryDirectory dir = new MemoryDirectory();
+        write(dir, "a/b/c.txt", "foo");
+        write(dir, "d.txt", "bar");
+
+        assertTrue(dir.containsDir("a/b"));
+        assertTrue(dir.containsFile("a/b/c.txt"));
+        assertEquals("foo", read(dir, "a/b/c.txt"));
+        assertEquals(6, dir.getMemoryUsed());
+
+        assertTrue(dir.removeFile("d.txt"));
+        assertFalse(dir.containsFile("d.txt"));
+        assertEquals(3, dir.getMemoryUsed());
+        dir.close();
+    }
+
+    @Test
+    public void spillsOverLimitTest() throws Exception {
+        MemoryDirectory dir = new MemoryDirectory(4, sTmpDir);
+        write(dir, "small", "abc");
+        write(dir, "large", "0123456789");
+
+        assertEquals(3, dir.getMemoryUsed());
+        assertEquals("0123456789", read(dir, "large"));
+        assertEquals(1, sTmpDir.list().length);
+
+        dir.close();
+        assertEquals(0, sTmpDir.list().length);
+    }
+
+    @Test
+    public void overwriteAccountingTest() throws Exception {
+        MemoryDirectory dir = new MemoryDirectory(8, sTmpDir);
+        write(dir, "a", "0123456789");
+        write(dir, "b", "abcd");
+        assertEquals(4, dir.getMemoryUsed());
+
+        write(dir, "b", "ab");
+        assertEquals(2, dir.getMemoryUsed());
+        write(dir, "a", "xyz");
+        assertEquals(5, dir.getMemoryUsed());
+        assertEquals("xyz", read(dir, "a"));
+
+        assertTrue(dir.removeFile("a"));
+        assertTrue(dir.removeFile("b"));
+        assertEquals(0, dir.getMemoryUsed());
+        dir.close();
+    }
+
+    @Test
+    public void useAfterCloseTest() throws Exception {
+        MemoryDirectory dir = new MemoryDirectory(4, sTmpDir);
+        write(dir, "a/small", "abc");
+        write(dir, "a/b/large", "0123456789");
+        OutputStream pending = dir.getFileOutput("pending");
+
+        dir.close();
+        assertEquals(0, dir.getMemoryUsed());
+        assertEquals(0, sTmpDir.list().length);
+        assertFalse(dir.containsFile("a/small"));
+        assertFalse(dir.containsDir("a/b"));
+
+        try {
+            dir.getFileInput("a/b/large");
+            fail("read after close");
+        } catch (PathNotExist ex) {
+            // expected
+        }
+        try {
+            dir.getFileOutput("new");
+            fail("write after close");
+        } catch (DirectoryException ex) {
+            // expected
+        }
+        try {
+            pending.write(1);
+            fail("stream write after close");
+        } catch (IOException ex) {
+            // expected
+        }
+        assertFalse(dir.removeFile("a/small"));
+        assertEquals(0, dir.getMemoryUsed());
+    }
+
+    @Test
+    public void copyToFileDirTest() throws Exception {
+        MemoryDirectory dir = new MemoryDirectory();
+        write(dir, "res/values/strings.xml", "<resources/>");
+        write(dir, "apktool.yml", "version: 1");
+
+        File out = new File(sTmpDir, "copy");
+        dir.copyToDir(out);
+        assertTrue(new File(out, "res/values/strings.xml").isFile());
+
+        MemoryDirectory copy = new MemoryDirectory();
+        new FileDirectory(out).copyToDir(copy);
+        assertEquals("version: 1", read(copy, "apktool.yml"));
+        OS.rmdir(out);
+    }
+
+    private static void write(Directory dir, String path, String data) throws DirectoryException, IOException {
+        try (OutputStream out = dir.getFileOutput(path)) {
+            out.write(data.getBytes("UTF-8"));
+        }
+    }
+
+    private static String read(Directory dir, String path) throws DirectoryException, IOException {
+        try (InputStream in = dir.getFileInput(path)) {
+            return IOUtils.toString(in, "UTF-8");
+        }
+    }
+
+    private static File sTmpDir;
+}
@@ -0,0 +1,123 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.directory;
+
+import brut.common.BrutException;
+import brut.util.OS;
+import org.apache.commons.io.IOUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.*;
+
+import static org.junit.Assert.*;
+
+public class ZipOutputDirectoryTest {
+
+    @BeforeClass
+    public static void beforeClass() throws BrutException {
+        sTmpDir = OS.createTempDirectory();
+    }
+
+    @AfterClass
+    public static void afterClass() throws BrutException {
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void writeAndReadBackTest() throws Exception {
+        File zip = new File(sTmpDir, "readback.zip");
+        ZipOutputDirectory dir = new ZipOutputDirectory(zip);
+        try {
+            write(dir, "apktool.yml", "version: 2.1.1");
+            write(dir, "res/values/strings.xml", largeText());
+
+            // read back while the archive is still being written
+            assertEquals(largeText(), read(dir.getDir("res").getDir("values"), "strings.xml"));
+            assertEquals("version: 2.1.1", read(dir, "apktool.yml"));
+        } finally {
+            dir.close();
+        }
+        Directory in = new ZipRODirectory(zip);
+        assertEquals(largeText(), read(in, "res/values/strings.xml"));
+        assertEquals("version: 2.1.1", read(in, "apktool.yml"));
+    }
+
+    @Test
+    public void interleavedWritesTest() throws Exception {
+        File zip = new File(sTmpDir, "interleaved.zip");
+        ZipOutputDirectory dir = new ZipOutputDirectory(zip);
+        try {
+            OutputStream first = dir.getFileOutput("smali/a/A.smali");
+            OutputStream second = dir.getFileOutput("smali/b/B.smali");
+            first.write("class A".getBytes("UTF-8"));
+            second.write("class B".getBytes("UTF-8"));
+
+            // B is buffered until A is done, but can already be read back once closed
+            second.close();
+            assertEquals("class B", read(dir, "smali/b/B.smali"));
+            first.close();
+            assertEquals("class A", read(dir, "smali/a/A.smali"));
+        } finally {
+            dir.close();
+        }
+
+        Directory in = new ZipRODirectory(zip);
+        assertEquals(2, in.getFiles(true).size());
+        assertEquals("class A", read(in, "smali/a/A.smali"));
+        assertEquals("class B", read(in, "smali/b/B.smali"));
+    }
+
+    @Test(expected = PathAlreadyExists.class)
+    public void rewriteFailsTest() throws Exception {
+        ZipOutputDirectory dir = new ZipOutputDirectory(new File(sTmpDir, "rewrite.zip"));
+        try {
+            write(dir, "AndroidManifest.xml", "<manifest/>");
+            write(dir, "AndroidManifest.xml", "<manifest/>");
+        } finally {
+            dir.close();
+        }
+    }
+
+    private static void write(Directory dir, String name, String content) throws Exception {
+        OutputStream out = dir.getFileOutput(name);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String read(Directory dir, String name) throws Exception {
+        InputStream in = dir.getFileInput(name);
+        try {
+            return IOUtils.toString(in, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String largeText() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            sb.append("<string name=\"s").append(i).append("\">value ").append(i).append("</string>\n");
+        }
+        return sb.toString();
+    }
+
+    private static File sTmpDir;
+}
@@ -17,6 +17,10 @@
 package brut.util;
 
 import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -31,13 +35,33 @@ public class BrutIO {
     public static void copyAndClose(InputStream in, OutputStream out)
             throws IOException {
         try {
-            IOUtils.copy(in, out);
+            countCopied(IOUtils.copyLarge(in, out));
         } finally {
             IOUtils.closeQuietly(in);
             IOUtils.closeQuietly(out);
         }
     }
 
+    /**
+     * Makes copyAndClose and copy, on the current thread and the threads
+     * started from it, add the bytes they copy to copied.
+     *
+     * @param copied may be null, to stop counting
+     * @return the counter set before, to be set again after
+     */
+    public static AtomicLong setCopyCounter(AtomicLong copied) {
+        AtomicLong previous = sCopied.get();
+        sCopied.set(copied);
+        return previous;
+    }
+
+    private static void countCopied(long bytes) {
+        AtomicLong copied = sCopied.get();
+        if (copied != null) {
+            copied.addAndGet(bytes);
+        }
+    }
+
     public static long recursiveModifiedTime(File[] files) {
         long modified = 0;
         for (int i = 0; i < files.length; i++) {
@@ -50,17 +74,32 @@ public class BrutIO {
     }
 
     public static long recursiveModifiedTime(File file) {
-        long modified = file.lastModified();
-        if (file.isDirectory()) {
-            File[] subfiles = file.listFiles();
-            for (int i = 0; i < subfiles.length; i++) {
-                long submodified = recursiveModifiedTime(subfiles[i]);
-                if (submodified > modified) {
-                    modified = submodified;
-                }
-            }
+        final long[] modified = { 0 };
+        try {
+            Files.walkFileTree(file.toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                    new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                            modified[0] = Math.max(modified[0], attrs.lastModifiedTime().toMillis());
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                            modified[0] = Math.max(modified[0], attrs.lastModifiedTime().toMillis());
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                            // missing or unreadable entries count as 0, like File.lastModified()
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+        } catch (IOException ex) {
+            // unreadable subtree, keep what we have seen so far
         }
-        return modified;
+        return modified[0];
     }
 
     public static CRC32 calculateCrc(InputStream input) throws IOException {
@@ -77,7 +116,7 @@ public class BrutIO {
         try (
                 FileInputStream fis = new FileInputStream(inputFile)
         ) {
-            IOUtils.copy(fis, outputFile);
+            countCopied(IOUtils.copyLarge(fis, outputFile));
         }
     }
 
@@ -85,8 +124,9 @@ public class BrutIO {
         try (
                 InputStream is = inputFile.getInputStream(entry)
         ) {
-            IOUtils.copy(is, outputFile);
+            countCopied(IOUtils.copyLarge(is, outputFile));
         }
     }
 
+    private final static InheritableThreadLocal<AtomicLong> sCopied = new InheritableThreadLocal<AtomicLong>();
 }
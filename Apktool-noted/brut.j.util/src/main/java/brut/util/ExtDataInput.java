@@ -17,6 +17,7 @@
 package brut.util;
 
 import java.io.*;
+import java.util.Arrays;
 
 /**
  * @author Ryszard Wiśniewski <brut.alll@gmail.com>
@@ -30,14 +31,43 @@ public class ExtDataInput extends DataInputDelegate {
         super(delegate);
     }
 
+    /**
+     * Reads length ints. The array grows as they are read, so a corrupt
+     * length fails at the end of the input instead of allocating it all.
+     */
     public int[] readIntArray(int length) throws IOException {
-        int[] array = new int[length];
+        if (length < 0) {
+            throw new IOException("Invalid array length: " + length);
+        }
+        int[] array = new int[Math.min(length, INITIAL_ARRAY_LENGTH)];
         for(int i = 0; i < length; i++) {
+            if (i == array.length) {
+                array = Arrays.copyOf(array, (int) Math.min(length, array.length * 2L));
+            }
             array[i] = readInt();
         }
         return array;
     }
 
+    /**
+     * Reads length bytes, growing the array like {@link #readIntArray(int)}.
+     */
+    public byte[] readByteArray(int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Invalid array length: " + length);
+        }
+        byte[] array = new byte[Math.min(length, INITIAL_ARRAY_LENGTH * 4)];
+        int read = 0;
+        while (read < length) {
+            if (read == array.length) {
+                array = Arrays.copyOf(array, (int) Math.min(length, array.length * 2L));
+            }
+            readFully(array, read, array.length - read);
+            read = array.length;
+        }
+        return array;
+    }
+
     public void skipInt() throws IOException {
         skipBytes(4);
     }
@@ -108,4 +138,6 @@ public class ExtDataInput extends DataInputDelegate {
 
         return string.toString();
     }
+
+    private final static int INITIAL_ARRAY_LENGTH = 64 * 1024;
 }
@@ -0,0 +1,195 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * Immutable snapshot of a file or directory tree, read with a single
+ * Files.walkFileTree pass that picks up each entry's attributes on the way.
+ * Paths are relative to the root and always use '/' as separator; the root
+ * itself is "".
+ */
+public class FileTree {
+
+    public static FileTree walk(File root) throws IOException {
+        final Path rootPath = root.toPath();
+        final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+        if (! Files.exists(rootPath)) {
+            return new FileTree(root, entries);
+        }
+
+        Files.walkFileTree(rootPath, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        String path = relativize(rootPath, dir);
+                        entries.put(path, new Entry(true, attrs));
+                        Entry parent = getParent(entries, path);
+                        if (parent != null) {
+                            parent.mDirs.add(getName(path));
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        String path = relativize(rootPath, file);
+                        Entry entry = new Entry(false, attrs);
+                        entries.put(path, entry);
+                        Entry parent = getParent(entries, path);
+                        if (parent != null) {
+                            parent.mFiles.add(getName(path));
+                            parent.mTreeModified = Math.max(parent.mTreeModified, entry.mTreeModified);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException ex) throws IOException {
+                        if (ex instanceof FileSystemLoopException) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        throw ex;
+                    }
+
+                    @Override
+                    public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
+                        if (ex != null) {
+                            throw ex;
+                        }
+                        String path = relativize(rootPath, dir);
+                        Entry parent = getParent(entries, path);
+                        if (parent != null) {
+                            parent.mTreeModified = Math.max(parent.mTreeModified,
+                                    entries.get(path).mTreeModified);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+        return new FileTree(root, entries);
+    }
+
+    private FileTree(File root, Map<String, Entry> entries) {
+        mRoot = root;
+        mEntries = entries;
+    }
+
+    public File getRoot() {
+        return mRoot;
+    }
+
+    public boolean exists() {
+        return mEntries.containsKey("");
+    }
+
+    public boolean isFile(String path) {
+        Entry entry = mEntries.get(path);
+        return entry != null && ! entry.mDirectory;
+    }
+
+    public boolean isDirectory(String path) {
+        Entry entry = mEntries.get(path);
+        return entry != null && entry.mDirectory;
+    }
+
+    /**
+     * Newest modification time of the root and everything below it, the
+     * same value BrutIO.recursiveModifiedTime returns. 0 if the root does
+     * not exist.
+     */
+    public long getModifiedTime() {
+        return getModifiedTime("");
+    }
+
+    public long getModifiedTime(String path) {
+        Entry entry = mEntries.get(path);
+        return entry == null ? 0 : entry.mTreeModified;
+    }
+
+    public long getSize(String path) {
+        Entry entry = mEntries.get(path);
+        return entry == null ? 0 : entry.mSize;
+    }
+
+    /**
+     * Names of the regular files directly inside dir, in walk order.
+     */
+    public Set<String> getFiles(String dir) {
+        Entry entry = mEntries.get(dir);
+        if (entry == null || ! entry.mDirectory) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(entry.mFiles);
+    }
+
+    /**
+     * Names of the directories directly inside dir, in walk order.
+     */
+    public Set<String> getDirs(String dir) {
+        Entry entry = mEntries.get(dir);
+        if (entry == null || ! entry.mDirectory) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(entry.mDirs);
+    }
+
+    /**
+     * Relative paths of every entry in the tree, parents before children.
+     */
+    public Set<String> getPaths() {
+        return Collections.unmodifiableSet(mEntries.keySet());
+    }
+
+    private static String relativize(Path root, Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    private static Entry getParent(Map<String, Entry> entries, String path) {
+        if (path.isEmpty()) {
+            return null;
+        }
+        int pos = path.lastIndexOf('/');
+        return entries.get(pos == -1 ? "" : path.substring(0, pos));
+    }
+
+    private static String getName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static class Entry {
+        public Entry(boolean directory, BasicFileAttributes attrs) {
+            mDirectory = directory;
+            mSize = attrs.size();
+            mTreeModified = attrs.lastModifiedTime().toMillis();
+            mFiles = directory ? new LinkedHashSet<String>() : null;
+            mDirs = directory ? new LinkedHashSet<String>() : null;
+        }
+
+        private final boolean mDirectory;
+        private final long mSize;
+        private final Set<String> mFiles;
+        private final Set<String> mDirs;
+        private long mTreeModified;
+    }
+
+    private final File mRoot;
+    private final Map<String, Entry> mEntries;
+}
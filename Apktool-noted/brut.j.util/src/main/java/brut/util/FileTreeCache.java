@@ -0,0 +1,81 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Keeps the FileTree of each walked root so that modification time checks,
+ * directory listings and copies of the same tree share one walk. Meant to
+ * live for a single operation (e.g. one build); whoever writes below a
+ * cached root must invalidate it.
+ */
+public class FileTreeCache {
+
+    public synchronized FileTree get(File root) throws IOException {
+        File key = root.getAbsoluteFile();
+        FileTree tree = mTrees.get(key);
+        if (tree == null) {
+            tree = FileTree.walk(key);
+            mTrees.put(key, tree);
+        }
+        return tree;
+    }
+
+    public long recursiveModifiedTime(File file) throws IOException {
+        return get(file).getModifiedTime();
+    }
+
+    public long recursiveModifiedTime(File[] files) throws IOException {
+        long modified = 0;
+        for (int i = 0; i < files.length; i++) {
+            long submodified = recursiveModifiedTime(files[i]);
+            if (submodified > modified) {
+                modified = submodified;
+            }
+        }
+        return modified;
+    }
+
+    /**
+     * Drops every cached tree that contains path or lies below it.
+     */
+    public synchronized void invalidate(File path) {
+        String changed = path.getAbsolutePath();
+        Iterator<File> it = mTrees.keySet().iterator();
+        while (it.hasNext()) {
+            String root = it.next().getPath();
+            if (isSameOrBelow(root, changed) || isSameOrBelow(changed, root)) {
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        mTrees.clear();
+    }
+
+    private static boolean isSameOrBelow(String path, String parent) {
+        return path.equals(parent) || path.startsWith(parent.endsWith(File.separator)
+                ? parent : parent + File.separator);
+    }
+
+    private final Map<File, FileTree> mTrees = new HashMap<File, FileTree>();
+}
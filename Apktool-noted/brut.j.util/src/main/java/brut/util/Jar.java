@@ -32,28 +32,37 @@ abstract public class Jar {
     private final static Map<String, File> mExtracted =
         new HashMap<String, File>();
 
+    /**
+     * Extracts a resource once per JVM; threads asking for the same resource
+     * meanwhile wait for that extraction and get the same file.
+     */
     public static File getResourceAsFile(String name) throws BrutException {
-        File file = mExtracted.get(name);
-        if (file == null) {
-            file = extractToTmp(name);
-            mExtracted.put(name, file);
+        synchronized (mExtracted) {
+            File file = mExtracted.get(name);
+            if (file == null) {
+                file = extractToTmp(name);
+                mExtracted.put(name, file);
+            }
+            return file;
         }
-        return file;
     }
 
     public static void load(String libPath) {
-        if (mLoaded.contains(libPath)) {
-            return;
-        }
+        synchronized (mLoaded) {
+            if (mLoaded.contains(libPath)) {
+                return;
+            }
 
-        File libFile;
-        try {
-            libFile = getResourceAsFile(libPath);
-        } catch (BrutException ex) {
-            throw new UnsatisfiedLinkError(ex.getMessage());
-        }
+            File libFile;
+            try {
+                libFile = getResourceAsFile(libPath);
+            } catch (BrutException ex) {
+                throw new UnsatisfiedLinkError(ex.getMessage());
+            }
 
-        System.load(libFile.getAbsolutePath());
+            System.load(libFile.getAbsolutePath());
+            mLoaded.add(libPath);
+        }
     }
 
     public static File extractToTmp(String resourcePath) throws BrutException {
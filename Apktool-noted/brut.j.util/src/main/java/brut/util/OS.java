@@ -18,11 +18,12 @@ package brut.util;
 
 import brut.common.BrutException;
 import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.logging.Logger;
 
-import org.apache.commons.io.IOUtils;
-
 /**
  * @author Ryszard Wiśniewski <brut.alll@gmail.com>
  */
@@ -34,18 +35,32 @@ public class OS {
         if (! dir.exists()) {
             return;
         }
-        File[] files = dir.listFiles();
-        for (int i = 0; i < files.length; i++) {
-            File file = files[i];
-            if (file.isDirectory()) {
-                rmdir(file);
-            } else {
-                file.delete();
-            }
+        try {
+            // links are removed, never followed
+            Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    file.toFile().delete();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                    file.toFile().delete();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException ex) {
+                    dir.toFile().delete();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ex) {
+            throw new BrutException("Could not remove dir: " + dir, ex);
         }
-        dir.delete();
     }
-        
+
     public static void rmfile(String file) throws BrutException {
     	File del = new File(file);
     	del.delete();
@@ -56,25 +71,49 @@ public class OS {
     }
 
     public static void cpdir(File src, File dest) throws BrutException {
-        dest.mkdirs();
-        File[] files = src.listFiles();
-        for (int i = 0; i < files.length; i++) {
-            File file = files[i];
-            File destFile = new File(dest.getPath() + File.separatorChar
-                + file.getName());
-            if (file.isDirectory()) {
-                cpdir(file, destFile);
-                continue;
-            }
-            try {
-                InputStream in = new FileInputStream(file);
-                OutputStream out = new FileOutputStream(destFile);
-                IOUtils.copy(in, out);
-                in.close();
-                out.close();
-            } catch (IOException ex) {
-                throw new BrutException("Could not copy file: " + file, ex);
+        final Path srcPath = src.toPath();
+        final Path destPath = dest.toPath();
+        try {
+            Files.createDirectories(destPath);
+            Files.walkFileTree(srcPath, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                    new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                                throws IOException {
+                            Files.createDirectories(destPath.resolve(srcPath.relativize(dir)));
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                                throws IOException {
+                            copyFile(file, destPath.resolve(srcPath.relativize(file)));
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+        } catch (IOException ex) {
+            throw new BrutException("Could not copy dir: " + src, ex);
+        }
+    }
+
+    /**
+     * Same as cpdir(File, File), but takes the layout from an already walked
+     * tree instead of listing the source again.
+     */
+    public static void cpdir(FileTree src, File dest) throws BrutException {
+        Path srcPath = src.getRoot().toPath();
+        Path destPath = dest.toPath();
+        try {
+            Files.createDirectories(destPath);
+            for (String path : src.getPaths()) {
+                if (src.isDirectory(path)) {
+                    Files.createDirectories(destPath.resolve(path));
+                } else {
+                    copyFile(srcPath.resolve(path), destPath.resolve(path));
+                }
             }
+        } catch (IOException ex) {
+            throw new BrutException("Could not copy dir: " + src.getRoot(), ex);
         }
     }
 
@@ -82,6 +121,10 @@ public class OS {
         cpdir(new File(src), new File(dest));
     }
 
+    private static void copyFile(Path src, Path dest) throws IOException {
+        Files.copy(src, dest, StandardCopyOption.REPLACE_EXISTING);
+    }
+
     public static void exec(String[] cmd) throws BrutException {
         Process ps = null;
         int exitValue = -99;
@@ -0,0 +1,137 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.util;
+
+import brut.common.BrutException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * A walked tree lists what is on disk and reports the same modification
+ * time as BrutIO, and a cached tree only picks up changes once invalidated.
+ */
+public class FileTreeTest {
+
+    @BeforeClass
+    public static void beforeClass() throws BrutException, IOException {
+        sTmpDir = OS.createTempDirectory();
+        sRoot = new File(sTmpDir, "tree");
+        writeFile(new File(sRoot, "a.txt"), "a");
+        writeFile(new File(sRoot, "sub/b.txt"), "bb");
+        writeFile(new File(sRoot, "sub/deeper/c.txt"), "ccc");
+        assertTrue(new File(sRoot, "empty").mkdirs());
+    }
+
+    @AfterClass
+    public static void afterClass() throws BrutException {
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void listingTest() throws IOException {
+        FileTree tree = FileTree.walk(sRoot);
+        assertTrue(tree.exists());
+        assertEquals(new HashSet<String>(Arrays.asList("", "a.txt", "sub", "sub/b.txt", "sub/deeper",
+                "sub/deeper/c.txt", "empty")), new HashSet<String>(tree.getPaths()));
+        assertEquals(Collections.singleton("a.txt"), tree.getFiles(""));
+        assertEquals(new HashSet<String>(Arrays.asList("sub", "empty")), new HashSet<String>(tree.getDirs("")));
+        assertEquals(Collections.singleton("c.txt"), tree.getFiles("sub/deeper"));
+        assertTrue(tree.getFiles("empty").isEmpty());
+        assertTrue(tree.getFiles("a.txt").isEmpty());
+        assertTrue(tree.isFile("sub/b.txt"));
+        assertTrue(tree.isDirectory("sub/deeper"));
+        assertFalse(tree.isFile("missing.txt"));
+        assertEquals(3, tree.getSize("sub/deeper/c.txt"));
+    }
+
+    @Test
+    public void missingRootTest() throws IOException {
+        FileTree tree = FileTree.walk(new File(sTmpDir, "missing"));
+        assertFalse(tree.exists());
+        assertEquals(0, tree.getModifiedTime());
+        assertTrue(tree.getPaths().isEmpty());
+    }
+
+    @Test
+    public void modifiedTimeTest() throws IOException {
+        setModifiedTime(sRoot, BASE_TIME);
+        File c = new File(sRoot, "sub/deeper/c.txt");
+        assertTrue(c.setLastModified(BASE_TIME + 5000));
+
+        FileTree tree = FileTree.walk(sRoot);
+        assertEquals(BASE_TIME + 5000, tree.getModifiedTime());
+        assertEquals(BASE_TIME + 5000, tree.getModifiedTime("sub"));
+        assertEquals(BASE_TIME, tree.getModifiedTime("empty"));
+        assertEquals(BrutIO.recursiveModifiedTime(sRoot), tree.getModifiedTime());
+        assertEquals(BrutIO.recursiveModifiedTime(new File(sRoot, "sub")), tree.getModifiedTime("sub"));
+    }
+
+    @Test
+    public void cacheInvalidateTest() throws IOException {
+        setModifiedTime(sRoot, BASE_TIME);
+        FileTreeCache cache = new FileTreeCache();
+        FileTree tree = cache.get(sRoot);
+        assertSame(tree, cache.get(sRoot));
+        assertEquals(BASE_TIME, cache.recursiveModifiedTime(sRoot));
+
+        File b = new File(sRoot, "sub/b.txt");
+        assertTrue(b.setLastModified(BASE_TIME + 10000));
+        // still the snapshot, until whoever wrote says so
+        assertEquals(BASE_TIME, cache.recursiveModifiedTime(sRoot));
+
+        cache.invalidate(new File(sTmpDir, "unrelated"));
+        assertSame(tree, cache.get(sRoot));
+
+        cache.invalidate(b);
+        assertNotSame(tree, cache.get(sRoot));
+        assertEquals(BASE_TIME + 10000, cache.recursiveModifiedTime(sRoot));
+        assertEquals(BrutIO.recursiveModifiedTime(sRoot), cache.recursiveModifiedTime(sRoot));
+        assertEquals(BASE_TIME + 10000, cache.recursiveModifiedTime(
+                new File[] { new File(sRoot, "empty"), new File(sRoot, "sub") }));
+    }
+
+    private static void setModifiedTime(File file, long time) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                setModifiedTime(child, time);
+            }
+        }
+        assertTrue(file.setLastModified(time));
+    }
+
+    static void writeFile(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    // whole seconds, so file systems with coarse timestamps keep it exact
+    private static final long BASE_TIME = 1400000000000L;
+
+    private static File sTmpDir;
+    private static File sRoot;
+}
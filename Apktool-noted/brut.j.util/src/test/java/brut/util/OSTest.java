@@ -0,0 +1,94 @@
+/**
+ *  Copyright 2014 Ryszard Wiśniewski <brut.alll@gmail.com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package brut.util;
+
+import brut.common.BrutException;
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Copying a walked tree gives the same files as copying the directory, and
+ * removing a directory deletes links in it without touching their targets.
+ */
+public class OSTest {
+
+    @BeforeClass
+    public static void beforeClass() throws BrutException, IOException {
+        sTmpDir = OS.createTempDirectory();
+        sSrc = new File(sTmpDir, "src");
+        FileTreeTest.writeFile(new File(sSrc, "a.txt"), "a");
+        FileTreeTest.writeFile(new File(sSrc, "sub/b.txt"), "bb");
+        FileTreeTest.writeFile(new File(sSrc, "sub/deeper/c.txt"), "ccc");
+        assertTrue(new File(sSrc, "empty").mkdirs());
+    }
+
+    @AfterClass
+    public static void afterClass() throws BrutException {
+        OS.rmdir(sTmpDir);
+    }
+
+    @Test
+    public void cpdirFromTreeTest() throws BrutException, IOException {
+        File fromDir = new File(sTmpDir, "fromDir");
+        File fromTree = new File(sTmpDir, "fromTree");
+        OS.cpdir(sSrc, fromDir);
+        OS.cpdir(FileTree.walk(sSrc), fromTree);
+
+        assertTrue(new File(fromTree, "empty").isDirectory());
+        assertEquals(FileTree.walk(fromDir).getPaths(), FileTree.walk(fromTree).getPaths());
+        for (String path : FileTree.walk(sSrc).getPaths()) {
+            File file = new File(sSrc, path);
+            if (file.isFile()) {
+                assertTrue(path, FileUtils.contentEquals(file, new File(fromTree, path)));
+            }
+        }
+    }
+
+    @Test
+    public void rmdirKeepsLinkTargetsTest() throws BrutException, IOException {
+        File outside = new File(sTmpDir, "outside");
+        File kept = new File(outside, "kept.txt");
+        FileTreeTest.writeFile(kept, "kept");
+        File dir = new File(sTmpDir, "links");
+        FileTreeTest.writeFile(new File(dir, "own.txt"), "own");
+        try {
+            Files.createSymbolicLink(new File(dir, "dirLink").toPath(), outside.toPath());
+            Files.createSymbolicLink(new File(dir, "fileLink").toPath(), kept.toPath());
+        } catch (UnsupportedOperationException | FileSystemException ex) {
+            LOGGER.info("Skipping, symbolic links not available: " + ex);
+            return;
+        }
+
+        OS.rmdir(dir);
+        assertFalse(dir.exists());
+        assertTrue(kept.isFile());
+        assertEquals(1, outside.list().length);
+    }
+
+    private static File sTmpDir;
+    private static File sSrc;
+
+    private final static Logger LOGGER = Logger.getLogger(OSTest.class.getName());
+}